@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Pacman
@@ -11,6 +12,12 @@ import java.util.List;
  * valid movements from every node to the next.
  */
 class AINode {
+    /**
+     * Counts every change to the moves of the nodes of one navMap, so anything calculated from
+     * that navMap can tell it is out of date. Every node of a navMap holds the same counter.
+     */
+    private final AtomicInteger navVersion;
+
     /**
      * The position of this node on the grid.
      */
@@ -31,9 +38,11 @@ class AINode {
      *
      * @param position The position of this node on the grid.
      * @param mapObjects Reference to already filled map to determine which grid positions can be entered.
+     * @param navVersion The change counter shared by every node of the navMap.
      */
-    public AINode(Position position, MapObject[][] mapObjects) {
+    public AINode(Position position, MapObject[][] mapObjects, AtomicInteger navVersion) {
         this.position = position;
+        this.navVersion = navVersion;
         this.canMoveDirection = new boolean[] {
                 canMoveDirection(0,mapObjects), canMoveDirection(1,mapObjects),
                 canMoveDirection(2,mapObjects), canMoveDirection(3,mapObjects)};
@@ -48,8 +57,35 @@ class AINode {
      * @param value The value to set the direction to.
      */
     public void setCanMoveDirection(int direction, boolean value) {
+        if(canMoveDirection[direction] == value) return;
         canMoveDirection[direction] = value;
         updateValidMoves();
+        navVersion.incrementAndGet();
+    }
+
+    /**
+     * Checks the adjacent cells again after the map has changed and updates the moves to match.
+     * Any restriction on the node is lost and must be applied again.
+     *
+     * @param mapObjects Reference to the changed map.
+     */
+    public void refresh(MapObject[][] mapObjects) {
+        for(int direction = 0; direction < 4; direction++) {
+            setCanMoveDirection(direction, canMoveDirection(direction, mapObjects));
+        }
+    }
+
+    /**
+     * Gets the number of changes made to the moves of the nodes of a navMap since it was generated.
+     * Changes to other navMaps, such as those of other sessions, do not affect it.
+     *
+     * @param navMap The navMap to check.
+     * @return A number that changes whenever the moves of a node of the navMap change.
+     */
+    public static int getNavVersion(AINode[][] navMap) {
+        // Only the edge cells are left without a node, so a navMap of at least 3x3 cells has one here
+        if(navMap.length < 3 || navMap[0].length < 3) return 0;
+        return navMap[1][1].navVersion.get();
     }
 
     /**
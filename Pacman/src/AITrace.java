@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * AITrace class:
+ * A fixed size ring buffer of the decisions the ghost AI has made on one Map, including the
+ * moves ghosts make following corridors without running their behaviours. Each record
+ * is a row of ints (tick, kind, ghost, position, target, direction, candidates) written into
+ * a preallocated array, so recording never builds strings or allocates. The oldest records
+ * are overwritten once it is full. The trace can be written to a text file on demand, and is
+ * written automatically when an invariant of the game fails.
+ *
+ * Tracing is turned on by starting with -Dpacman.aiTrace=true, and the number of records kept
+ * is set with pacman.aiTraceSize. Every call site checks ENABLED first, and because it is a
+ * static final the JIT removes the tracing code entirely when it is off. Recording is
+ * synchronized because ghosts on large maps decide their moves in parallel.
+ */
+public class AITrace {
+    /**
+     * True when tracing was turned on with the pacman.aiTrace property.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("pacman.aiTrace");
+    /**
+     * Number of records kept when pacman.aiTraceSize is not set.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+    /**
+     * Ticks between the summaries of invariant failures after the first, 40 seconds at the normal tick rate.
+     */
+    private static final int FAILURE_SUMMARY_TICKS = 1000;
+
+    /**
+     * Record of a ghost choosing a move towards or away from a target.
+     */
+    public static final int KIND_MOVE = 0;
+    /**
+     * Record of a behaviour calculating a target. The position is the point it was calculated from.
+     */
+    public static final int KIND_TARGET = 1;
+    /**
+     * Record of a ghost following a corridor, with its only move. There is no target, so it is -1, -1.
+     */
+    public static final int KIND_CORRIDOR = 2;
+    /**
+     * Names of each kind of record for the dump.
+     */
+    private static final String[] KIND_NAMES = {"MOVE", "TARGET", "CORRIDOR"};
+
+    /**
+     * Number of ints in each record and the offset of each field within it.
+     */
+    private static final int TICK = 0, KIND = 1, GHOST = 2, X = 3, Y = 4, TARGET_X = 5, TARGET_Y = 6,
+            DIRECTION = 7, CANDIDATES = 8, RECORD_INTS = 9;
+
+    /**
+     * The records, RECORD_INTS ints each.
+     */
+    private final int[] records;
+    /**
+     * Number of records that fit in the buffer.
+     */
+    private final int capacity;
+    /**
+     * Total number of records written. The next record goes at written % capacity.
+     */
+    private long written;
+    /**
+     * Number of updates of the map so far, stored with each record.
+     */
+    private int tick;
+    /**
+     * True once an invariant failure has been dumped, so a broken game does not dump every tick.
+     */
+    private boolean dumpedFailure;
+    /**
+     * Invariant failures since the last one printed, which are summarised instead of printed.
+     */
+    private int unreportedFailures;
+    /**
+     * Tick of the last invariant failure or summary printed.
+     */
+    private int reportedFailureTick;
+
+    /**
+     * Creates a trace with the capacity from the pacman.aiTraceSize property.
+     */
+    public AITrace() {
+        this(Integer.getInteger("pacman.aiTraceSize", DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Creates a trace that keeps a number of records.
+     *
+     * @param capacity The number of most recent records to keep.
+     */
+    public AITrace(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        records = new int[this.capacity * RECORD_INTS];
+    }
+
+    /**
+     * Moves on to the next tick. Called at the start of each Map update.
+     */
+    public void nextTick() {
+        tick++;
+    }
+
+    /**
+     * Records a ghost choosing a move.
+     *
+     * @param ghost Number of the ghost.
+     * @param from Cell the ghost is moving from.
+     * @param target Cell the ghost is moving in relation to.
+     * @param move The unit vector of the move chosen.
+     * @param candidates Number of valid moves that were chosen between.
+     */
+    public synchronized void recordMove(int ghost, Position from, Position target, Position move, int candidates) {
+        record(KIND_MOVE, ghost, from.x, from.y, target.x, target.y, toDirection(move), candidates);
+    }
+
+    /**
+     * Records a ghost following a corridor, where it had only one move and its behaviour was not run.
+     *
+     * @param ghost Number of the ghost.
+     * @param from Cell the ghost is moving from.
+     * @param move The unit vector of the move.
+     */
+    public synchronized void recordCorridorMove(int ghost, Position from, Position move) {
+        record(KIND_CORRIDOR, ghost, from.x, from.y, -1, -1, toDirection(move), 1);
+    }
+
+    /**
+     * Records a behaviour calculating a target.
+     *
+     * @param ghost Number of the ghost.
+     * @param from The point the target was calculated from.
+     * @param target The target calculated.
+     */
+    public synchronized void recordTarget(int ghost, Position from, Position target) {
+        record(KIND_TARGET, ghost, from.x, from.y, target.x, target.y, -1, 0);
+    }
+
+    /**
+     * Reports that an invariant of the game has failed, and writes the trace to a new file
+     * named after the time the first time this happens. Later failures are counted and printed
+     * as one summary every FAILURE_SUMMARY_TICKS, so a failure that persists does not flood the output.
+     *
+     * @param message Description of what went wrong.
+     */
+    public synchronized void failInvariant(String message) {
+        if(dumpedFailure) {
+            unreportedFailures++;
+            if(tick - reportedFailureTick >= FAILURE_SUMMARY_TICKS) {
+                System.out.println("Invariant failed " + unreportedFailures + " more times up to tick " + tick
+                        + ", latest: " + message);
+                unreportedFailures = 0;
+                reportedFailureTick = tick;
+            }
+            return;
+        }
+        System.out.println("Invariant failed on tick " + tick + ": " + message);
+        reportedFailureTick = tick;
+        dumpedFailure = true;
+        Path file = Paths.get("ai-trace-" + System.currentTimeMillis() + ".txt");
+        if(dump(file, message)) {
+            System.out.println("AI trace written to " + file.toAbsolutePath());
+        }
+    }
+
+    /**
+     * Writes every record in the buffer to a text file, oldest first.
+     *
+     * @param file The file to write.
+     * @param header A line written at the top of the file, or null for none.
+     * @return True if the file was written.
+     */
+    public synchronized boolean dump(Path file, String header) {
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            if(header != null) out.println(header);
+            out.println("tick kind ghost x y targetX targetY direction candidates");
+            long first = Math.max(0, written - capacity);
+            for(long i = first; i < written; i++) {
+                int base = (int)(i % capacity) * RECORD_INTS;
+                out.println(records[base + TICK] + " " + KIND_NAMES[records[base + KIND]] + " " + records[base + GHOST]
+                        + " " + records[base + X] + " " + records[base + Y]
+                        + " " + records[base + TARGET_X] + " " + records[base + TARGET_Y]
+                        + " " + records[base + DIRECTION] + " " + records[base + CANDIDATES]);
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Failed to write AI trace to " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Gets the total number of records written, including ones that have been overwritten.
+     *
+     * @return The number of records written.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Writes one record over the oldest.
+     *
+     * @param kind KIND_MOVE, KIND_TARGET or KIND_CORRIDOR.
+     * @param ghost Number of the ghost.
+     * @param x Cell the record is about.
+     * @param y Cell the record is about.
+     * @param targetX Target cell.
+     * @param targetY Target cell.
+     * @param direction Chosen facing, or -1.
+     * @param candidates Number of valid moves, or 0.
+     */
+    private void record(int kind, int ghost, int x, int y, int targetX, int targetY, int direction, int candidates) {
+        int base = (int)(written % capacity) * RECORD_INTS;
+        records[base + TICK] = tick;
+        records[base + KIND] = kind;
+        records[base + GHOST] = ghost;
+        records[base + X] = x;
+        records[base + Y] = y;
+        records[base + TARGET_X] = targetX;
+        records[base + TARGET_Y] = targetY;
+        records[base + DIRECTION] = direction;
+        records[base + CANDIDATES] = candidates;
+        written++;
+    }
+
+    /**
+     * Gets the direction of a move.
+     *
+     * @param move A unit vector.
+     * @return 0=Up, 1=Right, 2=Down, 3=Left, or -1 if it is not a unit vector.
+     */
+    private static int toDirection(Position move) {
+        if(move.equals(Position.UP)) return 0;
+        if(move.equals(Position.RIGHT)) return 1;
+        if(move.equals(Position.DOWN)) return 2;
+        if(move.equals(Position.LEFT)) return 3;
+        return -1;
+    }
+}
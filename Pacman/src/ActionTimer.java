@@ -8,29 +8,32 @@
  * The isTriggered() will become true once the timer reaches 0.
  * reset() can be used to reset back to the default time and setTimer() to clear
  * with a new time.
+ * The times are kept in the timer arrays of the map's ActorStore, alongside the other
+ * timers of every actor on the map.
  */
 public class ActionTimer {
     /**
-     * Time used when resetting the timer.
+     * The store holding the timer's times.
      */
-    private int startTime;
+    private final ActorStore store;
     /**
-     * The timer's progress that ticks down continually every update().
+     * Index of the timer in the store.
      */
-    private int timeRemaining;
+    private final int index;
     /**
-     * True when the timeRemaining has reached 0 and stays true until reset.
+     * Number of ints written by saveState().
      */
-    private boolean triggered;
+    public static final int STATE_SIZE = 3;
 
     /**
      * Sets the initial timer on the timer and makes it ready to begin ticking on updates.
      *
+     * @param store The store of the map the timer belongs to.
      * @param startTime The time to start with and is used for each reset.
      */
-    public ActionTimer(int startTime) {
-        this.startTime = startTime;
-        reset();
+    public ActionTimer(ActorStore store, int startTime) {
+        this.store = store;
+        index = store.addTimer(startTime);
     }
 
     /**
@@ -38,10 +41,7 @@ public class ActionTimer {
      * If the timer reaches 0 it will set the triggered to true.
      */
     public void update() {
-        timeRemaining -= GamePanel.TIME_BETWEEN_UPDATES;
-        if(timeRemaining <= 0) {
-            triggered = true;
-        }
+        store.updateTimer(index);
     }
 
     /**
@@ -50,7 +50,25 @@ public class ActionTimer {
      * @return True when the timer has recently triggered.
      */
     public boolean isTriggered() {
-        return triggered;
+        return store.isTimerTriggered(index);
+    }
+
+    /**
+     * Gets the time left before the timer triggers.
+     *
+     * @return The time remaining in milliseconds.
+     */
+    public int getTimeRemaining() {
+        return store.getTimerRemaining(index);
+    }
+
+    /**
+     * Gets the time that is used when the timer is reset.
+     *
+     * @return The start time in milliseconds.
+     */
+    public int getStartTime() {
+        return store.getTimerStart(index);
     }
 
     /**
@@ -60,8 +78,7 @@ public class ActionTimer {
      * @param time The timer to set the new timer interval to.
      */
     public void setTimer(int time) {
-        startTime = time;
-        reset();
+        store.setTimer(index, time, time, false);
     }
 
     /**
@@ -69,7 +86,32 @@ public class ActionTimer {
      * And changes the triggered state back to the default of false.
      */
     public void reset() {
-        timeRemaining = startTime;
-        triggered = false;
+        store.resetTimer(index);
+    }
+
+    /**
+     * Writes the timer into an array so it can be restored later.
+     *
+     * @param state The array to write into.
+     * @param offset The index to start writing at.
+     * @return The index after the last int written.
+     */
+    public int saveState(int[] state, int offset) {
+        state[offset] = store.getTimerStart(index);
+        state[offset+1] = store.getTimerRemaining(index);
+        state[offset+2] = store.isTimerTriggered(index) ? 1 : 0;
+        return offset + STATE_SIZE;
+    }
+
+    /**
+     * Reads back the timer written by saveState().
+     *
+     * @param state The array to read from.
+     * @param offset The index to start reading at.
+     * @return The index after the last int read.
+     */
+    public int restoreState(int[] state, int offset) {
+        store.setTimer(index, state[offset], state[offset+1], state[offset+2] != 0);
+        return offset + STATE_SIZE;
     }
 }
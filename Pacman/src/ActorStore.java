@@ -0,0 +1,429 @@
+import java.util.Arrays;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * ActorStore class:
+ * Keeps the data of everything that moves on one Map in parallel primitive arrays instead
+ * of spread across separate objects. Each actor (Pacman or a Ghost) has an index into the
+ * cell, facing, state and movement arrays, and every ActionTimer has an index into the timer
+ * arrays. Pacman, Ghost and ActionTimer are views that read and write their entry here, so
+ * questions about every actor, such as which ghost is in a cell, are a linear scan over a few
+ * int arrays rather than a walk over objects. A count of the ghosts in every cell of the map
+ * is kept up to date as ghosts move, so testing whether a cell holds a ghost does not depend
+ * on the number of ghosts. The arrays grow as actors are added, and are reused when the map restarts.
+ */
+public class ActorStore {
+    /**
+     * Value of ghostNumber for an actor that is not a ghost.
+     */
+    public static final int NOT_A_GHOST = -1;
+    /**
+     * Number of entries allocated before the first time the arrays grow.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Number of actors added since the last clear().
+     */
+    private int actorCount;
+    /**
+     * Column of each actor.
+     */
+    private int[] x;
+    /**
+     * Row of each actor.
+     */
+    private int[] y;
+    /**
+     * Facing of each actor, in the convention of its view.
+     */
+    private int[] facing;
+    /**
+     * State of each actor. The ordinal of the GhostState for ghosts.
+     */
+    private int[] state;
+    /**
+     * True for each actor that will move on its next update.
+     */
+    private boolean[] canMove;
+    /**
+     * Number of each ghost, or NOT_A_GHOST.
+     */
+    private int[] ghostNumber;
+
+    /**
+     * Number of ghosts in each cell of the map, indexed by x * gridHeight + y.
+     */
+    private int[] ghostsInCell;
+    /**
+     * Number of rows in the map.
+     */
+    private int gridHeight;
+
+    /**
+     * Number of timers added since the last clear().
+     */
+    private int timerCount;
+    /**
+     * Time each timer is set back to when it is reset.
+     */
+    private int[] timerStart;
+    /**
+     * Time left on each timer in milliseconds.
+     */
+    private int[] timerRemaining;
+    /**
+     * True for each timer that has reached 0 and not been reset.
+     */
+    private boolean[] timerTriggered;
+
+    /**
+     * Creates an empty store.
+     */
+    public ActorStore() {
+        x = new int[INITIAL_CAPACITY];
+        y = new int[INITIAL_CAPACITY];
+        facing = new int[INITIAL_CAPACITY];
+        state = new int[INITIAL_CAPACITY];
+        canMove = new boolean[INITIAL_CAPACITY];
+        ghostNumber = new int[INITIAL_CAPACITY];
+        timerStart = new int[INITIAL_CAPACITY];
+        timerRemaining = new int[INITIAL_CAPACITY];
+        timerTriggered = new boolean[INITIAL_CAPACITY];
+        ghostsInCell = new int[0];
+    }
+
+    /**
+     * Forgets every actor and timer so the store can be filled again when the map reloads.
+     * Views created before this must no longer be used.
+     */
+    public void clear() {
+        actorCount = 0;
+        timerCount = 0;
+        Arrays.fill(ghostsInCell, 0);
+    }
+
+    /**
+     * Sizes the count of ghosts in each cell to a map and clears it. Must be called before any
+     * actors are added, or followed by placeActor() for every actor when the grid is replaced.
+     *
+     * @param width Number of columns in the map.
+     * @param height Number of rows in the map.
+     */
+    public void setGridSize(int width, int height) {
+        if(ghostsInCell.length != width * height) ghostsInCell = new int[width * height];
+        else Arrays.fill(ghostsInCell, 0);
+        gridHeight = height;
+    }
+
+    /**
+     * Adds an actor at a cell.
+     *
+     * @param position The cell the actor starts in.
+     * @param ghostNumber The number of the ghost, or NOT_A_GHOST.
+     * @return The index of the new actor.
+     */
+    public int addActor(Position position, int ghostNumber) {
+        if(actorCount == x.length) {
+            int capacity = x.length * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            facing = Arrays.copyOf(facing, capacity);
+            state = Arrays.copyOf(state, capacity);
+            canMove = Arrays.copyOf(canMove, capacity);
+            this.ghostNumber = Arrays.copyOf(this.ghostNumber, capacity);
+        }
+        int actor = actorCount++;
+        x[actor] = position.x;
+        y[actor] = position.y;
+        facing[actor] = 0;
+        state[actor] = 0;
+        canMove[actor] = false;
+        this.ghostNumber[actor] = ghostNumber;
+        if(ghostNumber != NOT_A_GHOST) ghostsInCell[position.x * gridHeight + position.y]++;
+        return actor;
+    }
+
+    /**
+     * Adds a timer.
+     *
+     * @param startTime The time the timer starts with and is reset to.
+     * @return The index of the new timer.
+     */
+    public int addTimer(int startTime) {
+        if(timerCount == timerStart.length) {
+            int capacity = timerStart.length * 2;
+            timerStart = Arrays.copyOf(timerStart, capacity);
+            timerRemaining = Arrays.copyOf(timerRemaining, capacity);
+            timerTriggered = Arrays.copyOf(timerTriggered, capacity);
+        }
+        int timer = timerCount++;
+        timerStart[timer] = startTime;
+        timerRemaining[timer] = startTime;
+        timerTriggered[timer] = false;
+        return timer;
+    }
+
+    /**
+     * Gets the number of actors in the store.
+     *
+     * @return The number of actors.
+     */
+    public int getActorCount() {
+        return actorCount;
+    }
+
+    /**
+     * Gets the number of timers in the store.
+     *
+     * @return The number of timers.
+     */
+    public int getTimerCount() {
+        return timerCount;
+    }
+
+    /**
+     * Finds the first ghost other than one actor that is in a cell.
+     *
+     * @param cellX Column of the cell, which must be inside the map.
+     * @param cellY Row of the cell, which must be inside the map.
+     * @param ignoreActor Index of an actor to skip, or -1.
+     * @return Index of the ghost, or -1 if there is no other ghost in the cell.
+     */
+    public int findGhostAt(int cellX, int cellY, int ignoreActor) {
+        return findGhostAt(cellX, cellY, ignoreActor, 0);
+    }
+
+    /**
+     * Finds the next ghost other than one actor that is in a cell, starting from an index.
+     * Ghosts are found in the order they were added.
+     *
+     * @param cellX Column of the cell, which must be inside the map.
+     * @param cellY Row of the cell, which must be inside the map.
+     * @param ignoreActor Index of an actor to skip, or -1.
+     * @param fromActor Index of the first actor to check.
+     * @return Index of the ghost, or -1 if there is no other ghost in the cell.
+     */
+    public int findGhostAt(int cellX, int cellY, int ignoreActor, int fromActor) {
+        if(ghostsInCell[cellX * gridHeight + cellY] == 0) return -1;
+        for(int actor = fromActor; actor < actorCount; actor++) {
+            if(x[actor] == cellX && y[actor] == cellY && ghostNumber[actor] != NOT_A_GHOST && actor != ignoreActor)
+                return actor;
+        }
+        return -1;
+    }
+
+    /**
+     * Tests if any ghost other than one actor is in a cell, using the count of ghosts in each cell.
+     *
+     * @param cellX Column of the cell, which must be inside the map.
+     * @param cellY Row of the cell, which must be inside the map.
+     * @param ignoreActor Index of an actor to skip, or -1.
+     * @return True if another ghost is in the cell.
+     */
+    public boolean hasOtherGhostAt(int cellX, int cellY, int ignoreActor) {
+        int ghosts = ghostsInCell[cellX * gridHeight + cellY];
+        if(ignoreActor != -1 && ghostNumber[ignoreActor] != NOT_A_GHOST
+                && x[ignoreActor] == cellX && y[ignoreActor] == cellY) ghosts--;
+        return ghosts > 0;
+    }
+
+    /**
+     * Gets the number of ghosts in a cell.
+     *
+     * @param cellX Column of the cell, which must be inside the map.
+     * @param cellY Row of the cell, which must be inside the map.
+     * @return The number of ghosts in the cell.
+     */
+    public int getGhostsInCell(int cellX, int cellY) {
+        return ghostsInCell[cellX * gridHeight + cellY];
+    }
+
+    /**
+     * Puts an actor in a cell without taking it out of the cell it was in, for placing the actors
+     * again after setGridSize() has cleared the counts.
+     *
+     * @param actor Index of the actor.
+     * @param position The cell to put it in.
+     */
+    public void placeActor(int actor, Position position) {
+        if(ghostNumber[actor] != NOT_A_GHOST) {
+            ghostsInCell[position.x * gridHeight + position.y]++;
+        }
+        x[actor] = position.x;
+        y[actor] = position.y;
+    }
+
+    /**
+     * Moves an actor to a cell.
+     *
+     * @param actor Index of the actor.
+     * @param position The cell to move to.
+     */
+    public void setCell(int actor, Position position) {
+        if(ghostNumber[actor] != NOT_A_GHOST) {
+            ghostsInCell[x[actor] * gridHeight + y[actor]]--;
+            ghostsInCell[position.x * gridHeight + position.y]++;
+        }
+        x[actor] = position.x;
+        y[actor] = position.y;
+    }
+
+    /**
+     * Gets the column of an actor.
+     *
+     * @param actor Index of the actor.
+     * @return The column the actor is in.
+     */
+    public int getX(int actor) {
+        return x[actor];
+    }
+
+    /**
+     * Gets the row of an actor.
+     *
+     * @param actor Index of the actor.
+     * @return The row the actor is in.
+     */
+    public int getY(int actor) {
+        return y[actor];
+    }
+
+    /**
+     * Gets the facing of an actor.
+     *
+     * @param actor Index of the actor.
+     * @return The facing.
+     */
+    public int getFacing(int actor) {
+        return facing[actor];
+    }
+
+    /**
+     * Changes the facing of an actor.
+     *
+     * @param actor Index of the actor.
+     * @param facing The new facing.
+     */
+    public void setFacing(int actor, int facing) {
+        this.facing[actor] = facing;
+    }
+
+    /**
+     * Gets the state of an actor.
+     *
+     * @param actor Index of the actor.
+     * @return The state.
+     */
+    public int getState(int actor) {
+        return state[actor];
+    }
+
+    /**
+     * Changes the state of an actor.
+     *
+     * @param actor Index of the actor.
+     * @param state The new state.
+     */
+    public void setState(int actor, int state) {
+        this.state[actor] = state;
+    }
+
+    /**
+     * Gets whether an actor will move on its next update.
+     *
+     * @param actor Index of the actor.
+     * @return True if the actor can move.
+     */
+    public boolean canMove(int actor) {
+        return canMove[actor];
+    }
+
+    /**
+     * Changes whether an actor will move on its next update.
+     *
+     * @param actor Index of the actor.
+     * @param canMove True if the actor can move.
+     */
+    public void setCanMove(int actor, boolean canMove) {
+        this.canMove[actor] = canMove;
+    }
+
+    /**
+     * Gets the number of the ghost an actor is.
+     *
+     * @param actor Index of the actor.
+     * @return The ghost number, or NOT_A_GHOST.
+     */
+    public int getGhostNumber(int actor) {
+        return ghostNumber[actor];
+    }
+
+    /**
+     * Ticks a timer down on the fixed interval defined in GamePanel, triggering it at 0.
+     *
+     * @param timer Index of the timer.
+     */
+    public void updateTimer(int timer) {
+        timerRemaining[timer] -= GamePanel.TIME_BETWEEN_UPDATES;
+        if(timerRemaining[timer] <= 0) {
+            timerTriggered[timer] = true;
+        }
+    }
+
+    /**
+     * Sets a timer back to its start time and clears its trigger.
+     *
+     * @param timer Index of the timer.
+     */
+    public void resetTimer(int timer) {
+        timerRemaining[timer] = timerStart[timer];
+        timerTriggered[timer] = false;
+    }
+
+    /**
+     * Gets whether a timer has triggered.
+     *
+     * @param timer Index of the timer.
+     * @return True if the timer has reached 0 since it was last reset.
+     */
+    public boolean isTimerTriggered(int timer) {
+        return timerTriggered[timer];
+    }
+
+    /**
+     * Gets the time left on a timer.
+     *
+     * @param timer Index of the timer.
+     * @return The time remaining in milliseconds.
+     */
+    public int getTimerRemaining(int timer) {
+        return timerRemaining[timer];
+    }
+
+    /**
+     * Gets the time a timer is reset to.
+     *
+     * @param timer Index of the timer.
+     * @return The start time in milliseconds.
+     */
+    public int getTimerStart(int timer) {
+        return timerStart[timer];
+    }
+
+    /**
+     * Sets every field of a timer, such as when restoring a snapshot.
+     *
+     * @param timer Index of the timer.
+     * @param startTime The time the timer is reset to.
+     * @param timeRemaining The time left.
+     * @param triggered Whether the timer has triggered.
+     */
+    public void setTimer(int timer, int startTime, int timeRemaining, boolean triggered) {
+        timerStart[timer] = startTime;
+        timerRemaining[timer] = timeRemaining;
+        timerTriggered[timer] = triggered;
+    }
+}
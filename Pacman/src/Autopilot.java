@@ -0,0 +1,535 @@
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * Autopilot class:
+ * Plays Pacman by looking ahead with Monte Carlo tree search over the real game rules.
+ * The live game is copied into a BatchEnvironment and every search worker repeatedly
+ * copies that state into its own scratch environment to simulate from, so no objects
+ * are created while searching. Each worker grows its own tree on a separate core for
+ * the time budget and the visit counts of the first moves are combined to choose.
+ * Different move orders that reach the same state share statistics through a
+ * transposition table keyed by the state's Zobrist hash.
+ */
+public class Autopilot {
+    /**
+     * Maximum number of nodes in each worker's tree.
+     */
+    private static final int MAX_NODES = 1 << 16;
+    /**
+     * Number of entries in each worker's transposition table. Must be a power of two.
+     */
+    private static final int TABLE_SIZE = 1 << 17;
+    /**
+     * Number of neighbouring entries checked for a state before giving up.
+     */
+    private static final int TABLE_PROBES = 4;
+    /**
+     * Number of decisions made at the end of each simulation.
+     */
+    private static final int ROLLOUT_DECISIONS = 24;
+    /**
+     * Distance in cells from the closest dangerous ghost within which rollouts move at random
+     * instead of heading for the nearest dot, so the search still tries ways of escaping.
+     */
+    private static final int THREAT_RANGE = 2;
+    /**
+     * Distance in cells from a dangerous ghost that the way to the nearest dot keeps clear of,
+     * so dots guarded by a ghost are left until later instead of holding Pacman near them.
+     */
+    private static final int GHOST_CLEARANCE = 2;
+    /**
+     * Score lost when a simulation ends with Pacman caught.
+     */
+    private static final int DEATH_PENALTY = 300;
+    /**
+     * Scales the score from a simulation before it is used in the tree.
+     */
+    private static final double VALUE_SCALE = 1.0 / 50;
+    /**
+     * Discount applied to score for each decision into the future so closer score is preferred.
+     */
+    private static final double DISCOUNT = 0.95;
+    /**
+     * Score lost for each move between Pacman and the closest dot at the end of a simulation, going
+     * clear of the ghosts if any dot can be reached that way. Worth more than a dot, so moving toward
+     * the remaining dots stands out from the noise of the simulations when none are within reach.
+     */
+    private static final double DOT_DISTANCE_COST = 2;
+    /**
+     * Exploration constant used when selecting moves in the tree.
+     */
+    private static final double EXPLORATION = 1.0;
+
+    /**
+     * Environment holding the state of the live game at the start of each decision.
+     */
+    private BatchEnvironment root;
+    /**
+     * One search per worker thread.
+     */
+    private final List<SearchWorker> workers;
+    /**
+     * Threads used to run the workers.
+     */
+    private final ExecutorService executor;
+    /**
+     * Time in milliseconds that each decision may search for.
+     */
+    private int timeBudget;
+    /**
+     * Number of simulations each worker runs for a decision, or 0 to search until the time budget runs out.
+     */
+    private int simulationLimit;
+    /**
+     * Map.getLayoutVersion() of the map the environments were copied from.
+     */
+    private int layoutVersion;
+
+    /**
+     * Creates an autopilot for the map with a worker for every available core.
+     *
+     * @param map The map that will be played. Its layout is copied for the simulations.
+     * @param timeBudget Time in milliseconds allowed for each decision.
+     */
+    public Autopilot(Map map, int timeBudget) {
+        this(map, timeBudget, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an autopilot for the map with a set number of workers.
+     *
+     * @param map The map that will be played. Its layout is copied for the simulations.
+     * @param timeBudget Time in milliseconds allowed for each decision.
+     * @param threads Number of workers searching at once.
+     */
+    public Autopilot(Map map, int timeBudget, int threads) {
+        this.timeBudget = timeBudget;
+        layoutVersion = map.getLayoutVersion();
+        root = new BatchEnvironment(map, 1);
+        workers = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            workers.add(new SearchWorker(new BatchEnvironment(map, 1), 0x9E3779B9 * (i + 1)));
+        }
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Autopilot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Searches from the current state of the map and returns the best direction to move.
+     * Should be called when Pacman is ready to move.
+     *
+     * @param map The map being played.
+     * @return The direction to move 0=Up, 1=Right, 2=Down, 3=Left, or BatchEnvironment.NO_ACTION.
+     */
+    public int chooseDirection(Map map) {
+        if(map.getLayoutVersion() != layoutVersion) {
+            copyLayout(map);
+        }
+        root.loadFrom(0, map);
+        int legalMoves = 0, onlyMove = BatchEnvironment.NO_ACTION;
+        for(int d = 0; d < 4; d++) {
+            if(root.canPacmanMove(0, d)) {
+                legalMoves++;
+                onlyMove = d;
+            }
+        }
+        if(legalMoves <= 1) return onlyMove;
+
+        long deadline = System.nanoTime() + timeBudget * 1000000L;
+        List<Future<?>> results = new ArrayList<>();
+        for(SearchWorker worker : workers) {
+            worker.deadline = deadline;
+            worker.simulationLimit = simulationLimit;
+            results.add(executor.submit(worker));
+        }
+        int[] visits = new int[4];
+        for(int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Autopilot search failed: " + e);
+                continue;
+            }
+            workers.get(i).addRootVisits(visits);
+        }
+
+        int bestMove = onlyMove;
+        for(int d = 0; d < 4; d++) {
+            if(root.canPacmanMove(0, d) && visits[d] > visits[bestMove]) {
+                bestMove = d;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Copies the layout of the map into new environments after the map was restarted or reloaded,
+     * since the walls, collectibles and ghost release points may have changed.
+     *
+     * @param map The map being played.
+     */
+    private void copyLayout(Map map) {
+        layoutVersion = map.getLayoutVersion();
+        root = new BatchEnvironment(map, 1);
+        for(SearchWorker worker : workers) {
+            worker.scratch = new BatchEnvironment(map, 1);
+        }
+    }
+
+    /**
+     * Changes the time allowed for each decision.
+     *
+     * @param timeBudget Time in milliseconds.
+     */
+    public void setTimeBudget(int timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Makes every decision run a fixed number of simulations in each worker instead of searching
+     * for the time budget. The moves chosen then depend only on the game and the number of workers,
+     * not on how fast the machine is, so the same games are played every time.
+     *
+     * @param simulationLimit Simulations per worker for each decision, or 0 to use the time budget again.
+     */
+    public void setSimulationLimit(int simulationLimit) {
+        this.simulationLimit = simulationLimit;
+    }
+
+    /**
+     * Gets the key that would make Pacman move in a direction.
+     *
+     * @param direction The direction 0=Up, 1=Right, 2=Down, 3=Left.
+     * @return The matching arrow key code, or KeyEvent.VK_UNDEFINED.
+     */
+    public static int keyCodeFor(int direction) {
+        switch(direction) {
+            case 0: return KeyEvent.VK_UP;
+            case 1: return KeyEvent.VK_RIGHT;
+            case 2: return KeyEvent.VK_DOWN;
+            case 3: return KeyEvent.VK_LEFT;
+        }
+        return KeyEvent.VK_UNDEFINED;
+    }
+
+    /**
+     * A single threaded tree search. Nodes are stored in preallocated arrays with
+     * the four children of a node in a block so no objects are created per node.
+     */
+    private class SearchWorker implements Callable<Void> {
+        /**
+         * Scratch environment that the root is copied into for each simulation.
+         */
+        private BatchEnvironment scratch;
+        /**
+         * Index of the first of the four children of each node, or -1 if not expanded.
+         */
+        private final int[] firstChild = new int[MAX_NODES];
+        private final int[] visits = new int[MAX_NODES];
+        private final double[] valueSum = new double[MAX_NODES];
+        /**
+         * Bitmask of the moves Pacman could make at each expanded node.
+         */
+        private final byte[] legalMoves = new byte[MAX_NODES];
+        /**
+         * Transposition table entry holding the shared statistics for each node's state.
+         * -1 when the table was full and -2 before the node's state has been seen.
+         */
+        private final int[] nodeEntry = new int[MAX_NODES];
+        /**
+         * Transposition table of state hashes with their combined visits and values.
+         * Entries with an old stamp are empty so the table is cleared by changing the stamp.
+         */
+        private final long[] tableHash = new long[TABLE_SIZE];
+        private final int[] tableStamp = new int[TABLE_SIZE];
+        private final int[] tableVisits = new int[TABLE_SIZE];
+        private final double[] tableValue = new double[TABLE_SIZE];
+        private int stamp;
+        /**
+         * Nodes visited during the current simulation.
+         */
+        private final int[] path = new int[MAX_NODES];
+        /**
+         * Number of nodes that are in use.
+         */
+        private int nodeCount;
+        /**
+         * Discounted value of the current simulation, the weight for the next reward,
+         * and the score at the previous decision.
+         */
+        private double value, weight;
+        private int lastScore;
+        /**
+         * State for the xorshift generator used by the rollouts.
+         */
+        private int randomState;
+        /**
+         * Time in nanoseconds to stop searching.
+         */
+        private volatile long deadline;
+        /**
+         * Number of simulations to run instead, or 0 to run until the deadline.
+         */
+        private volatile int simulationLimit;
+
+        /**
+         * Creates a worker that simulates in the scratch environment.
+         *
+         * @param scratch Environment to simulate in.
+         * @param seed Seed for the random rollouts.
+         */
+        SearchWorker(BatchEnvironment scratch, int seed) {
+            this.scratch = scratch;
+            this.randomState = seed == 0 ? 1 : seed;
+        }
+
+        /**
+         * Runs simulations until the deadline, or until the simulation limit if one is set.
+         */
+        @Override
+        public Void call() {
+            nodeCount = 1;
+            firstChild[0] = -1;
+            visits[0] = 0;
+            valueSum[0] = 0;
+            nodeEntry[0] = -1;
+            stamp++;
+            int simulations = 0;
+            do {
+                simulate();
+                simulations++;
+            } while(simulationLimit > 0 ? simulations < simulationLimit : System.nanoTime() < deadline);
+            return null;
+        }
+
+        /**
+         * Adds the visit counts of the root's children to the totals.
+         *
+         * @param totals Visit counts for each direction.
+         */
+        void addRootVisits(int[] totals) {
+            if(firstChild[0] == -1) return;
+            for(int d = 0; d < 4; d++) {
+                totals[d] += visits[firstChild[0] + d];
+            }
+        }
+
+        /**
+         * Runs one simulation by selecting down the tree, expanding a node,
+         * playing randomly to the rollout depth and then backing up the result.
+         */
+        private void simulate() {
+            root.copyEnvironment(0, scratch, 0);
+            value = 0;
+            weight = 1;
+            lastScore = scratch.getScore(0);
+            int node = 0, depth = 0, lastDirection = BatchEnvironment.NO_ACTION;
+            path[depth++] = node;
+
+            // Selection
+            while(firstChild[node] != -1 && scratch.isRunning(0)) {
+                int direction = selectChild(node);
+                node = firstChild[node] + direction;
+                path[depth++] = node;
+                advance(direction);
+                lastDirection = direction;
+                if(nodeEntry[node] == -2) {
+                    nodeEntry[node] = findEntry(scratch.getStateHash(0));
+                }
+            }
+
+            // Expansion
+            if(scratch.isRunning(0) && nodeCount + 4 <= MAX_NODES && (visits[node] > 0 || node == 0)) {
+                byte moves = legalMovesAt(0);
+                if(moves != 0) {
+                    legalMoves[node] = moves;
+                    firstChild[node] = nodeCount;
+                    for(int i = nodeCount; i < nodeCount + 4; i++) {
+                        firstChild[i] = -1;
+                        visits[i] = 0;
+                        valueSum[i] = 0;
+                        nodeEntry[i] = -2;
+                    }
+                    nodeCount += 4;
+                    int direction = randomMove(moves, lastDirection);
+                    node = firstChild[node] + direction;
+                    path[depth++] = node;
+                    advance(direction);
+                    lastDirection = direction;
+                    nodeEntry[node] = findEntry(scratch.getStateHash(0));
+                }
+            }
+
+            // Rollout
+            for(int i = 0; i < ROLLOUT_DECISIONS && scratch.isRunning(0); i++) {
+                byte moves = legalMovesAt(0);
+                if(moves == 0) break;
+                lastDirection = rolloutMove(moves, lastDirection);
+                advance(lastDirection);
+            }
+            if(scratch.isRunning(0)) {
+                int distance = scratch.distanceToNearestDot(0, GHOST_CLEARANCE);
+                if(distance == -1) distance = scratch.distanceToNearestDot(0, -1);
+                value -= DOT_DISTANCE_COST * Math.max(0, distance);
+            }
+            value *= VALUE_SCALE;
+
+            // Backpropagation
+            for(int i = 0; i < depth; i++) {
+                int pathNode = path[i];
+                visits[pathNode]++;
+                valueSum[pathNode] += value;
+                int entry = nodeEntry[pathNode];
+                if(entry >= 0) {
+                    tableVisits[entry]++;
+                    tableValue[entry] += value;
+                }
+            }
+        }
+
+        /**
+         * Finds the transposition table entry for a state, claiming an empty entry if it is new.
+         *
+         * @param hash The Zobrist hash of the state.
+         * @return The entry index, or -1 if the neighbouring entries are all used by other states.
+         */
+        private int findEntry(long hash) {
+            int index = (int)(hash ^ (hash >>> 32)) & (TABLE_SIZE - 1);
+            for(int probe = 0; probe < TABLE_PROBES; probe++) {
+                int entry = (index + probe) & (TABLE_SIZE - 1);
+                if(tableStamp[entry] != stamp) {
+                    tableStamp[entry] = stamp;
+                    tableHash[entry] = hash;
+                    tableVisits[entry] = 0;
+                    tableValue[entry] = 0;
+                    return entry;
+                } else if(tableHash[entry] == hash) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Advances the scratch environment to the next decision and adds the discounted
+         * score gained, or the death penalty, to the value of the simulation.
+         *
+         * @param direction The direction to move.
+         */
+        private void advance(int direction) {
+            scratch.advanceToNextDecision(0, direction);
+            int score = scratch.getScore(0);
+            value += weight * (score - lastScore);
+            if(scratch.getMapState(0) == Map.MapState.GameOver) {
+                value -= weight * DEATH_PENALTY;
+            }
+            lastScore = score;
+            weight *= DISCOUNT;
+        }
+
+        /**
+         * Picks the legal child of an expanded node with the highest upper confidence bound.
+         *
+         * @param node The expanded node.
+         * @return The direction of the chosen child.
+         */
+        private int selectChild(int node) {
+            double logVisits = Math.log(visits[node] + 1);
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for(int d = 0; d < 4; d++) {
+                if((legalMoves[node] & (1 << d)) == 0) continue;
+                int child = firstChild[node] + d;
+                if(visits[child] == 0) return d;
+                // Prefer the shared statistics from every path that reached the same state
+                int entry = nodeEntry[child];
+                int childVisits = entry >= 0 ? tableVisits[entry] : visits[child];
+                double childValue = entry >= 0 ? tableValue[entry] : valueSum[child];
+                double value = childValue / childVisits
+                        + EXPLORATION * Math.sqrt(logVisits / childVisits);
+                if(value > bestValue) {
+                    bestValue = value;
+                    best = d;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Gets the moves Pacman can make from the scratch environment.
+         *
+         * @param env The environment in the scratch batch.
+         * @return Bitmask of directions that can be entered.
+         */
+        private byte legalMovesAt(int env) {
+            byte moves = 0;
+            for(int d = 0; d < 4; d++) {
+                if(scratch.canPacmanMove(env, d)) moves |= 1 << d;
+            }
+            return moves;
+        }
+
+        /**
+         * Chooses the next move of a rollout. While no dangerous ghost is close Pacman heads
+         * for the nearest dot that can be reached clear of the ghosts, so rollouts far from the
+         * remaining dots still tell the moves apart by how soon they reach one. Otherwise the
+         * move is random.
+         *
+         * @param moves Bitmask of legal directions.
+         * @param lastDirection The previous direction moved, or NO_ACTION.
+         * @return The chosen direction.
+         */
+        private int rolloutMove(byte moves, int lastDirection) {
+            if(scratch.distanceToNearestThreat(0) > THREAT_RANGE) {
+                int direction = scratch.directionToNearestDot(0, GHOST_CLEARANCE);
+                if(direction != BatchEnvironment.NO_ACTION) return direction;
+            }
+            return randomMove(moves, lastDirection);
+        }
+
+        /**
+         * Chooses a random legal move, avoiding turning around unless it is the only option.
+         *
+         * @param moves Bitmask of legal directions.
+         * @param lastDirection The previous direction moved, or NO_ACTION.
+         * @return The chosen direction.
+         */
+        private int randomMove(byte moves, int lastDirection) {
+            int options = moves;
+            if(lastDirection != BatchEnvironment.NO_ACTION) {
+                int withoutReverse = options & ~(1 << ((lastDirection + 2) % 4));
+                if(withoutReverse != 0) options = withoutReverse;
+            }
+            int choice = Integer.remainderUnsigned(nextRandom(), Integer.bitCount(options));
+            for(int d = 0; d < 4; d++) {
+                if((options & (1 << d)) != 0 && choice-- == 0) return d;
+            }
+            return lastDirection;
+        }
+
+        /**
+         * Advances the xorshift generator.
+         *
+         * @return The next random value.
+         */
+        private int nextRandom() {
+            randomState ^= randomState << 13;
+            randomState ^= randomState >>> 17;
+            randomState ^= randomState << 5;
+            return randomState;
+        }
+    }
+}
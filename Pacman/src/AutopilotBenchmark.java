@@ -0,0 +1,87 @@
+import java.util.Random;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * AutopilotBenchmark class:
+ * Plays complete games with the Autopilot without a window and reports how it did.
+ * Used as a fixed opponent for measuring changes to the ghost AI.
+ */
+class AutopilotBenchmark {
+    /**
+     * Longest a single game is allowed to run in updates.
+     */
+    private static final int MAX_UPDATES = 20000;
+    /**
+     * Number of updates without collecting anything after which a game is stopped as stalled.
+     * Far longer than Pacman needs to cross the map to the furthest dot.
+     */
+    static final int NO_PROGRESS_UPDATES = 2000;
+
+    /**
+     * Plays the games and prints the result of each and the average.
+     *
+     * @param args Optional number of games (default 5) and time budget in milliseconds per move (default 10).
+     */
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int timeBudget = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Map map = new Map();
+        Autopilot autopilot = new Autopilot(map, timeBudget);
+        long totalScore = 0;
+        int won = 0, stalled = 0;
+        for(int game = 0; game < games; game++) {
+            int updates = playGame(map, autopilot, null, 0);
+            totalScore += map.getScore();
+            if(map.getMapState() == Map.MapState.GameWon) won++;
+            if(map.getMapState() == Map.MapState.Running) stalled++;
+            System.out.println("Game " + (game + 1) + ": " + describeEnd(map) + " score " + map.getScore()
+                    + " collected " + map.getCollected() + "/" + map.getTotalCollectibles() + " in " + updates + " updates");
+        }
+        System.out.println("Average score " + (totalScore / (double)games) + ", won " + won + " of " + games
+                + ", stalled " + stalled);
+    }
+
+    /**
+     * Restarts the map and plays it with the autopilot until the game ends, nothing has been
+     * collected for NO_PROGRESS_UPDATES updates, or MAX_UPDATES is reached. A game that was stopped
+     * is left with the map still Running.
+     *
+     * @param map The map to play.
+     * @param autopilot The autopilot choosing Pacman's moves.
+     * @param random Chooses the opening moves, or null if there are none.
+     * @param openingMoves Number of random moves made before the autopilot takes over.
+     * @return The number of updates played.
+     */
+    static int playGame(Map map, Autopilot autopilot, Random random, int openingMoves) {
+        map.restart();
+        int updates = 0, lastProgress = 0, lastCollected = map.getCollected();
+        while(map.getMapState() == Map.MapState.Running && updates < MAX_UPDATES
+                && updates - lastProgress < NO_PROGRESS_UPDATES) {
+            Pacman pacman = map.getPacman();
+            if(pacman.canMove()) {
+                int direction = openingMoves > 0 ? random.nextInt(4) : autopilot.chooseDirection(map);
+                if(openingMoves > 0) openingMoves--;
+                pacman.moveIfCan(Autopilot.keyCodeFor(direction));
+            }
+            map.update();
+            updates++;
+            if(map.getCollected() != lastCollected) {
+                lastCollected = map.getCollected();
+                lastProgress = updates;
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Describes how a game played by playGame() ended.
+     *
+     * @param map The map that was played.
+     * @return The map state, or Stalled if the game was stopped while still running.
+     */
+    static String describeEnd(Map map) {
+        return map.getMapState() == Map.MapState.Running ? "Stalled" : map.getMapState().name();
+    }
+}
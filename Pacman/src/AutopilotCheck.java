@@ -0,0 +1,47 @@
+import java.util.Random;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * AutopilotCheck class:
+ * Checks that the Autopilot plays every game through to a win or a loss. Each seed makes
+ * a few random opening moves so the games differ, then the Autopilot plays on with the
+ * usual cutoff of AutopilotBenchmark for a game that stops collecting. The Autopilot runs
+ * a fixed number of simulations with a single worker, so every run plays the same games
+ * whatever the machine. Any game that is stopped is printed with its seed, and the check
+ * exits with status 1. Run it after changing the Autopilot or the rules its simulations follow.
+ *
+ * Arguments: [seeds=10] [simulations per move=500]
+ */
+public class AutopilotCheck {
+    /**
+     * Number of random moves made at the start of each game.
+     */
+    private static final int OPENING_MOVES = 20;
+
+    /**
+     * Runs the check.
+     *
+     * @param args Optional number of seeds and number of simulations for each move.
+     */
+    public static void main(String[] args) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int simulations = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Map map = new Map();
+        Autopilot autopilot = new Autopilot(map, 0, 1);
+        autopilot.setSimulationLimit(simulations);
+        int won = 0, stalled = 0;
+        for(int seed = 0; seed < seeds; seed++) {
+            int updates = AutopilotBenchmark.playGame(map, autopilot, new Random(seed), OPENING_MOVES);
+            if(map.getMapState() == Map.MapState.GameWon) won++;
+            if(map.getMapState() == Map.MapState.Running) {
+                stalled++;
+                System.out.println("Seed " + seed + " stalled at " + map.getCollected() + "/" + map.getTotalCollectibles()
+                        + " collected after " + updates + " updates");
+            }
+        }
+        System.out.println(seeds - stalled + " of " + seeds + " games finished and " + won + " won.");
+        if(stalled > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,1312 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * BatchEnvironment class:
+ * Runs many independent copies of the game at once for training learning agents.
+ * The static parts of the map (walls, navigation, teleports) are shared by all of
+ * the environments, and everything that changes while playing is kept in flat
+ * primitive arrays indexed by environment (and by ghost within an environment).
+ * The rules mirror Map.update(), Pacman.update(), Ghost.update() and the
+ * Chase/Scatter/Frightened behaviours so a step here matches a tick in the game.
+ * A rule changed in either place must be changed in both, and BatchParityCheck
+ * run to confirm the two still play every tick the same.
+ */
+public class BatchEnvironment {
+    /**
+     * Action value that leaves Pacman's pending move unchanged.
+     */
+    public static final int NO_ACTION = -1;
+    /**
+     * Ghost state values matching the ordinals of Ghost.GhostState.
+     */
+    public static final byte INACTIVE = 0, CHASE = 1, SCATTER = 2, FRIGHTENED = 3, RETURNING = 4;
+    /**
+     * Chase behaviour ids matching the ordinals of GhostConfig.Chase.
+     */
+    private static final byte CHASE_AGGRESSIVE = 0, CHASE_PATROL = 1, CHASE_AMBUSH = 2, CHASE_RANDOM = 3;
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+    /**
+     * Pacman's facing value after pressing each direction 0=Up, 1=Right, 2=Down, 3=Left.
+     * Pacman stores its facing as a drawing angle so it differs from the ghost facing.
+     */
+    private static final byte[] PACMAN_FACING_FOR_DIRECTION = {1, 0, 3, 2};
+    /**
+     * Number of environments to step per parallel task.
+     */
+    private static final int ENVIRONMENTS_PER_TASK = 64;
+    /**
+     * Cached copy of the map states to avoid copying the array on every lookup.
+     */
+    private static final Map.MapState[] MAP_STATES = Map.MapState.values();
+
+    // Timings copied from Pacman and Ghost.
+    private static final int PACMAN_TIME_BETWEEN_MOVES = Pacman.TIME_BETWEEN_MOVES;
+    private static final int SCATTER_DURATION = 7000;
+    private static final int CHASE_DURATION = 20000;
+    private static final int FEAR_DURATION = 10000;
+    private static final int TIME_BETWEEN_MOVES = 200;
+    private static final int TIME_BETWEEN_MOVES_WHILE_FEARED = 280;
+    private static final int TIME_BETWEEN_MOVES_WHILE_RETURNING = 80;
+
+    /**
+     * Cell type values stored in the cell type grid.
+     */
+    private static final byte CELL_EMPTY = 0, CELL_DOT = 1, CELL_POWERUP = 2, CELL_CHERRY = 3, CELL_TELEPORT = 4;
+
+    /**
+     * Number of environments that are stepped together.
+     */
+    private final int count;
+    /**
+     * Grid dimensions shared by every environment.
+     */
+    private final int mapWidth, mapHeight;
+    /**
+     * Number of ghosts in every environment.
+     */
+    private final int ghostCount;
+    /**
+     * Number of cherries in every environment.
+     */
+    private final int cherryCount;
+    /**
+     * Number of longs used for the collected bitset of each environment.
+     */
+    private final int collectedWords;
+    /**
+     * Number of collectibles that must be collected to win.
+     */
+    private final int totalCollectibles;
+
+    // Static map data indexed by cell (x*mapHeight+y).
+    /**
+     * The MapObject.EnterType ordinal of each cell.
+     */
+    private final byte[] enterType;
+    /**
+     * One of the CELL_ values describing the interaction in each cell.
+     */
+    private final byte[] cellType;
+    /**
+     * Bitmask of directions ghosts can move in from each cell based on the navMap. 0 outside the navMap.
+     */
+    private final byte[] navMoves;
+    /**
+     * Distance fields toward targets, from the template map's navigation.
+     */
+    private final FlowFields flowFields;
+    /**
+     * Clustered shortest paths used instead of flowFields on very large maps, from the template map's navigation. Null on smaller maps.
+     */
+    private final HierarchicalPaths hierarchicalPaths;
+    /**
+     * The way back to the ghost house for eaten ghosts, from the template map's navigation.
+     */
+    private final HomeField homeField;
+    /**
+     * Cherry index for cherry cells, or the destination cell for teleport cells.
+     */
+    private final int[] cellData;
+    /**
+     * Facing applied to Pacman after using the teleport in the cell.
+     */
+    private final byte[] teleportFacing;
+
+    // Static ghost data indexed by ghost.
+    private final int pacmanStartX, pacmanStartY;
+    private final int[] ghostStartX, ghostStartY;
+    private final byte[] chaseBehaviour;
+    private final int[] scatterTargetX, scatterTargetY;
+    /**
+     * Number collected when each ghost is released from the Inactive state. 0 for active from the start.
+     */
+    private final int[] releaseAt;
+    /**
+     * Number collected when each cherry is revealed.
+     */
+    private final int[] cherryRevealAt;
+    /**
+     * Cell of each cherry.
+     */
+    private final int[] cherryCell;
+
+    // Per environment state.
+    private final int[] pacmanX, pacmanY;
+    private final byte[] pacmanFacing;
+    private final boolean[] pacmanCanMove;
+    private final int[] pacmanMoveTimer;
+    /**
+     * Direction of the pending Pacman move or NO_ACTION.
+     */
+    private final byte[] pacmanNextMove;
+    /**
+     * Direction of a turn waiting to become legal or NO_ACTION, and the time left to keep it.
+     */
+    private final byte[] pacmanBufferedMove;
+    private final int[] pacmanBufferTimer;
+    private final int[] collectedCount;
+    private final int[] score;
+    private final byte[] mapState;
+    /**
+     * Bitset of collected cells, collectedWords longs per environment.
+     */
+    private final long[] collected;
+    /**
+     * Bit 0 is revealed and bit 1 is collected, cherryCount entries per environment.
+     */
+    private final byte[] cherryFlags;
+    /**
+     * Zobrist hash of each environment using the same keys as the Map's ZobristHash.
+     */
+    private final long[] stateHash;
+
+    // Per ghost state indexed by env*ghostCount+ghost.
+    private final int[] ghostX, ghostY;
+    private final byte[] ghostFacing;
+    private final byte[] ghostState;
+    private final byte[] ghostPreviousState;
+    private final boolean[] ghostCanMove;
+    private final boolean[] ghostFirstFrightened;
+    // Move chosen in the decide phase of a step as a facing, or -1 for none.
+    private final byte[] ghostNextMove;
+    private final int[] ghostMoveTimer, ghostMoveTimerStart;
+    private final int[] ghostStateTimer, ghostStateTimerStart;
+    private final int[] ghostFearTimer;
+
+    /**
+     * When true any environment that finishes is reset at the end of the step it finished in.
+     */
+    private boolean autoReset;
+    /**
+     * Scratch queue and visit marks for searches over the grid. Not shared between threads.
+     */
+    private final int[] searchQueue;
+    private final int[] searchVisited;
+    private int searchStamp;
+    /**
+     * Number of moves and the first move from the start of a search to each cell it reached.
+     */
+    private final int[] searchDistance;
+    private final byte[] searchFirstMove;
+
+    /**
+     * Creates count environments that all use the layout of the template map.
+     * The template should be freshly loaded because the start positions are taken from it.
+     *
+     * @param template A loaded map to copy the layout, navigation and actor start positions from.
+     * @param count The number of environments to create.
+     */
+    public BatchEnvironment(Map template, int count) {
+        this.count = count;
+        MapObject[][] mapObjects = template.getMapObjects();
+        mapWidth = mapObjects.length;
+        mapHeight = mapObjects[0].length;
+        int cells = mapWidth * mapHeight;
+        collectedWords = (cells + 63) / 64;
+        totalCollectibles = template.getTotalCollectibles();
+        autoReset = true;
+
+        enterType = new byte[cells];
+        cellType = new byte[cells];
+        navMoves = new byte[cells];
+        Navigation navigation = template.getNavigation();
+        flowFields = navigation.getFlowFields();
+        hierarchicalPaths = navigation.getHierarchicalPaths();
+        homeField = navigation.getHomeField();
+        cellData = new int[cells];
+        teleportFacing = new byte[cells];
+        searchQueue = new int[cells];
+        searchVisited = new int[cells];
+        searchDistance = new int[cells];
+        searchFirstMove = new byte[cells];
+        int cherries = 0;
+        // Row by row so the cherries are numbered in the same order as the Map loads them.
+        for(int y = 0; y < mapHeight; y++) {
+            for(int x = 0; x < mapWidth; x++) {
+                int cell = x * mapHeight + y;
+                MapObject mapObject = mapObjects[x][y];
+                enterType[cell] = (byte)mapObject.getEnterType().ordinal();
+                if(mapObject instanceof CollectableObject) {
+                    cellType[cell] = CELL_DOT;
+                } else if(mapObject instanceof PowerupObject) {
+                    cellType[cell] = CELL_POWERUP;
+                } else if(mapObject instanceof CherryObject) {
+                    cellType[cell] = CELL_CHERRY;
+                    cellData[cell] = cherries++;
+                } else if(mapObject instanceof TeleportObject) {
+                    TeleportObject teleport = (TeleportObject)mapObject;
+                    cellType[cell] = CELL_TELEPORT;
+                    cellData[cell] = teleport.getTeleportTo().x * mapHeight + teleport.getTeleportTo().y;
+                    teleportFacing[cell] = (byte)teleport.getFacingAfterTeleport();
+                }
+                AINode node = navigation.getNavMap()[x][y];
+                if(node != null) {
+                    for(int d = 0; d < 4; d++) {
+                        if(node.canMoveDirection[d]) navMoves[cell] |= 1 << d;
+                    }
+                }
+            }
+        }
+        cherryCount = cherries;
+        cherryCell = new int[cherryCount];
+        for(int cell = 0; cell < cells; cell++) {
+            if(cellType[cell] == CELL_CHERRY) cherryCell[cellData[cell]] = cell;
+        }
+        cherryRevealAt = new int[cherryCount];
+        for(int i = 0; i < cherryCount; i++) {
+            // Matches the reveal points in Map.increaseCollected()
+            cherryRevealAt[i] = i == 0 ? 70 : i == 1 ? 170 : -1;
+        }
+
+        pacmanStartX = template.getPacman().getDefaultPosition().x;
+        pacmanStartY = template.getPacman().getDefaultPosition().y;
+        ghostCount = template.getGhostCount();
+        ghostStartX = new int[ghostCount];
+        ghostStartY = new int[ghostCount];
+        chaseBehaviour = new byte[ghostCount];
+        scatterTargetX = new int[ghostCount];
+        scatterTargetY = new int[ghostCount];
+        releaseAt = new int[ghostCount];
+        for(int g = 0; g < ghostCount; g++) {
+            Position start = template.getGhost(g).getDefaultPosition();
+            ghostStartX[g] = start.x;
+            ghostStartY[g] = start.y;
+            configureGhost(g, template.getGhost(g).getConfig());
+        }
+
+        pacmanX = new int[count];
+        pacmanY = new int[count];
+        pacmanFacing = new byte[count];
+        pacmanCanMove = new boolean[count];
+        pacmanMoveTimer = new int[count];
+        pacmanNextMove = new byte[count];
+        pacmanBufferedMove = new byte[count];
+        pacmanBufferTimer = new int[count];
+        collectedCount = new int[count];
+        score = new int[count];
+        mapState = new byte[count];
+        collected = new long[count * collectedWords];
+        cherryFlags = new byte[count * cherryCount];
+        stateHash = new long[count];
+
+        int ghostSlots = count * ghostCount;
+        ghostX = new int[ghostSlots];
+        ghostY = new int[ghostSlots];
+        ghostFacing = new byte[ghostSlots];
+        ghostState = new byte[ghostSlots];
+        ghostPreviousState = new byte[ghostSlots];
+        ghostCanMove = new boolean[ghostSlots];
+        ghostFirstFrightened = new boolean[ghostSlots];
+        ghostNextMove = new byte[ghostSlots];
+        Arrays.fill(ghostNextMove, (byte)-1);
+        ghostMoveTimer = new int[ghostSlots];
+        ghostMoveTimerStart = new int[ghostSlots];
+        ghostStateTimer = new int[ghostSlots];
+        ghostStateTimerStart = new int[ghostSlots];
+        ghostFearTimer = new int[ghostSlots];
+
+        for(int env = 0; env < count; env++) {
+            reset(env);
+        }
+    }
+
+    /**
+     * Resets the specified environment back to the start of a game.
+     *
+     * @param env The environment to reset.
+     */
+    public void reset(int env) {
+        pacmanX[env] = pacmanStartX;
+        pacmanY[env] = pacmanStartY;
+        pacmanFacing[env] = 0;
+        pacmanCanMove[env] = true;
+        pacmanMoveTimer[env] = PACMAN_TIME_BETWEEN_MOVES;
+        pacmanNextMove[env] = NO_ACTION;
+        pacmanBufferedMove[env] = NO_ACTION;
+        collectedCount[env] = 0;
+        score[env] = 0;
+        mapState[env] = (byte)Map.MapState.Running.ordinal();
+        for(int i = env * collectedWords; i < (env + 1) * collectedWords; i++) {
+            collected[i] = 0;
+        }
+        for(int i = env * cherryCount; i < (env + 1) * cherryCount; i++) {
+            cherryFlags[i] = 0;
+        }
+        for(int g = 0; g < ghostCount; g++) {
+            int slot = env * ghostCount + g;
+            ghostX[slot] = ghostStartX[g];
+            ghostY[slot] = ghostStartY[g];
+            ghostFacing[slot] = 0;
+            // Only ghosts released at the start begin moving.
+            ghostState[slot] = releaseAt[g] == 0 ? SCATTER : INACTIVE;
+            ghostPreviousState[slot] = INACTIVE;
+            ghostCanMove[slot] = true;
+            ghostFirstFrightened[slot] = true;
+            ghostMoveTimerStart[slot] = TIME_BETWEEN_MOVES;
+            ghostMoveTimer[slot] = TIME_BETWEEN_MOVES;
+            ghostStateTimerStart[slot] = SCATTER_DURATION;
+            ghostStateTimer[slot] = SCATTER_DURATION;
+            ghostFearTimer[slot] = FEAR_DURATION;
+        }
+        recomputeHash(env);
+    }
+
+    /**
+     * Copies the current state of a live game into an environment so it can be simulated from there.
+     * The map must have the same layout that this batch was created with.
+     *
+     * @param env The environment to overwrite.
+     * @param map The game to copy the state from.
+     */
+    public void loadFrom(int env, Map map) {
+        Pacman pacman = map.getPacman();
+        pacmanX[env] = pacman.getPosition().x;
+        pacmanY[env] = pacman.getPosition().y;
+        pacmanFacing[env] = (byte)pacman.getFacing();
+        pacmanCanMove[env] = pacman.canMove();
+        pacmanMoveTimer[env] = pacman.getCanMoveTimer().getTimeRemaining();
+        pacmanNextMove[env] = (byte)directionOf(pacman.getNextMove());
+        pacmanBufferedMove[env] = (byte)directionOf(pacman.getBufferedMove());
+        pacmanBufferTimer[env] = pacman.getTurnBufferTimer().getTimeRemaining();
+        collectedCount[env] = map.getCollected();
+        score[env] = map.getScore();
+        mapState[env] = (byte)map.getMapState().ordinal();
+
+        MapObject[][] mapObjects = map.getMapObjects();
+        int cherry = env * cherryCount;
+        for(int i = env * collectedWords; i < (env + 1) * collectedWords; i++) {
+            collected[i] = 0;
+        }
+        for(int y = 0; y < mapHeight; y++) {
+            for(int x = 0; x < mapWidth; x++) {
+                MapObject mapObject = mapObjects[x][y];
+                if((mapObject instanceof CollectableObject && ((CollectableObject)mapObject).isCollected())
+                        || (mapObject instanceof PowerupObject && ((PowerupObject)mapObject).isCollected())) {
+                    markCollected(env, x * mapHeight + y);
+                } else if(mapObject instanceof CherryObject) {
+                    CherryObject cherryObject = (CherryObject)mapObject;
+                    cherryFlags[cherry++] = (byte)((cherryObject.isRevealed() ? 1 : 0) | (cherryObject.isCollected() ? 2 : 0));
+                }
+            }
+        }
+
+        for(int g = 0; g < ghostCount; g++) {
+            Ghost ghost = map.getGhost(g);
+            int slot = env * ghostCount + g;
+            ghostX[slot] = ghost.getPosition().x;
+            ghostY[slot] = ghost.getPosition().y;
+            ghostFacing[slot] = (byte)ghost.getFacing();
+            ghostState[slot] = (byte)ghost.getGhostState().ordinal();
+            ghostPreviousState[slot] = ghost.getPreviousState() == null ? INACTIVE : (byte)ghost.getPreviousState().ordinal();
+            ghostCanMove[slot] = ghost.canMove();
+            ghostFirstFrightened[slot] = !(ghost.getFrightenedBehaviour() instanceof FrightenedWandering)
+                    || ((FrightenedWandering)ghost.getFrightenedBehaviour()).isFirstUpdate();
+            ghostMoveTimer[slot] = ghost.getCanMoveTimer().getTimeRemaining();
+            ghostMoveTimerStart[slot] = ghost.getCanMoveTimer().getStartTime();
+            ghostStateTimer[slot] = ghost.getNextStateTimer().getTimeRemaining();
+            ghostStateTimerStart[slot] = ghost.getNextStateTimer().getStartTime();
+            ghostFearTimer[slot] = ghost.getFearTimer().getTimeRemaining();
+        }
+        recomputeHash(env);
+    }
+
+    /**
+     * Calculates the Zobrist hash of an environment from scratch.
+     *
+     * @param env The environment to hash.
+     */
+    private void recomputeHash(int env) {
+        long hash = ZobristHash.pacmanCellKey(pacmanX[env], pacmanY[env])
+                ^ ZobristHash.pacmanFacingKey(pacmanFacing[env]);
+        for(int g = 0; g < ghostCount; g++) {
+            int slot = env * ghostCount + g;
+            hash ^= ZobristHash.ghostCellKey(g, ghostX[slot], ghostY[slot])
+                    ^ ZobristHash.ghostFacingKey(g, ghostFacing[slot])
+                    ^ ZobristHash.ghostStateKey(g, ghostState[slot]);
+        }
+        for(int cell = 0; cell < mapWidth * mapHeight; cell++) {
+            if((collected[env * collectedWords + (cell >>> 6)] & (1L << cell)) != 0) {
+                hash ^= ZobristHash.collectedKey(cell / mapHeight, cell % mapHeight);
+            }
+        }
+        for(int i = 0; i < cherryCount; i++) {
+            int cell = cherryCell[i];
+            byte flags = cherryFlags[env * cherryCount + i];
+            if((flags & 1) != 0) hash ^= ZobristHash.cherryRevealedKey(cell / mapHeight, cell % mapHeight);
+            if((flags & 2) != 0) hash ^= ZobristHash.cherryCollectedKey(cell / mapHeight, cell % mapHeight);
+        }
+        stateHash[env] = hash;
+    }
+
+    /**
+     * Copies the full state of one environment into an environment of another batch
+     * created from the same layout. This is the cheap state copy used by searches.
+     *
+     * @param env The environment to copy from.
+     * @param target The batch to copy into. May be this batch.
+     * @param targetEnv The environment in the target batch to overwrite.
+     */
+    public void copyEnvironment(int env, BatchEnvironment target, int targetEnv) {
+        target.pacmanX[targetEnv] = pacmanX[env];
+        target.pacmanY[targetEnv] = pacmanY[env];
+        target.pacmanFacing[targetEnv] = pacmanFacing[env];
+        target.pacmanCanMove[targetEnv] = pacmanCanMove[env];
+        target.pacmanMoveTimer[targetEnv] = pacmanMoveTimer[env];
+        target.pacmanNextMove[targetEnv] = pacmanNextMove[env];
+        target.pacmanBufferedMove[targetEnv] = pacmanBufferedMove[env];
+        target.pacmanBufferTimer[targetEnv] = pacmanBufferTimer[env];
+        target.collectedCount[targetEnv] = collectedCount[env];
+        target.score[targetEnv] = score[env];
+        target.mapState[targetEnv] = mapState[env];
+        target.stateHash[targetEnv] = stateHash[env];
+        System.arraycopy(collected, env * collectedWords, target.collected, targetEnv * collectedWords, collectedWords);
+        System.arraycopy(cherryFlags, env * cherryCount, target.cherryFlags, targetEnv * cherryCount, cherryCount);
+        int from = env * ghostCount, to = targetEnv * ghostCount;
+        System.arraycopy(ghostX, from, target.ghostX, to, ghostCount);
+        System.arraycopy(ghostY, from, target.ghostY, to, ghostCount);
+        System.arraycopy(ghostFacing, from, target.ghostFacing, to, ghostCount);
+        System.arraycopy(ghostState, from, target.ghostState, to, ghostCount);
+        System.arraycopy(ghostPreviousState, from, target.ghostPreviousState, to, ghostCount);
+        System.arraycopy(ghostCanMove, from, target.ghostCanMove, to, ghostCount);
+        System.arraycopy(ghostFirstFrightened, from, target.ghostFirstFrightened, to, ghostCount);
+        System.arraycopy(ghostMoveTimer, from, target.ghostMoveTimer, to, ghostCount);
+        System.arraycopy(ghostMoveTimerStart, from, target.ghostMoveTimerStart, to, ghostCount);
+        System.arraycopy(ghostStateTimer, from, target.ghostStateTimer, to, ghostCount);
+        System.arraycopy(ghostStateTimerStart, from, target.ghostStateTimerStart, to, ghostCount);
+        System.arraycopy(ghostFearTimer, from, target.ghostFearTimer, to, ghostCount);
+    }
+
+    /**
+     * Applies a direction and then ticks until Pacman is ready for its next move or the game ends.
+     * Used by searches that only need to decide at the points where input can change the game.
+     *
+     * @param env The environment to advance.
+     * @param direction The direction to move 0=Up, 1=Right, 2=Down, 3=Left.
+     * @return The number of ticks that were simulated.
+     */
+    public int advanceToNextDecision(int env, int direction) {
+        applyAction(env, direction);
+        int ticks = 0;
+        do {
+            tick(env);
+            ticks++;
+        } while(!pacmanCanMove[env] && mapState[env] == Map.MapState.Running.ordinal());
+        return ticks;
+    }
+
+    /**
+     * Tests if Pacman would be able to move in the direction from its current cell.
+     *
+     * @param env The environment to test.
+     * @param direction The direction 0=Up, 1=Right, 2=Down, 3=Left.
+     * @return True if Pacman can enter the adjacent cell in that direction.
+     */
+    public boolean canPacmanMove(int env, int direction) {
+        return canPacmanEnter(pacmanX[env] + DX[direction], pacmanY[env] + DY[direction]);
+    }
+
+    /**
+     * Gets whether Pacman is ready to accept a new move in the environment.
+     *
+     * @param env The environment.
+     * @return True if the next action will be applied.
+     */
+    public boolean isPacmanReady(int env) {
+        return pacmanCanMove[env];
+    }
+
+    /**
+     * Finds how many moves Pacman is from the closest dot or powerup that has not been collected.
+     *
+     * @param env The environment to search.
+     * @param ghostClearance Cells this close to a ghost that would catch Pacman are not walked through,
+     *                       counting cells across and down. -1 to walk anywhere.
+     * @return The number of moves, or -1 if nothing is left that can be reached.
+     */
+    public int distanceToNearestDot(int env, int ghostClearance) {
+        int dot = searchNearestDot(env, ghostClearance);
+        return dot == -1 ? -1 : searchDistance[dot];
+    }
+
+    /**
+     * Finds the first move of a shortest walk from Pacman to the closest dot or powerup that
+     * has not been collected.
+     *
+     * @param env The environment to search.
+     * @param ghostClearance Cells this close to a ghost that would catch Pacman are not walked through,
+     *                       counting cells across and down. -1 to walk anywhere.
+     * @return The direction 0=Up, 1=Right, 2=Down, 3=Left, or NO_ACTION if nothing is left that can be reached.
+     */
+    public int directionToNearestDot(int env, int ghostClearance) {
+        int dot = searchNearestDot(env, ghostClearance);
+        return dot == -1 ? NO_ACTION : searchFirstMove[dot];
+    }
+
+    /**
+     * Finds how far Pacman is from the closest ghost that would catch it, counting cells
+     * across and down without regard to walls.
+     *
+     * @param env The environment to check.
+     * @return The distance in cells, or Integer.MAX_VALUE if no ghost is chasing or scattering.
+     */
+    public int distanceToNearestThreat(int env) {
+        return distanceToNearestThreat(env, pacmanX[env], pacmanY[env]);
+    }
+
+    /**
+     * Finds how far the cell next to Pacman in a direction is from the closest ghost that would
+     * catch Pacman there, counting cells across and down without regard to walls.
+     *
+     * @param env The environment to check.
+     * @param direction The direction 0=Up, 1=Right, 2=Down, 3=Left.
+     * @return The distance in cells, or Integer.MAX_VALUE if no ghost is chasing or scattering.
+     */
+    public int distanceToNearestThreat(int env, int direction) {
+        return distanceToNearestThreat(env, pacmanX[env] + DX[direction], pacmanY[env] + DY[direction]);
+    }
+
+    /**
+     * Finds how far a cell is from the closest ghost that would catch Pacman there, counting
+     * cells across and down without regard to walls.
+     *
+     * @param env The environment to check.
+     * @param x X coordinate of the cell.
+     * @param y Y coordinate of the cell.
+     * @return The distance in cells, or Integer.MAX_VALUE if no ghost is chasing or scattering.
+     */
+    private int distanceToNearestThreat(int env, int x, int y) {
+        int nearest = Integer.MAX_VALUE;
+        for(int slot = env * ghostCount; slot < (env + 1) * ghostCount; slot++) {
+            if(ghostState[slot] != CHASE && ghostState[slot] != SCATTER) continue;
+            nearest = Math.min(nearest, Math.abs(ghostX[slot] - x) + Math.abs(ghostY[slot] - y));
+        }
+        return nearest;
+    }
+
+    /**
+     * Searches breadth first from Pacman over the cells it can enter for the closest dot or powerup
+     * that has not been collected. Leaves the distance and first move toward every cell reached
+     * in searchDistance and searchFirstMove.
+     *
+     * @param env The environment to search.
+     * @param ghostClearance Cells within this distance of a chasing or scattering ghost are not
+     *                       entered, or -1 to enter any cell.
+     * @return The cell of the dot, or -1 if nothing is left that can be reached.
+     */
+    private int searchNearestDot(int env, int ghostClearance) {
+        if(++searchStamp == 0) {
+            Arrays.fill(searchVisited, 0);
+            searchStamp = 1;
+        }
+        int head = 0, tail = 0;
+        int start = pacmanX[env] * mapHeight + pacmanY[env];
+        searchQueue[tail++] = start;
+        searchVisited[start] = searchStamp;
+        searchDistance[start] = 0;
+        while(head < tail) {
+            int cell = searchQueue[head++];
+            if(cell != start && (cellType[cell] == CELL_DOT || cellType[cell] == CELL_POWERUP)
+                    && (collected[env * collectedWords + (cell >>> 6)] & (1L << cell)) == 0) {
+                return cell;
+            }
+            int x = cell / mapHeight, y = cell % mapHeight;
+            for(int d = 0; d < 4; d++) {
+                int nx = x + DX[d], ny = y + DY[d];
+                if(!canPacmanEnter(nx, ny)) continue;
+                int next = nx * mapHeight + ny;
+                if(searchVisited[next] == searchStamp) continue;
+                searchVisited[next] = searchStamp;
+                if(ghostClearance >= 0 && distanceToNearestThreat(env, nx, ny) <= ghostClearance) continue;
+                searchDistance[next] = searchDistance[cell] + 1;
+                searchFirstMove[next] = cell == start ? (byte)d : searchFirstMove[cell];
+                searchQueue[tail++] = next;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a unit vector into a direction.
+     *
+     * @param move The unit vector.
+     * @return 0=Up, 1=Right, 2=Down, 3=Left or NO_ACTION for any other vector.
+     */
+    private static int directionOf(Position move) {
+        for(int d = 0; d < 4; d++) {
+            if(move.x == DX[d] && move.y == DY[d]) return d;
+        }
+        return NO_ACTION;
+    }
+
+    /**
+     * Advances every environment by one game tick. Each action is applied the same way
+     * as a key press before the tick. Environments are stepped in parallel when there are enough of them.
+     *
+     * @param actions One action per environment. 0=Up, 1=Right, 2=Down, 3=Left or NO_ACTION.
+     * @param rewards Filled with the score gained by each environment during the step.
+     * @param dones Filled with true for each environment that reached GameOver or GameWon.
+     */
+    public void step(int[] actions, float[] rewards, boolean[] dones) {
+        int tasks = (count + ENVIRONMENTS_PER_TASK - 1) / ENVIRONMENTS_PER_TASK;
+        if(tasks <= 1) {
+            stepRange(0, count, actions, rewards, dones);
+        } else {
+            IntStream.range(0, tasks).parallel().forEach(task ->
+                    stepRange(task * ENVIRONMENTS_PER_TASK,
+                            Math.min(count, (task + 1) * ENVIRONMENTS_PER_TASK), actions, rewards, dones));
+        }
+    }
+
+    /**
+     * Steps a contiguous range of environments.
+     *
+     * @param from First environment to step.
+     * @param to One past the last environment to step.
+     * @param actions One action per environment.
+     * @param rewards Filled with the score gained by each environment.
+     * @param dones Filled with the end state of each environment.
+     */
+    private void stepRange(int from, int to, int[] actions, float[] rewards, boolean[] dones) {
+        for(int env = from; env < to; env++) {
+            int scoreBefore = score[env];
+            applyAction(env, actions[env]);
+            tick(env);
+            rewards[env] = score[env] - scoreBefore;
+            dones[env] = mapState[env] != Map.MapState.Running.ordinal();
+            if(dones[env] && autoReset) {
+                reset(env);
+            }
+        }
+    }
+
+    /**
+     * Applies an action the same way Pacman.moveIfCan() applies a key press,
+     * including buffering a turn that can't be applied yet.
+     *
+     * @param env The environment to apply the action to.
+     * @param direction The direction pressed 0=Up, 1=Right, 2=Down, 3=Left or NO_ACTION.
+     */
+    public void applyAction(int env, int direction) {
+        if(direction < 0 || direction > 3) return;
+        if(!pacmanCanMove[env]) {
+            bufferTurn(env, direction);
+            return;
+        }
+        setPacmanFacing(env, PACMAN_FACING_FOR_DIRECTION[direction]);
+        if(canPacmanMove(env, direction)) {
+            pacmanNextMove[env] = (byte)direction;
+            pacmanBufferedMove[env] = NO_ACTION;
+        } else {
+            pacmanNextMove[env] = NO_ACTION;
+            bufferTurn(env, direction);
+        }
+    }
+
+    /**
+     * Remembers a turn to apply when it becomes legal, matching Pacman.bufferTurn().
+     *
+     * @param env The environment.
+     * @param direction The direction of the turn.
+     */
+    private void bufferTurn(int env, int direction) {
+        pacmanBufferedMove[env] = (byte)direction;
+        pacmanBufferTimer[env] = Pacman.BUFFERED_TURN_WINDOW;
+    }
+
+    /**
+     * Advances the environment by one update of the Map.
+     *
+     * @param env The environment to update.
+     */
+    public void tick(int env) {
+        if(mapState[env] != Map.MapState.Running.ordinal()) return;
+
+        updatePacman(env);
+        int base = env * ghostCount;
+        // Every ghost decides from the positions at the start of the step, matching Map.update()
+        for(int g = 0; g < ghostCount; g++) {
+            updateGhost(env, g, base + g);
+        }
+        for(int g = 0; g < ghostCount; g++) {
+            int slot = base + g;
+            int move = ghostNextMove[slot];
+            if(move >= 0) {
+                setGhostCell(slot, ghostX[slot] + DX[move], ghostY[slot] + DY[move], (byte)move);
+                ghostNextMove[slot] = -1;
+            }
+            if(pacmanX[env] == ghostX[slot] && pacmanY[env] == ghostY[slot]) {
+                if(ghostState[slot] == FRIGHTENED) {
+                    returnGhostHome(slot, g);
+                    score[env] += 100;
+                } else if(ghostState[slot] != RETURNING) {
+                    mapState[env] = (byte)Map.MapState.GameOver.ordinal();
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the movement timer for Pacman and applies any pending move, matching Pacman.update().
+     *
+     * @param env The environment to update.
+     */
+    private void updatePacman(int env) {
+        if(!pacmanCanMove[env]) {
+            pacmanMoveTimer[env] -= GamePanel.TIME_BETWEEN_UPDATES;
+            if(pacmanMoveTimer[env] <= 0) {
+                pacmanMoveTimer[env] = PACMAN_TIME_BETWEEN_MOVES;
+                pacmanCanMove[env] = true;
+            }
+        } else {
+            int buffered = pacmanBufferedMove[env];
+            if(buffered != NO_ACTION && canPacmanMove(env, buffered)) {
+                pacmanNextMove[env] = (byte)buffered;
+                setPacmanFacing(env, PACMAN_FACING_FOR_DIRECTION[buffered]);
+                pacmanBufferedMove[env] = NO_ACTION;
+            }
+            if(pacmanNextMove[env] != NO_ACTION) {
+                setPacmanCell(env, pacmanX[env] + DX[pacmanNextMove[env]], pacmanY[env] + DY[pacmanNextMove[env]]);
+                processEntering(env);
+                pacmanNextMove[env] = NO_ACTION;
+                pacmanCanMove[env] = false;
+            }
+        }
+
+        if(pacmanBufferedMove[env] != NO_ACTION) {
+            pacmanBufferTimer[env] -= GamePanel.TIME_BETWEEN_UPDATES;
+            if(pacmanBufferTimer[env] <= 0) {
+                pacmanBufferedMove[env] = NO_ACTION;
+            }
+        }
+    }
+
+    /**
+     * Triggers the effect of the cell Pacman has just entered.
+     *
+     * @param env The environment Pacman moved in.
+     */
+    private void processEntering(int env) {
+        int cell = pacmanX[env] * mapHeight + pacmanY[env];
+        switch(cellType[cell]) {
+            case CELL_DOT:
+                if(markCollected(env, cell)) increaseCollected(env);
+                break;
+            case CELL_POWERUP:
+                if(markCollected(env, cell)) {
+                    for(int g = 0; g < ghostCount; g++) {
+                        setGhostState(env * ghostCount + g, FRIGHTENED);
+                    }
+                }
+                break;
+            case CELL_CHERRY:
+                int flag = env * cherryCount + cellData[cell];
+                if(cherryFlags[flag] == 1) {
+                    cherryFlags[flag] = 3;
+                    stateHash[env] ^= ZobristHash.cherryCollectedKey(pacmanX[env], pacmanY[env]);
+                    score[env] += 150;
+                }
+                break;
+            case CELL_TELEPORT:
+                setPacmanCell(env, cellData[cell] / mapHeight, cellData[cell] % mapHeight);
+                setPacmanFacing(env, teleportFacing[cell]);
+                break;
+        }
+    }
+
+    /**
+     * Sets the collected bit for the cell.
+     *
+     * @param env The environment to modify.
+     * @param cell The cell that was collected.
+     * @return True if the cell had not already been collected.
+     */
+    private boolean markCollected(int env, int cell) {
+        int word = env * collectedWords + (cell >>> 6);
+        long bit = 1L << cell;
+        if((collected[word] & bit) != 0) return false;
+        collected[word] |= bit;
+        stateHash[env] ^= ZobristHash.collectedKey(cell / mapHeight, cell % mapHeight);
+        return true;
+    }
+
+    /**
+     * Moves Pacman to a cell and updates the hash.
+     *
+     * @param env The environment.
+     * @param x New X coordinate.
+     * @param y New Y coordinate.
+     */
+    private void setPacmanCell(int env, int x, int y) {
+        stateHash[env] ^= ZobristHash.pacmanCellKey(pacmanX[env], pacmanY[env]) ^ ZobristHash.pacmanCellKey(x, y);
+        pacmanX[env] = x;
+        pacmanY[env] = y;
+    }
+
+    /**
+     * Changes the facing of Pacman and updates the hash.
+     *
+     * @param env The environment.
+     * @param facing The new facing.
+     */
+    private void setPacmanFacing(int env, byte facing) {
+        stateHash[env] ^= ZobristHash.pacmanFacingKey(pacmanFacing[env]) ^ ZobristHash.pacmanFacingKey(facing);
+        pacmanFacing[env] = facing;
+    }
+
+    /**
+     * Moves a ghost to a cell with a new facing and updates the hash.
+     *
+     * @param slot Index of the ghost in the ghost arrays.
+     * @param x New X coordinate.
+     * @param y New Y coordinate.
+     * @param facing New facing.
+     */
+    private void setGhostCell(int slot, int x, int y, byte facing) {
+        int ghost = slot % ghostCount;
+        stateHash[slot / ghostCount] ^= ZobristHash.ghostCellKey(ghost, ghostX[slot], ghostY[slot])
+                ^ ZobristHash.ghostFacingKey(ghost, ghostFacing[slot])
+                ^ ZobristHash.ghostCellKey(ghost, x, y) ^ ZobristHash.ghostFacingKey(ghost, facing);
+        ghostX[slot] = x;
+        ghostY[slot] = y;
+        ghostFacing[slot] = facing;
+    }
+
+    /**
+     * Counts a collected dot and applies the ghost release, cherry reveal and win rules
+     * from Map.increaseCollected().
+     *
+     * @param env The environment to update.
+     */
+    private void increaseCollected(int env) {
+        int amount = ++collectedCount[env];
+        score[env]++;
+        for(int g = 0; g < ghostCount; g++) {
+            if(releaseAt[g] == amount) {
+                setGhostState(env * ghostCount + g, SCATTER);
+            }
+        }
+        boolean revealed = false;
+        for(int i = 0; i < cherryCount; i++) {
+            if(cherryRevealAt[i] == amount) {
+                if((cherryFlags[env * cherryCount + i] & 1) == 0) {
+                    stateHash[env] ^= ZobristHash.cherryRevealedKey(cherryCell[i] / mapHeight, cherryCell[i] % mapHeight);
+                }
+                cherryFlags[env * cherryCount + i] |= 1;
+                revealed = true;
+            }
+        }
+        if(!revealed && amount == totalCollectibles) {
+            mapState[env] = (byte)Map.MapState.GameWon.ordinal();
+        }
+    }
+
+    /**
+     * Updates a single ghost matching Ghost.update() without the eye animation.
+     *
+     * @param env The environment the ghost is in.
+     * @param ghost The ghost number.
+     * @param slot Index of the ghost in the ghost arrays.
+     */
+    private void updateGhost(int env, int ghost, int slot) {
+        if(ghostState[slot] == INACTIVE) return;
+
+        // Update state timers
+        if(ghostState[slot] == RETURNING) {
+            int distance = homeField.getDistance(ghostX[slot], ghostY[slot]);
+            if(distance == 0) {
+                restartGhostInHouse(slot);
+            } else if(distance == HomeField.UNREACHABLE) {
+                resetGhostToStart(slot, ghost);
+            }
+        } else if(ghostState[slot] == FRIGHTENED) {
+            ghostFearTimer[slot] -= GamePanel.TIME_BETWEEN_UPDATES;
+            if(ghostFearTimer[slot] <= 0) {
+                setGhostState(slot, ghostPreviousState[slot]);
+            }
+        } else {
+            ghostStateTimer[slot] -= GamePanel.TIME_BETWEEN_UPDATES;
+            if(ghostStateTimer[slot] <= 0) {
+                setGhostState(slot, ghostState[slot] == SCATTER ? CHASE : SCATTER);
+            }
+        }
+
+        // Update movement
+        if(!ghostCanMove[slot]) {
+            ghostMoveTimer[slot] -= GamePanel.TIME_BETWEEN_UPDATES;
+            if(ghostMoveTimer[slot] <= 0) {
+                int start = ghostState[slot] == FRIGHTENED ? TIME_BETWEEN_MOVES_WHILE_FEARED
+                        : ghostState[slot] == RETURNING ? TIME_BETWEEN_MOVES_WHILE_RETURNING : TIME_BETWEEN_MOVES;
+                ghostMoveTimerStart[slot] = start;
+                ghostMoveTimer[slot] = start;
+                ghostCanMove[slot] = true;
+            }
+        } else {
+            switch(ghostState[slot]) {
+                case RETURNING:
+                    int home = homeField.getDirection(ghostX[slot], ghostY[slot]);
+                    if(home != -1) ghostNextMove[slot] = (byte)home;
+                    break;
+                case FRIGHTENED:
+                    moveGhostUsingTarget(slot, pacmanX[env], pacmanY[env], !ghostFirstFrightened[slot], false);
+                    ghostFirstFrightened[slot] = false;
+                    break;
+                case CHASE:
+                    chase(env, ghost, slot);
+                    break;
+                case SCATTER:
+                    moveGhostUsingTarget(slot, scatterTargetX[ghost], scatterTargetY[ghost], true, true);
+                    break;
+            }
+            ghostCanMove[slot] = false;
+        }
+    }
+
+    /**
+     * Moves a chasing ghost using the same targets as the ChaseBehaviour implementations.
+     *
+     * @param env The environment the ghost is in.
+     * @param ghost The ghost number.
+     * @param slot Index of the ghost in the ghost arrays.
+     */
+    private void chase(int env, int ghost, int slot) {
+        int px = pacmanX[env], py = pacmanY[env], facing = pacmanFacing[env];
+        switch(chaseBehaviour[ghost]) {
+            case CHASE_AGGRESSIVE:
+                moveGhostUsingFlowField(slot, px, py);
+                break;
+            case CHASE_PATROL:
+                int redSlot = env * ghostCount;
+                int offsetX = px + DX[facing] * 2, offsetY = py + DY[facing] * 2;
+                moveGhostUsingTarget(slot, (offsetX - ghostX[redSlot]) * 2 + ghostX[redSlot],
+                        (offsetY - ghostY[redSlot]) * 2 + ghostY[redSlot], true, true);
+                break;
+            case CHASE_AMBUSH:
+                moveGhostUsingTarget(slot, px + DX[facing] * 4, py + DY[facing] * 4, true, true);
+                break;
+            case CHASE_RANDOM:
+                int dx = ghostX[slot] - px, dy = ghostY[slot] - py;
+                if(dx * dx + dy * dy > 64) {
+                    moveGhostUsingFlowField(slot, px, py);
+                } else {
+                    moveGhostUsingTarget(slot, 1, mapHeight - 2, true, true);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Chooses the ghost's move matching GhostAI.moveGhostUsingTarget(). The first valid move
+     * wins ties and squared distances are compared because they order the same as distances.
+     * The move is applied after every ghost has decided.
+     *
+     * @param slot Index of the ghost in the ghost arrays.
+     * @param targetX X coordinate of the target.
+     * @param targetY Y coordinate of the target.
+     * @param preventBackMovement When true the ghost can not reverse its facing.
+     * @param preferLowerDistance Chooses moving toward (true) or away (false) from the target.
+     */
+    private void moveGhostUsingTarget(int slot, int targetX, int targetY,
+                                      boolean preventBackMovement, boolean preferLowerDistance) {
+        int x = ghostX[slot], y = ghostY[slot];
+        int moves = navMoves[x * mapHeight + y];
+        if(preventBackMovement) {
+            moves &= ~(1 << ((ghostFacing[slot] + 2) % 4));
+        }
+        int bestMove = -1;
+        long bestValue = 0;
+        for(int d = 0; d < 4; d++) {
+            if((moves & (1 << d)) == 0) continue;
+            long dx = x + DX[d] - targetX, dy = y + DY[d] - targetY;
+            long value = dx * dx + dy * dy;
+            if(bestMove == -1 || (preferLowerDistance ? value < bestValue : value > bestValue)) {
+                bestMove = d;
+                bestValue = value;
+            }
+        }
+        if(bestMove == -1) return;
+        ghostNextMove[slot] = (byte)bestMove;
+    }
+
+    /**
+     * Chooses the ghost's move along the shortest path to a target matching
+     * GhostAI.moveGhostUsingFlowField(), with the same tie breaks as GhostAI.getBestMoveFromField().
+     * Uses the hierarchical paths on very large maps, which give the same distances.
+     *
+     * @param slot Index of the ghost in the ghost arrays.
+     * @param targetX X coordinate of the target.
+     * @param targetY Y coordinate of the target.
+     */
+    private void moveGhostUsingFlowField(int slot, int targetX, int targetY) {
+        int[] distances = hierarchicalPaths == null ? flowFields.getDistances(targetX, targetY) : null;
+        if(hierarchicalPaths == null ? distances == null : !hierarchicalPaths.isInMap(targetX, targetY)) {
+            moveGhostUsingTarget(slot, targetX, targetY, true, true);
+            return;
+        }
+        int x = ghostX[slot], y = ghostY[slot];
+        int moves = navMoves[x * mapHeight + y] & ~(1 << ((ghostFacing[slot] + 2) % 4));
+        int bestMove = -1, bestDistance = 0;
+        long bestValue = 0;
+        for(int d = 0; d < 4; d++) {
+            if((moves & (1 << d)) == 0) continue;
+            int distance = distances != null ? distances[(x + DX[d]) * mapHeight + y + DY[d]]
+                    : hierarchicalPaths.getDistance(x + DX[d], y + DY[d], targetX, targetY);
+            long dx = x + DX[d] - targetX, dy = y + DY[d] - targetY;
+            long value = dx * dx + dy * dy;
+            if(bestMove == -1 || distance < bestDistance || (distance == bestDistance && value < bestValue)) {
+                bestMove = d;
+                bestDistance = distance;
+                bestValue = value;
+            }
+        }
+        if(bestMove == -1) return;
+        ghostNextMove[slot] = (byte)bestMove;
+    }
+
+    /**
+     * Changes the state of a ghost matching Ghost.setState().
+     *
+     * @param slot Index of the ghost in the ghost arrays.
+     * @param state The new state.
+     */
+    private void setGhostState(int slot, byte state) {
+        if(state == FRIGHTENED) {
+            if(ghostState[slot] == INACTIVE || ghostState[slot] == RETURNING) return;
+            if(ghostState[slot] != FRIGHTENED) {
+                ghostPreviousState[slot] = ghostState[slot];
+            }
+            ghostFirstFrightened[slot] = true;
+            ghostFearTimer[slot] = FEAR_DURATION;
+        } else if(state == CHASE) {
+            ghostStateTimerStart[slot] = CHASE_DURATION;
+            ghostStateTimer[slot] = CHASE_DURATION;
+        } else if(state == SCATTER) {
+            ghostStateTimerStart[slot] = SCATTER_DURATION;
+            ghostStateTimer[slot] = SCATTER_DURATION;
+        }
+        int ghost = slot % ghostCount;
+        stateHash[slot / ghostCount] ^= ZobristHash.ghostStateKey(ghost, ghostState[slot]) ^ ZobristHash.ghostStateKey(ghost, state);
+        ghostState[slot] = state;
+    }
+
+    /**
+     * Sends an eaten ghost back to its start matching Ghost.resetToStart().
+     *
+     * @param slot Index of the ghost in the ghost arrays.
+     * @param ghost The ghost number.
+     */
+    private void resetGhostToStart(int slot, int ghost) {
+        setGhostCell(slot, ghostStartX[ghost], ghostStartY[ghost], (byte)0);
+        restartGhostInHouse(slot);
+    }
+
+    /**
+     * Sends an eaten ghost's eyes home matching Ghost.returnHome().
+     *
+     * @param slot Index of the ghost in the ghost arrays.
+     * @param ghost The ghost number.
+     */
+    private void returnGhostHome(int slot, int ghost) {
+        int distance = homeField.getDistance(ghostX[slot], ghostY[slot]);
+        if(distance == 0 || distance == HomeField.UNREACHABLE) {
+            resetGhostToStart(slot, ghost);
+        } else {
+            setGhostState(slot, RETURNING);
+        }
+    }
+
+    /**
+     * Restarts a ghost that is back in the ghost house matching Ghost.restartInHouse().
+     *
+     * @param slot Index of the ghost in the ghost arrays.
+     */
+    private void restartGhostInHouse(int slot) {
+        setGhostCell(slot, ghostX[slot], ghostY[slot], (byte)0);
+        ghostFearTimer[slot] = FEAR_DURATION;
+        ghostStateTimer[slot] = ghostStateTimerStart[slot];
+        ghostMoveTimer[slot] = ghostMoveTimerStart[slot];
+        setGhostState(slot, SCATTER);
+    }
+
+    /**
+     * Tests entry for Pacman matching Map.canEnter() without ghost collisions.
+     *
+     * @param x X coordinate to enter.
+     * @param y Y coordinate to enter.
+     * @return True if Pacman can enter the cell.
+     */
+    private boolean canPacmanEnter(int x, int y) {
+        if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) return false;
+        byte type = enterType[x * mapHeight + y];
+        return type == MapObject.EnterType.Everyone.ordinal() || type == MapObject.EnterType.PacmanOnly.ordinal();
+    }
+
+    /**
+     * Assigns the behaviours, scatter target and release rule for a ghost from the config
+     * of the matching ghost on the template map.
+     *
+     * @param ghost The ghost number.
+     * @param config The config of the ghost on the template.
+     */
+    private void configureGhost(int ghost, GhostConfig config) {
+        int right = mapWidth - 2, bottom = mapHeight - 2;
+        chaseBehaviour[ghost] = (byte)config.getChase().ordinal();
+        switch(config.getScatter()) {
+            case TopRight: scatterTargetX[ghost] = right; scatterTargetY[ghost] = 1; break;
+            case BottomRight: scatterTargetX[ghost] = right; scatterTargetY[ghost] = bottom; break;
+            case TopLeft: scatterTargetX[ghost] = 1; scatterTargetY[ghost] = 1; break;
+            case BottomLeft: scatterTargetX[ghost] = 1; scatterTargetY[ghost] = bottom; break;
+        }
+        releaseAt[ghost] = config.getReleaseAt(totalCollectibles);
+    }
+
+    /**
+     * Sets whether environments that finish are reset automatically during step().
+     *
+     * @param autoReset True to reset finished environments automatically.
+     */
+    public void setAutoReset(boolean autoReset) {
+        this.autoReset = autoReset;
+    }
+
+    /**
+     * Gets the number of environments.
+     *
+     * @return The number of environments.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of ghosts in each environment.
+     *
+     * @return The number of ghosts.
+     */
+    public int getGhostCount() {
+        return ghostCount;
+    }
+
+    /**
+     * Gets the width of the shared map.
+     *
+     * @return Number of grid cells horizontally.
+     */
+    public int getMapWidth() {
+        return mapWidth;
+    }
+
+    /**
+     * Gets the height of the shared map.
+     *
+     * @return Number of grid cells vertically.
+     */
+    public int getMapHeight() {
+        return mapHeight;
+    }
+
+    /**
+     * Gets the live array of Pacman X coordinates indexed by environment.
+     *
+     * @return Pacman X coordinates.
+     */
+    public int[] getPacmanX() {
+        return pacmanX;
+    }
+
+    /**
+     * Gets the live array of Pacman Y coordinates indexed by environment.
+     *
+     * @return Pacman Y coordinates.
+     */
+    public int[] getPacmanY() {
+        return pacmanY;
+    }
+
+    /**
+     * Gets the live array of ghost X coordinates indexed by env*ghostCount+ghost.
+     *
+     * @return Ghost X coordinates.
+     */
+    public int[] getGhostX() {
+        return ghostX;
+    }
+
+    /**
+     * Gets the live array of ghost Y coordinates indexed by env*ghostCount+ghost.
+     *
+     * @return Ghost Y coordinates.
+     */
+    public int[] getGhostY() {
+        return ghostY;
+    }
+
+    /**
+     * Gets the live array of ghost states indexed by env*ghostCount+ghost.
+     *
+     * @return Ghost states using the ordinals of Ghost.GhostState.
+     */
+    public byte[] getGhostState() {
+        return ghostState;
+    }
+
+    /**
+     * Gets the current score of an environment.
+     *
+     * @param env The environment.
+     * @return The current score.
+     */
+    public int getScore(int env) {
+        return score[env];
+    }
+
+    /**
+     * Gets the current state of an environment.
+     *
+     * @param env The environment.
+     * @return The current map state.
+     */
+    public Map.MapState getMapState(int env) {
+        return MAP_STATES[mapState[env]];
+    }
+
+    /**
+     * Gets the Zobrist hash of an environment. Matches Map.getZobristHash() for the same state.
+     *
+     * @param env The environment.
+     * @return The 64-bit hash.
+     */
+    public long getStateHash(int env) {
+        return stateHash[env];
+    }
+
+    /**
+     * Gets whether the game in an environment is still running.
+     *
+     * @param env The environment.
+     * @return True if the environment has not reached GameOver or GameWon.
+     */
+    public boolean isRunning(int env) {
+        return mapState[env] == Map.MapState.Running.ordinal();
+    }
+
+    /**
+     * Tests if the cell has been collected in the environment.
+     *
+     * @param env The environment.
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return True if the dot or powerup in the cell has been collected.
+     */
+    public boolean isCollected(int env, int x, int y) {
+        int cell = x * mapHeight + y;
+        return (collected[env * collectedWords + (cell >>> 6)] & (1L << cell)) != 0;
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * BatchParityCheck class:
+ * Checks that BatchEnvironment still plays by the same rules as Map. For each seed a Map and a
+ * BatchEnvironment are given the same Pacman moves, chosen by a player that mostly heads for the
+ * nearest dot so games reach the powerups, cherries, ghost releases and the end of the level.
+ * After every tick the cells of Pacman and the ghosts, the ghost states, the score, the map state
+ * and the state hash must be the same in both. The first difference is printed with the seed and
+ * tick, and the check exits with status 1. Run it after changing any rule of the game.
+ *
+ * Arguments: [seeds=30] [ticks per seed=20000]
+ */
+public class BatchParityCheck {
+    /**
+     * Chance of the player heading for the nearest dot instead of pressing a random direction.
+     */
+    private static final double NEAREST_DOT_CHANCE = 0.8;
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    /**
+     * Runs the check.
+     *
+     * @param args Optional number of seeds and number of ticks played with each.
+     */
+    public static void main(String[] args) {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        Map map = new Map();
+        long totalGames = 0, wins = 0;
+        for(int seed = 0; seed < seeds; seed++) {
+            map.restart();
+            BatchEnvironment env = new BatchEnvironment(map, 1);
+            env.setAutoReset(false);
+            Random rand = new Random(seed);
+            int[] actions = new int[1];
+            float[] rewards = new float[1];
+            boolean[] dones = new boolean[1];
+            for(int tick = 0; tick < ticks; tick++) {
+                int direction = BatchEnvironment.NO_ACTION;
+                if(map.getPacman().canMove()) {
+                    direction = rand.nextDouble() < NEAREST_DOT_CHANCE ? findDirectionToNearestDot(map) : rand.nextInt(4);
+                    if(direction != BatchEnvironment.NO_ACTION) map.getPacman().moveIfCan(Autopilot.keyCodeFor(direction));
+                }
+                map.update();
+                actions[0] = direction;
+                env.step(actions, rewards, dones);
+                String difference = findDifference(map, env);
+                if(difference != null) {
+                    System.out.println("Seed " + seed + " tick " + tick + ": " + difference);
+                    System.exit(1);
+                }
+                if(dones[0]) {
+                    totalGames++;
+                    if(map.getMapState() == Map.MapState.GameWon) wins++;
+                    map.restart();
+                    env.reset(0);
+                }
+            }
+        }
+        System.out.println("No differences in " + seeds + " seeds of " + ticks + " ticks, "
+                + totalGames + " games finished and " + wins + " won.");
+    }
+
+    /**
+     * Compares the map with the only environment of the batch.
+     *
+     * @param map The map updated by the game's rules.
+     * @param env The environment stepped with the same moves.
+     * @return A description of the first difference found, or null if they match.
+     */
+    private static String findDifference(Map map, BatchEnvironment env) {
+        Position pacman = map.getPacman().getPosition();
+        if(pacman.x != env.getPacmanX()[0] || pacman.y != env.getPacmanY()[0]) {
+            return "Pacman at " + pacman + " in the map but " + env.getPacmanX()[0] + "," + env.getPacmanY()[0] + " in the batch";
+        }
+        for(int i = 0; i < map.getGhostCount(); i++) {
+            Ghost ghost = map.getGhost(i);
+            if(ghost.getPosition().x != env.getGhostX()[i] || ghost.getPosition().y != env.getGhostY()[i]
+                    || ghost.getGhostState().ordinal() != env.getGhostState()[i]) {
+                return "Ghost " + i + " " + ghost.getGhostState() + " at " + ghost.getPosition() + " in the map but "
+                        + Ghost.GhostState.values()[env.getGhostState()[i]] + " at " + env.getGhostX()[i] + "," + env.getGhostY()[i] + " in the batch";
+            }
+        }
+        if(map.getScore() != env.getScore(0)) {
+            return "Score " + map.getScore() + " in the map but " + env.getScore(0) + " in the batch";
+        }
+        if(map.getMapState() != env.getMapState(0)) {
+            return "State " + map.getMapState() + " in the map but " + env.getMapState(0) + " in the batch";
+        }
+        if(map.getZobristHash().getValue() != env.getStateHash(0)) {
+            return "State hash differs, such as a collected cell or a facing";
+        }
+        return null;
+    }
+
+    /**
+     * Finds the first move along a shortest walk from Pacman to the nearest dot or powerup
+     * that has not been collected.
+     *
+     * @param map The map Pacman is on.
+     * @return The direction of the move, or BatchEnvironment.NO_ACTION if no dot can be reached.
+     */
+    private static int findDirectionToNearestDot(Map map) {
+        int width = map.getMapWidth(), height = map.getMapHeight();
+        MapObject[][] mapObjects = map.getMapObjects();
+        Pacman pacman = map.getPacman();
+        int[] firstMove = new int[width * height];
+        Arrays.fill(firstMove, -2);
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+        Position start = pacman.getPosition();
+        firstMove[start.x * height + start.y] = -1;
+        queue[tail++] = start.x * height + start.y;
+        Position next = new Position(0, 0);
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / height, y = cell % height;
+            MapObject object = mapObjects[x][y];
+            if(firstMove[cell] != -1 && (object instanceof CollectableObject && !((CollectableObject)object).isCollected()
+                    || object instanceof PowerupObject && !((PowerupObject)object).isCollected())) {
+                return firstMove[cell];
+            }
+            for(int d = 0; d < 4; d++) {
+                next.setPosition(x + DX[d], y + DY[d]);
+                if(!map.canEnter(next, pacman, false)) continue;
+                int nextCell = next.x * height + next.y;
+                if(firstMove[nextCell] != -2) continue;
+                firstMove[nextCell] = firstMove[cell] == -1 ? d : firstMove[cell];
+                queue[tail++] = nextCell;
+            }
+        }
+        return BatchEnvironment.NO_ACTION;
+    }
+}
@@ -4,6 +4,7 @@
  *
  * ChaseAggressive class:
  * Behaviour implementation that will chase the player as directly as possible.
+ * Follows the shortest path to the player using the map's shared flow field.
  */
 public class ChaseAggressive implements GhostAI.ChaseBehaviour {
     /**
@@ -21,10 +22,10 @@ public class ChaseAggressive implements GhostAI.ChaseBehaviour {
     }
 
     /**
-     * Moves the ghost if possible based on chasing as closely as possible toward the player.
+     * Moves the ghost if possible along the shortest path toward the player.
      */
     @Override
     public void chase() {
-        GhostAI.moveGhostUsingTarget(ghost, Map.INSTANCE.getPacman().getPosition(), true, true);
+        GhostAI.moveGhostUsingFlowField(ghost, ghost.getMap().getPacman().getPosition());
     }
 }
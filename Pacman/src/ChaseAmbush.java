@@ -26,8 +26,8 @@ public class ChaseAmbush implements GhostAI.ChaseBehaviour {
      */
     @Override
     public void chase() {
-        Position targetPos = GhostAI.getOffsetFromFacing(Map.INSTANCE.getPacman().getPosition(),
-                                                         Map.INSTANCE.getPacman().getFacing(), 4);
+        Position targetPos = GhostAI.getOffsetFromFacing(ghost.getMap().getPacman().getPosition(),
+                                                         ghost.getMap().getPacman().getFacing(), 4);
         GhostAI.moveGhostUsingTarget(ghost, targetPos, true, true);
     }
 }
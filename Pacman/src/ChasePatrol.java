@@ -28,9 +28,9 @@ public class ChasePatrol implements GhostAI.ChaseBehaviour {
      */
     @Override
     public void chase() {
-        Position pacmanOffset = GhostAI.getOffsetFromFacing(Map.INSTANCE.getPacman().getPosition(),
-                Map.INSTANCE.getPacman().getFacing(), 2);
-        Position redPos = Map.INSTANCE.getGhost(0).getPosition();
+        Position pacmanOffset = GhostAI.getOffsetFromFacing(ghost.getMap().getPacman().getPosition(),
+                ghost.getMap().getPacman().getFacing(), 2);
+        Position redPos = ghost.getMap().getGhost(0).getPosition();
         // Calculate the direction vector from pacmanOffset
         Position directionVector = new Position(pacmanOffset);
         directionVector.subtract(redPos);
@@ -38,8 +38,8 @@ public class ChasePatrol implements GhostAI.ChaseBehaviour {
         directionVector.multiply(2);
         // Apply the distance offset to the red position to get the target cell
         directionVector.add(redPos);
-        if(GhostAI.showAIDebug)
-            System.out.println("Target: " + directionVector + " P: " + pacmanOffset + " R: " + redPos);
+        if(AITrace.ENABLED)
+            ghost.getMap().getAITrace().recordTarget(ghost.getGhostNumber(), pacmanOffset, directionVector);
         GhostAI.moveGhostUsingTarget(ghost, directionVector, true, true);
     }
 }
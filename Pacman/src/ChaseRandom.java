@@ -32,7 +32,7 @@ public class ChaseRandom implements GhostAI.ChaseBehaviour {
      */
     @Override
     public void chase() {
-        if(ghost.getPosition().distanceTo(Map.INSTANCE.getPacman().getPosition()) > 8) {
+        if(ghost.getPosition().distanceTo(ghost.getMap().getPacman().getPosition()) > 8) {
             farBehaviour.chase();
         } else {
             closeBehaviour.scatter();
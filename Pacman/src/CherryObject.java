@@ -18,13 +18,20 @@ public class CherryObject extends MapObject{
      */
     private boolean revealed;
 
+    /**
+     * Reference to the map the object is on.
+     */
+    private Map map;
+
     /**
      * Creates a cherry that can be entered by anyone and starts as being hidden.
      *
      * @param position The position of the cherry on the map.
+     * @param map Reference to the map the object is on.
      */
-    public CherryObject(Position position) {
+    public CherryObject(Position position, Map map) {
         super(position, ObjectType.Cherry, EnterType.Everyone);
+        this.map = map;
         collected = false;
         revealed = false;
     }
@@ -34,6 +41,8 @@ public class CherryObject extends MapObject{
      */
     @Override
     public void reset() {
+        if(collected) map.getZobristHash().toggleCherryCollected(position);
+        if(revealed) map.getZobristHash().toggleCherryRevealed(position);
         super.reset();
         collected = false;
         revealed = false;
@@ -50,7 +59,9 @@ public class CherryObject extends MapObject{
     public void onEnter(MapObject enteringObject) {
         if(!collected && revealed && enteringObject instanceof Pacman) {
             collected = true;
-            Map.INSTANCE.addBonusScore(150);
+            map.getZobristHash().toggleCherryCollected(position);
+            map.addBonusScore(150);
+            CollectibleEvent.record(this, map);
         }
     }
 
@@ -58,9 +69,75 @@ public class CherryObject extends MapObject{
      * Makes the cherry visible.
      */
     public void reveal() {
+        if(!revealed) map.getZobristHash().toggleCherryRevealed(position);
         revealed = true;
     }
 
+    /**
+     * Gets the number of ints saveState() writes.
+     *
+     * @return 2 for the revealed and collected flags.
+     */
+    @Override
+    public int getStateSize() {
+        return 2;
+    }
+
+    /**
+     * Writes the revealed and collected flags into an array.
+     *
+     * @param state The array to write into.
+     * @param offset The index to start writing at.
+     * @return The index after the flags.
+     */
+    @Override
+    public int saveState(int[] state, int offset) {
+        state[offset] = revealed ? 1 : 0;
+        state[offset+1] = collected ? 1 : 0;
+        return offset + 2;
+    }
+
+    /**
+     * Reads back the revealed and collected flags. The map's hash is restored separately.
+     *
+     * @param state The array to read from.
+     * @param offset The index to start reading at.
+     * @return The index after the flags.
+     */
+    @Override
+    public int restoreState(int[] state, int offset) {
+        revealed = state[offset] != 0;
+        collected = state[offset+1] != 0;
+        return offset + 2;
+    }
+
+    /**
+     * Gets whether the cherry is currently shown and can be collected.
+     *
+     * @return True if the cherry has been revealed and not collected yet.
+     */
+    public boolean isVisible() {
+        return revealed && !collected;
+    }
+
+    /**
+     * Gets whether the cherry has been revealed.
+     *
+     * @return True if the cherry has been revealed.
+     */
+    public boolean isRevealed() {
+        return revealed;
+    }
+
+    /**
+     * Gets whether the player has collected the cherry.
+     *
+     * @return True if the cherry has been collected.
+     */
+    public boolean isCollected() {
+        return collected;
+    }
+
     /**
      * Draws a cherry consisting of two red balls and two green lines.
      *
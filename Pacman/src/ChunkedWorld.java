@@ -0,0 +1,742 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * ChunkedWorld class:
+ * Storage for worlds too large to hold in memory, such as an endless mode. The world is kept in
+ * a memory-mapped file split into square chunks of cells. Only the chunks around Pacman and the
+ * active ghosts are copied into memory, paged in a few chunks ahead so moving never waits on the
+ * file, and dropped again once every actor is far away. Which dots have been collected is kept
+ * with each chunk and written back to the file when the chunk is dropped, so memory stays bounded
+ * by the number of actors however large the world is. A Map plays a world through a WorldWindow,
+ * which pages it around Pacman and the ghosts every update.
+ *
+ * A world is made of tiles of a map, and the navMap restrictions of the tile are kept so they
+ * can be applied to every tile.
+ *
+ * File layout (big endian):
+ * Header of HEADER_BYTES: magic, version, width, height, chunkSize (ints) followed by the number
+ * of collected cells (long at COLLECTED_OFFSET), then tileWidth, tileHeight and the number of
+ * restrictions (ints at TILE_OFFSET). Then the chunks, chunk cx,cy at index cx * chunksDown + cy.
+ * Each chunk holds chunkSize * chunkSize bytes of map file characters with the cell x,y at
+ * localX * chunkSize + localY, followed by one bit per cell set once collected. Chunks past the
+ * edge of the world are padded with walls. Last are the restrictions of a tile as X, Y and
+ * direction (ints), relative to the top left of the tile.
+ */
+public class ChunkedWorld {
+    /**
+     * Identifies the file as a chunked world ("PMWD").
+     */
+    public static final int MAGIC = 0x504D5744;
+    /**
+     * Version of the file layout.
+     */
+    public static final int VERSION = 2;
+    /**
+     * Size of the file header and offset of the first chunk.
+     */
+    public static final int HEADER_BYTES = 64;
+    /**
+     * Offset in the header of the number of collected cells.
+     */
+    public static final int COLLECTED_OFFSET = 24;
+    /**
+     * Offset in the header of the tile width, tile height and number of restrictions.
+     */
+    public static final int TILE_OFFSET = 32;
+    /**
+     * Bytes of each restriction stored after the chunks.
+     */
+    private static final int RESTRICTION_BYTES = 12;
+    /**
+     * Number of cells along each side of a chunk by default.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+    /**
+     * Number of chunks around the chunk of each actor that are kept in memory. Actors move
+     * at most one cell each update, so this many chunks ahead are always paged in before they
+     * are reached.
+     */
+    public static final int PAGE_RADIUS = 2;
+    /**
+     * Number of chunks paged in by lookups away from every actor that are kept before the
+     * oldest is dropped, so looking up cells without calling update() still uses bounded memory.
+     */
+    public static final int MAX_MISS_CHUNKS = 16;
+
+    /**
+     * Gives the map file character of each cell when creating a world.
+     */
+    public interface CellSource {
+        /**
+         * Gets the map file character of a cell.
+         *
+         * @param x Column of the cell.
+         * @param y Row of the cell.
+         * @return The character, such as 'W' for a wall.
+         */
+        char getCell(int x, int y);
+    }
+
+    /**
+     * A chunk copied into memory.
+     */
+    private static class Chunk {
+        /**
+         * Index of the chunk in the file, or -1 while unused.
+         */
+        int index = -1;
+        /**
+         * Column of the first cell of the chunk.
+         */
+        int left;
+        /**
+         * Row of the first cell of the chunk.
+         */
+        int top;
+        /**
+         * Map file characters of the cells, the cell x,y at localX * chunkSize + localY.
+         */
+        final byte[] cells;
+        /**
+         * One bit per cell, set once the cell has been collected.
+         */
+        final long[] collected;
+        /**
+         * True if cells have been collected since the chunk was paged in.
+         */
+        boolean dirty;
+
+        /**
+         * Creates an unused chunk.
+         *
+         * @param chunkSize Number of cells along each side.
+         */
+        Chunk(int chunkSize) {
+            cells = new byte[chunkSize * chunkSize];
+            collected = new long[collectedBytes(chunkSize) / 8];
+        }
+    }
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of cells along each side of a chunk.
+     */
+    private final int chunkSize;
+    /**
+     * Number of chunks horizontally and vertically.
+     */
+    private final int chunksAcross, chunksDown;
+    /**
+     * Number of cells across and down each tile the restrictions repeat over.
+     */
+    private final int tileWidth, tileHeight;
+    /**
+     * The navMap restrictions of a tile as X, Y and direction, relative to the top left of the tile.
+     */
+    private final List<int[]> tileRestrictions;
+    /**
+     * Bytes of cells in each chunk, and bytes of each chunk including its collected bits.
+     */
+    private final int cellBytes, chunkBytes;
+    /**
+     * Number of chunks in each mapped region of the file. A single mapping is limited to 2GB.
+     */
+    private final int chunksPerRegion;
+    /**
+     * The open file.
+     */
+    private final FileChannel channel;
+    /**
+     * The mapped header.
+     */
+    private final MappedByteBuffer header;
+    /**
+     * Mapped regions of the chunks, each mapped the first time a chunk in it is paged in.
+     */
+    private final MappedByteBuffer[] regions;
+    /**
+     * Chunks in memory by index.
+     */
+    private final HashMap<Integer, Chunk> resident;
+    /**
+     * Dropped chunks kept to be reused so paging does not allocate new cell arrays.
+     */
+    private final ArrayDeque<Chunk> spareChunks;
+    /**
+     * Chunks found to be far from every actor during an update, dropped once the search is done.
+     */
+    private final List<Chunk> evictList;
+    /**
+     * Chunk of each actor at the last update, packed as chunkX * chunksDown + chunkY.
+     * Paging only changes when an actor moves into another chunk.
+     */
+    private long[] actorChunks;
+    /**
+     * Indices of the last chunks paged in by misses, or -1, used as a ring.
+     */
+    private final int[] missChunks;
+    /**
+     * Position in missChunks of the oldest entry, replaced by the next miss.
+     */
+    private int nextMissChunk;
+    /**
+     * The chunk of the last cell looked up, since lookups mostly fall in the same chunk.
+     */
+    private Chunk lastChunk;
+    /**
+     * Number of cells collected in the whole world.
+     */
+    private long collectedCount;
+    /**
+     * Number of chunks paged in ahead of being needed.
+     */
+    private long pageIns;
+    /**
+     * Number of chunks paged in because a cell was looked up before its chunk was paged in.
+     */
+    private long misses;
+    /**
+     * Number of chunks dropped from memory.
+     */
+    private long evictions;
+    /**
+     * Largest number of chunks in memory at once.
+     */
+    private int peakResident;
+
+    /**
+     * Opens a world file created with create().
+     *
+     * @param file The world file.
+     * @throws IOException If the file can not be opened or is not a world file.
+     */
+    public ChunkedWorld(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(file + " is not a version " + VERSION + " world file.");
+        }
+        width = header.getInt(8);
+        height = header.getInt(12);
+        chunkSize = header.getInt(16);
+        collectedCount = header.getLong(COLLECTED_OFFSET);
+        tileWidth = header.getInt(TILE_OFFSET);
+        tileHeight = header.getInt(TILE_OFFSET + 4);
+        chunksAcross = (width + chunkSize - 1) / chunkSize;
+        chunksDown = (height + chunkSize - 1) / chunkSize;
+        cellBytes = chunkSize * chunkSize;
+        chunkBytes = cellBytes + collectedBytes(chunkSize);
+        chunksPerRegion = Integer.MAX_VALUE / chunkBytes;
+        int chunkCount = chunksAcross * chunksDown;
+        int restrictionCount = header.getInt(TILE_OFFSET + 8);
+        tileRestrictions = new ArrayList<>();
+        if(restrictionCount > 0) {
+            MappedByteBuffer restrictions = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + (long)chunkCount * chunkBytes, (long)restrictionCount * RESTRICTION_BYTES);
+            for(int i = 0; i < restrictionCount; i++) {
+                int offset = i * RESTRICTION_BYTES;
+                tileRestrictions.add(new int[] {restrictions.getInt(offset), restrictions.getInt(offset + 4), restrictions.getInt(offset + 8)});
+            }
+        }
+        regions = new MappedByteBuffer[(chunkCount + chunksPerRegion - 1) / chunksPerRegion];
+        resident = new HashMap<>();
+        spareChunks = new ArrayDeque<>();
+        evictList = new ArrayList<>();
+        actorChunks = new long[0];
+        missChunks = new int[MAX_MISS_CHUNKS];
+        Arrays.fill(missChunks, -1);
+    }
+
+    /**
+     * Creates or replaces a world file without navMap restrictions, with every cell uncollected.
+     *
+     * @param file The file to write.
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param chunkSize Number of cells along each side of a chunk. Must be a multiple of 8.
+     * @param cells Gives the character of every cell.
+     * @throws IOException If the file can not be written.
+     */
+    public static void create(Path file, int width, int height, int chunkSize, CellSource cells) throws IOException {
+        create(file, width, height, chunkSize, cells, width, height, new ArrayList<>());
+    }
+
+    /**
+     * Creates or replaces a world file made of tiles of a map, with every cell uncollected.
+     *
+     * @param file The file to write.
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @param chunkSize Number of cells along each side of a chunk. Must be a multiple of 8.
+     * @param cells Gives the character of every cell.
+     * @param tileWidth Number of cells across each tile.
+     * @param tileHeight Number of cells down each tile.
+     * @param tileRestrictions The navMap restrictions of the tile's map as X, Y and direction.
+     * @throws IOException If the file can not be written.
+     */
+    public static void create(Path file, int width, int height, int chunkSize, CellSource cells,
+                              int tileWidth, int tileHeight, List<int[]> tileRestrictions) throws IOException {
+        if(tileWidth < 1 || tileHeight < 1) {
+            throw new IllegalArgumentException("Tiles must be at least 1x1 cells: " + tileWidth + "x" + tileHeight);
+        }
+        if(chunkSize < 8 || chunkSize % 8 != 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of 8: " + chunkSize);
+        }
+        int chunksAcross = (width + chunkSize - 1) / chunkSize;
+        int chunksDown = (height + chunkSize - 1) / chunkSize;
+        if((long)chunksAcross * chunksDown > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Worlds can have at most " + Integer.MAX_VALUE + " chunks.");
+        }
+        int cellBytes = chunkSize * chunkSize;
+        int chunkBytes = cellBytes + collectedBytes(chunkSize);
+        int chunksPerRegion = Integer.MAX_VALUE / chunkBytes;
+        int chunkCount = chunksAcross * chunksDown;
+        byte[] chunkCells = new byte[cellBytes];
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(8, width);
+            header.putInt(12, height);
+            header.putInt(16, chunkSize);
+            header.putLong(COLLECTED_OFFSET, 0);
+            header.putInt(TILE_OFFSET, tileWidth);
+            header.putInt(TILE_OFFSET + 4, tileHeight);
+            header.putInt(TILE_OFFSET + 8, tileRestrictions.size());
+            for(int first = 0; first < chunkCount; first += chunksPerRegion) {
+                int count = Math.min(chunksPerRegion, chunkCount - first);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_BYTES + (long)first * chunkBytes, (long)count * chunkBytes);
+                for(int i = 0; i < count; i++) {
+                    int index = first + i;
+                    int left = index / chunksDown * chunkSize, top = index % chunksDown * chunkSize;
+                    for(int localX = 0; localX < chunkSize; localX++) {
+                        for(int localY = 0; localY < chunkSize; localY++) {
+                            int x = left + localX, y = top + localY;
+                            chunkCells[localX * chunkSize + localY] = (byte)(x < width && y < height ? cells.getCell(x, y) : 'W');
+                        }
+                    }
+                    // The collected bits after the cells are left as the zeros of the new file
+                    region.put(i * chunkBytes, chunkCells);
+                }
+                region.force();
+            }
+            if(!tileRestrictions.isEmpty()) {
+                MappedByteBuffer restrictions = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_BYTES + (long)chunkCount * chunkBytes, (long)tileRestrictions.size() * RESTRICTION_BYTES);
+                for(int[] restriction : tileRestrictions) {
+                    restrictions.putInt(restriction[0]).putInt(restriction[1]).putInt(restriction[2]);
+                }
+                restrictions.force();
+            }
+            header.force();
+        }
+    }
+
+    /**
+     * Pages in the chunks around every actor and drops the chunks no actor is near.
+     * Chunks are dropped one chunk further out than they are paged in, so an actor moving
+     * back and forth over the edge of a chunk does not page the same chunks in and out.
+     * Called once each update with the positions of Pacman and the active ghosts. Does nothing
+     * unless an actor has moved into another chunk since the last update.
+     *
+     * @param actors The positions to keep the world paged in around.
+     * @throws IOException If the file can not be mapped.
+     */
+    public void update(List<Position> actors) throws IOException {
+        if(!haveActorsChangedChunk(actors)) return;
+        for(Position actor : actors) {
+            int chunkX = Math.floorDiv(actor.x, chunkSize), chunkY = Math.floorDiv(actor.y, chunkSize);
+            for(int cx = Math.max(0, chunkX - PAGE_RADIUS); cx <= Math.min(chunksAcross - 1, chunkX + PAGE_RADIUS); cx++) {
+                for(int cy = Math.max(0, chunkY - PAGE_RADIUS); cy <= Math.min(chunksDown - 1, chunkY + PAGE_RADIUS); cy++) {
+                    int index = cx * chunksDown + cy;
+                    if(!resident.containsKey(index)) {
+                        pageIn(index);
+                        pageIns++;
+                    }
+                }
+            }
+        }
+        for(Chunk chunk : resident.values()) {
+            if(!isNearActor(chunk)) evictList.add(chunk);
+        }
+        for(Chunk chunk : evictList) {
+            evict(chunk);
+        }
+        evictList.clear();
+        peakResident = Math.max(peakResident, resident.size());
+    }
+
+    /**
+     * Gets the map file character of a cell, paging in its chunk if it is not in memory.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The character, or 'W' outside the world.
+     * @throws IOException If the file can not be mapped.
+     */
+    public char getCell(int x, int y) throws IOException {
+        if(x < 0 || y < 0 || x >= width || y >= height) return 'W';
+        Chunk chunk = getChunk(x, y);
+        return (char)chunk.cells[(x - chunk.left) * chunkSize + y - chunk.top];
+    }
+
+    /**
+     * Tests if a cell has been collected.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return True if collect() has been called for the cell.
+     * @throws IOException If the file can not be mapped.
+     */
+    public boolean isCollected(int x, int y) throws IOException {
+        if(x < 0 || y < 0 || x >= width || y >= height) return false;
+        Chunk chunk = getChunk(x, y);
+        int bit = (x - chunk.left) * chunkSize + y - chunk.top;
+        return (chunk.collected[bit >>> 6] & 1L << bit) != 0;
+    }
+
+    /**
+     * Collects the dot, powerup or cherry in a cell if it has one that is not yet collected.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The character of the collected object, or 0 if nothing was collected.
+     * @throws IOException If the file can not be mapped.
+     */
+    public char collect(int x, int y) throws IOException {
+        if(x < 0 || y < 0 || x >= width || y >= height) return 0;
+        Chunk chunk = getChunk(x, y);
+        int bit = (x - chunk.left) * chunkSize + y - chunk.top;
+        char cell = (char)chunk.cells[bit];
+        if((cell != '.' && cell != '*' && cell != 'C') || (chunk.collected[bit >>> 6] & 1L << bit) != 0) return 0;
+        chunk.collected[bit >>> 6] |= 1L << bit;
+        chunk.dirty = true;
+        collectedCount++;
+        return cell;
+    }
+
+    /**
+     * Writes every collected cell still in memory back to the file and forces it to disk.
+     */
+    public void flush() {
+        for(Chunk chunk : resident.values()) {
+            writeBack(chunk);
+        }
+        header.putLong(COLLECTED_OFFSET, collectedCount);
+        for(MappedByteBuffer region : regions) {
+            if(region != null) region.force();
+        }
+        header.force();
+    }
+
+    /**
+     * Flushes the world and closes the file. The world can not be used after.
+     *
+     * @throws IOException If the file can not be closed.
+     */
+    public void close() throws IOException {
+        flush();
+        resident.clear();
+        lastChunk = null;
+        channel.close();
+    }
+
+    /**
+     * Gets the number of cells horizontally.
+     *
+     * @return The width of the world in cells.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of cells vertically.
+     *
+     * @return The height of the world in cells.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the navMap restrictions of every tile that fall inside a rectangle of cells.
+     *
+     * @param left Column of the left of the rectangle.
+     * @param top Row of the top of the rectangle.
+     * @param columns Number of cells across the rectangle.
+     * @param rows Number of cells down the rectangle.
+     * @return Each restriction as X, Y and direction, with X and Y relative to the top left of the rectangle.
+     */
+    public List<int[]> getRestrictions(int left, int top, int columns, int rows) {
+        List<int[]> result = new ArrayList<>();
+        if(tileRestrictions.isEmpty()) return result;
+        for(int tileX = Math.floorDiv(left, tileWidth); tileX * tileWidth < left + columns; tileX++) {
+            for(int tileY = Math.floorDiv(top, tileHeight); tileY * tileHeight < top + rows; tileY++) {
+                for(int[] restriction : tileRestrictions) {
+                    int x = tileX * tileWidth + restriction[0] - left, y = tileY * tileHeight + restriction[1] - top;
+                    if(x >= 0 && y >= 0 && x < columns && y < rows) result.add(new int[] {x, y, restriction[2]});
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of cells along each side of a chunk.
+     *
+     * @return The chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Gets the number of bytes of memory each chunk in memory uses for its cells and collected bits.
+     *
+     * @return The bytes per chunk.
+     */
+    public int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * Gets the number of cells collected in the whole world, including chunks not in memory.
+     *
+     * @return The number of collected cells.
+     */
+    public long getCollectedCount() {
+        return collectedCount;
+    }
+
+    /**
+     * Gets the number of chunks currently in memory.
+     *
+     * @return The number of resident chunks.
+     */
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Gets the largest number of chunks that have been in memory at once.
+     *
+     * @return The peak number of resident chunks.
+     */
+    public int getPeakResidentCount() {
+        return peakResident;
+    }
+
+    /**
+     * Gets the number of chunks paged in by update() ahead of being needed.
+     *
+     * @return The number of page ins.
+     */
+    public long getPageIns() {
+        return pageIns;
+    }
+
+    /**
+     * Gets the number of chunks that had to be paged in when a cell was looked up. These are
+     * the pauses update() is there to avoid, so this stays 0 while every actor is passed to it.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of chunks dropped from memory.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the chunk holding a cell inside the world, paging it in if needed.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The chunk in memory.
+     * @throws IOException If the file can not be mapped.
+     */
+    private Chunk getChunk(int x, int y) throws IOException {
+        Chunk chunk = lastChunk;
+        if(chunk != null && x >= chunk.left && y >= chunk.top && x < chunk.left + chunkSize && y < chunk.top + chunkSize) {
+            return chunk;
+        }
+        int index = x / chunkSize * chunksDown + y / chunkSize;
+        chunk = resident.get(index);
+        if(chunk == null) {
+            chunk = pageIn(index);
+            misses++;
+            trackMiss(index);
+        }
+        lastChunk = chunk;
+        return chunk;
+    }
+
+    /**
+     * Copies a chunk and its collected bits from the file into memory.
+     *
+     * @param index Index of the chunk.
+     * @return The chunk now in memory.
+     * @throws IOException If the file can not be mapped.
+     */
+    private Chunk pageIn(int index) throws IOException {
+        Chunk chunk = spareChunks.isEmpty() ? new Chunk(chunkSize) : spareChunks.pop();
+        chunk.index = index;
+        chunk.left = index / chunksDown * chunkSize;
+        chunk.top = index % chunksDown * chunkSize;
+        chunk.dirty = false;
+        MappedByteBuffer region = getRegion(index);
+        int offset = index % chunksPerRegion * chunkBytes;
+        region.get(offset, chunk.cells);
+        for(int i = 0; i < chunk.collected.length; i++) {
+            chunk.collected[i] = region.getLong(offset + cellBytes + i * 8);
+        }
+        resident.put(index, chunk);
+        return chunk;
+    }
+
+    /**
+     * Writes a chunk's collected bits back if they changed and drops it from memory.
+     *
+     * @param chunk The chunk to drop.
+     */
+    private void evict(Chunk chunk) {
+        writeBack(chunk);
+        resident.remove(chunk.index);
+        if(lastChunk == chunk) lastChunk = null;
+        chunk.index = -1;
+        spareChunks.push(chunk);
+        evictions++;
+    }
+
+    /**
+     * Writes a chunk's collected bits to the file if they changed since it was paged in.
+     *
+     * @param chunk The chunk in memory.
+     */
+    private void writeBack(Chunk chunk) {
+        if(!chunk.dirty) return;
+        MappedByteBuffer region = regions[chunk.index / chunksPerRegion];
+        int offset = chunk.index % chunksPerRegion * chunkBytes + cellBytes;
+        for(int i = 0; i < chunk.collected.length; i++) {
+            region.putLong(offset + i * 8, chunk.collected[i]);
+        }
+        chunk.dirty = false;
+    }
+
+    /**
+     * Gets the mapped region of the file holding a chunk, mapping it the first time.
+     *
+     * @param index Index of the chunk.
+     * @return The mapped region.
+     * @throws IOException If the file can not be mapped.
+     */
+    private MappedByteBuffer getRegion(int index) throws IOException {
+        int regionIndex = index / chunksPerRegion;
+        MappedByteBuffer region = regions[regionIndex];
+        if(region == null) {
+            int chunkCount = chunksAcross * chunksDown;
+            int first = regionIndex * chunksPerRegion;
+            int count = Math.min(chunksPerRegion, chunkCount - first);
+            region = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + (long)first * chunkBytes, (long)count * chunkBytes);
+            regions[regionIndex] = region;
+        }
+        return region;
+    }
+
+    /**
+     * Records the chunk of every actor and tests if any is in a different chunk to the last update.
+     *
+     * @param actors The positions of the actors.
+     * @return True if the actors have changed or any has moved into another chunk.
+     */
+    private boolean haveActorsChangedChunk(List<Position> actors) {
+        boolean changed = false;
+        if(actorChunks.length != actors.size()) {
+            actorChunks = new long[actors.size()];
+            changed = true;
+        }
+        for(int i = 0; i < actorChunks.length; i++) {
+            Position actor = actors.get(i);
+            // Clamped so actors off the edge count as being in the nearest chunk
+            int chunkX = Math.max(0, Math.min(chunksAcross - 1, Math.floorDiv(actor.x, chunkSize)));
+            int chunkY = Math.max(0, Math.min(chunksDown - 1, Math.floorDiv(actor.y, chunkSize)));
+            long chunk = (long)chunkX * chunksDown + chunkY;
+            if(chunk != actorChunks[i]) {
+                actorChunks[i] = chunk;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Tests if a chunk is within one chunk more than PAGE_RADIUS of any actor at the last update.
+     *
+     * @param chunk The chunk in memory.
+     * @return True if the chunk should stay in memory.
+     */
+    private boolean isNearActor(Chunk chunk) {
+        int chunkX = chunk.left / chunkSize, chunkY = chunk.top / chunkSize;
+        for(long actorChunk : actorChunks) {
+            int distance = (int)Math.max(Math.abs(actorChunk / chunksDown - chunkX), Math.abs(actorChunk % chunksDown - chunkY));
+            if(distance <= PAGE_RADIUS + 1) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remembers a chunk paged in by a miss and drops the oldest one remembered if no actor
+     * has come near it since.
+     *
+     * @param index Index of the chunk paged in.
+     */
+    private void trackMiss(int index) {
+        int oldest = missChunks[nextMissChunk];
+        missChunks[nextMissChunk] = index;
+        nextMissChunk = (nextMissChunk + 1) % MAX_MISS_CHUNKS;
+        if(oldest == -1 || oldest == index) return;
+        Chunk chunk = resident.get(oldest);
+        if(chunk != null && !isNearActor(chunk)) evict(chunk);
+    }
+
+    /**
+     * Gets the number of bytes of collected bits stored after the cells of each chunk,
+     * rounded up to whole longs.
+     *
+     * @param chunkSize Number of cells along each side of a chunk.
+     * @return The bytes of collected bits.
+     */
+    private static int collectedBytes(int chunkSize) {
+        return (chunkSize * chunkSize + 63) / 64 * 8;
+    }
+}
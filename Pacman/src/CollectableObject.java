@@ -18,13 +18,20 @@ public class CollectableObject extends MapObject {
      */
     private boolean collected;
 
+    /**
+     * Reference to the map the object is on.
+     */
+    private Map map;
+
     /**
      * Initialises the object to be not collected ready and so it can be entered by everyone.
      *
      * @param position The position of the object on the map.
+     * @param map Reference to the map the object is on.
      */
-    public CollectableObject(Position position) {
+    public CollectableObject(Position position, Map map) {
         super(position, ObjectType.Score, EnterType.Everyone);
+        this.map = map;
         collected = false;
         objectWidth = GamePanel.CELL_DIM/4;
     }
@@ -34,6 +41,7 @@ public class CollectableObject extends MapObject {
      */
     @Override
     public void reset() {
+        if(collected) map.getZobristHash().toggleCollected(position);
         super.reset();
         collected = false;
     }
@@ -48,10 +56,57 @@ public class CollectableObject extends MapObject {
     public void onEnter(MapObject enteringObject) {
         if(!collected && enteringObject instanceof Pacman) {
             collected = true;
-            Map.INSTANCE.increaseCollected();
+            map.getZobristHash().toggleCollected(position);
+            map.increaseCollected();
+            CollectibleEvent.record(this, map);
         }
     }
 
+    /**
+     * Gets the number of ints saveState() writes.
+     *
+     * @return 1 for the collected flag.
+     */
+    @Override
+    public int getStateSize() {
+        return 1;
+    }
+
+    /**
+     * Writes the collected flag into an array.
+     *
+     * @param state The array to write into.
+     * @param offset The index to write at.
+     * @return The index after the flag.
+     */
+    @Override
+    public int saveState(int[] state, int offset) {
+        state[offset] = collected ? 1 : 0;
+        return offset + 1;
+    }
+
+    /**
+     * Reads back the collected flag. The map's hash is restored separately.
+     *
+     * @param state The array to read from.
+     * @param offset The index to read at.
+     * @return The index after the flag.
+     */
+    @Override
+    public int restoreState(int[] state, int offset) {
+        collected = state[offset] != 0;
+        return offset + 1;
+    }
+
+    /**
+     * Gets the collection status of this object.
+     *
+     * @return True if the player has collected this object.
+     */
+    public boolean isCollected() {
+        return collected;
+    }
+
     /**
      * Draws a small white circle if it has not been collected yet.
      *
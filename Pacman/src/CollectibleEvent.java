@@ -0,0 +1,56 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * CollectibleEvent class:
+ * Flight Recorder event for Pacman picking up a collectible, powerup or cherry.
+ */
+@Name("pacman.Collectible")
+@Label("Collectible Pickup")
+@Category({"Pacman", "Map"})
+@Description("Pacman picking up a collectible, powerup or cherry")
+@StackTrace(false)
+public class CollectibleEvent extends jdk.jfr.Event {
+    /**
+     * Simple class name of the object picked up.
+     */
+    @Label("Type")
+    public String type;
+    /**
+     * Cell of the object.
+     */
+    @Label("X")
+    public int x;
+    /**
+     * Cell of the object.
+     */
+    @Label("Y")
+    public int y;
+    /**
+     * Score after the pickup.
+     */
+    @Label("Score")
+    public int score;
+
+    /**
+     * Records a pickup if the event is enabled. Called after the map has been updated.
+     *
+     * @param object The object picked up.
+     * @param map The map it was on.
+     */
+    public static void record(MapObject object, Map map) {
+        CollectibleEvent event = new CollectibleEvent();
+        if(!event.shouldCommit()) return;
+        event.type = object.getClass().getSimpleName();
+        event.x = object.getPosition().x;
+        event.y = object.getPosition().y;
+        event.score = map.getScore();
+        event.commit();
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * DatagramLink class:
+ * A non-blocking UDP connection between the two players of a versus game. Received
+ * packets can be held back for an artificial delay so rollback can be tested on a
+ * loopback link as if the other player was far away.
+ */
+public class DatagramLink {
+    /**
+     * Largest packet that can be sent or received.
+     */
+    public static final int MAX_PACKET_BYTES = 512;
+
+    /**
+     * A received packet waiting for its delay to pass.
+     */
+    private static class HeldPacket {
+        /**
+         * Time from System.nanoTime() when the packet can be delivered.
+         */
+        long releaseNanos;
+        /**
+         * Contents of the packet.
+         */
+        final ByteBuffer data = ByteBuffer.allocate(MAX_PACKET_BYTES);
+    }
+
+    /**
+     * The socket bound to the local port and connected to the other player.
+     */
+    private final DatagramChannel channel;
+    /**
+     * Received packets in arrival order that have not been delivered yet.
+     */
+    private final ArrayDeque<HeldPacket> held;
+    /**
+     * Delivered packets kept for reuse.
+     */
+    private final ArrayDeque<HeldPacket> spare;
+    /**
+     * Time in nanoseconds each packet is held after arriving.
+     */
+    private long delayNanos;
+
+    /**
+     * Opens a link between a local port and the other player.
+     *
+     * @param localPort UDP port to receive on, or 0 for any free port.
+     * @param remote Address of the other player.
+     * @throws IOException If the port can not be bound.
+     */
+    public DatagramLink(int localPort, InetSocketAddress remote) throws IOException {
+        this(localPort);
+        connect(remote);
+    }
+
+    /**
+     * Opens a link on a local port that is connected later with connect().
+     *
+     * @param localPort UDP port to receive on, or 0 for any free port.
+     * @throws IOException If the port can not be bound.
+     */
+    public DatagramLink(int localPort) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(localPort));
+        channel.configureBlocking(false);
+        held = new ArrayDeque<>();
+        spare = new ArrayDeque<>();
+    }
+
+    /**
+     * Sets the address of the other player. Packets from anywhere else are ignored.
+     *
+     * @param remote Address of the other player.
+     * @throws IOException If the channel can not be connected.
+     */
+    public void connect(InetSocketAddress remote) throws IOException {
+        channel.connect(remote);
+    }
+
+    /**
+     * Gets the local port packets are received on.
+     *
+     * @return The bound port.
+     */
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Sets the artificial delay added to every received packet.
+     *
+     * @param delayMillis Delay in milliseconds.
+     */
+    public void setDelay(int delayMillis) {
+        delayNanos = delayMillis * 1_000_000L;
+    }
+
+    /**
+     * Sends a packet to the other player. Packets are dropped if the socket is full,
+     * which is fine because every packet repeats the inputs that are not acknowledged yet.
+     *
+     * @param packet The packet from its position to its limit.
+     * @throws IOException If the link has failed.
+     */
+    public void send(ByteBuffer packet) throws IOException {
+        try {
+            channel.write(packet);
+        } catch (PortUnreachableException e) {
+            // The other player is not listening yet
+        }
+    }
+
+    /**
+     * Copies the next packet whose delay has passed into a buffer.
+     *
+     * @param into Buffer to copy into. It is cleared and flipped ready to read.
+     * @return True if a packet was copied, false if none are ready.
+     * @throws IOException If the link has failed.
+     */
+    public boolean receive(ByteBuffer into) throws IOException {
+        long now = System.nanoTime();
+        while(true) {
+            HeldPacket packet = spare.isEmpty() ? new HeldPacket() : spare.poll();
+            packet.data.clear();
+            int read;
+            try {
+                read = channel.read(packet.data);
+            } catch (PortUnreachableException e) {
+                read = 0;
+            }
+            if(read <= 0) {
+                spare.push(packet);
+                break;
+            }
+            packet.data.flip();
+            packet.releaseNanos = now + delayNanos;
+            held.add(packet);
+        }
+        HeldPacket next = held.peek();
+        if(next == null || next.releaseNanos > now) return false;
+        held.poll();
+        into.clear();
+        into.put(next.data);
+        into.flip();
+        spare.push(next);
+        return true;
+    }
+
+    /**
+     * Closes the link.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close link: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * DeltaEncoder class:
+ * Encodes the state of a Map for spectators as compact binary frames. Every tick the
+ * state is compared against the state from the last encoded tick and only what changed
+ * is written into a delta frame. A keyframe holding the full state is encoded only when
+ * a spectator needs one. Both frames are encoded once and shared by every spectator.
+ *
+ * Frame layout (big endian): int length of the rest of the frame, byte type, int tick.
+ * Keyframe: int score, byte map state, short Pacman x, short Pacman y, byte Pacman facing,
+ * unsigned short ghost count then short x, short y, byte facing, byte state for each ghost,
+ * int collectible count then one bit per collectible set when collected,
+ * unsigned short cherry count then one byte of CHERRY_ flags for each cherry.
+ * Delta: int base tick, byte of CHANGED_ flags, then in flag order: short score change,
+ * byte map state, short Pacman x, short Pacman y, byte Pacman facing,
+ * unsigned short changed ghost count then unsigned short ghost, short x, short y, byte facing,
+ * byte state for each, int changed collectible count then int collectible index for each,
+ * toggling its collected bit, unsigned short changed cherry count then unsigned short cherry,
+ * byte CHERRY_ flags for each.
+ * Collectibles and cherries are numbered in row order (y then x) of the grid. Maps with more
+ * ghosts or cherries than MAX_COUNT, or cells past MAX_CELL, can not be encoded.
+ */
+public class DeltaEncoder {
+    /**
+     * Frame types.
+     */
+    public static final byte FRAME_KEYFRAME = 1, FRAME_DELTA = 2;
+    /**
+     * Flags in a delta for each part of the state that changed.
+     */
+    public static final int CHANGED_SCORE = 1, CHANGED_MAP_STATE = 2, CHANGED_PACMAN = 4,
+            CHANGED_GHOSTS = 8, CHANGED_COLLECTED = 16, CHANGED_CHERRIES = 32;
+    /**
+     * Flags for the state of a cherry.
+     */
+    public static final int CHERRY_REVEALED = 1, CHERRY_COLLECTED = 2;
+    /**
+     * Bytes before the first field of the frame type: length, type and tick.
+     */
+    public static final int FRAME_HEADER_BYTES = 9;
+    /**
+     * Largest number of ghosts or cherries that fit in their unsigned short counts and indices.
+     */
+    public static final int MAX_COUNT = 0xFFFF;
+    /**
+     * Largest cell coordinate that fits in the short positions.
+     */
+    public static final int MAX_CELL = Short.MAX_VALUE;
+
+    /**
+     * The grid the cached collectible lists were built from. A restart replaces the grid.
+     */
+    private MapObject[][] cachedMapObjects;
+    /**
+     * Map.getLayoutVersion() when the collectible lists were built. A reload changes objects
+     * inside the same grid.
+     */
+    private int cachedLayoutVersion;
+    /**
+     * Dots and powerups in row order.
+     */
+    private final List<MapObject> collectibles;
+    /**
+     * Cherries in row order.
+     */
+    private final List<CherryObject> cherries;
+    /**
+     * State at the last encoded tick.
+     */
+    private int score, mapState, pacmanX, pacmanY, pacmanFacing;
+    private int[] ghostX, ghostY, ghostFacing, ghostState;
+    private boolean[] collected;
+    private byte[] cherryFlags;
+    /**
+     * The last tick that was encoded, or -1 if nothing has been encoded yet.
+     */
+    private long encodedTick;
+    /**
+     * True if the delta frame holds the change to encodedTick. False after the layout changed.
+     */
+    private boolean deltaReady;
+    /**
+     * True if the keyframe holds the state at encodedTick.
+     */
+    private boolean keyframeReady;
+    /**
+     * Reused frames shared by every spectator.
+     */
+    private ByteBuffer delta, keyframe;
+    /**
+     * Indices of the collectibles that changed, found while comparing and written after the count.
+     */
+    private int[] changedCollected;
+
+    /**
+     * Creates an encoder that has not encoded anything yet.
+     */
+    public DeltaEncoder() {
+        collectibles = new ArrayList<>();
+        cherries = new ArrayList<>();
+        encodedTick = -1;
+    }
+
+    /**
+     * Compares the map against the last encoded tick and encodes what changed into the
+     * delta frame. If the grid was replaced since the last tick no delta can be encoded
+     * and spectators must be sent the keyframe.
+     *
+     * @param map The map to encode.
+     * @param tick The tick the map is now at.
+     */
+    public void update(Map map, long tick) {
+        keyframeReady = false;
+        if(map.getMapObjects() != cachedMapObjects || map.getLayoutVersion() != cachedLayoutVersion
+                || map.getGhostCount() != ghostX.length) {
+            cacheMapLayout(map);
+            captureState(map);
+            deltaReady = false;
+        } else {
+            encodeDelta(map, tick);
+            deltaReady = true;
+        }
+        encodedTick = tick;
+    }
+
+    /**
+     * Gets whether the delta frame can be used for the latest tick.
+     *
+     * @return True if there is a delta from the previous encoded tick.
+     */
+    public boolean hasDelta() {
+        return deltaReady;
+    }
+
+    /**
+     * Gets the delta frame for the latest tick. The buffer is shared, so readers must
+     * not change it and should use a duplicate or reset the position after writing it.
+     *
+     * @return The delta frame from position 0 to its limit.
+     */
+    public ByteBuffer getDelta() {
+        return delta;
+    }
+
+    /**
+     * Gets the keyframe for the latest tick, encoding it the first time it is needed in a tick.
+     *
+     * @return The keyframe from position 0 to its limit.
+     */
+    public ByteBuffer getKeyframe() {
+        if(!keyframeReady) {
+            encodeKeyframe();
+            keyframeReady = true;
+        }
+        return keyframe;
+    }
+
+    /**
+     * Gets the largest number of bytes a frame for the current layout can take.
+     *
+     * @return The capacity of the larger frame buffer.
+     */
+    public int getMaxFrameBytes() {
+        return Math.max(keyframe.capacity(), delta.capacity());
+    }
+
+    /**
+     * Writes the change from the last encoded tick into the delta frame and updates the tracked state.
+     *
+     * @param map The map to encode.
+     * @param tick The tick the map is now at.
+     */
+    private void encodeDelta(Map map, long tick) {
+        ByteBuffer out = delta;
+        out.clear();
+        out.putInt(0);
+        out.put(FRAME_DELTA);
+        out.putInt((int)tick);
+        out.putInt((int)encodedTick);
+        int flagsOffset = out.position();
+        out.put((byte)0);
+        int flags = 0;
+
+        if(map.getScore() != score) {
+            flags |= CHANGED_SCORE;
+            out.putShort((short)(map.getScore() - score));
+            score = map.getScore();
+        }
+        if(map.getMapState().ordinal() != mapState) {
+            flags |= CHANGED_MAP_STATE;
+            mapState = map.getMapState().ordinal();
+            out.put((byte)mapState);
+        }
+        Pacman pacman = map.getPacman();
+        if(pacman.getPosition().x != pacmanX || pacman.getPosition().y != pacmanY || pacman.getFacing() != pacmanFacing) {
+            flags |= CHANGED_PACMAN;
+            pacmanX = pacman.getPosition().x;
+            pacmanY = pacman.getPosition().y;
+            pacmanFacing = pacman.getFacing();
+            out.putShort((short)pacmanX);
+            out.putShort((short)pacmanY);
+            out.put((byte)pacmanFacing);
+        }
+
+        int countOffset = out.position();
+        out.putShort((short)0);
+        int changedGhosts = 0;
+        for(int i = 0; i < ghostX.length; i++) {
+            Ghost ghost = map.getGhost(i);
+            Position position = ghost.getPosition();
+            int state = ghost.getGhostState().ordinal();
+            if(position.x != ghostX[i] || position.y != ghostY[i] || ghost.getFacing() != ghostFacing[i] || state != ghostState[i]) {
+                ghostX[i] = position.x;
+                ghostY[i] = position.y;
+                ghostFacing[i] = ghost.getFacing();
+                ghostState[i] = state;
+                out.putShort((short)i);
+                out.putShort((short)ghostX[i]);
+                out.putShort((short)ghostY[i]);
+                out.put((byte)ghostFacing[i]);
+                out.put((byte)state);
+                changedGhosts++;
+            }
+        }
+        if(changedGhosts > 0) {
+            flags |= CHANGED_GHOSTS;
+            out.putShort(countOffset, (short)changedGhosts);
+        } else {
+            out.position(countOffset);
+        }
+
+        int changedCount = 0;
+        for(int i = 0; i < collected.length; i++) {
+            if(isCollected(collectibles.get(i)) != collected[i]) {
+                collected[i] = !collected[i];
+                changedCollected[changedCount++] = i;
+            }
+        }
+        if(changedCount > 0) {
+            flags |= CHANGED_COLLECTED;
+            out.putInt(changedCount);
+            for(int i = 0; i < changedCount; i++) {
+                out.putInt(changedCollected[i]);
+            }
+        }
+
+        countOffset = out.position();
+        out.putShort((short)0);
+        int changedCherries = 0;
+        for(int i = 0; i < cherryFlags.length; i++) {
+            byte flagsNow = cherryFlags(cherries.get(i));
+            if(flagsNow != cherryFlags[i]) {
+                cherryFlags[i] = flagsNow;
+                out.putShort((short)i);
+                out.put(flagsNow);
+                changedCherries++;
+            }
+        }
+        if(changedCherries > 0) {
+            flags |= CHANGED_CHERRIES;
+            out.putShort(countOffset, (short)changedCherries);
+        } else {
+            out.position(countOffset);
+        }
+
+        out.put(flagsOffset, (byte)flags);
+        out.putInt(0, out.position() - 4);
+        out.flip();
+    }
+
+    /**
+     * Writes the tracked state at the last encoded tick into the keyframe.
+     */
+    private void encodeKeyframe() {
+        ByteBuffer out = keyframe;
+        out.clear();
+        out.putInt(0);
+        out.put(FRAME_KEYFRAME);
+        out.putInt((int)encodedTick);
+        out.putInt(score);
+        out.put((byte)mapState);
+        out.putShort((short)pacmanX);
+        out.putShort((short)pacmanY);
+        out.put((byte)pacmanFacing);
+        out.putShort((short)ghostX.length);
+        for(int i = 0; i < ghostX.length; i++) {
+            out.putShort((short)ghostX[i]);
+            out.putShort((short)ghostY[i]);
+            out.put((byte)ghostFacing[i]);
+            out.put((byte)ghostState[i]);
+        }
+        out.putInt(collected.length);
+        for(int i = 0; i < collected.length; i += 8) {
+            int bits = 0;
+            for(int bit = 0; bit < 8 && i + bit < collected.length; bit++) {
+                if(collected[i + bit]) bits |= 1 << bit;
+            }
+            out.put((byte)bits);
+        }
+        out.putShort((short)cherryFlags.length);
+        out.put(cherryFlags);
+        out.putInt(0, out.position() - 4);
+        out.flip();
+    }
+
+    /**
+     * Copies the current state of the map into the tracked state.
+     *
+     * @param map The map to copy from.
+     */
+    private void captureState(Map map) {
+        score = map.getScore();
+        mapState = map.getMapState().ordinal();
+        pacmanX = map.getPacman().getPosition().x;
+        pacmanY = map.getPacman().getPosition().y;
+        pacmanFacing = map.getPacman().getFacing();
+        for(int i = 0; i < ghostX.length; i++) {
+            Ghost ghost = map.getGhost(i);
+            ghostX[i] = ghost.getPosition().x;
+            ghostY[i] = ghost.getPosition().y;
+            ghostFacing[i] = ghost.getFacing();
+            ghostState[i] = ghost.getGhostState().ordinal();
+        }
+        for(int i = 0; i < collected.length; i++) {
+            collected[i] = isCollected(collectibles.get(i));
+        }
+        for(int i = 0; i < cherryFlags.length; i++) {
+            cherryFlags[i] = cherryFlags(cherries.get(i));
+        }
+    }
+
+    /**
+     * Rebuilds the collectible lists and resizes the tracked state and frames for the map.
+     *
+     * @param map The map that was loaded.
+     */
+    private void cacheMapLayout(Map map) {
+        MapObject[][] mapObjects = map.getMapObjects();
+        checkEncodable(map.getGhostCount(), mapObjects.length, mapObjects[0].length);
+        cachedMapObjects = mapObjects;
+        cachedLayoutVersion = map.getLayoutVersion();
+        collectibles.clear();
+        cherries.clear();
+        for(int y = 0; y < mapObjects[0].length; y++) {
+            for(int x = 0; x < mapObjects.length; x++) {
+                MapObject mapObject = mapObjects[x][y];
+                if(mapObject instanceof CollectableObject || mapObject instanceof PowerupObject) {
+                    collectibles.add(mapObject);
+                } else if(mapObject instanceof CherryObject) {
+                    cherries.add((CherryObject)mapObject);
+                }
+            }
+        }
+        if(cherries.size() > MAX_COUNT) {
+            throw new IllegalStateException("Too many cherries to encode: " + cherries.size() + " > " + MAX_COUNT);
+        }
+        int ghostCount = map.getGhostCount();
+        ghostX = new int[ghostCount];
+        ghostY = new int[ghostCount];
+        ghostFacing = new int[ghostCount];
+        ghostState = new int[ghostCount];
+        collected = new boolean[collectibles.size()];
+        changedCollected = new int[collectibles.size()];
+        cherryFlags = new byte[cherries.size()];
+
+        int keyframeBytes = FRAME_HEADER_BYTES + 4 + 1 + 5 + 2 + 6 * ghostCount
+                + 4 + (collected.length + 7) / 8 + 2 + cherryFlags.length;
+        int deltaBytes = FRAME_HEADER_BYTES + 4 + 1 + 2 + 1 + 5 + 2 + 8 * ghostCount
+                + 4 + 4 * collected.length + 2 + 3 * cherryFlags.length;
+        keyframe = ByteBuffer.allocateDirect(Math.max(keyframeBytes, deltaBytes));
+        if(delta == null || delta.capacity() < deltaBytes) {
+            delta = ByteBuffer.allocateDirect(deltaBytes);
+        }
+    }
+
+    /**
+     * Throws if a map has more ghosts or larger cell coordinates than the frames can hold,
+     * rather than letting the counts and positions wrap and corrupt the stream.
+     *
+     * @param ghostCount Number of ghosts on the map.
+     * @param width Number of cells horizontally.
+     * @param height Number of cells vertically.
+     * @throws IllegalStateException If the map can not be encoded.
+     */
+    public static void checkEncodable(int ghostCount, int width, int height) {
+        if(ghostCount > MAX_COUNT) {
+            throw new IllegalStateException("Too many ghosts to encode: " + ghostCount + " > " + MAX_COUNT);
+        }
+        if(width - 1 > MAX_CELL || height - 1 > MAX_CELL) {
+            throw new IllegalStateException("Map too large to encode: " + width + "x" + height);
+        }
+    }
+
+    /**
+     * Gets whether a dot or powerup has been collected.
+     *
+     * @param collectible A CollectableObject or PowerupObject.
+     * @return True if it has been collected.
+     */
+    private static boolean isCollected(MapObject collectible) {
+        return collectible instanceof CollectableObject ? ((CollectableObject)collectible).isCollected()
+                : ((PowerupObject)collectible).isCollected();
+    }
+
+    /**
+     * Gets the CHERRY_ flags for the state of a cherry.
+     *
+     * @param cherry The cherry.
+     * @return The flags.
+     */
+    private static byte cherryFlags(CherryObject cherry) {
+        return (byte)((cherry.isRevealed() ? CHERRY_REVEALED : 0) | (cherry.isCollected() ? CHERRY_COLLECTED : 0));
+    }
+}
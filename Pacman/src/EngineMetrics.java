@@ -0,0 +1,647 @@
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * EngineMetrics class:
+ * Live counters and timing histograms for the whole process, published as the JMX MBean
+ * Pacman:type=EngineMetrics once register() is called. Recording is always on: every
+ * record and count method only increments LongAdders or AtomicLongArray slots, so it is
+ * safe to call from every session thread and allocates nothing. The MapState counts are
+ * worked out when they are read by looking at the sessions of every watched GameServer.
+ *
+ * If the pacman.metricsDump property names a file, register() also rewrites that file
+ * with a text report every pacman.metricsDumpInterval seconds (default 10).
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+    /**
+     * Name the MBean is registered under.
+     */
+    public static final String OBJECT_NAME = "Pacman:type=EngineMetrics";
+    /**
+     * Number of whole seconds the ticks per second rate is averaged over.
+     */
+    private static final int RATE_WINDOW_SECONDS = 10;
+
+    /**
+     * Log-linear histogram of durations in nanoseconds. Each power of two is split into
+     * eight buckets, so any value is reported within 12.5% of its real value.
+     */
+    private static class Histogram {
+        /**
+         * Number of buckets needed to cover every positive long.
+         */
+        private static final int BUCKETS = ((63 - 2) << 3) + 8;
+        /**
+         * Count of values in each bucket.
+         */
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        /**
+         * Sum of every value recorded.
+         */
+        private final LongAdder total = new LongAdder();
+        /**
+         * Number of values recorded.
+         */
+        private final LongAdder samples = new LongAdder();
+
+        /**
+         * Adds a value.
+         *
+         * @param nanos Duration in nanoseconds.
+         */
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            counts.incrementAndGet(bucketFor(nanos));
+            total.add(nanos);
+            samples.increment();
+        }
+
+        /**
+         * Gets the mean of every value recorded.
+         *
+         * @return The mean in nanoseconds, or 0 if empty.
+         */
+        double mean() {
+            long count = samples.sum();
+            return count == 0 ? 0 : total.sum() / (double)count;
+        }
+
+        /**
+         * Gets the lower bound of the bucket that holds a fraction of the values.
+         *
+         * @param fraction 0.5 for the median, 0.99 for the 99th percentile, 1 for the maximum.
+         * @return The value in nanoseconds, or 0 if empty.
+         */
+        long percentile(double fraction) {
+            long count = 0;
+            for(int i = 0; i < BUCKETS; i++) count += counts.get(i);
+            if(count == 0) return 0;
+            long target = Math.max(1, (long)Math.ceil(count * fraction));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if(seen >= target) return lowerBound(i);
+            }
+            return lowerBound(BUCKETS - 1);
+        }
+
+        /**
+         * Clears the histogram.
+         */
+        void reset() {
+            for(int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+            total.reset();
+            samples.reset();
+        }
+
+        /**
+         * Finds the bucket for a value. Values below 8 have their own bucket, and above
+         * that the bucket is the power of two followed by the next three bits.
+         *
+         * @param value A value of at least 0.
+         * @return The index of the bucket.
+         */
+        static int bucketFor(long value) {
+            if(value < 8) return (int)value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return ((exponent - 2) << 3) | (int)((value >>> (exponent - 3)) & 7);
+        }
+
+        /**
+         * Gets the smallest value that falls into a bucket.
+         *
+         * @param bucket The index of the bucket.
+         * @return The smallest value in it.
+         */
+        static long lowerBound(int bucket) {
+            if(bucket < 8) return bucket;
+            int exponent = (bucket >> 3) + 2;
+            return (8L | (bucket & 7)) << (exponent - 3);
+        }
+    }
+
+    /**
+     * The single set of metrics for the process.
+     */
+    private static final EngineMetrics INSTANCE = new EngineMetrics();
+
+    /**
+     * Durations of Map updates driven by the game loop or a session.
+     */
+    private final Histogram updateTimes;
+    /**
+     * Durations of GamePanel paints.
+     */
+    private final Histogram paintTimes;
+    /**
+     * Bytes allocated by the ticking thread during timed updates.
+     */
+    private final LongAdder allocatedBytes;
+    /**
+     * Number of updates whose allocation was measured.
+     */
+    private final LongAdder allocationSamples;
+    /**
+     * Decision counter for each behaviour class. Created the first time a class decides.
+     */
+    private final ClassValue<LongAdder> decisions;
+    /**
+     * Names and counters of every behaviour class that has made a decision, for reporting.
+     */
+    private final ConcurrentLinkedQueue<Object[]> decisionNames;
+    /**
+     * Moves made by ghosts following a corridor without running their behaviour.
+     */
+    private final LongAdder corridorMoves;
+    /**
+     * Calls to GhostAI.getValidMoves().
+     */
+    private final LongAdder validMovesCalls;
+    /**
+     * Calls to Map.canEnter().
+     */
+    private final LongAdder canEnterCalls;
+    /**
+     * Sessions of every server being watched for MapState counts.
+     */
+    private final List<List<GameSession>> watchedSessions;
+    /**
+     * Used to measure per thread allocation, or null if the JVM can not.
+     */
+    private final com.sun.management.ThreadMXBean allocationBean;
+    /**
+     * The second, from System.nanoTime(), that each slot of rateCounts is counting. One more
+     * slot than the window so the second being counted never overlaps the ones being read.
+     */
+    private final AtomicLongArray rateSeconds;
+    /**
+     * Number of ticks timed in the second held by the matching slot of rateSeconds.
+     */
+    private final AtomicLongArray rateCounts;
+    /**
+     * The second the metrics were created or last reset, so the rate is not diluted by
+     * seconds before any ticks could have been timed.
+     */
+    private volatile long rateStartSecond;
+    /**
+     * True once the MBean has been registered.
+     */
+    private boolean registered;
+
+    /**
+     * Creates the empty metrics.
+     */
+    private EngineMetrics() {
+        updateTimes = new Histogram();
+        paintTimes = new Histogram();
+        allocatedBytes = new LongAdder();
+        allocationSamples = new LongAdder();
+        decisionNames = new ConcurrentLinkedQueue<>();
+        corridorMoves = new LongAdder();
+        decisionNames.add(new Object[] {GhostDecisionEvent.CORRIDOR, corridorMoves});
+        decisions = new ClassValue<LongAdder>() {
+            @Override
+            protected LongAdder computeValue(Class<?> type) {
+                LongAdder counter = new LongAdder();
+                decisionNames.add(new Object[] {type.getSimpleName(), counter});
+                return counter;
+            }
+        };
+        validMovesCalls = new LongAdder();
+        canEnterCalls = new LongAdder();
+        watchedSessions = new CopyOnWriteArrayList<>();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = null;
+        if(threadBean instanceof com.sun.management.ThreadMXBean) {
+            allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+            if(!allocationBean.isThreadAllocatedMemorySupported()) {
+                allocationBean = null;
+            } else if(!allocationBean.isThreadAllocatedMemoryEnabled()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        this.allocationBean = allocationBean;
+        rateSeconds = new AtomicLongArray(RATE_WINDOW_SECONDS + 1);
+        rateCounts = new AtomicLongArray(RATE_WINDOW_SECONDS + 1);
+        rateStartSecond = currentSecond();
+        for(int i = 0; i < rateSeconds.length(); i++) rateSeconds.set(i, Long.MIN_VALUE);
+    }
+
+    /**
+     * Gets the metrics for the process.
+     *
+     * @return The single EngineMetrics.
+     */
+    public static EngineMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, and starts the text dump if the
+     * pacman.metricsDump property is set. Does nothing after the first call.
+     */
+    public static synchronized void register() {
+        if(INSTANCE.registered) return;
+        INSTANCE.registered = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            System.out.println("Failed to register engine metrics: " + e.getMessage());
+        }
+        String dumpFile = System.getProperty("pacman.metricsDump");
+        if(dumpFile != null) {
+            startDump(Paths.get(dumpFile), Integer.getInteger("pacman.metricsDumpInterval", 10));
+        }
+    }
+
+    /**
+     * Gets the bytes the current thread has allocated so far, to pass to recordTick().
+     *
+     * @return The allocated bytes, or -1 if the JVM can not measure it.
+     */
+    public static long threadAllocatedBytes() {
+        return INSTANCE.allocationBean == null ? -1 : INSTANCE.allocationBean.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Records one Map update.
+     *
+     * @param startNanos System.nanoTime() before the update.
+     * @param startAllocatedBytes threadAllocatedBytes() before the update.
+     */
+    public static void recordTick(long startNanos, long startAllocatedBytes) {
+        long now = System.nanoTime();
+        INSTANCE.updateTimes.record(now - startNanos);
+        INSTANCE.countTickInSecond(now / 1_000_000_000L);
+        if(startAllocatedBytes >= 0) {
+            INSTANCE.allocatedBytes.add(threadAllocatedBytes() - startAllocatedBytes);
+            INSTANCE.allocationSamples.increment();
+        }
+    }
+
+    /**
+     * Records one paint of the GamePanel.
+     *
+     * @param startNanos System.nanoTime() before painting.
+     */
+    public static void recordPaint(long startNanos) {
+        INSTANCE.paintTimes.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a movement decision made by a ghost behaviour.
+     *
+     * @param behaviour The behaviour that decided.
+     */
+    public static void countDecision(Object behaviour) {
+        INSTANCE.decisions.get(behaviour.getClass()).increment();
+    }
+
+    /**
+     * Counts a move a ghost made by following a corridor, where its behaviour had only one choice and was not run.
+     */
+    public static void countCorridorMove() {
+        INSTANCE.corridorMoves.increment();
+    }
+
+    /**
+     * Counts a call to GhostAI.getValidMoves().
+     */
+    public static void countValidMoves() {
+        INSTANCE.validMovesCalls.increment();
+    }
+
+    /**
+     * Counts a call to Map.canEnter().
+     */
+    public static void countCanEnter() {
+        INSTANCE.canEnterCalls.increment();
+    }
+
+    /**
+     * Includes a server's sessions in the MapState counts.
+     *
+     * @param sessions The live list of sessions of the server.
+     */
+    public static void watchSessions(List<GameSession> sessions) {
+        INSTANCE.watchedSessions.add(sessions);
+    }
+
+    /**
+     * Stops including a server's sessions in the MapState counts.
+     *
+     * @param sessions The list passed to watchSessions().
+     */
+    public static void unwatchSessions(List<GameSession> sessions) {
+        INSTANCE.watchedSessions.remove(sessions);
+    }
+
+    /**
+     * Gets the number of ticks that have been timed.
+     *
+     * @return The total number of Map updates timed.
+     */
+    @Override
+    public long getTicks() {
+        return updateTimes.samples.sum();
+    }
+
+    /**
+     * Gets the rate ticks were timed at over the last RATE_WINDOW_SECONDS whole seconds, or
+     * fewer if the metrics were created or reset more recently. The second in progress is
+     * left out since it is not complete. Reading changes nothing, so the dump thread and any
+     * number of JMX clients can read it without disturbing each other.
+     *
+     * @return Ticks per second across every session.
+     */
+    @Override
+    public double getTicksPerSecond() {
+        long second = currentSecond();
+        long seconds = Math.min(RATE_WINDOW_SECONDS, second - rateStartSecond);
+        if(seconds <= 0) return 0;
+        long ticks = 0;
+        for(int i = 0; i < rateSeconds.length(); i++) {
+            long slotSecond = rateSeconds.get(i);
+            if(slotSecond < second && slotSecond >= second - seconds) ticks += rateCounts.get(i);
+        }
+        return ticks / (double)seconds;
+    }
+
+    /**
+     * Counts a tick in the slot for its second, taking the slot over from an older second first.
+     * A tick from another thread landing while a slot is taken over may be lost, which the
+     * rate, only ever an estimate, does not need a lock to avoid.
+     *
+     * @param second The second the tick finished in.
+     */
+    private void countTickInSecond(long second) {
+        int slot = (int)Math.floorMod(second, (long)rateSeconds.length());
+        long slotSecond = rateSeconds.get(slot);
+        if(slotSecond != second && rateSeconds.compareAndSet(slot, slotSecond, second)) {
+            rateCounts.set(slot, 0);
+        }
+        rateCounts.incrementAndGet(slot);
+    }
+
+    /**
+     * Gets the current whole second from System.nanoTime().
+     *
+     * @return The second.
+     */
+    private static long currentSecond() {
+        return System.nanoTime() / 1_000_000_000L;
+    }
+
+    /**
+     * Gets the mean duration of a Map update.
+     *
+     * @return Mean update time in microseconds.
+     */
+    @Override
+    public double getUpdateMeanMicros() {
+        return updateTimes.mean() / 1000.0;
+    }
+
+    /**
+     * Gets the median duration of a Map update.
+     *
+     * @return 50th percentile update time in microseconds.
+     */
+    @Override
+    public double getUpdateP50Micros() {
+        return updateTimes.percentile(0.5) / 1000.0;
+    }
+
+    /**
+     * Gets the 99th percentile duration of a Map update.
+     *
+     * @return 99th percentile update time in microseconds.
+     */
+    @Override
+    public double getUpdateP99Micros() {
+        return updateTimes.percentile(0.99) / 1000.0;
+    }
+
+    /**
+     * Gets the bucket of the longest Map update.
+     *
+     * @return Approximate maximum update time in microseconds.
+     */
+    @Override
+    public double getUpdateMaxMicros() {
+        return updateTimes.percentile(1) / 1000.0;
+    }
+
+    /**
+     * Gets the number of times the GamePanel has been painted.
+     *
+     * @return The number of paints timed.
+     */
+    @Override
+    public long getPaints() {
+        return paintTimes.samples.sum();
+    }
+
+    /**
+     * Gets the mean duration of painting the GamePanel.
+     *
+     * @return Mean paint time in microseconds.
+     */
+    @Override
+    public double getPaintMeanMicros() {
+        return paintTimes.mean() / 1000.0;
+    }
+
+    /**
+     * Gets the 99th percentile duration of painting the GamePanel.
+     *
+     * @return 99th percentile paint time in microseconds.
+     */
+    @Override
+    public double getPaintP99Micros() {
+        return paintTimes.percentile(0.99) / 1000.0;
+    }
+
+    /**
+     * Gets the mean bytes the ticking thread allocated during a Map update.
+     *
+     * @return Mean allocated bytes per tick, or -1 if the JVM can not measure it.
+     */
+    @Override
+    public double getAllocatedBytesPerTick() {
+        long samples = allocationSamples.sum();
+        if(allocationBean == null) return -1;
+        return samples == 0 ? 0 : allocatedBytes.sum() / (double)samples;
+    }
+
+    /**
+     * Gets the number of ghost AI decisions made by each behaviour class, and the number of moves
+     * made following a corridor without running a behaviour as Corridor. Eaten ghosts heading
+     * home look their moves up and are not counted.
+     *
+     * @return Entries of the form ClassName=count.
+     */
+    @Override
+    public String[] getGhostDecisions() {
+        List<String> result = new ArrayList<>();
+        for(Object[] entry : decisionNames) {
+            result.add(entry[0] + "=" + ((LongAdder)entry[1]).sum());
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * Gets the number of calls to GhostAI.getValidMoves().
+     *
+     * @return The number of calls.
+     */
+    @Override
+    public long getValidMovesCalls() {
+        return validMovesCalls.sum();
+    }
+
+    /**
+     * Gets the number of calls to Map.canEnter().
+     *
+     * @return The number of calls.
+     */
+    @Override
+    public long getCanEnterCalls() {
+        return canEnterCalls.sum();
+    }
+
+    /**
+     * Gets the number of watched sessions whose map is running.
+     *
+     * @return The number of sessions in the Running state.
+     */
+    @Override
+    public int getRunningSessions() {
+        return countSessions(Map.MapState.Running);
+    }
+
+    /**
+     * Gets the number of watched sessions whose game is over.
+     *
+     * @return The number of sessions in the GameOver state.
+     */
+    @Override
+    public int getGameOverSessions() {
+        return countSessions(Map.MapState.GameOver);
+    }
+
+    /**
+     * Gets the number of watched sessions whose game has been won.
+     *
+     * @return The number of sessions in the GameWon state.
+     */
+    @Override
+    public int getGameWonSessions() {
+        return countSessions(Map.MapState.GameWon);
+    }
+
+    /**
+     * Clears every count and histogram.
+     */
+    @Override
+    public void reset() {
+        updateTimes.reset();
+        paintTimes.reset();
+        allocatedBytes.reset();
+        allocationSamples.reset();
+        for(Object[] entry : decisionNames) {
+            ((LongAdder)entry[1]).reset();
+        }
+        validMovesCalls.reset();
+        canEnterCalls.reset();
+        for(int i = 0; i < rateSeconds.length(); i++) {
+            rateSeconds.set(i, Long.MIN_VALUE);
+            rateCounts.set(i, 0);
+        }
+        rateStartSecond = currentSecond();
+    }
+
+    /**
+     * Writes every metric as a line of text.
+     *
+     * @param out Where to write the report.
+     */
+    public void printReport(PrintStream out) {
+        out.printf("ticks %d (%.1f/s)%n", getTicks(), getTicksPerSecond());
+        out.printf("update us mean %.1f p50 %.1f p99 %.1f max %.1f%n",
+                getUpdateMeanMicros(), getUpdateP50Micros(), getUpdateP99Micros(), getUpdateMaxMicros());
+        out.printf("paint us mean %.1f p99 %.1f over %d paints%n", getPaintMeanMicros(), getPaintP99Micros(), getPaints());
+        out.printf("allocated bytes per tick %.1f%n", getAllocatedBytesPerTick());
+        out.println("ghost decisions " + String.join(" ", getGhostDecisions()));
+        out.printf("getValidMoves calls %d, canEnter calls %d%n", getValidMovesCalls(), getCanEnterCalls());
+        out.printf("sessions running %d, game over %d, game won %d%n",
+                getRunningSessions(), getGameOverSessions(), getGameWonSessions());
+    }
+
+    /**
+     * Counts the watched sessions whose map is in a state. The state is read without
+     * synchronising with the session threads, so it may be a tick out of date.
+     *
+     * @param state The state to count.
+     * @return The number of open sessions in that state.
+     */
+    private int countSessions(Map.MapState state) {
+        int count = 0;
+        for(List<GameSession> sessions : watchedSessions) {
+            for(GameSession session : sessions) {
+                if(!session.isClosed() && session.getMap().getMapState() == state) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts a daemon thread that replaces a file with the report at a fixed interval.
+     *
+     * @param file The file to write.
+     * @param intervalSeconds Seconds between writes.
+     */
+    private static void startDump(Path file, int intervalSeconds) {
+        Thread dumpThread = new Thread(() -> {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            while(true) {
+                try {
+                    Thread.sleep(intervalSeconds * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try(PrintStream out = new PrintStream(Files.newOutputStream(temp))) {
+                    INSTANCE.printReport(out);
+                } catch (IOException e) {
+                    System.out.println("Failed to write metrics to " + temp + ": " + e.getMessage());
+                    continue;
+                }
+                try {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    System.out.println("Failed to write metrics to " + file + ": " + e.getMessage());
+                }
+            }
+        }, "Pacman metrics dump");
+        dumpThread.setDaemon(true);
+        dumpThread.start();
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * EngineMetricsMBean interface:
+ * The attributes EngineMetrics exposes over JMX. Times are in microseconds.
+ */
+public interface EngineMetricsMBean {
+    /**
+     * Gets the number of ticks that have been timed.
+     *
+     * @return The total number of Map updates timed.
+     */
+    long getTicks();
+
+    /**
+     * Gets the rate ticks were timed at over the last few whole seconds. Reading it changes nothing.
+     *
+     * @return Ticks per second across every session.
+     */
+    double getTicksPerSecond();
+
+    /**
+     * Gets the mean duration of a Map update.
+     *
+     * @return Mean update time in microseconds.
+     */
+    double getUpdateMeanMicros();
+
+    /**
+     * Gets the median duration of a Map update.
+     *
+     * @return 50th percentile update time in microseconds.
+     */
+    double getUpdateP50Micros();
+
+    /**
+     * Gets the 99th percentile duration of a Map update.
+     *
+     * @return 99th percentile update time in microseconds.
+     */
+    double getUpdateP99Micros();
+
+    /**
+     * Gets the longest Map update.
+     *
+     * @return Approximate maximum update time in microseconds.
+     */
+    double getUpdateMaxMicros();
+
+    /**
+     * Gets the number of times the GamePanel has been painted.
+     *
+     * @return The number of paints timed.
+     */
+    long getPaints();
+
+    /**
+     * Gets the mean duration of painting the GamePanel.
+     *
+     * @return Mean paint time in microseconds.
+     */
+    double getPaintMeanMicros();
+
+    /**
+     * Gets the 99th percentile duration of painting the GamePanel.
+     *
+     * @return 99th percentile paint time in microseconds.
+     */
+    double getPaintP99Micros();
+
+    /**
+     * Gets the mean bytes the ticking thread allocated during a Map update.
+     *
+     * @return Mean allocated bytes per tick, or -1 if the JVM can not measure it.
+     */
+    double getAllocatedBytesPerTick();
+
+    /**
+     * Gets the number of ghost AI decisions made by each behaviour class, with the moves made
+     * following a corridor counted as Corridor. Eaten ghosts heading home are not counted.
+     *
+     * @return Entries of the form ClassName=count.
+     */
+    String[] getGhostDecisions();
+
+    /**
+     * Gets the number of calls to GhostAI.getValidMoves().
+     *
+     * @return The number of calls.
+     */
+    long getValidMovesCalls();
+
+    /**
+     * Gets the number of calls to Map.canEnter().
+     *
+     * @return The number of calls.
+     */
+    long getCanEnterCalls();
+
+    /**
+     * Gets the number of watched sessions whose map is running.
+     *
+     * @return The number of sessions in the Running state.
+     */
+    int getRunningSessions();
+
+    /**
+     * Gets the number of watched sessions whose game is over.
+     *
+     * @return The number of sessions in the GameOver state.
+     */
+    int getGameOverSessions();
+
+    /**
+     * Gets the number of watched sessions whose game has been won.
+     *
+     * @return The number of sessions in the GameWon state.
+     */
+    int getGameWonSessions();
+
+    /**
+     * Clears every count and histogram.
+     */
+    void reset();
+}
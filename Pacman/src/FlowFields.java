@@ -0,0 +1,169 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * FlowFields class:
+ * Distance fields over a navMap toward target cells. The field for a target holds, for every
+ * cell, the number of ghost moves needed to reach the target following the navMap, found with
+ * a single breadth first search outward from the target along the navMap's moves in reverse.
+ * A ghost chasing that target then only has to compare the distances of the cells its valid
+ * moves lead to, so the cost of pathfinding is paid once per target cell rather than once per
+ * ghost. Fields are kept once calculated, so a target that is returned to costs nothing. If too many
+ * are kept for the size of the map they are all dropped, and if the moves of the navMap change they
+ * are all dropped so none can be out of date. Held in a Navigation.
+ */
+public class FlowFields {
+    /**
+     * Distance of a cell that can not reach the target.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    /**
+     * Maximum number of distances kept across every field before they are all dropped.
+     */
+    private static final int MAX_CACHED_DISTANCES = 1 << 24;
+
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    /**
+     * The navMap the fields are calculated over. Its moves can change, such as when a door
+     * opens, which bumps its nav version and makes every cached field be dropped.
+     */
+    private final AINode[][] navMap;
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * The field for each target cell, indexed by x * height + y, or null if not calculated yet.
+     */
+    private final AtomicReferenceArray<int[]> fields;
+    /**
+     * Number of fields currently kept.
+     */
+    private final AtomicInteger cachedFields;
+    /**
+     * Number of fields kept before they are all dropped.
+     */
+    private final int maxCachedFields;
+    /**
+     * The nav version of the navMap the fields were calculated with.
+     */
+    private volatile int navVersion;
+
+    /**
+     * Creates an empty set of fields for a navMap.
+     *
+     * @param navMap The navMap to calculate distances over.
+     */
+    public FlowFields(AINode[][] navMap) {
+        this.navMap = navMap;
+        width = navMap.length;
+        height = navMap[0].length;
+        fields = new AtomicReferenceArray<>(width * height);
+        cachedFields = new AtomicInteger();
+        maxCachedFields = Math.max(1, MAX_CACHED_DISTANCES / (width * height));
+        navVersion = AINode.getNavVersion(navMap);
+    }
+
+    /**
+     * Gets the number of moves from every cell to a target, calculating the field if this is
+     * the first time the target has been asked for.
+     *
+     * @param targetX Column of the target.
+     * @param targetY Row of the target.
+     * @return Distances indexed by x * height + y, UNREACHABLE for cells that can not reach the
+     *         target, or null if the target is outside the map. Must not be modified.
+     */
+    public int[] getDistances(int targetX, int targetY) {
+        if(targetX < 0 || targetY < 0 || targetX >= width || targetY >= height) return null;
+        int version = AINode.getNavVersion(navMap);
+        if(version != navVersion) {
+            for(int i = 0; i < fields.length(); i++) {
+                fields.set(i, null);
+            }
+            cachedFields.set(0);
+            navVersion = version;
+        }
+        int target = targetX * height + targetY;
+        int[] distances = fields.get(target);
+        if(distances == null) {
+            distances = calculate(targetX, targetY);
+            if(cachedFields.incrementAndGet() > maxCachedFields) {
+                // Dropping every field is rare and far simpler than tracking which were used least
+                for(int i = 0; i < fields.length(); i++) {
+                    fields.set(i, null);
+                }
+                cachedFields.set(1);
+            }
+            fields.set(target, distances);
+        }
+        return distances;
+    }
+
+    /**
+     * Gets the number of cells vertically, needed to index the distances.
+     *
+     * @return The height of the navMap.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the number of fields currently kept.
+     *
+     * @return The number of target cells with a field.
+     */
+    public int getCachedFields() {
+        return cachedFields.get();
+    }
+
+    /**
+     * Calculates the field for a target with a breadth first search out from the target. A cell
+     * is added from a neighbour when the navMap allows moving from the cell into that neighbour.
+     *
+     * @param targetX Column of the target.
+     * @param targetY Row of the target.
+     * @return The distances from every cell to the target.
+     */
+    private int[] calculate(int targetX, int targetY) {
+        int[] distances = new int[width * height];
+        Arrays.fill(distances, UNREACHABLE);
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+        int target = targetX * height + targetY;
+        distances[target] = 0;
+        queue[tail++] = target;
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / height, y = cell % height;
+            int next = distances[cell] + 1;
+            for(int d = 0; d < 4; d++) {
+                // The cell that moves in direction d to arrive here
+                int fromX = x - DX[d], fromY = y - DY[d];
+                if(fromX < 0 || fromY < 0 || fromX >= width || fromY >= height) continue;
+                AINode node = navMap[fromX][fromY];
+                int from = fromX * height + fromY;
+                if(node == null || !node.canMoveDirection[d] || distances[from] != UNREACHABLE) continue;
+                distances[from] = next;
+                queue[tail++] = from;
+            }
+        }
+        return distances;
+    }
+}
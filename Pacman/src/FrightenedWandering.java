@@ -31,7 +31,7 @@ public class FrightenedWandering implements GhostAI.FrightenedBehaviour {
      */
     @Override
     public void frightened() {
-        GhostAI.moveGhostUsingTarget(ghost,Map.INSTANCE.getPacman().getPosition(), !firstUpdate, false);
+        GhostAI.moveGhostUsingTarget(ghost,ghost.getMap().getPacman().getPosition(), !firstUpdate, false);
         if(firstUpdate) {
             firstUpdate = false;
         }
@@ -44,4 +44,22 @@ public class FrightenedWandering implements GhostAI.FrightenedBehaviour {
     public void beginWandering() {
         firstUpdate = true;
     }
+
+    /**
+     * Gets whether the next movement is allowed to double back.
+     *
+     * @return True if no movement has happened since beginWandering().
+     */
+    public boolean isFirstUpdate() {
+        return firstUpdate;
+    }
+
+    /**
+     * Sets whether the next update is the first since being frightened. Used when restoring a snapshot.
+     *
+     * @param firstUpdate True to allow the next move to double back.
+     */
+    public void setFirstUpdate(boolean firstUpdate) {
+        this.firstUpdate = firstUpdate;
+    }
 }
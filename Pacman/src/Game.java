@@ -16,6 +16,7 @@ class Game implements KeyListener {
      * @param args Not used.
      */
     public static void main(String[] args) {
+        EngineMetrics.register();
         Game game = new Game();
     }
 
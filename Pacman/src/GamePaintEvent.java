@@ -0,0 +1,20 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * GamePaintEvent class:
+ * Flight Recorder event covering one paint of the GamePanel.
+ */
+@Name("pacman.GamePaint")
+@Label("Game Paint")
+@Category({"Pacman", "Tick"})
+@Description("One paint of the game panel")
+@StackTrace(false)
+public class GamePaintEvent extends jdk.jfr.Event {
+}
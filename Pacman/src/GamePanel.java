@@ -3,6 +3,10 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * Pacman
@@ -33,20 +37,95 @@ public class GamePanel extends JPanel implements ActionListener {
      * The time between updates for the timer.
      */
     public static final int TIME_BETWEEN_UPDATES = 40;
+    /**
+     * Optional ring buffer that every tick is encoded into for learning agents.
+     * Enabled by setting the pacman.observations system property to a file path.
+     */
+    private ObservationRing observationRing;
+    /**
+     * Plays in place of the keyboard while enabled. Toggled with A.
+     */
+    private Autopilot autopilot;
+    /**
+     * True when the autopilot is controlling Pacman.
+     */
+    private boolean autopilotEnabled;
+    /**
+     * Time in milliseconds the autopilot can search for each move. Kept below the update interval.
+     */
+    private static final int AUTOPILOT_TIME_BUDGET = 25;
+    /**
+     * Key presses waiting to be applied at the start of the next update.
+     * Filled by the key listener and drained by the update so input is never
+     * applied while the map is being updated.
+     */
+    private InputQueue inputQueue;
+    /**
+     * Versus game against a player on another machine, or null for a normal game.
+     * Enabled by setting the pacman.versus system property to pacman or ghost.
+     */
+    private RollbackSession versus;
+    /**
+     * Default UDP port used by both players of a versus game.
+     */
+    private static final int DEFAULT_VERSUS_PORT = 7780;
+    /**
+     * Number of updates since the panel was created, for GameTickEvent.
+     */
+    private long tickCount;
+    /**
+     * Performance figures drawn over the game. Toggled with F3.
+     */
+    private PerformanceOverlay performanceOverlay;
+    /**
+     * Watches the map file so edits are applied while playing, or null when not hot reloading.
+     * Enabled by setting the pacman.hotReload system property to true.
+     */
+    private MapFileWatcher mapFileWatcher;
+    /**
+     * Largest number of cells shown across the window. Larger maps scroll to follow Pacman.
+     */
+    private static final int MAX_VIEW_WIDTH = 48;
+    /**
+     * Largest number of cells shown down the window. Larger maps scroll to follow Pacman.
+     */
+    private static final int MAX_VIEW_HEIGHT = 36;
+    /**
+     * Number of cells outside the window on each side that are still drawn, so anything
+     * partly in view at the edge is never missed.
+     */
+    private static final int VIEW_MARGIN = 1;
+    /**
+     * Pixel offset of the left edge of the window from the left edge of the map.
+     */
+    private int cameraX;
+    /**
+     * Pixel offset of the top edge of the window from the top edge of the map.
+     */
+    private int cameraY;
+    /**
+     * Width and height of the map in cells when the panel and observation ring were last sized.
+     */
+    private int sizedMapWidth, sizedMapHeight;
 
     /**
-     * Creates a map, with sufficient panel space to draw it and configures the
-     * timer to start ticking for updates and repainting.
+     * Creates a map, with sufficient panel space to draw it up to the largest view and
+     * configures the timer to start ticking for updates and repainting.
      */
     public GamePanel() {
-        // Note that this currently assumes the map size.
-        // You could create the map first and then request the dimensions from it.
-        setPreferredSize(new Dimension(28*CELL_DIM, 31*CELL_DIM));
         setBackground(Color.BLACK);
         timer = new Timer(TIME_BETWEEN_UPDATES,this);
         timer.setRepeats(true);
-        map = new Map();
+        inputQueue = new InputQueue(64);
+        performanceOverlay = new PerformanceOverlay();
+        map = createMap();
         pacman = map.getPacman();
+        sizedMapWidth = map.getMapWidth();
+        sizedMapHeight = map.getMapHeight();
+        setPreferredSize(getViewSize());
+        createObservationRing();
+        createVersusSession();
+        createMapFileWatcher();
 
         timer.start();
     }
@@ -58,14 +137,108 @@ public class GamePanel extends JPanel implements ActionListener {
      */
     @Override
     public void paint(Graphics g) {
+        GamePaintEvent event = new GamePaintEvent();
+        event.begin();
+        long paintStart = System.nanoTime();
         super.paint(g);
-        map.paint(g);
+        paintMap(g);
         drawScore(g);
         if(map.getMapState() == Map.MapState.GameOver) {
             drawGameEndMessage(g, "GAME OVER!", Color.RED);
         } else if(map.getMapState() == Map.MapState.GameWon) {
             drawGameEndMessage(g, "GAME WON!", new Color(21, 123, 21));
         }
+        EngineMetrics.recordPaint(paintStart);
+        performanceOverlay.recordPaint(paintStart);
+        event.commit();
+        performanceOverlay.paint(g);
+    }
+
+    /**
+     * Moves the camera to follow Pacman and draws the part of the map in view. Only the cells
+     * in the window and a small margin around it are visited, so large maps cost no more to
+     * draw than small ones.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    private void paintMap(Graphics g) {
+        updateCamera();
+        g.translate(-cameraX, -cameraY);
+        map.paint(g, cameraX/CELL_DIM - VIEW_MARGIN, cameraY/CELL_DIM - VIEW_MARGIN,
+                (cameraX+getWidth())/CELL_DIM + 1 + VIEW_MARGIN, (cameraY+getHeight())/CELL_DIM + 1 + VIEW_MARGIN);
+        g.translate(cameraX, cameraY);
+    }
+
+    /**
+     * Centres the camera on Pacman, keeping it inside the map so no space past the edge is shown.
+     * When the map is smaller than the window the map is drawn from the top left as before.
+     */
+    private void updateCamera() {
+        Position position = pacman.getPosition();
+        cameraX = clampCamera(position.x*CELL_DIM + CELL_DIM/2 - getWidth()/2, getMapDrawWidth() - getWidth());
+        cameraY = clampCamera(position.y*CELL_DIM + CELL_DIM/2 - getHeight()/2, getMapDrawHeight() - getHeight());
+    }
+
+    /**
+     * Limits a camera offset to the part of the map that can be scrolled to.
+     *
+     * @param offset The wanted offset in pixels.
+     * @param maxOffset The largest offset that keeps the window inside the map.
+     * @return The offset between 0 and maxOffset, or 0 if the map fits in the window.
+     */
+    private static int clampCamera(int offset, int maxOffset) {
+        return Math.max(0, Math.min(offset, maxOffset));
+    }
+
+    /**
+     * Gets the size of the panel needed to show the map, up to the largest view.
+     *
+     * @return The preferred size of the panel.
+     */
+    private Dimension getViewSize() {
+        return new Dimension(Math.min(getMapDrawWidth(), MAX_VIEW_WIDTH*CELL_DIM),
+                Math.min(getMapDrawHeight(), MAX_VIEW_HEIGHT*CELL_DIM));
+    }
+
+    /**
+     * Resizes the panel and its window, and replaces the observation ring, if the map is no longer
+     * the size they were made for. A restart or hot reload can load a map file of another size.
+     * The camera is clamped to the map's current size every paint so needs nothing here.
+     */
+    private void updateMapSize() {
+        if(map.getMapWidth() == sizedMapWidth && map.getMapHeight() == sizedMapHeight) return;
+        sizedMapWidth = map.getMapWidth();
+        sizedMapHeight = map.getMapHeight();
+        setPreferredSize(getViewSize());
+        revalidate();
+        // The frame is not resizable, so it has to be packed again to take the new size
+        Window window = SwingUtilities.getWindowAncestor(this);
+        if(window != null) {
+            window.pack();
+        }
+        if(observationRing != null) {
+            observationRing = null;
+            createObservationRing();
+        }
+    }
+
+    /**
+     * Gets the width of the map when drawn. The last column holds the ; that ends each
+     * line of the map file and is never drawn.
+     *
+     * @return The width in pixels.
+     */
+    private int getMapDrawWidth() {
+        return (map.getMapWidth()-1)*CELL_DIM;
+    }
+
+    /**
+     * Gets the height of the map when drawn.
+     *
+     * @return The height in pixels.
+     */
+    private int getMapDrawHeight() {
+        return map.getMapHeight()*CELL_DIM;
     }
 
     /**
@@ -76,22 +249,202 @@ public class GamePanel extends JPanel implements ActionListener {
      */
     @Override
     public void actionPerformed(ActionEvent e) {
+        if(versus != null) {
+            updateVersus();
+            return;
+        }
+        processInput();
+        if(mapFileWatcher != null && mapFileWatcher.pollChanged()) {
+            map.reloadFromFile();
+            pacman = map.getPacman();
+        }
+        if(autopilotEnabled && pacman.canMove() && map.getMapState() == Map.MapState.Running) {
+            pacman.moveIfCan(Autopilot.keyCodeFor(autopilot.chooseDirection(map)));
+        }
+        GameTickEvent event = new GameTickEvent();
+        event.begin();
+        long updateStart = System.nanoTime();
+        long allocatedStart = EngineMetrics.threadAllocatedBytes();
         map.update();
+        EngineMetrics.recordTick(updateStart, allocatedStart);
+        if(event.shouldCommit()) {
+            event.session = -1;
+            event.tick = tickCount;
+            event.mapState = map.getMapState().name();
+            event.commit();
+        }
+        performanceOverlay.recordTick(map, updateStart);
+        tickCount++;
+        // After any restart or hot reload in this tick
+        updateMapSize();
+        if(observationRing != null) {
+            observationRing.write(map);
+        }
         repaint();
     }
 
     /**
-     * Handles input from the keyboard. Escape quits the game, R restarts.
-     * Otherwise the input is passed on to pacman to let it move if possible.
+     * Creates the observation ring if the pacman.observations property names a file.
+     * The pacman.observationStack property sets how many frames are stacked (default 4).
+     */
+    private void createObservationRing() {
+        String observationFile = System.getProperty("pacman.observations");
+        if(observationFile == null) return;
+        int stackSize = Integer.getInteger("pacman.observationStack", 4);
+        try {
+            observationRing = new ObservationRing(Paths.get(observationFile),
+                    map.getMapObjects().length, map.getMapObjects()[0].length, Math.max(8, stackSize * 2), stackSize);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Failed to create observation ring at " + observationFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the map from the map file, or as a window onto a world if the pacman.world property
+     * names a world file, such as one made by WorldLoadTest. What has been collected in a world is
+     * saved when the game exits. The exit always comes from the event thread, which also runs
+     * the updates, so no update can be part way through while the world is saved.
+     *
+     * @return The map to play.
+     */
+    private Map createMap() {
+        String worldFile = System.getProperty("pacman.world");
+        if(worldFile == null) return new Map();
+        try {
+            Map worldMap = new Map(new WorldWindow(new ChunkedWorld(Paths.get(worldFile)),
+                    WorldWindow.DEFAULT_WIDTH, WorldWindow.DEFAULT_HEIGHT));
+            Runtime.getRuntime().addShutdownHook(new Thread(worldMap::saveWorld));
+            return worldMap;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to open world " + worldFile + ": " + e.getMessage());
+            return new Map();
+        }
+    }
+
+    /**
+     * Starts watching the map file if the pacman.hotReload property is true.
+     * Not used in versus games because both players must keep the same map, or in worlds.
+     */
+    private void createMapFileWatcher() {
+        if(!Boolean.getBoolean("pacman.hotReload") || versus != null || map.isWorld()) return;
+        try {
+            mapFileWatcher = new MapFileWatcher(Paths.get(Map.MAP_FILE));
+        } catch (IOException e) {
+            System.out.println("Failed to watch " + Map.MAP_FILE + " for changes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the versus session if the pacman.versus property is set to pacman or ghost.
+     * The pacman.versusRemote property gives the other player's host:port, pacman.versusPort
+     * the local port, and pacman.versusDelay an artificial delay in milliseconds for testing.
+     */
+    private void createVersusSession() {
+        String side = System.getProperty("pacman.versus");
+        if(side == null) return;
+        if(map.isWorld()) {
+            System.out.println("Versus games can not be played in a world.");
+            return;
+        }
+        int localPlayer = side.equalsIgnoreCase("ghost") ? RollbackSession.PLAYER_GHOST : RollbackSession.PLAYER_PACMAN;
+        String remote = System.getProperty("pacman.versusRemote", "localhost:" + DEFAULT_VERSUS_PORT);
+        int split = remote.lastIndexOf(':');
+        try {
+            DatagramLink link = new DatagramLink(Integer.getInteger("pacman.versusPort", DEFAULT_VERSUS_PORT),
+                    new InetSocketAddress(remote.substring(0, split), Integer.parseInt(remote.substring(split + 1))));
+            link.setDelay(Integer.getInteger("pacman.versusDelay", 0));
+            versus = new RollbackSession(map, localPlayer, link);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to start versus game with " + remote + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Advances the versus session with the latest key pressed. Escape still quits and F3 toggles
+     * the performance overlay. Every other key, including R to restart, is sent to the other player with the tick.
+     */
+    private void updateVersus() {
+        int keyCode;
+        int latestKey = RollbackSession.NO_INPUT;
+        while((keyCode = inputQueue.poll()) != InputQueue.EMPTY) {
+            if(keyCode == KeyEvent.VK_ESCAPE) {
+                System.exit(0);
+            } else if(keyCode == KeyEvent.VK_F3) {
+                performanceOverlay.toggle(map);
+            } else if(keyCode <= 0xFF) {
+                latestKey = keyCode;
+            }
+        }
+        GameTickEvent event = new GameTickEvent();
+        event.begin();
+        long updateStart = System.nanoTime();
+        long allocatedStart = EngineMetrics.threadAllocatedBytes();
+        try {
+            versus.advance(latestKey);
+        } catch (IOException e) {
+            System.out.println("Versus connection failed: " + e.getMessage());
+            versus = null;
+        }
+        // Includes any rollback and resimulation, which is part of what a versus tick costs
+        EngineMetrics.recordTick(updateStart, allocatedStart);
+        if(event.shouldCommit()) {
+            event.session = -1;
+            event.tick = tickCount;
+            event.mapState = map.getMapState().name();
+            event.commit();
+        }
+        performanceOverlay.recordTick(map, updateStart);
+        tickCount++;
+        pacman = map.getPacman();
+        repaint();
+    }
+
+    /**
+     * Queues input from the keyboard to be handled at the start of the next update.
+     * Must only be called from the thread delivering key events.
      *
      * @param keyCode The key that was pressed.
      */
     public void handleInput(int keyCode) {
+        inputQueue.offer(keyCode);
+    }
+
+    /**
+     * Applies every key press that has been queued since the last update.
+     */
+    private void processInput() {
+        int keyCode;
+        while((keyCode = inputQueue.poll()) != InputQueue.EMPTY) {
+            applyInput(keyCode);
+        }
+    }
+
+    /**
+     * Handles input from the keyboard. Escape quits the game, R restarts, A toggles the autopilot,
+     * T writes the AI trace to ai-trace.txt when tracing is enabled,
+     * and F3 toggles the performance overlay.
+     * Otherwise the input is passed on to pacman to let it move if possible.
+     *
+     * @param keyCode The key that was pressed.
+     */
+    private void applyInput(int keyCode) {
         if(keyCode == KeyEvent.VK_ESCAPE) {
             System.exit(0);
         } else if(keyCode == KeyEvent.VK_R) {
             map.restart();
             pacman = map.getPacman();
+        } else if(AITrace.ENABLED && keyCode == KeyEvent.VK_T) {
+            Path traceFile = Paths.get("ai-trace.txt");
+            if(map.getAITrace().dump(traceFile, null)) {
+                System.out.println("AI trace written to " + traceFile.toAbsolutePath());
+            }
+        } else if(keyCode == KeyEvent.VK_F3) {
+            performanceOverlay.toggle(map);
+        } else if(keyCode == KeyEvent.VK_A) {
+            if(autopilot == null) {
+                autopilot = new Autopilot(map, AUTOPILOT_TIME_BUDGET);
+            }
+            autopilotEnabled = !autopilotEnabled;
         } else {
             pacman.moveIfCan(keyCode);
         }
@@ -109,9 +462,9 @@ public class GamePanel extends JPanel implements ActionListener {
         int width = g.getFontMetrics().stringWidth(score);
         int widthMax = g.getFontMetrics().stringWidth("200");
         g.setColor(Color.LIGHT_GRAY);
-        g.fillRect(14*CELL_DIM-widthMax/2,0,widthMax, 23);
+        g.fillRect(getWidth()/2-widthMax/2,0,widthMax, 23);
         g.setColor(Color.BLACK);
-        g.drawString(score, 14*CELL_DIM - width/2, 20);
+        g.drawString(score, getWidth()/2 - width/2, 20);
     }
 
     /**
@@ -0,0 +1,375 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * GameServer class:
+ * Hosts many games at once without any window. Every client that connects over TCP
+ * gets its own GameSession that ticks 25 times a second independently of the others.
+ * A single network thread uses a Selector to accept connections and read input for
+ * all the sessions. Clients send one byte per key press using the same key codes as
+ * the keyboard (arrow keys to move, R to restart) and receive a frame after every tick.
+ * Spectators connect to a separate port and watch a session by sending its id (see Spectator).
+ *
+ * When the runtime supports virtual threads each session runs on its own virtual thread.
+ * Otherwise the sessions are ticked at a fixed rate by a shared pool with one thread per core.
+ * The MapState of every session is included in the EngineMetrics JMX counts while running.
+ */
+public class GameServer {
+    /**
+     * Port used when none is given to main.
+     */
+    public static final int DEFAULT_PORT = 7777;
+
+    /**
+     * Creates a thread for each session when virtual threads are available. Null otherwise.
+     */
+    private final ThreadFactory sessionThreadFactory;
+    /**
+     * Ticks the sessions when virtual threads are not available. Null otherwise.
+     */
+    private final ScheduledExecutorService tickExecutor;
+    /**
+     * Map loaded once so every session can share its navMap.
+     */
+    private final Map layoutSource;
+    /**
+     * All sessions that have been started and not yet removed.
+     */
+    private final List<GameSession> sessions;
+    /**
+     * Reused buffer the network thread reads input into.
+     */
+    private final ByteBuffer readBuffer;
+    /**
+     * Waits for connections and input.
+     */
+    private Selector selector;
+    /**
+     * Channel accepting new clients.
+     */
+    private ServerSocketChannel serverChannel;
+    /**
+     * Channel accepting spectators. Null if spectators are not accepted.
+     */
+    private ServerSocketChannel spectatorChannel;
+    /**
+     * Thread running the network loop.
+     */
+    private Thread networkThread;
+    /**
+     * Identifier given to the next session.
+     */
+    private int nextSessionId;
+
+    /**
+     * Starts a server on the port given as the first argument (default 7777) with spectators
+     * on the second argument (default one above the first) and runs until stopped.
+     *
+     * @param args Optional port number and spectator port number.
+     * @throws IOException If a port can not be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int spectatorPort = args.length > 1 ? Integer.parseInt(args[1]) : port + 1;
+        EngineMetrics.register();
+        GameServer server = new GameServer();
+        System.out.println("Pacman server listening on port " + server.start(port, spectatorPort)
+                + " with spectators on port " + server.getSpectatorPort()
+                + (server.usesVirtualThreads() ? " using virtual threads" : " using a shared tick pool"));
+    }
+
+    /**
+     * Creates a server ready to be started. Uses virtual threads for the sessions
+     * if the runtime supports them.
+     */
+    public GameServer() {
+        sessionThreadFactory = createVirtualThreadFactory();
+        if(sessionThreadFactory == null) {
+            tickExecutor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "Pacman session ticks");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            tickExecutor = null;
+        }
+        layoutSource = new Map();
+        sessions = new CopyOnWriteArrayList<>();
+        readBuffer = ByteBuffer.allocateDirect(4096);
+    }
+
+    /**
+     * Binds to a port and starts accepting clients on the network thread. No spectators are accepted.
+     *
+     * @param port Port to listen on, or 0 to use any free port.
+     * @return The port that was bound.
+     * @throws IOException If the port can not be bound.
+     */
+    public int start(int port) throws IOException {
+        return start(port, -1);
+    }
+
+    /**
+     * Binds to a port for clients and a port for spectators and starts accepting on the network thread.
+     *
+     * @param port Port for clients to play on, or 0 to use any free port.
+     * @param spectatorPort Port for spectators, 0 to use any free port, or -1 to not accept spectators.
+     * @return The port that was bound for clients.
+     * @throws IOException If a port can not be bound.
+     */
+    public int start(int port, int spectatorPort) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        if(spectatorPort >= 0) {
+            spectatorChannel = ServerSocketChannel.open();
+            spectatorChannel.bind(new InetSocketAddress(spectatorPort), 1024);
+            spectatorChannel.configureBlocking(false);
+            spectatorChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+        EngineMetrics.watchSessions(sessions);
+        networkThread = new Thread(this::networkLoop, "Pacman server network");
+        networkThread.start();
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the port spectators connect to.
+     *
+     * @return The bound spectator port, or -1 if spectators are not accepted.
+     */
+    public int getSpectatorPort() {
+        return spectatorChannel == null ? -1 : spectatorChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Closes every session and stops accepting clients.
+     */
+    public void stop() {
+        try {
+            selector.close();
+            serverChannel.close();
+            if(spectatorChannel != null) spectatorChannel.close();
+            networkThread.join();
+        } catch (IOException e) {
+            System.out.println("Failed to close server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for(GameSession session : sessions) {
+            session.close();
+        }
+        EngineMetrics.unwatchSessions(sessions);
+        if(tickExecutor != null) {
+            tickExecutor.shutdown();
+            try {
+                tickExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the sessions currently running.
+     *
+     * @return The list of sessions.
+     */
+    public List<GameSession> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Gets whether the sessions are running on virtual threads.
+     *
+     * @return True if each session has its own virtual thread.
+     */
+    public boolean usesVirtualThreads() {
+        return sessionThreadFactory != null;
+    }
+
+    /**
+     * Accepts clients and reads their input until the selector is closed.
+     */
+    private void networkLoop() {
+        try {
+            while(selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()) continue;
+                    if(key.isAcceptable()) {
+                        if(key.channel() == serverChannel) acceptClients();
+                        else acceptSpectators();
+                    } else if(key.isReadable()) {
+                        if(key.attachment() instanceof Spectator) readSpectator(key);
+                        else readInput(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Stopped while selecting
+        } catch (IOException e) {
+            System.out.println("Server network loop failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Accepts every waiting client and starts a session for each.
+     *
+     * @throws IOException If the server channel has failed.
+     */
+    private void acceptClients() throws IOException {
+        SocketChannel channel;
+        while((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            GameSession session = new GameSession(nextSessionId++, channel, layoutSource);
+            channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+            startSession(session);
+        }
+    }
+
+    /**
+     * Accepts every waiting spectator. They choose a session once they have sent its id.
+     *
+     * @throws IOException If the spectator channel has failed.
+     */
+    private void acceptSpectators() throws IOException {
+        SocketChannel channel;
+        while((channel = spectatorChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Spectator(channel));
+        }
+    }
+
+    /**
+     * Starts the session ticking on its own virtual thread or on the shared pool.
+     * Sessions on the pool are given a start offset so their ticks are spread across the interval.
+     *
+     * @param session The session to start.
+     */
+    private void startSession(GameSession session) {
+        if(sessionThreadFactory != null) {
+            sessionThreadFactory.newThread(session).start();
+        } else {
+            long initialDelay = (session.getId() * 7919L * 1_000_000L) % GameSession.TICK_NANOS;
+            session.setFirstTickTime(System.nanoTime() + initialDelay);
+            session.setScheduledTicks(tickExecutor.scheduleAtFixedRate(session::tick, initialDelay,
+                    GameSession.TICK_NANOS, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    /**
+     * Reads the key codes a client has sent and queues them on its session.
+     * Closes the session when the client disconnects.
+     *
+     * @param key The selection key of the client.
+     */
+    private void readInput(SelectionKey key) {
+        GameSession session = (GameSession)key.attachment();
+        SocketChannel channel = (SocketChannel)key.channel();
+        int read;
+        try {
+            readBuffer.clear();
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if(read < 0) {
+            key.cancel();
+            session.close();
+            sessions.remove(session);
+            return;
+        }
+        readBuffer.flip();
+        while(readBuffer.hasRemaining()) {
+            session.offerInput(readBuffer.get() & 0xFF);
+        }
+    }
+
+    /**
+     * Reads the session id or acknowledgements a spectator has sent. Adds the spectator to
+     * its session once the id has arrived, and removes it when the spectator disconnects.
+     *
+     * @param key The selection key of the spectator.
+     */
+    private void readSpectator(SelectionKey key) {
+        Spectator spectator = (Spectator)key.attachment();
+        int read;
+        try {
+            readBuffer.clear();
+            read = spectator.getChannel().read(readBuffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if(read < 0) {
+            key.cancel();
+            if(spectator.getSession() != null) spectator.getSession().removeSpectator(spectator);
+            spectator.close();
+            return;
+        }
+        readBuffer.flip();
+        int sessionId = spectator.receive(readBuffer);
+        if(sessionId >= 0) {
+            GameSession session = findSession(sessionId);
+            if(session == null) {
+                System.out.println("Spectator asked for missing session " + sessionId);
+                key.cancel();
+                spectator.close();
+            } else {
+                session.addSpectator(spectator);
+            }
+        }
+    }
+
+    /**
+     * Finds a running session by its id.
+     *
+     * @param sessionId The id of the session.
+     * @return The session or null if there is no session with the id.
+     */
+    private GameSession findSession(int sessionId) {
+        for(GameSession session : sessions) {
+            if(session.getId() == sessionId) return session;
+        }
+        return null;
+    }
+
+    /**
+     * Looks up Thread.ofVirtual() so virtual threads are used when the runtime has them
+     * while the game still builds for runtimes without them.
+     *
+     * @return A factory for virtual threads, or null if they are not supported.
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
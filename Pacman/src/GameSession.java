@@ -0,0 +1,442 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * GameSession class:
+ * A single game hosted by the GameServer for one connected client. The session owns
+ * its own Map along with the Pacman and Ghosts on it, so sessions never share any
+ * mutable state and can each be ticked by whichever thread the server assigns.
+ * Input arrives from the server's network thread through an InputQueue and a frame
+ * describing the state is sent back to the client after every tick.
+ *
+ * Frame layout (big endian): int length of the rest of the frame, int tick, int score,
+ * byte map state, short Pacman x, short Pacman y, byte Pacman facing, unsigned short ghost
+ * count, then for each ghost short x, short y, byte state.
+ *
+ * Any number of Spectators can watch the session. Each tick the change since the previous
+ * tick is encoded once by a DeltaEncoder and the same buffer is written to every spectator.
+ */
+public class GameSession implements Runnable {
+    /**
+     * Time between ticks in nanoseconds. Matches the update rate of the GamePanel.
+     */
+    public static final long TICK_NANOS = GamePanel.TIME_BETWEEN_UPDATES * 1_000_000L;
+    /**
+     * Width in nanoseconds of each bucket of the lateness histogram.
+     */
+    public static final long LATENESS_BUCKET_NANOS = 100_000L;
+    /**
+     * Number of lateness buckets. The last bucket counts every tick later than the others cover.
+     */
+    public static final int LATENESS_BUCKETS = 512;
+    /**
+     * Number of ticks between keyframes sent to every spectator to resync them.
+     */
+    public static final int KEYFRAME_INTERVAL = 125;
+
+    /**
+     * Identifier of the session within the server.
+     */
+    private final int id;
+    /**
+     * The game being played in this session.
+     */
+    private final Map map;
+    /**
+     * Key codes received from the client waiting to be applied at the start of the next tick.
+     * Filled by the server's network thread and drained by the tick.
+     */
+    private final InputQueue inputQueue;
+    /**
+     * Connection to the client the frames are written to.
+     */
+    private final SocketChannel channel;
+    /**
+     * Reused buffer holding the most recent frame. Still has remaining bytes if the
+     * socket could not take all of it, in which case newer frames are skipped until it is sent.
+     * Replaced by a larger buffer if the map gains ghosts.
+     */
+    private ByteBuffer frame;
+    /**
+     * Spectators watching the session. Added and removed by the network thread.
+     */
+    private final List<Spectator> spectators;
+    /**
+     * Encodes the frames shared by all the spectators.
+     */
+    private final DeltaEncoder deltaEncoder;
+    /**
+     * Total time in nanoseconds spent encoding and sending frames to spectators.
+     */
+    private long broadcastNanos;
+    /**
+     * Number of ticks that were sent to at least one spectator.
+     */
+    private long broadcastTicks;
+    /**
+     * Time in nanoseconds the first tick was scheduled for.
+     */
+    private long firstTickNanos;
+    /**
+     * Number of ticks completed.
+     */
+    private long tickCount;
+    /**
+     * Number of ticks that had no frame sent because the client was not keeping up.
+     */
+    private long skippedFrames;
+    /**
+     * Count of ticks for each amount of time they started after they were scheduled.
+     */
+    private final int[] latenessHistogram;
+    /**
+     * Largest time in nanoseconds any tick started after it was scheduled.
+     */
+    private long maxLatenessNanos;
+    /**
+     * Handle used to stop the ticks when the session was scheduled on a shared executor.
+     */
+    private ScheduledFuture<?> scheduledTicks;
+    /**
+     * Set when the session has ended. Stops ticking and any further writes.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a session with a freshly loaded map for a client.
+     *
+     * @param id Identifier of the session within the server.
+     * @param channel Connection to the client.
+     * @param layoutSource Map to share the navMap of so each session does not generate its own.
+     */
+    public GameSession(int id, SocketChannel channel, Map layoutSource) {
+        this.id = id;
+        this.channel = channel;
+        map = new Map(layoutSource);
+        inputQueue = new InputQueue(64);
+        frame = allocateFrame();
+        frame.limit(0);
+        spectators = new CopyOnWriteArrayList<>();
+        deltaEncoder = new DeltaEncoder();
+        latenessHistogram = new int[LATENESS_BUCKETS];
+    }
+
+    /**
+     * Sets the time the first tick is scheduled for. Lateness is measured from this.
+     *
+     * @param firstTickNanos Time from System.nanoTime() of the first tick.
+     */
+    public void setFirstTickTime(long firstTickNanos) {
+        this.firstTickNanos = firstTickNanos;
+    }
+
+    /**
+     * Sets the handle used to cancel ticks scheduled on a shared executor.
+     *
+     * @param scheduledTicks The scheduled ticks of this session.
+     */
+    public void setScheduledTicks(ScheduledFuture<?> scheduledTicks) {
+        this.scheduledTicks = scheduledTicks;
+    }
+
+    /**
+     * Ticks the session at a fixed rate until it is closed. Used when the session has
+     * its own thread, parking between ticks so a virtual thread releases its carrier.
+     */
+    @Override
+    public void run() {
+        setFirstTickTime(System.nanoTime());
+        while(!closed) {
+            tick();
+            long wait;
+            while(!closed && (wait = firstTickNanos + tickCount * TICK_NANOS - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * Applies waiting input, updates the map, and sends the new state to the client.
+     * Records how late the tick started compared to when it was scheduled.
+     */
+    public void tick() {
+        if(closed) return;
+        long lateness = System.nanoTime() - (firstTickNanos + tickCount * TICK_NANOS);
+        recordLateness(Math.max(0, lateness));
+        try {
+            processInput();
+            GameTickEvent event = new GameTickEvent();
+            event.begin();
+            long updateStart = System.nanoTime();
+            long allocatedStart = EngineMetrics.threadAllocatedBytes();
+            map.update();
+            EngineMetrics.recordTick(updateStart, allocatedStart);
+            if(event.shouldCommit()) {
+                event.session = id;
+                event.tick = tickCount;
+                event.mapState = map.getMapState().name();
+                event.commit();
+            }
+            tickCount++;
+            sendFrame();
+            broadcast();
+        } catch (IOException | RuntimeException e) {
+            if(!closed) {
+                System.out.println("Session " + id + " closed: " + e);
+                close();
+            }
+        }
+    }
+
+    /**
+     * Queues a key code from the client to be applied at the start of the next tick.
+     * Must only be called from the server's network thread.
+     *
+     * @param keyCode The key that was pressed.
+     * @return True if it was queued, or false if too much input is already waiting.
+     */
+    public boolean offerInput(int keyCode) {
+        return inputQueue.offer(keyCode);
+    }
+
+    /**
+     * Starts sending the session to a spectator. Must only be called from the server's network thread.
+     *
+     * @param spectator The spectator to add.
+     */
+    public void addSpectator(Spectator spectator) {
+        spectator.watch(this);
+        spectators.add(spectator);
+    }
+
+    /**
+     * Stops sending the session to a spectator.
+     *
+     * @param spectator The spectator to remove.
+     */
+    public void removeSpectator(Spectator spectator) {
+        spectators.remove(spectator);
+    }
+
+    /**
+     * Gets the spectators watching the session.
+     *
+     * @return The list of spectators.
+     */
+    public List<Spectator> getSpectators() {
+        return spectators;
+    }
+
+    /**
+     * Stops the session ticking and closes the connection to the client and any spectators.
+     */
+    public void close() {
+        closed = true;
+        if(scheduledTicks != null) {
+            scheduledTicks.cancel(false);
+        }
+        for(Spectator spectator : spectators) {
+            spectator.close();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Session " + id + " failed to close: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets whether the session has ended.
+     *
+     * @return True once the session has been closed.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Gets the identifier of the session within the server.
+     *
+     * @return The session id.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the map being played in the session. Only the session's tick thread may change it.
+     *
+     * @return The map.
+     */
+    public Map getMap() {
+        return map;
+    }
+
+    /**
+     * Gets the number of ticks completed.
+     *
+     * @return The tick count.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Gets the number of ticks that had no frame sent because the client was not keeping up.
+     *
+     * @return The number of skipped frames.
+     */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Gets the largest time any tick started after it was scheduled.
+     *
+     * @return The maximum lateness in nanoseconds.
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * Gets the total time spent encoding and sending frames to spectators.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getBroadcastNanos() {
+        return broadcastNanos;
+    }
+
+    /**
+     * Gets the number of ticks that were sent to at least one spectator.
+     *
+     * @return The number of ticks broadcast.
+     */
+    public long getBroadcastTicks() {
+        return broadcastTicks;
+    }
+
+    /**
+     * Adds the lateness histogram of this session to a combined histogram.
+     *
+     * @param histogram Array of LATENESS_BUCKETS counts to add to.
+     */
+    public void addLatenessTo(long[] histogram) {
+        for(int i = 0; i < LATENESS_BUCKETS; i++) {
+            histogram[i] += latenessHistogram[i];
+        }
+    }
+
+    /**
+     * Applies all the input that has arrived since the last tick.
+     * R restarts the game, anything else is passed on to Pacman.
+     */
+    private void processInput() {
+        int keyCode;
+        while((keyCode = inputQueue.poll()) != InputQueue.EMPTY) {
+            if(keyCode == 'R') {
+                map.restart();
+            } else {
+                map.getPacman().moveIfCan(keyCode);
+            }
+        }
+    }
+
+    /**
+     * Writes the current state to the client without blocking. If the previous frame
+     * has not been fully sent yet the rest of it is sent instead and this state is skipped.
+     *
+     * @throws IOException If the connection has failed.
+     */
+    private void sendFrame() throws IOException {
+        if(frame.hasRemaining()) {
+            channel.write(frame);
+            skippedFrames++;
+            return;
+        }
+        // A reload or restart can change the number of ghosts
+        if(frame.capacity() < getFrameBytes()) {
+            frame = allocateFrame();
+        }
+        Pacman pacman = map.getPacman();
+        frame.clear();
+        frame.putInt(0);
+        frame.putInt((int)tickCount);
+        frame.putInt(map.getScore());
+        frame.put((byte)map.getMapState().ordinal());
+        frame.putShort((short)pacman.getPosition().x);
+        frame.putShort((short)pacman.getPosition().y);
+        frame.put((byte)pacman.getFacing());
+        frame.putShort((short)map.getGhostCount());
+        for(int i = 0; i < map.getGhostCount(); i++) {
+            Ghost ghost = map.getGhost(i);
+            frame.putShort((short)ghost.getPosition().x);
+            frame.putShort((short)ghost.getPosition().y);
+            frame.put((byte)ghost.getGhostState().ordinal());
+        }
+        frame.putInt(0, frame.position() - 4);
+        frame.flip();
+        channel.write(frame);
+    }
+
+    /**
+     * Gets the number of bytes a frame for the current map takes.
+     *
+     * @return The size of a frame including its length.
+     */
+    private int getFrameBytes() {
+        return 20 + 5 * map.getGhostCount();
+    }
+
+    /**
+     * Creates a frame buffer large enough for the current map.
+     *
+     * @return The new buffer.
+     * @throws IllegalStateException If the map has more ghosts or cells than a frame can hold.
+     */
+    private ByteBuffer allocateFrame() {
+        DeltaEncoder.checkEncodable(map.getGhostCount(), map.getMapWidth(), map.getMapHeight());
+        return ByteBuffer.allocateDirect(20 + 5 * Math.max(4, map.getGhostCount()));
+    }
+
+    /**
+     * Encodes the change since the last tick once and sends it to every spectator.
+     * Every KEYFRAME_INTERVAL ticks all spectators are sent a keyframe instead.
+     * A spectator whose connection fails is dropped without affecting the session.
+     */
+    private void broadcast() {
+        if(spectators.isEmpty()) return;
+        long start = System.nanoTime();
+        deltaEncoder.update(map, tickCount);
+        boolean keyframe = tickCount % KEYFRAME_INTERVAL == 0;
+        for(Spectator spectator : spectators) {
+            try {
+                spectator.send(deltaEncoder, tickCount, keyframe);
+            } catch (IOException e) {
+                spectators.remove(spectator);
+                spectator.close();
+            }
+        }
+        broadcastNanos += System.nanoTime() - start;
+        broadcastTicks++;
+    }
+
+    /**
+     * Adds a tick's lateness to the histogram.
+     *
+     * @param latenessNanos Time in nanoseconds the tick started after it was scheduled.
+     */
+    private void recordLateness(long latenessNanos) {
+        latenessHistogram[(int)Math.min(LATENESS_BUCKETS - 1, latenessNanos / LATENESS_BUCKET_NANOS)]++;
+        maxLatenessNanos = Math.max(maxLatenessNanos, latenessNanos);
+    }
+}
@@ -0,0 +1,36 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * GameTickEvent class:
+ * Flight Recorder event covering one Map update, from the game panel, a versus game or a server session.
+ * Painting is recorded separately by GamePaintEvent so the two can be told apart.
+ */
+@Name("pacman.GameTick")
+@Label("Game Tick")
+@Category({"Pacman", "Tick"})
+@Description("One update of a Map")
+@StackTrace(false)
+public class GameTickEvent extends jdk.jfr.Event {
+    /**
+     * Id of the server session, or -1 for the local game.
+     */
+    @Label("Session")
+    public int session;
+    /**
+     * Number of ticks the session had completed before this one.
+     */
+    @Label("Tick")
+    public long tick;
+    /**
+     * State of the map after the update.
+     */
+    @Label("Map State")
+    public String mapState;
+}
@@ -6,7 +6,8 @@ import java.awt.*;
  *
  * Ghost class:
  * Defines a ghost with movement behaviours, and how they are
- * represented visually.
+ * represented visually. The cell, facing, state and timers of the ghost are kept
+ * in the map's ActorStore, and the ghost's position is kept in step with it.
  */
 public class Ghost extends MapObject {
     /**
@@ -16,24 +17,29 @@ public class Ghost extends MapObject {
      * Scatter: Scatters for duration in SCATTER_DURATION using the scatterBehaviour. Then swaps to Chase.
      * Frightened: Pauses the state of Chase/Scatter and fears for FEAR_DURATION using the frightenedBehaviour.
      * After leaving frightened it will go back to the previous state.
+     * Returning: Eaten while frightened. Only the eyes are left and they follow the map's HomeField
+     * back to the ghost house at high speed, then begin again in Scatter.
      */
-    public enum GhostState { Inactive, Chase, Scatter, Frightened }
+    public enum GhostState { Inactive, Chase, Scatter, Frightened, Returning }
 
     /**
-     * The current state of the ghost.
+     * Every GhostState indexed by ordinal, to turn the state held in the ActorStore back into an enum.
      */
-    private GhostState ghostState;
+    private static final GhostState[] STATES = GhostState.values();
 
     /**
-     * Ghost number is used to define the colour and associated behaviours.
+     * Colour of every ghost while frightened.
+     */
+    private static final Color FRIGHTENED_COLOUR = new Color(5, 5, 144);
+
+    /**
+     * Ghost number identifies the ghost on its map.
      */
     private int ghostNumber;
     /**
-     * Colours for ghosts 0 to 3 and 4 is used for the frightened colour.
+     * Defines the name, colour, behaviours and release of the ghost.
      */
-    private final Color[] ghostColours = {Color.RED, Color.CYAN, new Color(255,184,255),
-                                          new Color(255, 184, 82),
-                                            new Color(5, 5, 144)};
+    private final GhostConfig config;
     /**
      * Animation offset for the eye animation.
      */
@@ -63,23 +69,26 @@ public class Ghost extends MapObject {
      * Reference to a ChaseBehaviour that can be used to move the ghost while in the Chase state.
      */
     private GhostAI.ChaseBehaviour chaseBehaviour;
-
     /**
-     * Current facing direction. 0=Up, 1=Right, 2=Down, 3=Left
+     * Set when a player drives the ghost in place of the Chase, Scatter and Frightened behaviours.
      */
-    private int facing;
+    private PlayerGhostBehaviour playerBehaviour;
 
     /**
      * Timer to be used to make the ghost move using a behaviour.
      */
     private ActionTimer canMoveTimer;
     /**
-     * Set true when the canMoveTimer triggers and allows the ghost to move.
+     * True between prepareUpdate() and commitMove() when the ghost is choosing a move this tick.
+     */
+    private boolean deciding;
+    /**
+     * Move chosen by the behaviour in decideMove(), applied by commitMove(). Null if none was chosen.
      */
-    private boolean canMove;
+    private Position nextMove;
     /**
      * Timer used to swap between Scatter and Chase states.
-     * Not updated during Inactive or Frightened states.
+     * Not updated during Inactive, Frightened or Returning states.
      */
     private ActionTimer nextStateTimer;
     /**
@@ -115,10 +124,31 @@ public class Ghost extends MapObject {
      * Duration in milliseconds between movements while in the Frightened state.
      */
     private final int TIME_BETWEEN_MOVES_WHILE_FEARED = 280;
+    /**
+     * Duration in milliseconds between movements while in the Returning state.
+     */
+    private final int TIME_BETWEEN_MOVES_WHILE_RETURNING = 80;
     /**
      * Duration in milliseconds between changing the flashTimer.
      */
     private final int TIME_BETWEEN_FEAR_FLASH = 160;
+    /**
+     * Number of ints written by saveState().
+     */
+    public static final int STATE_SIZE = 12 + 4 * ActionTimer.STATE_SIZE;
+
+    /**
+     * Reference to the map the ghost is on.
+     */
+    private Map map;
+    /**
+     * The store of the map, which holds the ghost's cell, facing, state, whether it can move, and its timers.
+     */
+    private final ActorStore store;
+    /**
+     * Index of the ghost in the store.
+     */
+    private final int actorIndex;
 
     /**
      * The position where the ghost originally stated. Used for resetting after being eaten.
@@ -130,29 +160,35 @@ public class Ghost extends MapObject {
      * configuring AI behaviours ready for movement.
      *
      * @param position The position where the ghost starts.
-     * @param ghostNumber Number of the ghost to dictate what behaviour and colours it has.
+     * @param ghostNumber Number of the ghost on the map.
+     * @param config The name, colour, behaviours and release of the ghost.
+     * @param map Reference to the map the ghost is on.
      */
-    public Ghost(Position position, int ghostNumber) {
+    public Ghost(Position position, int ghostNumber, GhostConfig config, Map map) {
         super(position, ObjectType.Ghost, EnterType.Everyone);
+        this.map = map;
+        store = map.getActorStore();
         startPosition = new Position(position);
         this.ghostNumber = ghostNumber;
+        this.config = config;
+        actorIndex = store.addActor(position, ghostNumber);
         // Eyes state centred.
         animValue = 0;
         // Eyes start moving right
         animDirection = 1;
         // Eyes begin moving right away
         counterTillEyeMove = 0;
-        // Only the red ghost starts moving at the beginning.
-        ghostState = ghostNumber == 0 ? GhostState.Scatter : GhostState.Inactive;
+        // Only ghosts released at the start begin moving, by default just the red ghost.
+        store.setState(actorIndex, (config.isActiveAtStart() ? GhostState.Scatter : GhostState.Inactive).ordinal());
         // Starts by facing up.
-        facing = 0;
+        store.setFacing(actorIndex, 0);
         // Can move right away
-        canMove = true;
+        store.setCanMove(actorIndex, true);
         // Initialise all timers ready for use.
-        canMoveTimer = new ActionTimer(TIME_BETWEEN_MOVES);
-        nextStateTimer = new ActionTimer(SCATTER_DURATION);
-        fearTimer = new ActionTimer(FEAR_DURATION);
-        flashTimer = new ActionTimer(TIME_BETWEEN_FEAR_FLASH);
+        canMoveTimer = new ActionTimer(store, TIME_BETWEEN_MOVES);
+        nextStateTimer = new ActionTimer(store, SCATTER_DURATION);
+        fearTimer = new ActionTimer(store, FEAR_DURATION);
+        flashTimer = new ActionTimer(store, TIME_BETWEEN_FEAR_FLASH);
         // Assign behaviours for movement
         configureAI();
     }
@@ -160,39 +196,179 @@ public class Ghost extends MapObject {
     /**
      * Animate the eyes, and if in any state that is active the state will be updated.
      * And then movement will be updated based on the current state.
+     * Runs all three phases of a ghost update for a ghost updated on its own.
      */
     public void update() {
+        prepareUpdate();
+        decideMove();
+        commitMove();
+    }
+
+    /**
+     * First phase of an update. Animates the eyes, updates the state and the movement timer,
+     * and works out if the ghost will choose a move this tick. Changes the map's hash, so
+     * ghosts must be prepared one at a time.
+     */
+    public void prepareUpdate() {
         animateEyes();
+        deciding = false;
 
-        if(ghostState == GhostState.Inactive) return;
+        if(getGhostState() == GhostState.Inactive) return;
         updateState();
         updateMovement();
     }
 
+    /**
+     * Second phase of an update. If the ghost moves this tick its behaviour chooses the move.
+     * The move is held until commitMove() so every ghost decides from the positions at the
+     * start of the tick. Only changes this ghost and its behaviour, so ghosts can decide in parallel.
+     */
+    public void decideMove() {
+        if(!deciding) return;
+        nextMove = null;
+        if(getGhostState() == GhostState.Returning) {
+            // The way home is the same for every eaten ghost so it is looked up, not searched for
+            nextMove = map.getNavigation().getHomeField().getMove(position.x, position.y);
+            return;
+        }
+        if(followCorridor()) return;
+        switch (getGhostState()) {
+            case Frightened:
+                EngineMetrics.countDecision(frightenedBehaviour);
+                frightenedBehaviour.frightened();
+                break;
+            case Chase:
+                EngineMetrics.countDecision(chaseBehaviour);
+                chaseBehaviour.chase();
+                break;
+            case Scatter:
+                EngineMetrics.countDecision(scatterBehaviour);
+                scatterBehaviour.scatter();
+                break;
+        }
+    }
+
+    /**
+     * Chooses the move without running the behaviour when the ghost is in a corridor and its
+     * behaviour can not reverse, because every behaviour then has only one move to choose.
+     * Frightened ghosts can reverse on their first move and players can reverse at any time.
+     * The move is still counted, recorded and traced, with Corridor in place of the behaviour.
+     *
+     * @return True if the ghost was in a corridor and its move has been chosen.
+     */
+    private boolean followCorridor() {
+        if(playerBehaviour != null) return false;
+        if(getGhostState() == GhostState.Frightened && ((FrightenedWandering)frightenedBehaviour).isFirstUpdate()) return false;
+        Position move = map.getNavigation().getJunctionGraph().getForcedMove(position.x, position.y, getFacing());
+        if(move == null) return false;
+        EngineMetrics.countCorridorMove();
+        GhostDecisionEvent.recordCorridor(this, move);
+        if(AITrace.ENABLED) map.getAITrace().recordCorridorMove(ghostNumber, position, move);
+        nextMove = move;
+        return true;
+    }
+
+    /**
+     * Last phase of an update. Applies the move chosen in decideMove(), if any.
+     */
+    public void commitMove() {
+        deciding = false;
+        if(nextMove != null) {
+            move(nextMove);
+            nextMove = null;
+        }
+    }
+
+    /**
+     * Called by a behaviour during decideMove() to choose the move applied by commitMove().
+     *
+     * @param directionVector Unit vector to move in.
+     */
+    public void chooseMove(Position directionVector) {
+        nextMove = directionVector;
+    }
+
     /**
      * Resets the ghost back to the original state including all timers.
      */
     @Override
     public void reset() {
+        ZobristHash zobristHash = map.getZobristHash();
+        zobristHash.toggleGhostCell(ghostNumber, position);
+        zobristHash.toggleGhostState(ghostNumber, getGhostState());
+        zobristHash.toggleGhostFacing(ghostNumber, getFacing());
         super.reset();
-        ghostState = ghostNumber == 0 ? GhostState.Scatter : GhostState.Inactive;
+        store.setState(actorIndex, (config.isActiveAtStart() ? GhostState.Scatter : GhostState.Inactive).ordinal());
+        store.setCell(actorIndex, position);
         flashTimer.reset();
         fearTimer.reset();
         nextStateTimer.reset();
         canMoveTimer.reset();
-        facing = 0;
+        store.setFacing(actorIndex, 0);
+        zobristHash.toggleGhostCell(ghostNumber, position);
+        zobristHash.toggleGhostState(ghostNumber, getGhostState());
+        zobristHash.toggleGhostFacing(ghostNumber, getFacing());
+    }
+
+    /**
+     * Moves the ghost onto the grid that replaced its own when the window of a world moved, keeping
+     * it on the same world cell. A ghost that ends up on the edge of the new grid or outside it has
+     * been left behind, so it starts again from its new start cell as if it had been eaten.
+     * The store must have been cleared with setGridSize() first.
+     *
+     * @param offsetX Columns to add to its cell.
+     * @param offsetY Rows to add to its cell.
+     * @param start The ghost's start cell on the new grid.
+     */
+    public void moveToNewGrid(int offsetX, int offsetY, Position start) {
+        startPosition = new Position(start);
+        defaultPosition = new Position(start);
+        int x = position.x + offsetX, y = position.y + offsetY;
+        boolean leftBehind = x < 1 || y < 1 || x >= map.getMapWidth() - 1 || y >= map.getMapHeight() - 1;
+        if(leftBehind) position.setPosition(start.x, start.y);
+        else position.setPosition(x, y);
+        store.placeActor(actorIndex, position);
+        if(leftBehind && getGhostState() != GhostState.Inactive) restartInHouse();
     }
 
     /**
      * Resets the ghost back to the start position and begins with a Scatter state.
      */
     public void resetToStart() {
+        ZobristHash zobristHash = map.getZobristHash();
+        zobristHash.toggleGhostCell(ghostNumber, position);
         position = new Position(startPosition);
+        store.setCell(actorIndex, position);
+        zobristHash.toggleGhostCell(ghostNumber, position);
+        restartInHouse();
+    }
+
+    /**
+     * Called when the ghost is eaten. The eyes head back to the ghost house in the Returning state,
+     * or if there is no way home from here the ghost is reset to its start straight away.
+     */
+    public void returnHome() {
+        int distance = map.getNavigation().getHomeField().getDistance(position.x, position.y);
+        if(distance == 0 || distance == HomeField.UNREACHABLE) {
+            resetToStart();
+        } else {
+            setState(GhostState.Returning);
+        }
+    }
+
+    /**
+     * Resets the timers and facing of a ghost that has just got back to the ghost house
+     * and begins with a Scatter state.
+     */
+    private void restartInHouse() {
+        ZobristHash zobristHash = map.getZobristHash();
+        zobristHash.toggleGhostFacing(ghostNumber, getFacing());
         flashTimer.reset();
         fearTimer.reset();
         nextStateTimer.reset();
         canMoveTimer.reset();
-        facing = 0;
+        store.setFacing(actorIndex, 0);
+        zobristHash.toggleGhostFacing(ghostNumber, getFacing());
         setState(GhostState.Scatter);
     }
 
@@ -203,14 +379,14 @@ public class Ghost extends MapObject {
      */
     public void setState(GhostState state) {
         if(state == GhostState.Frightened) {
-            // Can't be frightened when not yet active
-            if(ghostState == GhostState.Inactive) {
+            // Can't be frightened when not yet active or already eaten
+            if(getGhostState() == GhostState.Inactive || getGhostState() == GhostState.Returning) {
                 return;
             } else {
                 // If the transition to frightened came from a different state
                 // retain that previous state to return back after.
-                if(ghostState != GhostState.Frightened) {
-                    previousState = ghostState;
+                if(getGhostState() != GhostState.Frightened) {
+                    previousState = getGhostState();
                 }
                 // Allow the ghost to double back for running away immediately
                 frightenedBehaviour.beginWandering();
@@ -222,7 +398,18 @@ public class Ghost extends MapObject {
             nextStateTimer.setTimer(SCATTER_DURATION);
         }
 
-        this.ghostState = state;
+        GhostStateEvent event = new GhostStateEvent();
+        if(event.shouldCommit()) {
+            event.ghost = ghostNumber;
+            event.from = getGhostState().name();
+            event.to = state.name();
+            event.commit();
+        }
+
+        ZobristHash zobristHash = map.getZobristHash();
+        zobristHash.toggleGhostState(ghostNumber, getGhostState());
+        store.setState(actorIndex, state.ordinal());
+        zobristHash.toggleGhostState(ghostNumber, getGhostState());
     }
 
     /**
@@ -231,7 +418,7 @@ public class Ghost extends MapObject {
      * @return The current GhostState that is active.
      */
     public GhostState getGhostState() {
-        return ghostState;
+        return STATES[store.getState(actorIndex)];
     }
 
     /**
@@ -241,7 +428,204 @@ public class Ghost extends MapObject {
      * @return The current facing of the ghost.
      */
     public int getFacing() {
-        return facing;
+        return store.getFacing(actorIndex);
+    }
+
+    /**
+     * Gets the map the ghost is on.
+     *
+     * @return Reference to the map.
+     */
+    public Map getMap() {
+        return map;
+    }
+
+    /**
+     * Gets whether the ghost will move on its next update.
+     *
+     * @return True if the movement timer has triggered.
+     */
+    public boolean canMove() {
+        return store.canMove(actorIndex);
+    }
+
+    /**
+     * Gets the state the ghost returns to when it stops being frightened.
+     *
+     * @return The state before the ghost was frightened.
+     */
+    public GhostState getPreviousState() {
+        return previousState;
+    }
+
+    /**
+     * Gets the timer used between movements.
+     *
+     * @return The movement timer.
+     */
+    public ActionTimer getCanMoveTimer() {
+        return canMoveTimer;
+    }
+
+    /**
+     * Gets the timer used to swap between Scatter and Chase.
+     *
+     * @return The state timer.
+     */
+    public ActionTimer getNextStateTimer() {
+        return nextStateTimer;
+    }
+
+    /**
+     * Gets the timer tracking the duration of the Frightened state.
+     *
+     * @return The fear timer.
+     */
+    public ActionTimer getFearTimer() {
+        return fearTimer;
+    }
+
+    /**
+     * Gets the behaviour used to move while in the Frightened state.
+     *
+     * @return The frightened behaviour.
+     */
+    public GhostAI.FrightenedBehaviour getFrightenedBehaviour() {
+        return frightenedBehaviour;
+    }
+
+    /**
+     * Hands control of the ghost to a player. The player's behaviour replaces the
+     * Chase, Scatter and Frightened behaviours until the ghost is recreated.
+     *
+     * @return The behaviour to pass the player's chosen direction to.
+     */
+    public PlayerGhostBehaviour setPlayerControlled() {
+        playerBehaviour = new PlayerGhostBehaviour(this);
+        chaseBehaviour = playerBehaviour;
+        scatterBehaviour = playerBehaviour;
+        frightenedBehaviour = playerBehaviour;
+        return playerBehaviour;
+    }
+
+    /**
+     * Gets the behaviour of the player driving this ghost.
+     *
+     * @return The player's behaviour or null if the ghost is controlled by AI.
+     */
+    public PlayerGhostBehaviour getPlayerBehaviour() {
+        return playerBehaviour;
+    }
+
+    /**
+     * Gets the number of the ghost on its map.
+     *
+     * @return The ghost number, counting from 0 in the order the ghosts appear in the map.
+     */
+    public int getGhostNumber() {
+        return ghostNumber;
+    }
+
+    /**
+     * Gets the config defining the ghost's name, colour, behaviours and release.
+     *
+     * @return The ghost's config.
+     */
+    public GhostConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Gets the index of the ghost in the map's ActorStore.
+     *
+     * @return The actor index.
+     */
+    public int getActorIndex() {
+        return actorIndex;
+    }
+
+    /**
+     * Gets the behaviour that moves the ghost in its current state.
+     *
+     * @return The Chase, Scatter or Frightened behaviour, or null while Inactive or Returning.
+     */
+    public Object getActiveBehaviour() {
+        switch (getGhostState()) {
+            case Frightened: return frightenedBehaviour;
+            case Chase: return chaseBehaviour;
+            case Scatter: return scatterBehaviour;
+            default: return null;
+        }
+    }
+
+    /**
+     * Gets the number of ints saveState() writes.
+     *
+     * @return STATE_SIZE.
+     */
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    /**
+     * Writes everything about the ghost that changes during a game into an array,
+     * including the state held by its behaviours.
+     *
+     * @param state The array to write into.
+     * @param offset The index to start writing at.
+     * @return The index after the last int written.
+     */
+    @Override
+    public int saveState(int[] state, int offset) {
+        state[offset] = position.x;
+        state[offset+1] = position.y;
+        state[offset+2] = getFacing();
+        state[offset+3] = store.getState(actorIndex);
+        state[offset+4] = previousState == null ? -1 : previousState.ordinal();
+        state[offset+5] = store.canMove(actorIndex) ? 1 : 0;
+        state[offset+6] = animValue;
+        state[offset+7] = animDirection;
+        state[offset+8] = counterTillEyeMove;
+        state[offset+9] = flashGhost ? 1 : 0;
+        state[offset+10] = frightenedBehaviour instanceof FrightenedWandering
+                && ((FrightenedWandering)frightenedBehaviour).isFirstUpdate() ? 1 : 0;
+        state[offset+11] = playerBehaviour == null ? -1 : playerBehaviour.getRequestedFacing();
+        offset = canMoveTimer.saveState(state, offset + 12);
+        offset = nextStateTimer.saveState(state, offset);
+        offset = fearTimer.saveState(state, offset);
+        return flashTimer.saveState(state, offset);
+    }
+
+    /**
+     * Reads back the state written by saveState(). The map's hash is restored separately.
+     *
+     * @param state The array to read from.
+     * @param offset The index to start reading at.
+     * @return The index after the last int read.
+     */
+    @Override
+    public int restoreState(int[] state, int offset) {
+        position.setPosition(state[offset], state[offset+1]);
+        store.setCell(actorIndex, position);
+        store.setFacing(actorIndex, state[offset+2]);
+        store.setState(actorIndex, state[offset+3]);
+        previousState = state[offset+4] == -1 ? null : STATES[state[offset+4]];
+        store.setCanMove(actorIndex, state[offset+5] != 0);
+        animValue = state[offset+6];
+        animDirection = state[offset+7];
+        counterTillEyeMove = state[offset+8];
+        flashGhost = state[offset+9] != 0;
+        if(frightenedBehaviour instanceof FrightenedWandering) {
+            ((FrightenedWandering)frightenedBehaviour).setFirstUpdate(state[offset+10] != 0);
+        }
+        if(playerBehaviour != null) {
+            playerBehaviour.setRequestedFacing(state[offset+11]);
+        }
+        offset = canMoveTimer.restoreState(state, offset + 12);
+        offset = nextStateTimer.restoreState(state, offset);
+        offset = fearTimer.restoreState(state, offset);
+        return flashTimer.restoreState(state, offset);
     }
 
     /**
@@ -250,11 +634,17 @@ public class Ghost extends MapObject {
      * @param directionVector Unit vector to move in.
      */
     public void move(Position directionVector) {
-        if(directionVector.equals(Position.UP)) facing = 0;
-        else if(directionVector.equals(Position.RIGHT)) facing = 1;
-        else if(directionVector.equals(Position.DOWN)) facing = 2;
-        else if(directionVector.equals(Position.LEFT)) facing = 3;
+        ZobristHash zobristHash = map.getZobristHash();
+        zobristHash.toggleGhostCell(ghostNumber, position);
+        zobristHash.toggleGhostFacing(ghostNumber, getFacing());
+        if(directionVector.equals(Position.UP)) store.setFacing(actorIndex, 0);
+        else if(directionVector.equals(Position.RIGHT)) store.setFacing(actorIndex, 1);
+        else if(directionVector.equals(Position.DOWN)) store.setFacing(actorIndex, 2);
+        else if(directionVector.equals(Position.LEFT)) store.setFacing(actorIndex, 3);
         position.add(directionVector);
+        store.setCell(actorIndex, position);
+        zobristHash.toggleGhostCell(ghostNumber, position);
+        zobristHash.toggleGhostFacing(ghostNumber, getFacing());
     }
 
     /**
@@ -275,7 +665,15 @@ public class Ghost extends MapObject {
      * and then if the timer has been triggered the state will be changed as necessary.
      */
     private void updateState() {
-        if(ghostState == GhostState.Frightened) {
+        if(getGhostState() == GhostState.Returning) {
+            int distance = map.getNavigation().getHomeField().getDistance(position.x, position.y);
+            if(distance == 0) {
+                restartInHouse();
+            } else if(distance == HomeField.UNREACHABLE) {
+                // The way home was closed off by a change to the map
+                resetToStart();
+            }
+        } else if(getGhostState() == GhostState.Frightened) {
             flashTimer.update();
             if(flashTimer.isTriggered()) {
                 // Swap between Blue and White, spends longer in Blue state.
@@ -290,59 +688,74 @@ public class Ghost extends MapObject {
             nextStateTimer.update();
             if(nextStateTimer.isTriggered()) {
                 // Toggle to other state
-                setState(ghostState == GhostState.Scatter ? GhostState.Chase : GhostState.Scatter);
+                setState(getGhostState() == GhostState.Scatter ? GhostState.Chase : GhostState.Scatter);
             }
         }
     }
 
     /**
-     * Updates the timer for movement, and if it has triggered movement is handled by the
-     * correct behaviour depending on the current state.
+     * Updates the timer for movement, and if it has triggered the ghost will choose a move
+     * in decideMove() using the correct behaviour for the current state.
      */
     private void updateMovement() {
-        if(!canMove) {
+        if(!store.canMove(actorIndex)) {
             canMoveTimer.update();
             if(canMoveTimer.isTriggered()) {
                 // Use a slower speed while frightened to make easier to catch
-                if(ghostState == GhostState.Frightened)
+                if(getGhostState() == GhostState.Frightened)
                     canMoveTimer.setTimer(TIME_BETWEEN_MOVES_WHILE_FEARED);
+                // Eyes rush home
+                else if(getGhostState() == GhostState.Returning)
+                    canMoveTimer.setTimer(TIME_BETWEEN_MOVES_WHILE_RETURNING);
                 else
                     canMoveTimer.setTimer(TIME_BETWEEN_MOVES);
-                canMove = true;
+                store.setCanMove(actorIndex, true);
             }
         } else {
-            switch (ghostState) {
-                case Frightened:
-                    frightenedBehaviour.frightened();
-                    break;
-                case Chase:
-                    chaseBehaviour.chase();
-                    break;
-                case Scatter:
-                    scatterBehaviour.scatter();
-                    break;
-            }
-            canMove = false;
+            deciding = true;
+            store.setCanMove(actorIndex, false);
         }
     }
 
     /**
      * Draws a ghost with correct colour with an oval and a rectangle. Along with a pair of
      * animated eyes that will move left and right continually. If frightened a mouth is also shown.
+     * While returning home only the eyes are shown.
      *
      * @param g Reference to the Graphics object for rendering.
      */
     @Override
     public void paint(Graphics g) {
+        if(getGhostState() == GhostState.Returning) {
+            paintEyes(g);
+            return;
+        }
         // Draw background circle
-        if(ghostState == GhostState.Frightened) g.setColor(flashGhost ? Color.WHITE : ghostColours[4]);
-        else g.setColor(ghostColours[ghostNumber]);
+        if(getGhostState() == GhostState.Frightened) g.setColor(flashGhost ? Color.WHITE : FRIGHTENED_COLOUR);
+        else g.setColor(config.getColour());
         g.fillOval(GamePanel.CELL_DIM*position.x, GamePanel.CELL_DIM* position.y,
                 GamePanel.CELL_DIM, GamePanel.CELL_DIM);
         // Draw background bottom rect
         g.fillRect(GamePanel.CELL_DIM*position.x, GamePanel.CELL_DIM* position.y+GamePanel.CELL_DIM/2,
                 GamePanel.CELL_DIM, GamePanel.CELL_DIM/2);
 
+        paintEyes(g);
+
+        if(getGhostState() == GhostState.Frightened) {
+            g.setColor(Color.BLACK);
+            g.drawLine(GamePanel.CELL_DIM*position.x+GamePanel.CELL_DIM/4+2,
+                    GamePanel.CELL_DIM* position.y+GamePanel.CELL_DIM*3/4-1,
+                    GamePanel.CELL_DIM*position.x+GamePanel.CELL_DIM*3/4,
+                    GamePanel.CELL_DIM* position.y+GamePanel.CELL_DIM*3/4-1);
+        }
+    }
+
+    /**
+     * Draws the pair of animated eyes that move left and right continually.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    private void paintEyes(Graphics g) {
         // Draw eye background
         g.setColor(Color.WHITE);
         g.fillOval(GamePanel.CELL_DIM*position.x+GamePanel.CELL_DIM/4,
@@ -355,13 +768,6 @@ public class Ghost extends MapObject {
                 GamePanel.CELL_DIM* position.y+GamePanel.CELL_DIM/4-1,3,3);
         g.fillOval(GamePanel.CELL_DIM*position.x+GamePanel.CELL_DIM*3/4+animValue,
                 GamePanel.CELL_DIM* position.y+GamePanel.CELL_DIM/4-1,3,3);
-
-        if(ghostState == GhostState.Frightened) {
-            g.drawLine(GamePanel.CELL_DIM*position.x+GamePanel.CELL_DIM/4+2,
-                    GamePanel.CELL_DIM* position.y+GamePanel.CELL_DIM*3/4-1,
-                    GamePanel.CELL_DIM*position.x+GamePanel.CELL_DIM*3/4,
-                    GamePanel.CELL_DIM* position.y+GamePanel.CELL_DIM*3/4-1);
-        }
     }
 
     /**
@@ -371,48 +777,26 @@ public class Ghost extends MapObject {
      */
     @Override
     public String toString() {
-        return getGhostName() + " (F:" + facing + " S:" + ghostState +")";
+        return config.getName() + " (F:" + getFacing() + " S:" + getGhostState() +")";
     }
 
     /**
-     * Gets a string colour name version of the ghostNumber.
-     *
-     * @return The name of the ghost or Unknown.
-     */
-    private String getGhostName() {
-        String ghostName = "Unknown";
-        switch(ghostNumber) {
-            case 0: ghostName = "Red"; break;
-            case 1: ghostName = "Cyan"; break;
-            case 2: ghostName = "Pink"; break;
-            case 3: ghostName = "Orange"; break;
-        }
-        return ghostName;
-    }
-
-    /**
-     * Sets the behaviours for movement dependent on the ghost's number.
+     * Sets the behaviours for movement from the ghost's config.
      */
     private void configureAI() {
         // Same frightened behaviour is shared for all ghosts
         frightenedBehaviour = new FrightenedWandering(this);
-        switch(ghostNumber) {
-            case 0: // RED
-                chaseBehaviour = new ChaseAggressive(this);
-                scatterBehaviour = new ScatterTopRightCorner(this);
-                break;
-            case 1: // CYAN
-                chaseBehaviour = new ChasePatrol(this);
-                scatterBehaviour = new ScatterBottomRightCorner(this);
-                break;
-            case 2: // PINK
-                chaseBehaviour = new ChaseAmbush(this);
-                scatterBehaviour = new ScatterTopLeftCorner(this);
-                break;
-            case 3: // ORANGE
-                chaseBehaviour = new ChaseRandom(this);
-                scatterBehaviour = new ScatterBottomLeftCorner(this);
-                break;
+        switch(config.getChase()) {
+            case Aggressive: chaseBehaviour = new ChaseAggressive(this); break;
+            case Patrol: chaseBehaviour = new ChasePatrol(this); break;
+            case Ambush: chaseBehaviour = new ChaseAmbush(this); break;
+            case Random: chaseBehaviour = new ChaseRandom(this); break;
+        }
+        switch(config.getScatter()) {
+            case TopRight: scatterBehaviour = new ScatterTopRightCorner(this); break;
+            case BottomRight: scatterBehaviour = new ScatterBottomRightCorner(this); break;
+            case TopLeft: scatterBehaviour = new ScatterTopLeftCorner(this); break;
+            case BottomLeft: scatterBehaviour = new ScatterBottomLeftCorner(this); break;
         }
     }
 }
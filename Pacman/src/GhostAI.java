@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Pacman
@@ -10,6 +11,11 @@ import java.util.List;
  * represents the map as a grid of AINodes.
  */
 public class GhostAI {
+    /**
+     * The unit vector for each direction 0=Up, 1=Right, 2=Down, 3=Left, shared so moves can be chosen without allocating.
+     */
+    private static final Position[] MOVES = {Position.UP, Position.RIGHT, Position.DOWN, Position.LEFT};
+
     /**
      * Interface to be used for the Frightened state behaviours.
      */
@@ -46,47 +52,43 @@ public class GhostAI {
     }
 
     /**
-     * Map represented as a grid of AI Nodes to provide utility for easily moving
-     * AI across the map with most of the movement logic handled.
-     */
-    public static AINode[][] navMap;
-
-    /**
-     * Shows/hides debug logs showing all the actions being taken by the AI.
-     */
-    public static boolean showAIDebug = false;
-
-    /**
-     * Populates the navMap by using the objects on the map. The edge cells of the map are excluded.
+     * Creates a navMap representing the map as a grid of AI Nodes to provide utility for easily
+     * moving AI across the map with most of the movement logic handled. The edge cells of the map are excluded.
+     *
+     * @param mapObjects The objects on the map to generate the nodes from.
+     * @return A new navMap for the map.
      */
-    public static void generateNavMap() {
-        if(navMap != null) return;
-        MapObject[][] mapObjects = Map.INSTANCE.getMapObjects();
-        navMap = new AINode[mapObjects.length][mapObjects[0].length];
+    public static AINode[][] generateNavMap(MapObject[][] mapObjects) {
+        AINode[][] navMap = new AINode[mapObjects.length][mapObjects[0].length];
+        AtomicInteger navVersion = new AtomicInteger();
         for(int x = 1; x < mapObjects.length-1; x++) {
             for(int y = 1; y < mapObjects[0].length-1; y++) {
-                navMap[x][y] = new AINode(new Position(x,y), mapObjects);
+                navMap[x][y] = new AINode(new Position(x,y), mapObjects, navVersion);
             }
         }
+        return navMap;
     }
 
     /**
      * Applies a restriction to the navMap by setting the specified position to
      * not allow movement in the designated direction.
      *
+     * @param navMap The navMap to modify.
      * @param x X coordinate.
      * @param y Y coordinate.
      * @param direction Direction to modify. 0=Up, 1=Right, 2=Down, 3=Left
      */
-    public static void applyNavMapRestriction(int x, int y, int direction) {
+    public static void applyNavMapRestriction(AINode[][] navMap, int x, int y, int direction) {
         navMap[x][y].setCanMoveDirection(direction, false);
     }
 
     /**
-     * Call after the generateNavMap() with the default map loaded to apply all the
+     * Call after generateNavMap() with the default map loaded to apply all the
      * nav map restrictions.
+     *
+     * @param navMap The navMap generated for the default map.
      */
-    public static void applyNavMapRestrictions() {
+    public static void applyNavMapRestrictions(AINode[][] navMap) {
         // No up movement at bottom of top T
         navMap[12][11].setCanMoveDirection(0,false);
         navMap[15][11].setCanMoveDirection(0,false);
@@ -111,12 +113,14 @@ public class GhostAI {
     /**
      * Gets a list of valid moves at the specified position on the navMap.
      *
+     * @param navMap The navMap of the map being moved on.
      * @param position The position currently on the map.
      * @param currentFacing Current facing at the specified position.
      * @param preventBackMovement If this is true it will prevent movement backward from the currentFacing.
      * @return A list of valid moves that can be performed at the specified position.
      */
-    public static List<Position> getValidMoves(Position position, int currentFacing, boolean preventBackMovement) {
+    public static List<Position> getValidMoves(AINode[][] navMap, Position position, int currentFacing, boolean preventBackMovement) {
+        EngineMetrics.countValidMoves();
         if(position.x < 1 || position.y < 1 || position.x > navMap.length-2 || position.y > navMap[0].length-2)
         {
             // THIS SHOULD NEVER HAPPEN!!
@@ -161,7 +165,117 @@ public class GhostAI {
     }
 
     /**
-     * Makes the ghost move based on a target position.
+     * Gets the move that leads along the shortest path to the target of a flow field. Moves with
+     * the same distance are decided by the straight line distance to the target, and then by the
+     * order of the list. When no move can reach the target this is the same as getBestMoveFromList().
+     *
+     * @param from Position of the moving object.
+     * @param to The target the distances lead to.
+     * @param distances The flow field for the target from FlowFields.getDistances().
+     * @param height The height of the navMap, used to index the distances.
+     * @param validMoves A list of valid moves from the current position.
+     * @return A single unit vector representing the movement to be used for a movement.
+     */
+    public static Position getBestMoveFromField(Position from, Position to, int[] distances, int height, List<Position> validMoves) {
+        Position bestMove = null;
+        int bestDistance = 0;
+        long bestStraightDistance = 0;
+        for(Position move : validMoves) {
+            int x = from.x + move.x, y = from.y + move.y;
+            int distance = distances[x * height + y];
+            long dx = x - to.x, dy = y - to.y;
+            long straightDistance = dx * dx + dy * dy;
+            if(bestMove == null || distance < bestDistance
+                    || (distance == bestDistance && straightDistance < bestStraightDistance)) {
+                bestMove = move;
+                bestDistance = distance;
+                bestStraightDistance = straightDistance;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Gets the move that leads along the shortest path to a target using HierarchicalPaths. Chooses
+     * the same move as getBestMoveFromField() would with a flow field for the target.
+     *
+     * @param from Position of the moving object.
+     * @param to The target to find paths to.
+     * @param paths The hierarchical paths of the map.
+     * @param validMoves A list of valid moves from the current position.
+     * @return A single unit vector representing the movement to be used for a movement.
+     */
+    public static Position getBestMoveFromPaths(Position from, Position to, HierarchicalPaths paths, List<Position> validMoves) {
+        Position bestMove = null;
+        int bestDistance = 0;
+        long bestStraightDistance = 0;
+        for(Position move : validMoves) {
+            int x = from.x + move.x, y = from.y + move.y;
+            int distance = paths.getDistance(x, y, to.x, to.y);
+            long dx = x - to.x, dy = y - to.y;
+            long straightDistance = dx * dx + dy * dy;
+            if(bestMove == null || distance < bestDistance
+                    || (distance == bestDistance && straightDistance < bestStraightDistance)) {
+                bestMove = move;
+                bestDistance = distance;
+                bestStraightDistance = straightDistance;
+            }
+        }
+        return bestMove;
+    }
+
+    /**
+     * Makes the ghost choose the move along the shortest path to a target, using the map's shared
+     * flow field for the target, or its hierarchical paths on very large maps. Ghosts can not reverse.
+     * Falls back to moveGhostUsingTarget() for a target outside the map.
+     *
+     * @param ghost Reference to the Ghost to be moved.
+     * @param target The position to move to.
+     */
+    public static void moveGhostUsingFlowField(Ghost ghost, Position target) {
+        HierarchicalPaths paths = ghost.getMap().getNavigation().getHierarchicalPaths();
+        FlowFields flowFields = ghost.getMap().getNavigation().getFlowFields();
+        int[] distances = paths == null ? flowFields.getDistances(target.x, target.y) : null;
+        if(paths == null ? distances == null : !paths.isInMap(target.x, target.y)) {
+            moveGhostUsingTarget(ghost, target, true, true);
+            return;
+        }
+        List<Position> validMoves = GhostAI.getValidMoves(ghost.getMap().getNavMap(), ghost.getPosition(),ghost.getFacing(),true);
+        if(validMoves.size() == 0) {
+            failNoValidMoves(ghost);
+            return;
+        }
+        Position move;
+        if(validMoves.size() == 1) move = validMoves.get(0);
+        else if(paths != null) move = GhostAI.getBestMoveFromPaths(ghost.getPosition(), target, paths, validMoves);
+        else move = GhostAI.getBestMoveFromField(ghost.getPosition(), target, distances, flowFields.getHeight(), validMoves);
+        chooseMove(ghost, target, move, validMoves.size());
+    }
+
+    /**
+     * Makes the ghost choose the move toward a fixed target from the map's shared move table for the
+     * target. Ghosts can not reverse. Chooses the same move as moveGhostUsingTarget() moving toward
+     * the target, which is used instead for cells not in the table.
+     *
+     * @param ghost Reference to the Ghost to be moved.
+     * @param target The position to move to. Must be the same every time for the table to be reused.
+     */
+    public static void moveGhostUsingMoveTable(Ghost ghost, Position target) {
+        int entry = ghost.getMap().getNavigation().getMoveTables().getMove(target, ghost.getPosition(), ghost.getFacing());
+        if(entry == MoveTables.NOT_IN_TABLE) {
+            moveGhostUsingTarget(ghost, target, true, true);
+            return;
+        }
+        int candidates = MoveTables.getCandidates(entry);
+        if(candidates == 0) {
+            failNoValidMoves(ghost);
+            return;
+        }
+        chooseMove(ghost, target, MOVES[MoveTables.getDirection(entry)], candidates);
+    }
+
+    /**
+     * Makes the ghost choose a move based on a target position. The move is applied when the ghost commits it.
      *
      * @param ghost Reference to the Ghost to be moved.
      * @param target The position to move to.
@@ -169,21 +283,77 @@ public class GhostAI {
      * @param preferLowerDistance Used to choose running toward or away from the target.
      */
     public static void moveGhostUsingTarget(Ghost ghost, Position target, boolean preventBackMovement, boolean preferLowerDistance) {
-        List<Position> validMoves = GhostAI.getValidMoves(ghost.getPosition(),ghost.getFacing(),preventBackMovement);
+        List<Position> validMoves = GhostAI.getValidMoves(ghost.getMap().getNavMap(), ghost.getPosition(),ghost.getFacing(),preventBackMovement);
         if(validMoves.size() == 0) {
+            failNoValidMoves(ghost);
             return;
-        } else if(validMoves.size() == 1) {
-            ghost.move(validMoves.get(0));
-        } else {
-            Position bestMove = GhostAI.getBestMoveFromList(ghost.getPosition(), target, validMoves,preferLowerDistance);
-            if(showAIDebug) {
-                System.out.print("Moving ghost " + ghost + " at: " + ghost.getPosition() + " with " + bestMove);
-            }
-            ghost.move(bestMove);
-            if(showAIDebug) {
-                System.out.println(" to " + ghost.getPosition());
-            }
         }
+        Position move = validMoves.size() == 1 ? validMoves.get(0)
+                : GhostAI.getBestMoveFromList(ghost.getPosition(), target, validMoves,preferLowerDistance);
+        chooseMove(ghost, target, move, validMoves.size());
+    }
+
+    /**
+     * Records a ghost's decision and gives it the move to apply when it commits.
+     *
+     * @param ghost The ghost that decided.
+     * @param target The position it moved in relation to.
+     * @param move The unit vector chosen.
+     * @param candidates The number of valid moves chosen between.
+     */
+    private static void chooseMove(Ghost ghost, Position target, Position move, int candidates) {
+        GhostDecisionEvent.record(ghost, move, candidates);
+        if(AITrace.ENABLED) {
+            ghost.getMap().getAITrace().recordMove(ghost.getGhostNumber(), ghost.getPosition(), target, move, candidates);
+        }
+        ghost.chooseMove(move);
+    }
+
+    /**
+     * Reports a ghost that has nowhere to move through the AITrace when tracing.
+     *
+     * @param ghost The ghost with no valid moves.
+     */
+    private static void failNoValidMoves(Ghost ghost) {
+        if(AITrace.ENABLED) {
+            ghost.getMap().getAITrace().failInvariant("Ghost " + ghost.getGhostNumber() + " has no valid moves at "
+                    + ghost.getPosition() + " facing " + ghost.getFacing());
+        }
+    }
+
+    /**
+     * Tests if a ghost can see a target along the row or column it is in, with no wall in between.
+     * Uses the map's line of sight index so it takes the same time however far apart they are.
+     *
+     * @param ghost The ghost looking.
+     * @param target The position looked at.
+     * @return True if the target is in line with the ghost and not hidden by a wall.
+     */
+    public static boolean canSee(Ghost ghost, Position target) {
+        Position position = ghost.getPosition();
+        return ghost.getMap().getNavigation().getLineOfSight().canSee(position.x, position.y, target.x, target.y);
+    }
+
+    /**
+     * Tests if a ghost can see Pacman along the row or column it is in, with no wall in between.
+     *
+     * @param ghost The ghost looking.
+     * @return True if Pacman is in sight.
+     */
+    public static boolean canSeePacman(Ghost ghost) {
+        return canSee(ghost, ghost.getMap().getPacman().getPosition());
+    }
+
+    /**
+     * Gets how many cells a ghost can see in a direction before a wall.
+     *
+     * @param ghost The ghost looking.
+     * @param facing The direction to look. 0=Up, 1=Right, 2=Down, 3=Left
+     * @return The number of open cells in sight.
+     */
+    public static int getSightRange(Ghost ghost, int facing) {
+        Position position = ghost.getPosition();
+        return ghost.getMap().getNavigation().getLineOfSight().getRun(position.x, position.y, facing);
     }
 
     /**
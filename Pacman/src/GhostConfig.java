@@ -0,0 +1,191 @@
+import java.awt.*;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * GhostConfig class:
+ * Describes one ghost: its name, colour, chase and scatter behaviours, and when it is released.
+ * Maps can configure their ghosts with lines after the navMap restrictions in the form:
+ * GHOST number name RRGGBB chase scatter release
+ * where number is the ghost's number (ghosts are numbered in the order they appear in the map,
+ * row by row) or * for every ghost without its own line, chase is one of the Chase values,
+ * scatter is one of the Scatter values, and release is "start", a number of collectibles, or
+ * a fraction of the collectibles such as 1/3. Ghosts without any line use the defaults of the
+ * original four ghosts in turn.
+ */
+public class GhostConfig {
+    /**
+     * The behaviours that can be used while in the Chase state.
+     */
+    public enum Chase { Aggressive, Patrol, Ambush, Random }
+
+    /**
+     * The corners that can be scattered to while in the Scatter state.
+     */
+    public enum Scatter { TopRight, BottomRight, TopLeft, BottomLeft }
+
+    /**
+     * The word that begins a ghost line in a map file.
+     */
+    public static final String KEYWORD = "GHOST";
+
+    /**
+     * The defaults for the original four ghosts, used in turn by ghosts without a config.
+     */
+    private static final GhostConfig[] DEFAULTS = {
+            new GhostConfig("Red", Color.RED, Chase.Aggressive, Scatter.TopRight, 0, 0),
+            new GhostConfig("Cyan", Color.CYAN, Chase.Patrol, Scatter.BottomRight, 30, 0),
+            new GhostConfig("Pink", new Color(255,184,255), Chase.Ambush, Scatter.TopLeft, 1, 0),
+            new GhostConfig("Orange", new Color(255, 184, 82), Chase.Random, Scatter.BottomLeft, 1, 3)
+    };
+
+    /**
+     * Name of the ghost.
+     */
+    private final String name;
+    /**
+     * Colour the ghost is drawn with when it is not frightened.
+     */
+    private final Color colour;
+    /**
+     * Behaviour used while in the Chase state.
+     */
+    private final Chase chase;
+    /**
+     * Corner scattered to while in the Scatter state.
+     */
+    private final Scatter scatter;
+    /**
+     * The number of collectibles that releases the ghost, or the numerator of a fraction
+     * of the collectibles when releaseDenominator is not 0. 0 is released at the start.
+     */
+    private final int releaseCount;
+    /**
+     * The denominator of the fraction of collectibles that releases the ghost, or 0 if releaseCount is a number.
+     */
+    private final int releaseDenominator;
+
+    /**
+     * Creates a ghost config.
+     *
+     * @param name Name of the ghost.
+     * @param colour Colour of the ghost.
+     * @param chase Behaviour used while chasing.
+     * @param scatter Corner scattered to.
+     * @param releaseCount Collectibles that release the ghost, or the numerator of a fraction of them.
+     * @param releaseDenominator Denominator of the fraction, or 0 if releaseCount is a number.
+     */
+    public GhostConfig(String name, Color colour, Chase chase, Scatter scatter, int releaseCount, int releaseDenominator) {
+        this.name = name;
+        this.colour = colour;
+        this.chase = chase;
+        this.scatter = scatter;
+        this.releaseCount = releaseCount;
+        this.releaseDenominator = releaseDenominator;
+    }
+
+    /**
+     * Gets the config used for a ghost that has not been configured. The four original
+     * ghosts are repeated, with a number added to the name after the first four.
+     *
+     * @param ghostNumber Number of the ghost.
+     * @return The default config for the ghost.
+     */
+    public static GhostConfig getDefault(int ghostNumber) {
+        GhostConfig config = DEFAULTS[ghostNumber % DEFAULTS.length];
+        if(ghostNumber < DEFAULTS.length) return config;
+        return new GhostConfig(config.name + " " + (ghostNumber / DEFAULTS.length + 1), config.colour,
+                config.chase, config.scatter, config.releaseCount, config.releaseDenominator);
+    }
+
+    /**
+     * Parses the values of a ghost line that follow the GHOST keyword and the ghost number.
+     *
+     * @param values The name, colour, chase, scatter and release.
+     * @return The config, or null if the values are not valid. The reason is printed.
+     */
+    public static GhostConfig parse(String[] values) {
+        if(values.length != 5) {
+            System.out.println("Invalid ghost config, expected name colour chase scatter release: " + String.join(" ", values));
+            return null;
+        }
+        try {
+            Color colour = new Color(Integer.parseInt(values[1], 16));
+            Chase chase = Chase.valueOf(values[2]);
+            Scatter scatter = Scatter.valueOf(values[3]);
+            int releaseCount, releaseDenominator = 0;
+            int slash = values[4].indexOf('/');
+            if(values[4].equals("start")) {
+                releaseCount = 0;
+            } else if(slash != -1) {
+                releaseCount = Integer.parseInt(values[4].substring(0, slash));
+                releaseDenominator = Integer.parseInt(values[4].substring(slash + 1));
+                if(releaseDenominator == 0) throw new IllegalArgumentException("Zero denominator");
+            } else {
+                releaseCount = Integer.parseInt(values[4]);
+            }
+            if(releaseCount < 0 || releaseDenominator < 0) throw new IllegalArgumentException("Negative release");
+            return new GhostConfig(values[0], colour, chase, scatter, releaseCount, releaseDenominator);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid ghost config " + String.join(" ", values) + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of collectibles that releases the ghost on a map.
+     *
+     * @param totalCollectibles The number of collectibles on the map.
+     * @return The number collected when the ghost is released, or 0 if it is active from the start.
+     */
+    public int getReleaseAt(int totalCollectibles) {
+        if(releaseCount == 0 || releaseDenominator == 0) return releaseCount;
+        return Math.max(1, totalCollectibles * releaseCount / releaseDenominator);
+    }
+
+    /**
+     * Gets whether the ghost is active from the start of the game.
+     *
+     * @return True if the ghost starts in the Scatter state instead of Inactive.
+     */
+    public boolean isActiveAtStart() {
+        return releaseCount == 0;
+    }
+
+    /**
+     * Gets the name of the ghost.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the colour of the ghost when it is not frightened.
+     *
+     * @return The colour.
+     */
+    public Color getColour() {
+        return colour;
+    }
+
+    /**
+     * Gets the behaviour used while chasing.
+     *
+     * @return The chase behaviour.
+     */
+    public Chase getChase() {
+        return chase;
+    }
+
+    /**
+     * Gets the corner scattered to.
+     *
+     * @return The scatter corner.
+     */
+    public Scatter getScatter() {
+        return scatter;
+    }
+}
@@ -0,0 +1,106 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * GhostDecisionEvent class:
+ * Flight Recorder event for each move a ghost behaviour chooses, and for each move a ghost
+ * makes following a corridor, where its behaviour has only one choice and is not run. Replaces
+ * the GhostAI.showAIDebug prints when looking at a recording.
+ */
+@Name("pacman.GhostDecision")
+@Label("Ghost Decision")
+@Category({"Pacman", "AI"})
+@Description("A ghost behaviour choosing a move, or a ghost following a corridor")
+@StackTrace(false)
+public class GhostDecisionEvent extends jdk.jfr.Event {
+    /**
+     * Behaviour recorded for moves made following a corridor.
+     */
+    public static final String CORRIDOR = "Corridor";
+
+    /**
+     * Number of the ghost, 0 to 3.
+     */
+    @Label("Ghost")
+    public int ghost;
+    /**
+     * Simple class name of the behaviour that chose the move, or CORRIDOR.
+     */
+    @Label("Behaviour")
+    public String behaviour;
+    /**
+     * Cell the ghost moved from.
+     */
+    @Label("From X")
+    public int fromX;
+    /**
+     * Cell the ghost moved from.
+     */
+    @Label("From Y")
+    public int fromY;
+    /**
+     * Unit vector of the chosen move.
+     */
+    @Label("Move X")
+    public int moveX;
+    /**
+     * Unit vector of the chosen move.
+     */
+    @Label("Move Y")
+    public int moveY;
+    /**
+     * Number of valid moves that were chosen between.
+     */
+    @Label("Candidates")
+    public int candidates;
+
+    /**
+     * Records a decision if the event is enabled.
+     *
+     * @param ghost The ghost that is about to move.
+     * @param move The move that was chosen.
+     * @param candidates Number of valid moves that were chosen between.
+     */
+    public static void record(Ghost ghost, Position move, int candidates) {
+        GhostDecisionEvent event = new GhostDecisionEvent();
+        if(!event.shouldCommit()) return;
+        event.behaviour = ghost.getActiveBehaviour().getClass().getSimpleName();
+        event.commitMove(ghost, move, candidates);
+    }
+
+    /**
+     * Records a move made following a corridor if the event is enabled.
+     *
+     * @param ghost The ghost that is about to move.
+     * @param move The only move it had.
+     */
+    public static void recordCorridor(Ghost ghost, Position move) {
+        GhostDecisionEvent event = new GhostDecisionEvent();
+        if(!event.shouldCommit()) return;
+        event.behaviour = CORRIDOR;
+        event.commitMove(ghost, move, 1);
+    }
+
+    /**
+     * Fills in the ghost and move and commits the event.
+     *
+     * @param ghost The ghost that is about to move.
+     * @param move The move that was chosen.
+     * @param candidates Number of valid moves that were chosen between.
+     */
+    private void commitMove(Ghost ghost, Position move, int candidates) {
+        this.ghost = ghost.getGhostNumber();
+        fromX = ghost.getPosition().x;
+        fromY = ghost.getPosition().y;
+        moveX = move.x;
+        moveY = move.y;
+        this.candidates = candidates;
+        commit();
+    }
+}
@@ -0,0 +1,35 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * GhostStateEvent class:
+ * Flight Recorder event for a ghost changing GhostState through Ghost.setState().
+ */
+@Name("pacman.GhostState")
+@Label("Ghost State Change")
+@Category({"Pacman", "AI"})
+@Description("A ghost changing between Inactive, Chase, Scatter, Frightened and Returning")
+@StackTrace(false)
+public class GhostStateEvent extends jdk.jfr.Event {
+    /**
+     * Number of the ghost, 0 to 3.
+     */
+    @Label("Ghost")
+    public int ghost;
+    /**
+     * State before the change.
+     */
+    @Label("From")
+    public String from;
+    /**
+     * State after the change.
+     */
+    @Label("To")
+    public String to;
+}
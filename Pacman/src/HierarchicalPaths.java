@@ -0,0 +1,521 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * HierarchicalPaths class:
+ * Shortest path distances over a navMap too large for a FlowFields field per target. The map is split
+ * into square clusters. A cell that can be moved into from another cluster is an entrance, and a cell
+ * that can move out to another cluster is an exit. The number of moves from every entrance of a cluster
+ * to every exit of it without leaving the cluster is found when the navMap is loaded, with the clusters
+ * searched in parallel. The entrances and the paths between them form a much smaller graph than the map,
+ * so a field toward a target only holds a distance for each entrance, found by searching that graph
+ * backward from the target. The distances of the cells of a cluster are then refined locally from its
+ * exits the first time a cell of that cluster is asked about, so only the clusters ghosts are actually
+ * in are ever searched cell by cell. The distances are exactly the same as FlowFields gives, so ghosts
+ * choose the same moves either way. Memory grows with the number of cells because each cluster only
+ * stores the costs between its own entrances and exits.
+ * Fields are kept once calculated. When some nodes of the navMap change a new set can be built
+ * from the old one, only searching again the clusters that changed.
+ */
+public class HierarchicalPaths {
+    /**
+     * Distance of a cell that can not reach the target.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    /**
+     * Number of cells along each side of a cluster.
+     */
+    private static final int CLUSTER_SIZE = 16;
+    /**
+     * Maximum number of distances kept across every field before they are all dropped.
+     */
+    private static final int MAX_CACHED_DISTANCES = 1 << 24;
+
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of clusters vertically.
+     */
+    private final int clustersHigh;
+    /**
+     * Bitmask of the directions that can be moved in from each cell, indexed by x * height + y.
+     */
+    private final byte[] exits;
+    /**
+     * Entrance number of each entrance cell, or -1 for other cells.
+     */
+    private final int[] entranceOfCell;
+    /**
+     * Cell of each entrance. The entrances of each cluster are numbered together.
+     */
+    private final int[] entranceCell;
+    /**
+     * The first entrance of each cluster. Has one extra entry at the end.
+     */
+    private final int[] firstEntrance;
+    /**
+     * Exit number of each exit cell, or -1 for other cells.
+     */
+    private final int[] exitOfCell;
+    /**
+     * Cell of each exit. The exits of each cluster are numbered together.
+     */
+    private final int[] exitCell;
+    /**
+     * The first exit of each cluster. Has one extra entry at the end.
+     */
+    private final int[] firstExit;
+    /**
+     * For each cluster, the moves from each of its entrances to each of its exits without leaving
+     * the cluster, indexed by exit * entrances + entrance, both counted from the cluster's first.
+     * The entrances reaching one exit are together because the search from a target visits them together.
+     */
+    private final int[][] clusterCosts;
+    /**
+     * The field for each target cell, indexed by x * height + y, or null if not calculated yet.
+     */
+    private final AtomicReferenceArray<Field> fields;
+    /**
+     * Number of distances currently kept across every field.
+     */
+    private final AtomicInteger cachedDistances;
+
+    /**
+     * Builds the clusters and the costs across them for a navMap.
+     *
+     * @param navMap The navMap to find paths over.
+     */
+    public HierarchicalPaths(AINode[][] navMap) {
+        this(navMap, null, null);
+    }
+
+    /**
+     * Builds the clusters and the costs across them for a navMap where only some nodes have changed
+     * since the previous set was built. The costs of clusters the changed nodes are not in or next to
+     * are kept, so the work depends on the size of the change rather than the size of the map.
+     * No fields are kept, as any of them could have changed.
+     *
+     * @param previous The paths built for the navMap before it changed. Must be the same size.
+     * @param navMap The changed navMap.
+     * @param changedNodes The cells of every node whose moves may have changed.
+     */
+    public HierarchicalPaths(HierarchicalPaths previous, AINode[][] navMap, List<Position> changedNodes) {
+        this(navMap, previous, previous.findChangedClusters(changedNodes));
+    }
+
+    /**
+     * Builds the clusters and the costs across them, keeping those of unchanged clusters from a previous set.
+     *
+     * @param navMap The navMap to find paths over.
+     * @param previous The paths to keep unchanged clusters from, or null to search every cluster.
+     * @param changedClusters True for each cluster that must be searched again. Only used with previous.
+     */
+    private HierarchicalPaths(AINode[][] navMap, HierarchicalPaths previous, boolean[] changedClusters) {
+        width = navMap.length;
+        height = navMap[0].length;
+        int clustersWide = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        clustersHigh = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        int clusters = clustersWide * clustersHigh;
+        exits = new byte[width * height];
+        IntStream.range(0, width).parallel().forEach(x -> {
+            for(int y = 0; y < height; y++) {
+                AINode node = navMap[x][y];
+                if(node == null) continue;
+                for(int d = 0; d < 4; d++) {
+                    int toX = x + DX[d], toY = y + DY[d];
+                    // Moves off the edge of the map are never followed
+                    if(node.canMoveDirection[d] && toX >= 0 && toY >= 0 && toX < width && toY < height)
+                        exits[x * height + y] |= 1 << d;
+                }
+            }
+        });
+
+        // Find the entrances and exits of every cluster, then number them cluster by cluster
+        int[][] entrances = new int[clusters][];
+        int[][] exitCells = new int[clusters][];
+        IntStream.range(0, clusters).parallel().forEach(cluster -> {
+            if(previous != null && !changedClusters[cluster]) {
+                entrances[cluster] = Arrays.copyOfRange(previous.entranceCell,
+                        previous.firstEntrance[cluster], previous.firstEntrance[cluster + 1]);
+                exitCells[cluster] = Arrays.copyOfRange(previous.exitCell,
+                        previous.firstExit[cluster], previous.firstExit[cluster + 1]);
+            } else {
+                entrances[cluster] = findBorderCells(cluster, true);
+                exitCells[cluster] = findBorderCells(cluster, false);
+            }
+        });
+        firstEntrance = new int[clusters + 1];
+        firstExit = new int[clusters + 1];
+        for(int cluster = 0; cluster < clusters; cluster++) {
+            firstEntrance[cluster + 1] = firstEntrance[cluster] + entrances[cluster].length;
+            firstExit[cluster + 1] = firstExit[cluster] + exitCells[cluster].length;
+        }
+        entranceCell = new int[firstEntrance[clusters]];
+        entranceOfCell = new int[width * height];
+        exitCell = new int[firstExit[clusters]];
+        exitOfCell = new int[width * height];
+        Arrays.fill(entranceOfCell, -1);
+        Arrays.fill(exitOfCell, -1);
+        for(int cluster = 0; cluster < clusters; cluster++) {
+            for(int i = 0; i < entrances[cluster].length; i++) {
+                entranceCell[firstEntrance[cluster] + i] = entrances[cluster][i];
+                entranceOfCell[entrances[cluster][i]] = firstEntrance[cluster] + i;
+            }
+            for(int i = 0; i < exitCells[cluster].length; i++) {
+                exitCell[firstExit[cluster] + i] = exitCells[cluster][i];
+                exitOfCell[exitCells[cluster][i]] = firstExit[cluster] + i;
+            }
+        }
+
+        clusterCosts = new int[clusters][];
+        // The costs are indexed from the cluster's own first entrance and exit so they stay valid when renumbered
+        IntStream.range(0, clusters).parallel().forEach(cluster -> clusterCosts[cluster] =
+                previous != null && !changedClusters[cluster] ? previous.clusterCosts[cluster] : findClusterCosts(cluster));
+
+        fields = new AtomicReferenceArray<>(width * height);
+        cachedDistances = new AtomicInteger();
+    }
+
+    /**
+     * Gets the number of moves from a cell to a target following the navMap, calculating the field
+     * for the target if this is the first time the target has been asked for.
+     *
+     * @param fromX Column to start at.
+     * @param fromY Row to start at.
+     * @param targetX Column of the target.
+     * @param targetY Row of the target.
+     * @return The number of moves, or UNREACHABLE if there is no path or either cell is outside the map.
+     */
+    public int getDistance(int fromX, int fromY, int targetX, int targetY) {
+        if(!isInMap(fromX, fromY) || !isInMap(targetX, targetY)) return UNREACHABLE;
+        int target = targetX * height + targetY;
+        Field field = fields.get(target);
+        if(field == null) {
+            field = new Field(calculateField(targetX, targetY), clusterCosts.length);
+            addCachedDistances(field.entrances.length);
+            fields.set(target, field);
+        }
+        int cluster = clusterOf(fromX, fromY);
+        int[] cells = field.clusters.get(cluster);
+        if(cells == null) {
+            cells = refineCluster(cluster, field.entrances, target);
+            addCachedDistances(cells.length);
+            field.clusters.set(cluster, cells);
+        }
+        return cells[localIndex(fromX * height + fromY)];
+    }
+
+    /**
+     * Tests if a cell is inside the map.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return True if the cell is in the map.
+     */
+    public boolean isInMap(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Gets the number of entrances across every cluster.
+     *
+     * @return The number of nodes in the graph of entrances.
+     */
+    public int getEntranceCount() {
+        return entranceCell.length;
+    }
+
+    /**
+     * Gets the number of clusters the map is split into.
+     *
+     * @return The number of clusters.
+     */
+    public int getClusterCount() {
+        return clusterCosts.length;
+    }
+
+    /**
+     * Gets the number of distances currently kept across every field.
+     *
+     * @return The number of entrance and cell distances kept.
+     */
+    public int getCachedDistances() {
+        return cachedDistances.get();
+    }
+
+    /**
+     * Counts distances about to be kept, dropping every field first if there would be too many.
+     *
+     * @param distances The number of distances being added.
+     */
+    private void addCachedDistances(int distances) {
+        if(cachedDistances.addAndGet(distances) > MAX_CACHED_DISTANCES) {
+            // Dropping every field is rare and far simpler than tracking which were used least
+            for(int i = 0; i < fields.length(); i++) {
+                fields.set(i, null);
+            }
+            cachedDistances.set(distances);
+        }
+    }
+
+    /**
+     * Calculates the field for a target. The entrances of the target's cluster start with their
+     * distance inside the cluster, then the graph of entrances is searched backward from them.
+     * An entrance is reached from every entrance of a neighbouring cluster that gets to an exit
+     * moving into it.
+     *
+     * @param targetX Column of the target.
+     * @param targetY Row of the target.
+     * @return The number of moves from every entrance to the target, or UNREACHABLE.
+     */
+    private int[] calculateField(int targetX, int targetY) {
+        int[] field = new int[entranceCell.length];
+        Arrays.fill(field, UNREACHABLE);
+        NodeQueue queue = new NodeQueue(64);
+        int targetCluster = clusterOf(targetX, targetY);
+        int[] local = searchCluster(targetCluster, targetX * height + targetY, true);
+        for(int entrance = firstEntrance[targetCluster]; entrance < firstEntrance[targetCluster + 1]; entrance++) {
+            int distance = local[localIndex(entranceCell[entrance])];
+            if(distance == UNREACHABLE) continue;
+            field[entrance] = distance;
+            queue.push(entrance, distance);
+        }
+
+        while(!queue.isEmpty()) {
+            int entrance = queue.peekNode(), distance = queue.peekDistance();
+            queue.pop();
+            if(distance > field[entrance]) continue;
+            int cell = entranceCell[entrance];
+            int cluster = clusterOf(cell / height, cell % height);
+            for(int d = 0; d < 4; d++) {
+                // An exit of another cluster that moves in direction d to arrive here
+                int fromX = cell / height - DX[d], fromY = cell % height - DY[d];
+                if(!isInMap(fromX, fromY)) continue;
+                int from = fromX * height + fromY, fromCluster = clusterOf(fromX, fromY);
+                if(fromCluster == cluster || (exits[from] & (1 << d)) == 0) continue;
+                int first = firstEntrance[fromCluster], count = firstEntrance[fromCluster + 1] - first;
+                int exit = exitOfCell[from] - firstExit[fromCluster];
+                int[] costs = clusterCosts[fromCluster];
+                for(int i = 0; i < count; i++) {
+                    int cost = costs[exit * count + i];
+                    if(cost == UNREACHABLE || distance + cost + 1 >= field[first + i]) continue;
+                    field[first + i] = distance + cost + 1;
+                    queue.push(first + i, distance + cost + 1);
+                }
+            }
+        }
+        return field;
+    }
+
+    /**
+     * Finds the distance from every cell of a cluster to a target, searching backward inside the
+     * cluster from the target and from every exit of the cluster with the distance of the entrance it moves to.
+     *
+     * @param cluster The cluster to refine.
+     * @param field The number of moves from every entrance to the target.
+     * @param target The target cell, as x * height + y.
+     * @return The moves for each cell of the cluster indexed by localIndex(), or UNREACHABLE.
+     */
+    private int[] refineCluster(int cluster, int[] field, int target) {
+        int[] distances = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+        Arrays.fill(distances, UNREACHABLE);
+        NodeQueue queue = new NodeQueue(64);
+        if(clusterOf(target / height, target % height) == cluster) {
+            distances[localIndex(target)] = 0;
+            queue.push(target, 0);
+        }
+        for(int exit = firstExit[cluster]; exit < firstExit[cluster + 1]; exit++) {
+            int cell = exitCell[exit];
+            for(int d = 0; d < 4; d++) {
+                if((exits[cell] & (1 << d)) == 0) continue;
+                int toX = cell / height + DX[d], toY = cell % height + DY[d];
+                if(clusterOf(toX, toY) == cluster) continue;
+                int entranceDistance = field[entranceOfCell[toX * height + toY]];
+                if(entranceDistance == UNREACHABLE || entranceDistance + 1 >= distances[localIndex(cell)]) continue;
+                distances[localIndex(cell)] = entranceDistance + 1;
+                queue.push(cell, entranceDistance + 1);
+            }
+        }
+        while(!queue.isEmpty()) {
+            int cell = queue.peekNode(), distance = queue.peekDistance();
+            queue.pop();
+            if(distance > distances[localIndex(cell)]) continue;
+            for(int d = 0; d < 4; d++) {
+                // The cell that moves in direction d to arrive here
+                int fromX = cell / height - DX[d], fromY = cell % height - DY[d];
+                if(!isInMap(fromX, fromY) || clusterOf(fromX, fromY) != cluster) continue;
+                int from = fromX * height + fromY;
+                if((exits[from] & (1 << d)) == 0 || distance + 1 >= distances[localIndex(from)]) continue;
+                distances[localIndex(from)] = distance + 1;
+                queue.push(from, distance + 1);
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Finds the clusters to search again after some nodes change. A node's moves decide the exits and
+     * costs of its own cluster and the entrances of the clusters next to it.
+     *
+     * @param changedNodes The cells of every node whose moves may have changed.
+     * @return True for each cluster that must be searched again.
+     */
+    private boolean[] findChangedClusters(List<Position> changedNodes) {
+        boolean[] changed = new boolean[firstEntrance.length - 1];
+        for(Position node : changedNodes) {
+            if(!isInMap(node.x, node.y)) continue;
+            changed[clusterOf(node.x, node.y)] = true;
+            for(int d = 0; d < 4; d++) {
+                int otherX = node.x + DX[d], otherY = node.y + DY[d];
+                if(isInMap(otherX, otherY)) changed[clusterOf(otherX, otherY)] = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the entrances or exits of a cluster.
+     *
+     * @param cluster The cluster to search.
+     * @param entrances True to find the cells moved into from other clusters, false for the cells that move out.
+     * @return The cells in order of cell index.
+     */
+    private int[] findBorderCells(int cluster, boolean entrances) {
+        int[] found = new int[CLUSTER_SIZE * 4];
+        int count = 0;
+        int startX = cluster / clustersHigh * CLUSTER_SIZE, startY = cluster % clustersHigh * CLUSTER_SIZE;
+        int endX = Math.min(width, startX + CLUSTER_SIZE), endY = Math.min(height, startY + CLUSTER_SIZE);
+        for(int x = startX; x < endX; x++) {
+            for(int y = startY; y < endY; y++) {
+                boolean border = false;
+                for(int d = 0; d < 4 && !border; d++) {
+                    int otherX = x + DX[d], otherY = y + DY[d];
+                    if(!isInMap(otherX, otherY) || clusterOf(otherX, otherY) == cluster) continue;
+                    border = entrances ? (exits[otherX * height + otherY] & (1 << ((d + 2) % 4))) != 0
+                            : (exits[x * height + y] & (1 << d)) != 0;
+                }
+                if(border) found[count++] = x * height + y;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Finds the moves from every entrance of a cluster to every exit of it without leaving the cluster.
+     *
+     * @param cluster The cluster to search.
+     * @return The costs indexed by exit * entrances + entrance, or UNREACHABLE.
+     */
+    private int[] findClusterCosts(int cluster) {
+        int first = firstEntrance[cluster], count = firstEntrance[cluster + 1] - first;
+        int firstOut = firstExit[cluster], exitCount = firstExit[cluster + 1] - firstOut;
+        int[] costs = new int[count * exitCount];
+        for(int entrance = 0; entrance < count; entrance++) {
+            int[] local = searchCluster(cluster, entranceCell[first + entrance], false);
+            for(int exit = 0; exit < exitCount; exit++) {
+                costs[exit * count + entrance] = local[localIndex(exitCell[firstOut + exit])];
+            }
+        }
+        return costs;
+    }
+
+    /**
+     * Searches a cluster breadth first from one of its cells without leaving the cluster.
+     *
+     * @param cluster The cluster to search.
+     * @param start The cell to search from, which must be in the cluster.
+     * @param backward When true finds the moves from every cell to the start instead of from the start.
+     * @return The moves for each cell of the cluster indexed by localIndex(), or UNREACHABLE.
+     */
+    private int[] searchCluster(int cluster, int start, boolean backward) {
+        int[] distances = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+        Arrays.fill(distances, UNREACHABLE);
+        int[] queue = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+        int head = 0, tail = 0;
+        distances[localIndex(start)] = 0;
+        queue[tail++] = start;
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / height, y = cell % height;
+            int next = distances[localIndex(cell)] + 1;
+            for(int d = 0; d < 4; d++) {
+                int otherX = backward ? x - DX[d] : x + DX[d], otherY = backward ? y - DY[d] : y + DY[d];
+                if(!isInMap(otherX, otherY) || clusterOf(otherX, otherY) != cluster) continue;
+                int other = otherX * height + otherY;
+                int moving = backward ? other : cell;
+                if((exits[moving] & (1 << d)) == 0 || distances[localIndex(other)] != UNREACHABLE) continue;
+                distances[localIndex(other)] = next;
+                queue[tail++] = other;
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Gets the index of a cell within its cluster.
+     *
+     * @param cell The cell, as x * height + y.
+     * @return The index used by searchCluster() and refineCluster().
+     */
+    private int localIndex(int cell) {
+        return cell / height % CLUSTER_SIZE * CLUSTER_SIZE + cell % height % CLUSTER_SIZE;
+    }
+
+    /**
+     * Gets the cluster a cell is in.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The cluster number.
+     */
+    private int clusterOf(int x, int y) {
+        return x / CLUSTER_SIZE * clustersHigh + y / CLUSTER_SIZE;
+    }
+
+    /**
+     * The distances toward one target: one for every entrance, and one for every cell of each
+     * cluster that has been refined so far.
+     */
+    private static class Field {
+        /**
+         * The number of moves from every entrance to the target, or UNREACHABLE.
+         */
+        final int[] entrances;
+        /**
+         * The distances of the cells of each cluster from refineCluster(), or null if not refined yet.
+         */
+        final AtomicReferenceArray<int[]> clusters;
+
+        /**
+         * Creates a field with no clusters refined.
+         *
+         * @param entrances The number of moves from every entrance to the target.
+         * @param clusters The number of clusters in the map.
+         */
+        Field(int[] entrances, int clusters) {
+            this.entrances = entrances;
+            this.clusters = new AtomicReferenceArray<>(clusters);
+        }
+    }
+}
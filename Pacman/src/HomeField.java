@@ -0,0 +1,228 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * HomeField class:
+ * The way home for eaten ghosts. Holds, for every cell, the number of moves to the nearest
+ * ghost house cell and the move to make toward it, found with one breadth first search outward
+ * from every house cell at once. The house cells are the ghost start cells Pacman can not walk
+ * to, or every ghost start cell if Pacman can reach them all. Unlike the navMap the search
+ * ignores the restrictions, so eyes can go back in through the doors only ghosts can enter.
+ * Built once when the map is loaded and never changed, so eaten ghosts follow it home without searching.
+ */
+public class HomeField {
+    /**
+     * Distance of a cell that can not reach the ghost house.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+    /**
+     * The moves for each facing, so a move can be handed to a ghost without allocating.
+     */
+    private static final Position[] MOVES = {Position.UP, Position.RIGHT, Position.DOWN, Position.LEFT};
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of moves from each cell to the nearest house cell, indexed by x * height + y.
+     */
+    private final int[] distances;
+    /**
+     * The move toward the house from each cell, or -1 in a house cell or a cell with no way home.
+     */
+    private final byte[] moves;
+    /**
+     * Number of house cells the field leads to.
+     */
+    private final int homeCount;
+
+    /**
+     * Builds the field for a loaded map.
+     *
+     * @param mapObjects The objects of the map, used to find the cells a ghost can enter.
+     * @param ghostStarts The start cells of every ghost on the map.
+     * @param pacmanStart The start cell of Pacman, used to tell which ghost starts are inside the house.
+     */
+    public HomeField(MapObject[][] mapObjects, List<Position> ghostStarts, Position pacmanStart) {
+        width = mapObjects.length;
+        height = mapObjects[0].length;
+        int cells = width * height;
+        distances = new int[cells];
+        Arrays.fill(distances, UNREACHABLE);
+        moves = new byte[cells];
+        Arrays.fill(moves, (byte)-1);
+
+        boolean[] pacmanCanReach = findPacmanCells(mapObjects, pacmanStart);
+        int[] queue = new int[cells];
+        int head = 0, tail = 0;
+        for(Position start : ghostStarts) {
+            if(pacmanCanReach[start.x * height + start.y]) continue;
+            tail = addHome(start, mapObjects, queue, tail);
+        }
+        // Without a house closed off from Pacman the eyes go back to the nearest start cell
+        if(tail == 0) {
+            for(Position start : ghostStarts) {
+                tail = addHome(start, mapObjects, queue, tail);
+            }
+        }
+        homeCount = tail;
+
+        // Search outward from the house along ghost moves in reverse
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / height, y = cell % height;
+            for(int d = 0; d < 4; d++) {
+                // The neighbour that moves in direction d to get here
+                int fromX = x - DX[d], fromY = y - DY[d];
+                if(!isInside(fromX, fromY) || !ghostCanEnter(mapObjects[fromX][fromY])) continue;
+                int from = fromX * height + fromY;
+                if(distances[from] != UNREACHABLE) continue;
+                distances[from] = distances[cell] + 1;
+                moves[from] = (byte)d;
+                queue[tail++] = from;
+            }
+        }
+    }
+
+    /**
+     * Gets the move toward the ghost house from a cell.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The unit vector of the move, or null in a house cell, a cell with no way home, or outside the map.
+     */
+    public Position getMove(int x, int y) {
+        int direction = getDirection(x, y);
+        return direction == -1 ? null : MOVES[direction];
+    }
+
+    /**
+     * Gets the direction of the move toward the ghost house from a cell.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The direction to move 0=Up, 1=Right, 2=Down, 3=Left, or -1 if there is no move.
+     */
+    public int getDirection(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return -1;
+        return moves[x * height + y];
+    }
+
+    /**
+     * Gets the number of moves from a cell to the nearest ghost house cell.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The number of moves, 0 in a house cell, or UNREACHABLE.
+     */
+    public int getDistance(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return UNREACHABLE;
+        return distances[x * height + y];
+    }
+
+    /**
+     * Tests if a cell is one of the ghost house cells eaten ghosts return to.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return True if the cell is a house cell.
+     */
+    public boolean isHome(int x, int y) {
+        return getDistance(x, y) == 0;
+    }
+
+    /**
+     * Gets the number of ghost house cells.
+     *
+     * @return The number of cells eaten ghosts can return to.
+     */
+    public int getHomeCount() {
+        return homeCount;
+    }
+
+    /**
+     * Adds a ghost start cell to the search as a house cell if it is not already one.
+     *
+     * @param start The ghost start cell.
+     * @param mapObjects The objects of the map.
+     * @param queue The search queue.
+     * @param tail The end of the search queue.
+     * @return The new end of the search queue.
+     */
+    private int addHome(Position start, MapObject[][] mapObjects, int[] queue, int tail) {
+        int cell = start.x * height + start.y;
+        if(!isInside(start.x, start.y) || distances[cell] == 0 || !ghostCanEnter(mapObjects[start.x][start.y])) return tail;
+        distances[cell] = 0;
+        queue[tail] = cell;
+        return tail + 1;
+    }
+
+    /**
+     * Flood fills the cells Pacman can walk to from his start, ignoring teleports.
+     *
+     * @param mapObjects The objects of the map.
+     * @param pacmanStart The start cell of Pacman.
+     * @return True for every cell Pacman can reach, indexed by x * height + y.
+     */
+    private boolean[] findPacmanCells(MapObject[][] mapObjects, Position pacmanStart) {
+        boolean[] reached = new boolean[width * height];
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+        reached[pacmanStart.x * height + pacmanStart.y] = true;
+        queue[tail++] = pacmanStart.x * height + pacmanStart.y;
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell / height, y = cell % height;
+            for(int d = 0; d < 4; d++) {
+                int toX = x + DX[d], toY = y + DY[d];
+                if(toX < 0 || toY < 0 || toX >= width || toY >= height) continue;
+                MapObject.EnterType enterType = mapObjects[toX][toY].getEnterType();
+                if(enterType != MapObject.EnterType.Everyone && enterType != MapObject.EnterType.PacmanOnly) continue;
+                int to = toX * height + toY;
+                if(reached[to]) continue;
+                reached[to] = true;
+                queue[tail++] = to;
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Tests if a cell has an AINode in the navMap, which excludes the edge of the map.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return True if the cell is inside the edge of the map.
+     */
+    private boolean isInside(int x, int y) {
+        return x >= 1 && y >= 1 && x <= width - 2 && y <= height - 2;
+    }
+
+    /**
+     * Tests if a ghost can enter an object's cell, matching AINode.
+     *
+     * @param mapObject The object in the cell.
+     * @return True for cells everyone or only ghosts can enter.
+     */
+    private static boolean ghostCanEnter(MapObject mapObject) {
+        MapObject.EnterType enterType = mapObject.getEnterType();
+        return enterType == MapObject.EnterType.Everyone || enterType == MapObject.EnterType.GhostOnly;
+    }
+}
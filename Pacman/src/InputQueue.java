@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * InputQueue class:
+ * A lock-free queue of key codes for exactly one producer thread (such as the
+ * thread receiving key events) and one consumer thread (the thread running the
+ * game updates). The producer only writes the tail and the consumer only writes
+ * the head, so no locks or compare-and-swap loops are needed. Each side publishes
+ * its index with an ordered write after it has finished with the slot.
+ */
+public class InputQueue {
+    /**
+     * Value returned by poll() when there is nothing waiting.
+     */
+    public static final int EMPTY = -1;
+
+    /**
+     * Ring of key codes. The length is a power of two.
+     */
+    private final int[] keyCodes;
+    /**
+     * Mask used to wrap an index into the ring.
+     */
+    private final int mask;
+    /**
+     * Index of the next key code to read. Only written by the consumer.
+     */
+    private final AtomicLong head;
+    /**
+     * Index of the next slot to write. Only written by the producer.
+     */
+    private final AtomicLong tail;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity Minimum number of key codes that can be waiting. Rounded up to a power of two.
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        keyCodes = new int[size];
+        mask = size - 1;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+    }
+
+    /**
+     * Adds a key code to the queue. Must only be called from the producer thread.
+     *
+     * @param keyCode The key code to add.
+     * @return True if it was added, or false if the queue was full and the key was dropped.
+     */
+    public boolean offer(int keyCode) {
+        long currentTail = tail.get();
+        if(currentTail - head.get() == keyCodes.length) {
+            return false;
+        }
+        keyCodes[(int)currentTail & mask] = keyCode;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest key code from the queue. Must only be called from the consumer thread.
+     *
+     * @return The oldest key code, or EMPTY if there is nothing waiting.
+     */
+    public int poll() {
+        long currentHead = head.get();
+        if(currentHead == tail.get()) {
+            return EMPTY;
+        }
+        int keyCode = keyCodes[(int)currentHead & mask];
+        head.lazySet(currentHead + 1);
+        return keyCode;
+    }
+}
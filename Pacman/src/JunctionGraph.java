@@ -0,0 +1,219 @@
+import java.util.Arrays;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * JunctionGraph class:
+ * A compressed form of a navMap where the nodes are junctions and the edges are the corridors
+ * between them. A cell is a corridor cell when a ghost that can not reverse has exactly one move
+ * from it for every facing it can arrive with, and a junction otherwise, including dead ends.
+ * Each edge is a corridor followed from a junction in one direction until the next junction.
+ *
+ * The forced move table gives, for every cell and facing, the only move a ghost that can not
+ * reverse has, or -1 when there is a choice. Ghosts use it to follow corridors without running
+ * their behaviours. Rebuilt from the navMap when its nav version changes.
+ */
+public class JunctionGraph {
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+    /**
+     * The moves for each facing, so a forced move can be handed to a ghost without allocating.
+     */
+    private static final Position[] MOVES = {Position.UP, Position.RIGHT, Position.DOWN, Position.LEFT};
+
+    /**
+     * The navMap the graph is built from.
+     */
+    private final AINode[][] navMap;
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * The tables for the current nav version, replaced as a whole when they are rebuilt.
+     */
+    private volatile Tables tables;
+
+    /**
+     * Builds the graph for a navMap.
+     *
+     * @param navMap The navMap to compress.
+     */
+    public JunctionGraph(AINode[][] navMap) {
+        this.navMap = navMap;
+        width = navMap.length;
+        height = navMap[0].length;
+        tables = new Tables(AINode.getNavVersion(navMap));
+    }
+
+    /**
+     * Gets the only move a ghost that can not reverse has from a cell.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @param facing The ghost's facing. 0=Up, 1=Right, 2=Down, 3=Left
+     * @return The unit vector of the move, or null if there is a choice, no move, or the cell is outside the map.
+     */
+    public Position getForcedMove(int x, int y, int facing) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return null;
+        int move = getTables().forcedMove[(x * height + y) * 4 + facing];
+        return move == -1 ? null : MOVES[move];
+    }
+
+    /**
+     * Tests if a cell is a junction.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return True if the cell is a node of the graph.
+     */
+    public boolean isJunction(int x, int y) {
+        return getTables().nodeOfCell[x * height + y] != -1;
+    }
+
+    /**
+     * Gets the number of junctions.
+     *
+     * @return The number of nodes.
+     */
+    public int getJunctionCount() {
+        return getTables().junctionCount;
+    }
+
+    /**
+     * Gets the number of corridors, counting each direction separately.
+     *
+     * @return The number of edges.
+     */
+    public int getCorridorCount() {
+        return getTables().corridorCount;
+    }
+
+    /**
+     * Gets the tables for the current nav version, rebuilding them if a move has changed since.
+     *
+     * @return The current tables.
+     */
+    private Tables getTables() {
+        Tables current = tables;
+        int version = AINode.getNavVersion(navMap);
+        if(version != current.navVersion) {
+            current = new Tables(version);
+            tables = current;
+        }
+        return current;
+    }
+
+    /**
+     * Tables built from the navMap at one nav version.
+     */
+    private class Tables {
+        /**
+         * The nav version of the navMap the tables were built with.
+         */
+        private final int navVersion;
+        /**
+         * Bitmask of the directions that can be moved in from each cell. 0 for cells with no AINode.
+         */
+        private final byte[] exits;
+        /**
+         * The only move from each cell for each facing without reversing, or -1. Indexed by cell * 4 + facing.
+         */
+        private final byte[] forcedMove;
+        /**
+         * Node number of each junction cell, or -1 for other cells.
+         */
+        private final int[] nodeOfCell;
+        /**
+         * Number of junctions.
+         */
+        private final int junctionCount;
+        /**
+         * Number of corridors that lead from one junction to another, counting each direction separately.
+         */
+        private final int corridorCount;
+
+        /**
+         * Builds the tables from the navMap as it is now.
+         *
+         * @param navVersion The nav version of the navMap being built.
+         */
+        private Tables(int navVersion) {
+            this.navVersion = navVersion;
+            int cells = width * height;
+            exits = new byte[cells];
+            for(int x = 0; x < width; x++) {
+                for(int y = 0; y < height; y++) {
+                    AINode node = navMap[x][y];
+                    if(node == null) continue;
+                    for(int d = 0; d < 4; d++) {
+                        int toX = x + DX[d], toY = y + DY[d];
+                        // Moves off the edge of the map are never followed
+                        if(node.canMoveDirection[d] && toX >= 0 && toY >= 0 && toX < width && toY < height)
+                            exits[x * height + y] |= 1 << d;
+                    }
+                }
+            }
+
+            forcedMove = new byte[cells * 4];
+            nodeOfCell = new int[cells];
+            Arrays.fill(nodeOfCell, -1);
+            int junctions = 0;
+            for(int cell = 0; cell < cells; cell++) {
+                boolean junction = false;
+                for(int facing = 0; facing < 4; facing++) {
+                    int moves = exits[cell] & ~(1 << ((facing + 2) % 4));
+                    forcedMove[cell * 4 + facing] = (byte)(Integer.bitCount(moves) == 1 ? Integer.numberOfTrailingZeros(moves) : -1);
+                    if(forcedMove[cell * 4 + facing] == -1 && canArrive(cell, facing)) junction = true;
+                }
+                if(junction) {
+                    nodeOfCell[cell] = junctions++;
+                }
+            }
+            junctionCount = junctions;
+
+            // Follow every exit of every junction to the next junction
+            int corridors = 0;
+            for(int from = 0; from < cells; from++) {
+                if(nodeOfCell[from] == -1) continue;
+                for(int d = 0; d < 4; d++) {
+                    if((exits[from] & (1 << d)) == 0) continue;
+                    int cell = from, facing = d, length = 0;
+                    do {
+                        cell += DX[facing] * height + DY[facing];
+                        length++;
+                        if(nodeOfCell[cell] != -1) break;
+                        facing = forcedMove[cell * 4 + facing];
+                    } while(facing != -1 && length < cells);
+                    // Corridors that never reach a junction, such as a closed loop, are left out
+                    if(nodeOfCell[cell] != -1) corridors++;
+                }
+            }
+            corridorCount = corridors;
+        }
+
+        /**
+         * Tests if a ghost can arrive in a cell with a facing, which needs the cell behind it to have a move into it.
+         *
+         * @param cell The cell arrived in.
+         * @param facing The facing of the move arriving.
+         * @return True if the neighbour behind can move into the cell.
+         */
+        private boolean canArrive(int cell, int facing) {
+            int x = cell / height - DX[facing], y = cell % height - DY[facing];
+            if(x < 0 || y < 0 || x >= width || y >= height) return false;
+            return (exits[x * height + y] & (1 << facing)) != 0;
+        }
+    }
+}
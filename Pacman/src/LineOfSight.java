@@ -0,0 +1,152 @@
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * LineOfSight class:
+ * Index of the straight runs of open cells on a map. For every cell and each of the four
+ * directions it holds how many cells can be seen in that direction before a wall, so testing
+ * whether one cell can see another in the same row or column is a single comparison instead
+ * of stepping through the map objects between them. Only walls block sight; doors, teleports
+ * and actors do not. Built once when the map is loaded. When a cell of the map changes only
+ * the runs along its row and column are worked out again.
+ */
+public class LineOfSight {
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    /**
+     * Number of cells horizontally.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * Number of open cells seen from each cell in each direction before a wall or the edge of
+     * the map, not counting the cell itself. Indexed by (x * height + y) * 4 + direction.
+     */
+    private final int[] runs;
+
+    /**
+     * Builds the index for a loaded map.
+     *
+     * @param mapObjects The objects of the map.
+     */
+    public LineOfSight(MapObject[][] mapObjects) {
+        width = mapObjects.length;
+        height = mapObjects[0].length;
+        runs = new int[width * height * 4];
+        // Each run is one more than the run of the neighbour in the same direction, so every
+        // direction is filled in one pass starting from the side it looks toward.
+        for(int x = 0; x < width; x++) {
+            for(int y = 0; y < height; y++) {
+                setRun(mapObjects, x, y, 0);
+                setRun(mapObjects, x, y, 3);
+            }
+        }
+        for(int x = width - 1; x >= 0; x--) {
+            for(int y = height - 1; y >= 0; y--) {
+                setRun(mapObjects, x, y, 1);
+                setRun(mapObjects, x, y, 2);
+            }
+        }
+    }
+
+    /**
+     * Works out the runs again after a cell of the map has changed. Only the runs along the
+     * cell's row and column can see the cell, so only they are updated.
+     *
+     * @param mapObjects The changed objects of the map.
+     * @param x Column of the changed cell.
+     * @param y Row of the changed cell.
+     */
+    public void update(MapObject[][] mapObjects, int x, int y) {
+        for(int i = 0; i < height; i++) {
+            setRun(mapObjects, x, i, 0);
+        }
+        for(int i = height - 1; i >= 0; i--) {
+            setRun(mapObjects, x, i, 2);
+        }
+        for(int i = 0; i < width; i++) {
+            setRun(mapObjects, i, y, 3);
+        }
+        for(int i = width - 1; i >= 0; i--) {
+            setRun(mapObjects, i, y, 1);
+        }
+    }
+
+    /**
+     * Gets how far can be seen from a cell in a direction.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @param direction The direction to look. 0=Up, 1=Right, 2=Down, 3=Left
+     * @return The number of open cells seen before a wall or the edge, or 0 outside the map.
+     */
+    public int getRun(int x, int y, int direction) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return 0;
+        return runs[(x * height + y) * 4 + direction];
+    }
+
+    /**
+     * Tests if one cell can see another along a row or column without a wall in between.
+     *
+     * @param fromX Column of the cell looking.
+     * @param fromY Row of the cell looking.
+     * @param toX Column of the cell looked at.
+     * @param toY Row of the cell looked at.
+     * @return True if both cells are in the map, in the same row or column, and nothing blocks the view.
+     */
+    public boolean canSee(int fromX, int fromY, int toX, int toY) {
+        if(fromX < 0 || fromY < 0 || fromX >= width || fromY >= height) return false;
+        if(toX < 0 || toY < 0 || toX >= width || toY >= height) return false;
+        int direction = getDirection(fromX, fromY, toX, toY);
+        if(direction == -1) return fromX == toX && fromY == toY;
+        return getRun(fromX, fromY, direction) >= Math.abs(toX - fromX) + Math.abs(toY - fromY);
+    }
+
+    /**
+     * Gets the direction to look from one cell to see another in the same row or column.
+     *
+     * @param fromX Column of the cell looking.
+     * @param fromY Row of the cell looking.
+     * @param toX Column of the cell looked at.
+     * @param toY Row of the cell looked at.
+     * @return The direction 0=Up, 1=Right, 2=Down, 3=Left, or -1 if the cells are the same or not in line.
+     */
+    public static int getDirection(int fromX, int fromY, int toX, int toY) {
+        if(fromX == toX) {
+            if(toY < fromY) return 0;
+            if(toY > fromY) return 2;
+        } else if(fromY == toY) {
+            return toX > fromX ? 1 : 3;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the run from a cell in a direction from the run of its neighbour in that direction,
+     * which must already be set.
+     *
+     * @param mapObjects The objects of the map.
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @param direction The direction of the run.
+     */
+    private void setRun(MapObject[][] mapObjects, int x, int y, int direction) {
+        int nextX = x + DX[direction], nextY = y + DY[direction];
+        int run = 0;
+        if(nextX >= 0 && nextY >= 0 && nextX < width && nextY < height
+                && mapObjects[nextX][nextY].getEnterType() != MapObject.EnterType.None) {
+            run = runs[(nextX * height + nextY) * 4 + direction] + 1;
+        }
+        runs[(x * height + y) * 4 + direction] = run;
+    }
+}
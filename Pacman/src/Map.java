@@ -1,9 +1,12 @@
 import java.awt.*;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.stream.IntStream;
 
 /**
  * Pacman
@@ -14,6 +17,8 @@ import java.util.Scanner;
  * Includes a grid of map objects, references to objects that move
  * around on it including Pacman and Ghosts, and the objects that
  * are influenced by collection for the cherries.
+ * BatchEnvironment plays by a copy of the rules of Map, Pacman, Ghost and GhostAI,
+ * so run BatchParityCheck after changing any of them.
  */
 public class Map {
     /**
@@ -27,26 +32,87 @@ public class Map {
     public enum MapState { Running, GameOver, GameWon }
 
     /**
-     * Singleton reference to the Map to allow any object in the game to access the Map.
+     * Number of ghosts at which the decide phase of an update is spread across cores.
+     * Below this the cost of handing work to other threads is more than the work.
      */
-    public static Map INSTANCE;
+    public static final int PARALLEL_DECIDE_GHOSTS = 32;
+    /**
+     * The file the map is loaded from. Set with the pacman.map system property, default.map by default.
+     */
+    public static final String MAP_FILE = System.getProperty("pacman.map", "default.map");
+
     /**
      * All of the objects on the map excluding any objects that can move.
      */
     private MapObject[][] mapObjects;
+    /**
+     * The navMap and everything worked out from it, used to move the ghosts.
+     * Made each time the map is loaded.
+     */
+    private Navigation navigation;
+    /**
+     * The navigation of another map with the same layout to use instead of making one. Null if not sharing.
+     */
+    private final Navigation sharedNavigation;
+    /**
+     * The lines of cells read from the map file, used to find what changed when it is reloaded.
+     * Null when the map was loaded from the backup data.
+     */
+    private String[] loadedMapData;
+    /**
+     * The navMap restrictions read from the map file as X, Y and direction.
+     */
+    private List<int[]> loadedRestrictions;
+    /**
+     * The ghost config lines read from the map file.
+     */
+    private String loadedGhostLines;
     /**
      * The player object that can be moved around to interact.
      */
     private Pacman pacman;
     /**
-     * List of all the ghosts on the game. (assumed to be 4)
+     * List of all the ghosts on the game, in the order they appear in the map.
      */
     private List<Ghost> ghosts;
+    /**
+     * Cells of the ghosts found while populating the map. The ghosts are created from these
+     * once their configs have been read.
+     */
+    private List<Position> ghostStarts;
+    /**
+     * Configs read from the map file indexed by ghost number. Entries can be null.
+     */
+    private List<GhostConfig> ghostConfigs;
+    /**
+     * Config from the map file for every ghost without its own, or null to use GhostConfig.getDefault().
+     */
+    private GhostConfig otherGhostsConfig;
+    /**
+     * First ghost released when each number of collectibles has been collected, or -1.
+     * Indexed by the number collected.
+     */
+    private int[] firstReleasedAt;
+    /**
+     * Next ghost released at the same number of collectibles as each ghost, or -1.
+     * Together with firstReleasedAt this forms a list of ghosts for each number collected.
+     */
+    private int[] nextReleasedWith;
+    /**
+     * Incremented whenever objects in the grid are replaced by a restart or a reload, so anything
+     * that caches the layout of the grid can tell its copy is stale.
+     */
+    private int layoutVersion;
     /**
      * List of the cherries to be revealed after specific numbers of collected.
      * (assumed to be 2).
      */
     private List<CherryObject> cherries;
+    /**
+     * Objects in the grid with state that changes during a game, in row order.
+     * Used to save and restore snapshots.
+     */
+    private List<MapObject> stateObjects;
     /**
      * Number of grid cells horizontally.
      */
@@ -71,12 +137,68 @@ public class Map {
      * Current total score. Score of 1 for each collectible, 150 for cherries, and 100 for eating ghosts.
      */
     private int score;
+    /**
+     * Fingerprint of the state that is updated as Pacman, the ghosts and the collectibles change.
+     */
+    private ZobristHash zobristHash;
+    /**
+     * Cells, facings, states and timers of Pacman and the ghosts, held in arrays.
+     */
+    private final ActorStore actorStore;
+    /**
+     * Recent ghost AI decisions on this map. Null unless AITrace.ENABLED.
+     */
+    private final AITrace aiTrace;
+    /**
+     * Time in nanoseconds each ghost's latest move decision took, or null when not being measured.
+     */
+    private long[] ghostUpdateNanos;
+    /**
+     * The part of a world the grid shows, or null when the map is loaded from a map file.
+     * Set to null if the world can not be read, so the backup map is played instead.
+     */
+    private WorldWindow world;
 
     /**
-     * Initialises the Map by creating the Singleton and then making it restart to load the map.
+     * Initialises the Map by making it restart to load the map. Everything in the game
+     * that needs the Map is given a reference to it, so any number of maps can exist at once.
      */
     public Map() {
-        INSTANCE = this;
+        this(null, null);
+    }
+
+    /**
+     * Initialises the Map using the Navigation of another map loaded from the same file
+     * instead of making its own, so any number of maps can share one.
+     *
+     * @param layoutSource The map to share the navigation of, or null to make one.
+     */
+    public Map(Map layoutSource) {
+        this(layoutSource, null);
+    }
+
+    /**
+     * Initialises the Map as a window onto a world. The grid holds only the cells in the window,
+     * which moves through the world to follow Pacman, so the world can be far larger than memory.
+     *
+     * @param world The window onto the world to play.
+     */
+    public Map(WorldWindow world) {
+        this(null, world);
+    }
+
+    /**
+     * Initialises the Map from a map file, optionally sharing another map's navigation, or as a window onto a world.
+     *
+     * @param layoutSource The map to share the navigation of, or null to make one.
+     * @param world The window onto the world to play, or null to load the map file.
+     */
+    private Map(Map layoutSource, WorldWindow world) {
+        this.world = world;
+        sharedNavigation = layoutSource == null ? null : layoutSource.getNavigation();
+        zobristHash = new ZobristHash();
+        actorStore = new ActorStore();
+        aiTrace = AITrace.ENABLED ? new AITrace() : null;
         restart();
     }
 
@@ -84,22 +206,80 @@ public class Map {
      * Updates if in the running state by updating Pacman, and
      * then all of the ghost. Collision detection with the ghosts is checked.
      * Colliding with a ghost will either eat it to score 100 or result in a game over.
+     * The eyes of eaten ghosts on their way home pass straight through Pacman.
+     * Ghosts are updated in phases so every ghost chooses its move from where the others
+     * were at the start of the tick, making the result independent of the ghost order.
      */
     public void update() {
         if(mapState != MapState.Running) return;
+        if(AITrace.ENABLED) aiTrace.nextTick();
 
         pacman.update();
+        if(ghostUpdateNanos != null && ghostUpdateNanos.length < ghosts.size()) {
+            ghostUpdateNanos = new long[ghosts.size()];
+        }
+        // Phase 1: timers and states, which change the shared hash so are done in order
         for(Ghost ghost : ghosts) {
-            ghost.update();
-            // Check for collision with Pacman
-            if(pacman.getPosition().equals(ghost.getPosition())) {
-                if(ghost.getGhostState() == Ghost.GhostState.Frightened) {
-                    ghost.resetToStart();
-                    addBonusScore(100);
-                } else {
-                    mapState = MapState.GameOver;
-                }
+            ghost.prepareUpdate();
+        }
+        // Phase 2: every ghost chooses a move from the positions at the start of the tick
+        if(ghosts.size() >= PARALLEL_DECIDE_GHOSTS) {
+            IntStream.range(0, ghosts.size()).parallel().forEach(this::decideGhostMove);
+        } else {
+            for(int i = 0; i < ghosts.size(); i++) {
+                decideGhostMove(i);
+            }
+        }
+        // Phase 3: apply every move
+        for(Ghost ghost : ghosts) {
+            ghost.commitMove();
+            if(AITrace.ENABLED) checkGhostInvariants(ghost);
+        }
+        // Phase 4: scan the actor cells for ghosts that collided with Pacman
+        int pacmanX = actorStore.getX(pacman.getActorIndex());
+        int pacmanY = actorStore.getY(pacman.getActorIndex());
+        int actor = actorStore.findGhostAt(pacmanX, pacmanY, -1);
+        while(actor != -1) {
+            Ghost ghost = ghosts.get(actorStore.getGhostNumber(actor));
+            if(ghost.getGhostState() == Ghost.GhostState.Frightened) {
+                ghost.returnHome();
+                addBonusScore(100);
+            } else if(ghost.getGhostState() != Ghost.GhostState.Returning) {
+                mapState = MapState.GameOver;
             }
+            actor = actorStore.findGhostAt(pacmanX, pacmanY, -1, actor + 1);
+        }
+        if(world != null) pageWorld();
+    }
+
+    /**
+     * Runs the decide phase of one ghost, timing it if ghost timing is on.
+     *
+     * @param index Index of the ghost.
+     */
+    private void decideGhostMove(int index) {
+        Ghost ghost = ghosts.get(index);
+        if(ghostUpdateNanos != null) {
+            long ghostStart = System.nanoTime();
+            ghost.decideMove();
+            ghostUpdateNanos[index] = System.nanoTime() - ghostStart;
+        } else {
+            ghost.decideMove();
+        }
+    }
+
+    /**
+     * Checks a ghost has not left the map or moved into a cell nothing can enter.
+     * Any failure is reported through the AITrace.
+     *
+     * @param ghost The ghost that has just been updated.
+     */
+    private void checkGhostInvariants(Ghost ghost) {
+        Position position = ghost.getPosition();
+        if(position.x < 0 || position.y < 0 || position.x >= mapWidth || position.y >= mapHeight) {
+            aiTrace.failInvariant("Ghost " + ghost.getGhostNumber() + " is outside the map at " + position);
+        } else if(mapObjects[position.x][position.y].enterType == MapObject.EnterType.None) {
+            aiTrace.failInvariant("Ghost " + ghost.getGhostNumber() + " is inside a wall at " + position);
         }
     }
 
@@ -109,27 +289,211 @@ public class Map {
      * @param g Reference to the Graphics object for rendering.
      */
     public void paint(Graphics g) {
-        for(int y = 0; y < mapHeight; y++) {
-            for(int x = 0; x < mapWidth; x++) {
+        paint(g, 0, 0, mapWidth, mapHeight);
+    }
+
+    /**
+     * Draws the map objects in a rectangle of cells, then draws Pacman and the ghosts
+     * that are inside it on top. Cells outside the rectangle are not visited, so the cost
+     * depends on the size of the rectangle and not the size of the map.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     * @param fromX First column to draw.
+     * @param fromY First row to draw.
+     * @param toX Column after the last to draw.
+     * @param toY Row after the last to draw.
+     */
+    public void paint(Graphics g, int fromX, int fromY, int toX, int toY) {
+        fromX = Math.max(fromX, 0);
+        fromY = Math.max(fromY, 0);
+        toX = Math.min(toX, mapWidth);
+        toY = Math.min(toY, mapHeight);
+        for(int y = fromY; y < toY; y++) {
+            for(int x = fromX; x < toX; x++) {
                 mapObjects[x][y].paint(g);
             }
         }
-        pacman.paint(g);
+        if(isInside(pacman.getPosition(), fromX, fromY, toX, toY)) {
+            pacman.paint(g);
+        }
         for(Ghost ghost : ghosts) {
-            ghost.paint(g);
+            if(isInside(ghost.getPosition(), fromX, fromY, toX, toY)) {
+                ghost.paint(g);
+            }
         }
     }
 
+    /**
+     * Tests if a position is inside a rectangle of cells.
+     *
+     * @param position The position to test.
+     * @param fromX First column of the rectangle.
+     * @param fromY First row of the rectangle.
+     * @param toX Column after the last of the rectangle.
+     * @param toY Row after the last of the rectangle.
+     * @return True if the position is inside the rectangle.
+     */
+    private static boolean isInside(Position position, int fromX, int fromY, int toX, int toY) {
+        return position.x >= fromX && position.y >= fromY && position.x < toX && position.y < toY;
+    }
+
     /**
      * Resets everything to do with the map and reloads using loadMap().
      */
     public void restart() {
+        MapLoadEvent event = new MapLoadEvent();
+        event.begin();
+        event.restart = mapObjects != null;
         ghosts = new ArrayList<>();
         cherries = new ArrayList<>();
+        actorStore.clear();
         loadMap();
         collected = 0;
         score = 0;
         mapState = MapState.Running;
+        zobristHash.recompute(this);
+        if(event.shouldCommit()) {
+            event.sharedNavMap = navigation == sharedNavigation;
+            event.width = mapWidth;
+            event.height = mapHeight;
+            event.commit();
+        }
+    }
+
+    /**
+     * Pages the world in around the actors and moves the window once Pacman nears its edge.
+     * If the world can not be read the game carries on in the current window without paging.
+     */
+    private void pageWorld() {
+        try {
+            world.page(pacman, ghosts);
+            if(world.shouldMove(pacman.getPosition())) moveWorldWindow();
+        } catch (IOException e) {
+            System.out.println("Failed to page the world, staying in the current window: " + e.getMessage());
+            world = null;
+        }
+    }
+
+    /**
+     * Moves the window to centre Pacman and replaces the grid with the cells now in it. What was
+     * collected is written to the world first, every actor keeps its world cell, and the navigation
+     * is made again with the world's restrictions. Each ghost's start cell moves to the ghost cell
+     * in the new window nearest its old start, or the open cell nearest its old start if the window
+     * has none, in which case the eyes of eaten ghosts go back to those cells.
+     *
+     * @throws IOException If the world file can not be mapped.
+     */
+    private void moveWorldWindow() throws IOException {
+        world.writeCollected(stateObjects);
+        Position offset = world.centreOn(pacman.getPosition());
+        String[] mapData = world.readCells(false);
+        cherries = new ArrayList<>();
+        populateMap(mapData);
+        pacman.moveToNewGrid(offset.x, offset.y);
+
+        // The ghost cells found by populateMap()
+        List<Position> houseCells = new ArrayList<>(ghostStarts);
+        for(Ghost ghost : ghosts) {
+            Position oldStart = ghost.getDefaultPosition();
+            Position start = findNearest(houseCells, Math.max(1, Math.min(mapWidth - 2, oldStart.x + offset.x)),
+                    Math.max(1, Math.min(mapHeight - 2, oldStart.y + offset.y)));
+            ghost.moveToNewGrid(offset.x, offset.y, start);
+            if(houseCells.isEmpty()) ghostStarts.add(start);
+        }
+        // The release lists are kept, since collected counts everything collected since the start
+        buildWorldNavigation();
+        zobristHash.recompute(this);
+    }
+
+    /**
+     * Finds the cell nearest a point from a list, or the open cell nearest it when the list is empty.
+     *
+     * @param cells The cells to choose between.
+     * @param x Column of the point.
+     * @param y Row of the point.
+     * @return The nearest cell.
+     */
+    private Position findNearest(List<Position> cells, int x, int y) {
+        Position nearest = null;
+        int nearestDistance = Integer.MAX_VALUE;
+        for(Position cell : cells) {
+            int distance = Math.abs(cell.x - x) + Math.abs(cell.y - y);
+            if(distance < nearestDistance) {
+                nearest = cell;
+                nearestDistance = distance;
+            }
+        }
+        if(nearest != null) return nearest;
+        // Search out one square ring at a time, inside the edge where ghosts can move
+        for(int ring = 0; ring < Math.max(mapWidth, mapHeight); ring++) {
+            for(int cellX = x - ring; cellX <= x + ring; cellX++) {
+                for(int cellY = y - ring; cellY <= y + ring; cellY++) {
+                    if(Math.max(Math.abs(cellX - x), Math.abs(cellY - y)) != ring) continue;
+                    if(cellX < 1 || cellY < 1 || cellX >= mapWidth - 1 || cellY >= mapHeight - 1) continue;
+                    if(mapObjects[cellX][cellY].enterType == MapObject.EnterType.Everyone) return new Position(cellX, cellY);
+                }
+            }
+        }
+        return new Position(pacman.getPosition());
+    }
+
+    /**
+     * Writes everything collected in the window back to the world and forces the world to disk.
+     * Does nothing for maps loaded from a map file.
+     */
+    public void saveWorld() {
+        if(world == null) return;
+        try {
+            world.writeCollected(stateObjects);
+            world.flush();
+        } catch (IOException e) {
+            System.out.println("Failed to save the world: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tests if the map is a window onto a world rather than loaded from a map file.
+     *
+     * @return True if the grid shows part of a world.
+     */
+    public boolean isWorld() {
+        return world != null;
+    }
+
+    /**
+     * Turns timing of each ghost's move decisions on or off.
+     *
+     * @param enabled True to time each ghost on every update.
+     */
+    public void setGhostTiming(boolean enabled) {
+        ghostUpdateNanos = enabled ? new long[ghosts.size()] : null;
+    }
+
+    /**
+     * Gets the time each ghost's latest move decision took, indexed by ghost number.
+     *
+     * @return Times in nanoseconds, or null if timing is off.
+     */
+    public long[] getGhostUpdateNanos() {
+        return ghostUpdateNanos;
+    }
+
+    /**
+     * Gets the trace of recent ghost AI decisions.
+     *
+     * @return The trace, or null if AITrace.ENABLED is false.
+     */
+    public AITrace getAITrace() {
+        return aiTrace;
+    }
+
+    /**
+     * Gets the arrays holding the cells, facings, states and timers of Pacman and the ghosts.
+     *
+     * @return The actor store of this map.
+     */
+    public ActorStore getActorStore() {
+        return actorStore;
     }
 
     /**
@@ -150,6 +514,7 @@ public class Map {
      * @return True if the object entering the position is allowed to move there.
      */
     public boolean canEnter(Position positionToEnter, MapObject objectEntering, boolean checkGhostCollisions) {
+        EngineMetrics.countCanEnter();
         // Test position is in the map bounds
         if(positionToEnter.x < 0 || positionToEnter.y < 0
                 || positionToEnter.x >= mapWidth || positionToEnter.y >= mapHeight)
@@ -157,10 +522,9 @@ public class Map {
 
         // Test if there is a Ghost already in that position
         if(checkGhostCollisions) {
-            for(Ghost ghost : ghosts) {
-                if(!ghost.equals(objectEntering) && ghost.position.equals(positionToEnter))
-                    return false;
-            }
+            int ignoreActor = objectEntering instanceof Ghost ? ((Ghost)objectEntering).getActorIndex() : -1;
+            if(actorStore.hasOtherGhostAt(positionToEnter.x, positionToEnter.y, ignoreActor))
+                return false;
         }
 
         // Test the entry requirements of the cell
@@ -187,13 +551,16 @@ public class Map {
     public void increaseCollected() {
         collected++;
         score++;
-        if(collected == 1) ghosts.get(2).setState(Ghost.GhostState.Scatter);
-        else if(collected == 30) ghosts.get(1).setState(Ghost.GhostState.Scatter);
-        else if(collected == totalCollectibles/3) ghosts.get(3).setState(Ghost.GhostState.Scatter);
+        if(collected < firstReleasedAt.length) {
+            for(int ghost = firstReleasedAt[collected]; ghost != -1; ghost = nextReleasedWith[ghost]) {
+                ghosts.get(ghost).setState(Ghost.GhostState.Scatter);
+            }
+        }
 
-        if(collected == 70) cherries.get(0).reveal();
-        else if(collected == 170) cherries.get(1).reveal();
-        else if(collected == totalCollectibles) mapState = MapState.GameWon;
+        // A window onto a world may hold fewer cherries, and a world is never finished
+        if(collected == 70 && cherries.size() > 0) cherries.get(0).reveal();
+        else if(collected == 170 && cherries.size() > 1) cherries.get(1).reveal();
+        else if(collected == totalCollectibles && world == null) mapState = MapState.GameWon;
         //System.out.println("Collected " + collected + " of " + totalCollectibles);
     }
 
@@ -225,6 +592,53 @@ public class Map {
         return score;
     }
 
+    /**
+     * Gets the hash that is kept up to date with the state of the map.
+     *
+     * @return The Zobrist hash of the map.
+     */
+    public ZobristHash getZobristHash() {
+        return zobristHash;
+    }
+
+    /**
+     * Gets the number of collectibles collected so far.
+     *
+     * @return The number collected.
+     */
+    public int getCollected() {
+        return collected;
+    }
+
+    /**
+     * Gets the number of columns of the map, including the column of ; that ends each line of the map file.
+     *
+     * @return The width of the map in cells.
+     */
+    public int getMapWidth() {
+        return mapWidth;
+    }
+
+    /**
+     * Gets the number of rows of the map.
+     *
+     * @return The height of the map in cells.
+     */
+    public int getMapHeight() {
+        return mapHeight;
+    }
+
+    /**
+     * Gets the version of the layout of the grid, which changes whenever objects in the grid are
+     * replaced by a restart or a reload. Anything caching the objects or their positions should
+     * rebuild its cache when this changes.
+     *
+     * @return The layout version.
+     */
+    public int getLayoutVersion() {
+        return layoutVersion;
+    }
+
     /**
      * Gets the map with all objects excluding ghosts and Pacman.
      *
@@ -234,6 +648,24 @@ public class Map {
         return mapObjects;
     }
 
+    /**
+     * Gets the grid of AI Nodes used to move the ghosts around this map.
+     *
+     * @return The navMap for this map.
+     */
+    public AINode[][] getNavMap() {
+        return navigation.getNavMap();
+    }
+
+    /**
+     * Gets the navMap and everything worked out from it, which may be shared with other maps.
+     *
+     * @return The navigation for this map.
+     */
+    public Navigation getNavigation() {
+        return navigation;
+    }
+
     /**
      * Gets the current map state. Indicates if the game is Running, GameWon, or GameOver.
      *
@@ -254,6 +686,85 @@ public class Map {
         return ghosts.get(ghostID);
     }
 
+    /**
+     * Gets the number of ghosts that were loaded with the map.
+     *
+     * @return The number of ghosts on the map.
+     */
+    public int getGhostCount() {
+        return ghosts.size();
+    }
+
+    /**
+     * Gets the number of collectibles that need to be collected to win.
+     *
+     * @return The total number of collectibles on the map.
+     */
+    public int getTotalCollectibles() {
+        return totalCollectibles;
+    }
+
+    /**
+     * Gets the number of ints needed to save the state of the map with saveState().
+     *
+     * @return The size of the array needed.
+     */
+    public int getStateSize() {
+        int size = 5 + pacman.getStateSize();
+        for(Ghost ghost : ghosts) {
+            size += ghost.getStateSize();
+        }
+        for(MapObject stateObject : stateObjects) {
+            size += stateObject.getStateSize();
+        }
+        return size;
+    }
+
+    /**
+     * Writes everything that changes during a game into an array so the game can be
+     * returned to this point with restoreState(). Nothing is allocated, so this is cheap
+     * enough to call every update.
+     *
+     * @param state Array of at least getStateSize() ints to write into.
+     * @return The number of ints written.
+     */
+    public int saveState(int[] state) {
+        long hash = zobristHash.getValue();
+        state[0] = score;
+        state[1] = collected;
+        state[2] = mapState.ordinal();
+        state[3] = (int)(hash >>> 32);
+        state[4] = (int)hash;
+        int offset = pacman.saveState(state, 5);
+        for(Ghost ghost : ghosts) {
+            offset = ghost.saveState(state, offset);
+        }
+        for(MapObject stateObject : stateObjects) {
+            offset = stateObject.saveState(state, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the game to the point saveState() was called. The map must not have been
+     * restarted or reloaded since then.
+     *
+     * @param state The array written by saveState().
+     */
+    public void restoreState(int[] state) {
+        score = state[0];
+        collected = state[1];
+        mapState = MapState.values()[state[2]];
+        zobristHash.setValue(((long)state[3] << 32) | (state[4] & 0xFFFFFFFFL));
+        int offset = pacman.restoreState(state, 5);
+        for(Ghost ghost : ghosts) {
+            offset = ghost.restoreState(state, offset);
+        }
+        for(MapObject stateObject : stateObjects) {
+            offset = stateObject.restoreState(state, offset);
+        }
+    }
+
     /**
      * Populates all cells of the map by iterating through char data and mapping it to cells.
      *
@@ -264,17 +775,24 @@ public class Map {
         mapWidth = mapData[0].length();
         mapHeight = mapData.length;
         mapObjects = new MapObject[mapWidth][mapHeight];
+        layoutVersion++;
+        stateObjects = new ArrayList<>();
+        ghostStarts = new ArrayList<>();
+        ghostConfigs = new ArrayList<>();
+        otherGhostsConfig = null;
+        actorStore.setGridSize(mapWidth, mapHeight);
         for(int y = 0; y < mapHeight; y++) {
             for(int x = 0; x < mapWidth; x++) {
                 mapObjects[x][y] = createObjectFromChar(mapData[y].charAt(x),new Position(x,y));
+                if(mapObjects[x][y].getStateSize() > 0) stateObjects.add(mapObjects[x][y]);
             }
         }
     }
 
     /**
      * Acts as an object factory. Returns either a special object or an empty map object.
-     * Some objects require an additional object to be created. Ghosts are stored in the ghosts array,
-     * and then an empty object is placed on the map. Same for Pacman with it instead stored in the
+     * Some objects require an additional object to be created. Ghost cells are stored in ghostStarts
+     * to create the ghosts from once their configs are known, and then an empty object is placed on the map. Same for Pacman with it instead stored in the
      * Pacman variable.
      *
      * @param c The character to indicate what should be created at this position.
@@ -286,13 +804,16 @@ public class Map {
         Position p = new Position(position);
         switch(c) {
             case 'W': return new WallObject(p);
-            case '.': totalCollectibles++; return new CollectableObject(p);
-            case '*': return new PowerupObject(p);
+            // The ; ending each line is past the drawn edge, and a Pacman leaving the left teleport
+            // could walk into that column where no ghost can follow
+            case ';': return new WallObject(p);
+            case '.': totalCollectibles++; return new CollectableObject(p, this);
+            case '*': return new PowerupObject(p, this);
             case 'D': return new DoorObject(p);
             case 'T': return new TeleportObject(p,new Position(p.x==0?mapWidth-2:1,p.y),p.x==0?2:0);
-            case 'G': ghosts.add(new Ghost(p, ghosts.size())); break;
+            case 'G': ghostStarts.add(p); break;
             case 'P': pacman = new Pacman(p, this); break;
-            case 'C' : CherryObject cherry = new CherryObject(p);
+            case 'C' : CherryObject cherry = new CherryObject(p, this);
                         cherries.add(cherry); return cherry;
         }
         // Default to an empty object if it was none of the others
@@ -300,25 +821,67 @@ public class Map {
     }
 
     /**
-     * Attempt to load the map. First by loading from default.map.
+     * Attempt to load the map. First by loading from MAP_FILE.
      * If that fails, instead try to load from the data stored in an already existing array.
      */
     private void loadMap() {
-        boolean success = loadFromFile("default.map");
+        loadedMapData = null;
+        boolean success = world != null ? loadFromWorld() : loadFromFile(MAP_FILE);
         if(!success) {
-            System.out.println("Failed to load from default.map.");
+            System.out.println("Failed to load from " + (world != null ? "the world" : MAP_FILE) + ".");
+            world = null;
             System.out.println("Loading from backup data instead.");
             loadFromArray();
         }
     }
 
     /**
-     * Loads from the already existing array and then sets up the GhostAI navMap.
+     * Loads from the already existing array and then sets up the navMap.
      */
     private void loadFromArray() {
         populateMap(defaultMap);
-        GhostAI.generateNavMap();
-        GhostAI.applyNavMapRestrictions();
+        createGhosts();
+        if(useSharedNavigation()) return;
+        AINode[][] navMap = GhostAI.generateNavMap(mapObjects);
+        GhostAI.applyNavMapRestrictions(navMap);
+        navigation = new Navigation(navMap, mapObjects, ghostStarts, pacman.getDefaultPosition());
+    }
+
+    /**
+     * Loads the window onto the world around Pacman's start. Anything collected before a restart
+     * is written to the world first, so it stays collected. The world has a ghost house in every
+     * tile, so ghosts are only created in the WorldWindow.MAX_GHOSTS ghost cells nearest Pacman.
+     *
+     * @return True if the world was read.
+     */
+    private boolean loadFromWorld() {
+        try {
+            if(stateObjects != null) world.writeCollected(stateObjects);
+            world.centreOnStart();
+            populateMap(world.readCells(true));
+        } catch (IOException e) {
+            System.out.println("Failed to read the world: " + e.getMessage());
+            return false;
+        }
+        Position start = pacman.getPosition();
+        ghostStarts.sort((a, b) -> Integer.compare(Math.abs(a.x - start.x) + Math.abs(a.y - start.y),
+                Math.abs(b.x - start.x) + Math.abs(b.y - start.y)));
+        if(ghostStarts.size() > WorldWindow.MAX_GHOSTS) ghostStarts = new ArrayList<>(ghostStarts.subList(0, WorldWindow.MAX_GHOSTS));
+        createGhosts();
+        buildWorldNavigation();
+        return true;
+    }
+
+    /**
+     * Makes the navigation for the cells in the window of the world, with the world's navMap
+     * restrictions moved to the window's cells.
+     */
+    private void buildWorldNavigation() {
+        AINode[][] navMap = GhostAI.generateNavMap(mapObjects);
+        for(int[] restriction : world.getRestrictions()) {
+            GhostAI.applyNavMapRestriction(navMap, restriction[0], restriction[1], restriction[2]);
+        }
+        navigation = new Navigation(navMap, mapObjects, ghostStarts, pacman.getDefaultPosition());
     }
 
     /**
@@ -327,28 +890,86 @@ public class Map {
      * Then lines with correct lengths to match the width and height representing chars
      * for the map data with a ; at the end of each line.
      * Then in groups of 3 int values there can be any number of additional navMap restrictions specified.
-     * With X Y Direction. Invalid restriction data will make it ignore any further input from the file,
+     * With X Y Direction. Invalid restriction data will make it ignore any further restrictions,
      * and it will appear to load successfully.
+     * Then any number of ghost lines as described in GhostConfig, with GHOST number name colour chase scatter release.
      *
      * @param filename The file containing the map to load.
      * @return True if the file was loaded successfully.
      */
     private boolean loadFromFile(String filename) {
-        Scanner scan;
+        Scanner scan = openMapFile(filename);
+        if(scan == null) return false;
+        String[] mapData = readMapData(scan);
+        if(mapData == null) return false;
+
+        populateMap(mapData);
+        // The restrictions are still read past when sharing so the ghost lines can be found
+        boolean shared = useSharedNavigation();
+        AINode[][] navMap = shared ? null : GhostAI.generateNavMap(mapObjects);
+        // Apply navMap restrictions with X Y Direction
+        List<int[]> restrictions = readRestrictions(scan);
+        if(!shared) {
+            for(int[] restriction : restrictions) {
+                GhostAI.applyNavMapRestriction(navMap, restriction[0], restriction[1], restriction[2]);
+            }
+        }
+        String ghostLines = readRemaining(scan);
+        loadedMapData = mapData;
+        loadedRestrictions = restrictions;
+        loadedGhostLines = ghostLines;
+        scan = new Scanner(ghostLines);
+        // Read ghost configs with GHOST number name colour chase scatter release
+        while(scan.hasNext(GhostConfig.KEYWORD)) {
+            scan.next();
+            String number = scan.next();
+            GhostConfig config = GhostConfig.parse(scan.nextLine().trim().split("\\s+"));
+            if(config == null) continue;
+            if(number.equals("*")) {
+                otherGhostsConfig = config;
+            } else if(number.matches("\\d{1,9}") && Integer.parseInt(number) < ghostStarts.size()) {
+                int ghostNumber = Integer.parseInt(number);
+                while(ghostConfigs.size() <= ghostNumber) ghostConfigs.add(null);
+                ghostConfigs.set(ghostNumber, config);
+            } else {
+                System.out.println("Ignoring config for ghost " + number + ", the map has " + ghostStarts.size() + " ghosts.");
+            }
+        }
+        createGhosts();
+        if(!shared) navigation = new Navigation(navMap, mapObjects, ghostStarts, pacman.getDefaultPosition());
+        return true;
+    }
+
+    /**
+     * Opens a map file for reading.
+     *
+     * @param filename The file to open.
+     * @return A scanner over the file, or null if the file was not found.
+     */
+    private Scanner openMapFile(String filename) {
         try {
-            scan = new Scanner(new File(filename));
+            return new Scanner(new File(filename));
         } catch (FileNotFoundException e) {
             exitFileLoadError("ERROR MAP FILE NOT FOUND!");
-            return false;
+            return null;
         }
+    }
+
+    /**
+     * Reads the width and height and then the lines of cells from a map file.
+     *
+     * @param scan The scanner at the start of the file.
+     * @return The lines of cells including the ; ending each, or null if the format does not match.
+     */
+    private String[] readMapData(Scanner scan) {
         if(!scan.hasNextInt()) {
             exitFileLoadError("ERROR INVALID FORMAT! Invalid Width!");
-            return false;
+            return null;
         }
         int width = scan.nextInt();
         if(!scan.hasNextInt()) {
             exitFileLoadError("ERROR INVALID FORMAT! Invalid Height!");
-            return false;
+            return null;
         }
         int height = scan.nextInt();
         scan.nextLine(); // Dump rest of line
@@ -358,29 +979,234 @@ public class Map {
         for(int y = 0; y < height; y++) {
             if(!scan.hasNextLine()) {
                 exitFileLoadError("ERROR INVALID FORMAT! Missing lines of map.");
-                return false;
+                return null;
             }
             mapData[y] = scan.nextLine();
             // The +1 is to include the ; at the end of the line.
             // The reason for this is to preserve empty spaces
             if(mapData[y].length() != width+1) {
                 exitFileLoadError("ERROR INVALID FORMAT! Map line " + y + " not right size.");
-                return false;
+                return null;
             }
         }
+        return mapData;
+    }
 
-        populateMap(mapData);
-
-        GhostAI.generateNavMap();
-        // Apply navMap restrictions with X Y Direction
+    /**
+     * Reads the navMap restrictions that follow the lines of cells in a map file.
+     *
+     * @param scan The scanner after the lines of cells.
+     * @return Each restriction as X, Y and the direction that can not be moved in.
+     */
+    private List<int[]> readRestrictions(Scanner scan) {
+        List<int[]> restrictions = new ArrayList<>();
         while(scan.hasNextInt()) {
             int x = scan.nextInt();
             if(!scan.hasNextInt()) break;
             int y = scan.nextInt();
             if(!scan.hasNextInt()) break;
             int d = scan.nextInt();
-            GhostAI.applyNavMapRestriction(x,y,d);
+            restrictions.add(new int[] {x, y, d});
+        }
+        return restrictions;
+    }
+
+    /**
+     * Reads the rest of a map file, which holds the ghost configs.
+     *
+     * @param scan The scanner after the restrictions.
+     * @return The remaining lines joined with new lines.
+     */
+    private String readRemaining(Scanner scan) {
+        StringBuilder remaining = new StringBuilder();
+        while(scan.hasNextLine()) {
+            remaining.append(scan.nextLine()).append('\n');
+        }
+        return remaining.toString();
+    }
+
+    /**
+     * Reads the map file again after it has been edited and applies the changes to the running game.
+     * When only cells have changed, other than the ghost, Pacman and cherry cells, and the navMap
+     * restrictions, just the changed cells are replaced. The AINodes next to them are updated, along
+     * with anything worked out from the navMap, and everything else about the game is kept,
+     * including what has been collected and where the actors are. Any other change restarts the map.
+     * A file that can not be read leaves the game as it is.
+     *
+     * @return True if the map file was read and applied.
+     */
+    public boolean reloadFromFile() {
+        // Maps from the backup data or sharing another map's navigation can not be changed in place
+        if(loadedMapData == null || navigation == sharedNavigation) {
+            restart();
+            return true;
+        }
+        Scanner scan = openMapFile(MAP_FILE);
+        if(scan == null) return false;
+        String[] mapData = readMapData(scan);
+        if(mapData == null) {
+            System.out.println("Keeping the current map until " + MAP_FILE + " is valid.");
+            return false;
+        }
+        List<int[]> restrictions = readRestrictions(scan);
+        String ghostLines = readRemaining(scan);
+        if(mapData.length != mapHeight || mapData[0].length() != mapWidth
+                || !ghostLines.equals(loadedGhostLines) || haveSpawnsChanged(mapData)) {
+            System.out.println("The size, spawns or ghost configs of " + MAP_FILE + " changed, restarting.");
+            restart();
+            return true;
+        }
+
+        // Replace the changed cells and mark every node that can move into them
+        boolean[] refresh = new boolean[mapWidth * mapHeight];
+        List<Position> changedCells = new ArrayList<>();
+        for(int y = 0; y < mapHeight; y++) {
+            for(int x = 0; x < mapWidth; x++) {
+                if(mapData[y].charAt(x) == loadedMapData[y].charAt(x)) continue;
+                replaceObject(x, y, mapData[y].charAt(x));
+                changedCells.add(new Position(x, y));
+                markForRefresh(refresh, x, y);
+                for(int d = 0; d < 4; d++) {
+                    Position neighbour = GhostAI.getOffsetFromFacing(new Position(x, y), d, 1);
+                    markForRefresh(refresh, neighbour.x, neighbour.y);
+                }
+            }
+        }
+        // Nodes with a restriction added or removed
+        for(int[] restriction : loadedRestrictions) markForRefresh(refresh, restriction[0], restriction[1]);
+        for(int[] restriction : restrictions) markForRefresh(refresh, restriction[0], restriction[1]);
+
+        AINode[][] navMap = navigation.getNavMap();
+        List<Position> changedNodes = new ArrayList<>();
+        for(int x = 1; x < mapWidth - 1; x++) {
+            for(int y = 1; y < mapHeight - 1; y++) {
+                if(!refresh[x * mapHeight + y]) continue;
+                navMap[x][y].refresh(mapObjects);
+                changedNodes.add(new Position(x, y));
+            }
+        }
+        for(int[] restriction : restrictions) {
+            if(refresh[restriction[0] * mapHeight + restriction[1]])
+                GhostAI.applyNavMapRestriction(navMap, restriction[0], restriction[1], restriction[2]);
+        }
+        loadedMapData = mapData;
+        loadedRestrictions = restrictions;
+        if(changedCells.isEmpty() && changedNodes.isEmpty()) return true;
+        layoutVersion++;
+
+        stateObjects = new ArrayList<>();
+        for(int y = 0; y < mapHeight; y++) {
+            for(int x = 0; x < mapWidth; x++) {
+                if(mapObjects[x][y].getStateSize() > 0) stateObjects.add(mapObjects[x][y]);
+            }
+        }
+        navigation = navigation.afterReload(mapObjects, ghostStarts, pacman.getDefaultPosition(), changedNodes, changedCells);
+        // The release points are fractions of the collectibles, which may have changed
+        buildReleaseLists();
+        for(int i = 0; i < ghosts.size(); i++) {
+            Ghost ghost = ghosts.get(i);
+            if(ghost.getGhostState() == Ghost.GhostState.Inactive && !ghost.getConfig().isActiveAtStart()
+                    && ghost.getConfig().getReleaseAt(totalCollectibles) <= collected) {
+                ghost.setState(Ghost.GhostState.Scatter);
+            }
+        }
+        if(mapState == MapState.Running && collected >= totalCollectibles) {
+            mapState = MapState.GameWon;
+        }
+        zobristHash.recompute(this);
+        System.out.println("Reloaded " + MAP_FILE + ": " + changedCells.size() + " cells and "
+                + changedNodes.size() + " AINodes changed.");
+        return true;
+    }
+
+    /**
+     * Tests if any ghost, Pacman or cherry cell differs between the loaded map and new lines of cells.
+     * These create objects that can not be replaced while the game is running.
+     *
+     * @param mapData The new lines of cells.
+     * @return True if a spawn or cherry was added, moved or removed.
+     */
+    private boolean haveSpawnsChanged(String[] mapData) {
+        for(int y = 0; y < mapHeight; y++) {
+            for(int x = 0; x < mapWidth; x++) {
+                char oldCell = loadedMapData[y].charAt(x), newCell = mapData[y].charAt(x);
+                if(oldCell == newCell) continue;
+                if("GPC".indexOf(oldCell) != -1 || "GPC".indexOf(newCell) != -1) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the object in a cell with a new one, keeping the collectible count up to date.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @param c The character of the new object.
+     */
+    private void replaceObject(int x, int y, char c) {
+        MapObject old = mapObjects[x][y];
+        if(old instanceof CollectableObject) {
+            totalCollectibles--;
+            if(((CollectableObject)old).isCollected()) collected--;
         }
+        // createObjectFromChar() counts the new object if it is a collectible
+        mapObjects[x][y] = createObjectFromChar(c, new Position(x, y));
+    }
+
+    /**
+     * Marks a cell's AINode to be updated if the cell has one.
+     *
+     * @param refresh The marks indexed by x * mapHeight + y.
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     */
+    private void markForRefresh(boolean[] refresh, int x, int y) {
+        if(x < 1 || y < 1 || x >= mapWidth - 1 || y >= mapHeight - 1) return;
+        refresh[x * mapHeight + y] = true;
+    }
+
+    /**
+     * Creates a ghost in each cell found while populating the map, using its config from the
+     * map file or the default, and builds the lists of ghosts released at each number collected.
+     */
+    private void createGhosts() {
+        for(int i = 0; i < ghostStarts.size(); i++) {
+            GhostConfig config = i < ghostConfigs.size() ? ghostConfigs.get(i) : null;
+            if(config == null) config = otherGhostsConfig != null ? otherGhostsConfig : GhostConfig.getDefault(i);
+            ghosts.add(new Ghost(ghostStarts.get(i), i, config, this));
+        }
+        buildReleaseLists();
+    }
+
+    /**
+     * Builds the lists of ghosts released at each number collected from the total number of collectibles.
+     */
+    private void buildReleaseLists() {
+        firstReleasedAt = new int[totalCollectibles + 1];
+        Arrays.fill(firstReleasedAt, -1);
+        nextReleasedWith = new int[ghosts.size()];
+        // Built in reverse so each list is in ghost order
+        for(int i = ghosts.size() - 1; i >= 0; i--) {
+            nextReleasedWith[i] = -1;
+            if(ghosts.get(i).getConfig().isActiveAtStart()) continue;
+            int releaseAt = ghosts.get(i).getConfig().getReleaseAt(totalCollectibles);
+            if(releaseAt >= firstReleasedAt.length) continue;
+            nextReleasedWith[i] = firstReleasedAt[releaseAt];
+            firstReleasedAt[releaseAt] = i;
+        }
+    }
+
+    /**
+     * Uses the shared navigation if there is one and it matches the size of the loaded map.
+     *
+     * @return True if the shared navigation is now being used.
+     */
+    private boolean useSharedNavigation() {
+        if(sharedNavigation == null) return false;
+        AINode[][] sharedNavMap = sharedNavigation.getNavMap();
+        if(sharedNavMap.length != mapWidth || sharedNavMap[0].length != mapHeight) return false;
+        navigation = sharedNavigation;
         return true;
     }
 
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * MapFileWatcher class:
+ * Watches the map file for changes on a background thread so the game can reload it while running.
+ * The change is only reported to the game thread through pollChanged(), so the map is never changed
+ * while it is being updated. Editors often write a file in several steps, so a change is only
+ * reported once the file has been left alone for a short time.
+ */
+public class MapFileWatcher {
+    /**
+     * Time in milliseconds the file must go without changing before the change is reported.
+     */
+    private static final long SETTLE_TIME = 200;
+
+    /**
+     * The service the directory of the file is registered with.
+     */
+    private final WatchService watchService;
+    /**
+     * Name of the watched file within its directory.
+     */
+    private final Path fileName;
+    /**
+     * Time in milliseconds of the last change seen to the file, or 0 if none since the last poll.
+     */
+    private volatile long lastChange;
+
+    /**
+     * Starts watching a file.
+     *
+     * @param file The file to watch.
+     * @throws IOException If the directory of the file can not be watched.
+     */
+    public MapFileWatcher(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        fileName = file.getFileName();
+        watchService = FileSystems.getDefault().newWatchService();
+        // Editors that save by replacing the file create it rather than modifying it
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::watch, "Map file watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Tests if the file has changed since the last time this returned true and has since settled.
+     * Called by the game thread each update.
+     *
+     * @return True if the file should be reloaded.
+     */
+    public boolean pollChanged() {
+        long changed = lastChange;
+        if(changed == 0 || System.currentTimeMillis() - changed < SETTLE_TIME) return false;
+        lastChange = 0;
+        return true;
+    }
+
+    /**
+     * Stops watching the file.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("Failed to stop watching " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for changes to the directory and records the time of any to the watched file until closed.
+     */
+    private void watch() {
+        try {
+            while(true) {
+                WatchKey key = watchService.take();
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if(fileName.equals(event.context())) {
+                        lastChange = System.currentTimeMillis();
+                    }
+                }
+                if(!key.reset()) {
+                    System.out.println("Stopped watching " + fileName + ", its directory can no longer be watched.");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped by close()
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * MapLoadEvent class:
+ * Flight Recorder event covering a Map being loaded or restarted.
+ */
+@Name("pacman.MapLoad")
+@Label("Map Load")
+@Category({"Pacman", "Map"})
+@Description("A map being loaded or restarted")
+@StackTrace(false)
+public class MapLoadEvent extends jdk.jfr.Event {
+    /**
+     * True if the map had been loaded before and is being restarted.
+     */
+    @Label("Restart")
+    public boolean restart;
+    /**
+     * True if the navMap was shared with another map rather than generated.
+     */
+    @Label("Shared Nav Map")
+    public boolean sharedNavMap;
+    /**
+     * Number of grid cells horizontally.
+     */
+    @Label("Width")
+    public int width;
+    /**
+     * Number of grid cells vertically.
+     */
+    @Label("Height")
+    public int height;
+}
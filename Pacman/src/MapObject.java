@@ -67,6 +67,15 @@ public class MapObject {
         return position;
     }
 
+    /**
+     * Gets the Position the object is placed at when it is reset.
+     *
+     * @return The default Position of the MapObject.
+     */
+    public Position getDefaultPosition() {
+        return defaultPosition;
+    }
+
     /**
      * Gets the object type of the MapObject.
      *
@@ -101,6 +110,38 @@ public class MapObject {
         // do nothing by default
     }
 
+    /**
+     * Gets the number of ints saveState() writes. Objects without any state that
+     * changes during a game return 0 and are not included in snapshots.
+     *
+     * @return The number of ints of state.
+     */
+    public int getStateSize() {
+        return 0;
+    }
+
+    /**
+     * Writes the state that changes during a game into an array. Overridden by objects with such state.
+     *
+     * @param state The array to write into.
+     * @param offset The index to start writing at.
+     * @return The index after the last int written.
+     */
+    public int saveState(int[] state, int offset) {
+        return offset;
+    }
+
+    /**
+     * Reads back the state written by saveState().
+     *
+     * @param state The array to read from.
+     * @param offset The index to start reading at.
+     * @return The index after the last int read.
+     */
+    public int restoreState(int[] state, int offset) {
+        return offset;
+    }
+
     /**
      * Empty method to allow MapObjects to be drawn that can be overridden
      * by inheriting objects as needed.
@@ -0,0 +1,419 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * MazeGenerator class:
+ * Generates Pacman mazes of any size in the map file format, for testing the engine on maps far
+ * larger than default.map. The corridors run between the cells with odd coordinates. The left half
+ * is carved with the sidewinder algorithm, which decides each row on its own so the rows are carved
+ * in parallel, and then mirrored onto the right half. Every dead end then has another wall opened
+ * so there are loops everywhere, deciding from a copy of the maze so the result does not depend
+ * on the order the rows run in. A ghost house with a door sits in the middle with a corridor around
+ * it, with teleport pairs on the sides, powerups in the corners and dots on every other open cell.
+ * The same size and seed always produce the same maze, and every open cell can reach every other.
+ * Load the result with the pacman.map system property.
+ */
+class MazeGenerator {
+    /**
+     * Smallest width and height that leave room for the ghost house and the maze around it.
+     */
+    public static final int MIN_SIZE = 21;
+
+    /**
+     * Characters of the map file format.
+     */
+    private static final byte WALL = 'W', OPEN = ' ', DOT = '.', POWERUP = '*', DOOR = 'D',
+            TELEPORT = 'T', GHOST = 'G', PACMAN = 'P', CHERRY = 'C';
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+    /**
+     * Mixed into the seed so each pass uses different random numbers for the same row.
+     */
+    private static final long CARVE_SALT = 0x5DEECE66DL, BRAID_SALT = 0xB5297A4DL, CENTRE_SALT = 0x68E31DA4L;
+    /**
+     * Number of cells for each extra pair of powerups on top of the four in the corners.
+     */
+    private static final int CELLS_PER_EXTRA_POWERUPS = 4096;
+    /**
+     * Rows of the map for each teleport pair.
+     */
+    private static final int ROWS_PER_TELEPORT = 40;
+
+    /**
+     * Number of cells horizontally. Always odd so the maze mirrors onto itself.
+     */
+    private final int width;
+    /**
+     * Number of cells vertically. Always odd.
+     */
+    private final int height;
+    /**
+     * The seed every random choice is made from.
+     */
+    private final long seed;
+    /**
+     * Number of ghosts to place.
+     */
+    private final int ghostCount;
+    /**
+     * The map file character of every cell, row by row so each row can be written as it is.
+     */
+    private final byte[] cells;
+    /**
+     * The navMap restrictions as X, Y and the direction that can not be moved in.
+     */
+    private final List<int[]> restrictions;
+    /**
+     * Column in the middle of the map that the maze mirrors across.
+     */
+    private final int centreX;
+    /**
+     * Bounds of the ghost house and the corridor around it. No dots are placed inside.
+     */
+    private int houseLeft, houseRight, houseTop, houseBottom;
+
+    /**
+     * Generates a maze and writes it to a file.
+     *
+     * @param args Width, height, optional seed (default 1), number of ghosts (default 4) and file (default generated.map).
+     */
+    public static void main(String[] args) {
+        if(args.length < 2) {
+            System.out.println("Usage: MazeGenerator width height [seed] [ghosts] [file]");
+            return;
+        }
+        int width = Integer.parseInt(args[0]);
+        int height = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        int ghosts = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        Path file = Paths.get(args.length > 4 ? args[4] : "generated.map");
+        long start = System.nanoTime();
+        MazeGenerator generator;
+        try {
+            generator = new MazeGenerator(width, height, seed, ghosts);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        long generated = System.nanoTime();
+        try {
+            generator.write(file);
+        } catch (IOException e) {
+            System.out.println("Failed to write " + file + ": " + e.getMessage());
+            return;
+        }
+        System.out.printf("Generated %dx%d maze in %.1f ms, written to %s in %.1f ms%n", generator.getWidth(), generator.getHeight(),
+                (generated - start) / 1e6, file, (System.nanoTime() - generated) / 1e6);
+    }
+
+    /**
+     * Generates a maze. Even sizes are reduced by one so the maze can mirror onto itself.
+     *
+     * @param width Number of cells horizontally, at least MIN_SIZE.
+     * @param height Number of cells vertically, at least MIN_SIZE.
+     * @param seed The seed for every random choice.
+     * @param ghostCount Number of ghosts, at least 1.
+     * @throws IllegalArgumentException If the size is too small or the ghost house does not fit.
+     */
+    public MazeGenerator(int width, int height, long seed, int ghostCount) {
+        if(width < MIN_SIZE || height < MIN_SIZE) {
+            throw new IllegalArgumentException("Mazes must be at least " + MIN_SIZE + "x" + MIN_SIZE + ".");
+        }
+        if(ghostCount < 1) throw new IllegalArgumentException("Mazes need at least one ghost.");
+        this.width = width % 2 == 0 ? width - 1 : width;
+        this.height = height % 2 == 0 ? height - 1 : height;
+        this.seed = seed;
+        this.ghostCount = ghostCount;
+        if((long)this.width * this.height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mazes can have at most " + Integer.MAX_VALUE + " cells.");
+        }
+        centreX = (this.width - 1) / 2;
+        cells = new byte[this.width * this.height];
+        restrictions = new ArrayList<>();
+        placeGhostHouse();
+        carveLeftHalf();
+        mirror();
+        removeDeadEnds();
+        buildGhostHouse();
+        placeTeleports();
+        placeCollectibles();
+    }
+
+    /**
+     * Gets the width of the maze, which may be one less than asked for.
+     *
+     * @return Number of cells horizontally.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the maze, which may be one less than asked for.
+     *
+     * @return Number of cells vertically.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the map file character of a cell.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return The character, such as 'W' for a wall.
+     */
+    public char getCell(int x, int y) {
+        return (char)cells[y * width + x];
+    }
+
+    /**
+     * Gets the navMap restrictions that stop ghosts going back into the house.
+     *
+     * @return Each restriction as X, Y and the direction that can not be moved in.
+     */
+    public List<int[]> getRestrictions() {
+        return restrictions;
+    }
+
+    /**
+     * Writes the maze in the map file format, followed by the navMap restrictions.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file can not be written.
+     */
+    public void write(Path file) throws IOException {
+        try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            out.write((width + " " + height + "\n").getBytes(StandardCharsets.US_ASCII));
+            byte[] lineEnd = ";\n".getBytes(StandardCharsets.US_ASCII);
+            for(int y = 0; y < height; y++) {
+                out.write(cells, y * width, width);
+                out.write(lineEnd);
+            }
+            for(int[] restriction : restrictions) {
+                out.write((restriction[0] + " " + restriction[1] + " " + restriction[2] + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    /**
+     * Works out where the ghost house goes, making it wide enough to hold every ghost but the first.
+     * The house and the corridor around it start and end on corridor rows and columns so the
+     * corridor joins the maze.
+     */
+    private void placeGhostHouse() {
+        // The house interior is three rows high and the corridor around it is one cell wide
+        int halfWidth = centreX % 2 == 0 ? 5 : 6;
+        while(3 * (2 * halfWidth - 3) < ghostCount - 1) halfWidth += 2;
+        houseLeft = centreX - halfWidth;
+        houseRight = centreX + halfWidth;
+        houseTop = (height - 1) / 2 - 3;
+        if(houseTop % 2 == 0) houseTop--;
+        houseBottom = houseTop + 6;
+        if(houseLeft < 1 || houseTop < 1 || houseBottom > height - 2) {
+            throw new IllegalArgumentException("A " + width + "x" + height + " maze is too small for " + ghostCount + " ghosts.");
+        }
+    }
+
+    /**
+     * Carves a perfect maze over the corridor cells of the left half, up to and including the
+     * middle column, with the sidewinder algorithm. Each row joins runs of cells going right and
+     * opens one cell of each run upward, so every row only writes to itself and the wall row
+     * above it and the rows can be carved in parallel.
+     */
+    private void carveLeftHalf() {
+        Arrays.fill(cells, WALL);
+        int lastColumn = centreX % 2 == 1 ? centreX : centreX - 1;
+        IntStream.range(0, (height - 1) / 2).parallel().forEach(row -> {
+            int y = row * 2 + 1;
+            SplittableRandom random = rowRandom(CARVE_SALT, row);
+            int runStart = 1;
+            for(int x = 1; x <= lastColumn; x += 2) {
+                set(x, y, OPEN);
+                boolean atEnd = x == lastColumn;
+                if(row == 0) {
+                    // The top row can not open upward so it is one long run
+                    if(!atEnd) set(x + 1, y, OPEN);
+                } else if(!atEnd && random.nextBoolean()) {
+                    set(x + 1, y, OPEN);
+                } else {
+                    int opened = runStart + random.nextInt((x - runStart) / 2 + 1) * 2;
+                    set(opened, y - 1, OPEN);
+                    runStart = x + 2;
+                }
+            }
+            // With an even middle column the halves are joined across it in some rows
+            if(centreX % 2 == 0 && (row == 0 || rowRandom(CENTRE_SALT, row).nextInt(3) == 0)) {
+                set(centreX, y, OPEN);
+            }
+        });
+    }
+
+    /**
+     * Copies the left half of every row onto the right half.
+     */
+    private void mirror() {
+        IntStream.range(0, height).parallel().forEach(y -> {
+            for(int x = 0; x < centreX; x++) {
+                cells[y * width + width - 1 - x] = cells[y * width + x];
+            }
+        });
+    }
+
+    /**
+     * Opens a wall next to every dead end in the left half and the matching wall in the right half,
+     * so the maze is full of loops like a Pacman maze. Dead ends are found in a copy of the maze
+     * taken first, so the walls opened do not depend on which rows run first, and the only change
+     * made is opening walls, so rows that open the same wall agree.
+     */
+    private void removeDeadEnds() {
+        byte[] before = cells.clone();
+        IntStream.range(0, (height - 1) / 2).parallel().forEach(row -> {
+            int y = row * 2 + 1;
+            SplittableRandom random = rowRandom(BRAID_SALT, row);
+            int[] closed = new int[4];
+            for(int x = 1; x <= centreX; x += 2) {
+                int open = 0, closedCount = 0;
+                for(int d = 0; d < 4; d++) {
+                    int nodeX = x + DX[d] * 2, nodeY = y + DY[d] * 2;
+                    if(nodeX < 1 || nodeY < 1 || nodeX > width - 2 || nodeY > height - 2) continue;
+                    if(before[(y + DY[d]) * width + x + DX[d]] == OPEN) open++;
+                    else closed[closedCount++] = d;
+                }
+                if(open != 1 || closedCount == 0) continue;
+                int d = closed[random.nextInt(closedCount)];
+                set(x + DX[d], y + DY[d], OPEN);
+                set(width - 1 - x - DX[d], y + DY[d], OPEN);
+            }
+        });
+    }
+
+    /**
+     * Clears the area of the ghost house, walls in the house leaving the corridor around it,
+     * and places the door, the ghosts, Pacman and the cherries. Clearing only opens cells, and the
+     * corridor joins every cell on the edge of the area, so the maze stays connected.
+     */
+    private void buildGhostHouse() {
+        for(int y = houseTop; y <= houseBottom; y++) {
+            for(int x = houseLeft; x <= houseRight; x++) {
+                boolean houseWall = x > houseLeft && x < houseRight && y > houseTop && y < houseBottom
+                        && (x == houseLeft + 1 || x == houseRight - 1 || y == houseTop + 1 || y == houseBottom - 1);
+                set(x, y, houseWall ? WALL : OPEN);
+            }
+        }
+        set(centreX, houseTop + 1, DOOR);
+        // Ghosts can leave through the door but only eaten ghosts can go back in
+        restrictions.add(new int[] {centreX, houseTop, 2});
+
+        // The first ghost waits outside the door like the red ghost, the rest fill the house from the middle out
+        set(centreX, houseTop, GHOST);
+        int placed = 1;
+        for(int offset = 0; placed < ghostCount; offset++) {
+            for(int y = houseTop + 2; y <= houseBottom - 2 && placed < ghostCount; y++) {
+                set(centreX - offset, y, GHOST);
+                placed++;
+                if(offset > 0 && placed < ghostCount) {
+                    set(centreX + offset, y, GHOST);
+                    placed++;
+                }
+            }
+        }
+        set(centreX, houseBottom, PACMAN);
+        // Map reveals the first two cherries as dots are collected
+        set(centreX - 2, houseBottom, CHERRY);
+        set(centreX + 2, houseBottom, CHERRY);
+    }
+
+    /**
+     * Puts teleport pairs on the left and right edges of evenly spaced corridor rows outside the house.
+     */
+    private void placeTeleports() {
+        int pairs = Math.max(1, height / ROWS_PER_TELEPORT);
+        for(int i = 1; i <= pairs; i++) {
+            int y = height * i / (pairs + 1);
+            if(y % 2 == 0) y--;
+            if(y >= houseTop && y <= houseBottom) y = houseBottom + 2 <= height - 2 ? houseBottom + 2 : houseTop - 2;
+            set(0, y, TELEPORT);
+            set(width - 1, y, TELEPORT);
+        }
+    }
+
+    /**
+     * Puts a dot on every open cell outside the ghost house area, then powerups in the four corners
+     * and in random mirrored pairs on larger maps.
+     */
+    private void placeCollectibles() {
+        IntStream.range(1, height - 1).parallel().forEach(y -> {
+            for(int x = 1; x < width - 1; x++) {
+                if(cells[y * width + x] == OPEN && !isInHouseArea(x, y)) cells[y * width + x] = DOT;
+            }
+        });
+        set(1, 1, POWERUP);
+        set(width - 2, 1, POWERUP);
+        set(1, height - 2, POWERUP);
+        set(width - 2, height - 2, POWERUP);
+        Random random = new Random(seed);
+        long extraPairs = (long)width * height / CELLS_PER_EXTRA_POWERUPS;
+        for(long i = 0; i < extraPairs; i++) {
+            int x = 1 + random.nextInt(centreX), y = 1 + random.nextInt(height - 2);
+            if(cells[y * width + x] != DOT) continue;
+            set(x, y, POWERUP);
+            set(width - 1 - x, y, POWERUP);
+        }
+    }
+
+    /**
+     * Tests if a cell is in the ghost house or the corridor around it.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @return True if the cell is in the house area.
+     */
+    private boolean isInHouseArea(int x, int y) {
+        return x >= houseLeft && x <= houseRight && y >= houseTop && y <= houseBottom;
+    }
+
+    /**
+     * Sets the character of a cell.
+     *
+     * @param x Column of the cell.
+     * @param y Row of the cell.
+     * @param cell The map file character.
+     */
+    private void set(int x, int y, byte cell) {
+        cells[y * width + x] = cell;
+    }
+
+    /**
+     * Creates the random numbers for one row of one pass, so rows can run in any order on any thread
+     * and still make the same choices.
+     *
+     * @param salt Value for the pass.
+     * @param row The row of corridor cells.
+     * @return A generator seeded from the seed, the pass and the row.
+     */
+    private SplittableRandom rowRandom(long salt, int row) {
+        return new SplittableRandom((seed ^ salt) + row * 0x9E3779B97F4A7C15L);
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * MoveTables class:
+ * Remembers the moves of behaviours that always head for the same cell, such as the scatter corners.
+ * A ghost that can not reverse and moves toward a fixed target chooses its move using only its cell
+ * and facing, so the whole choice can be worked out once for every cell and facing the first time the
+ * target is asked for. Every later decision is then a single lookup. If the moves of the navMap
+ * change afterward every table is dropped and made again when next used, so they can never give
+ * a move the navMap no longer allows.
+ */
+public class MoveTables {
+    /**
+     * Entry for a cell that is not in the table, either on the edge of the map or
+     * with a target outside the map. The move must be chosen without the table.
+     */
+    public static final int NOT_IN_TABLE = -1;
+
+    /**
+     * The navMap the tables are made from.
+     */
+    private final AINode[][] navMap;
+    /**
+     * Number of cells vertically.
+     */
+    private final int height;
+    /**
+     * The table for each target cell, indexed by x * height + y, or null if not made yet.
+     */
+    private final AtomicReferenceArray<byte[]> tables;
+    /**
+     * The nav version of the navMap the tables were made with.
+     */
+    private volatile int navVersion;
+
+    /**
+     * Creates an empty set of tables for a navMap.
+     *
+     * @param navMap The navMap the moves are chosen on.
+     */
+    public MoveTables(AINode[][] navMap) {
+        this.navMap = navMap;
+        height = navMap[0].length;
+        tables = new AtomicReferenceArray<>(navMap.length * height);
+        navVersion = AINode.getNavVersion(navMap);
+    }
+
+    /**
+     * Gets the move a ghost that can not reverse makes toward a target, making the table for
+     * the target if this is the first time it has been asked for.
+     *
+     * @param target The cell moved toward.
+     * @param position The cell the ghost is in.
+     * @param facing The ghost's facing. 0=Up, 1=Right, 2=Down, 3=Left
+     * @return The entry for the move, to be read with getDirection() and getCandidates(), or NOT_IN_TABLE.
+     */
+    public int getMove(Position target, Position position, int facing) {
+        if(!isInside(target) || !isInside(position)) return NOT_IN_TABLE;
+        int version = AINode.getNavVersion(navMap);
+        if(version != navVersion) {
+            for(int i = 0; i < tables.length(); i++) {
+                tables.set(i, null);
+            }
+            navVersion = version;
+        }
+        int targetCell = target.x * height + target.y;
+        byte[] table = tables.get(targetCell);
+        if(table == null) {
+            table = createTable(target);
+            tables.set(targetCell, table);
+        }
+        return table[(position.x * height + position.y) * 4 + facing];
+    }
+
+    /**
+     * Gets the direction of a move from getMove().
+     *
+     * @param entry An entry other than NOT_IN_TABLE.
+     * @return The direction to move. 0=Up, 1=Right, 2=Down, 3=Left
+     */
+    public static int getDirection(int entry) {
+        return entry & 3;
+    }
+
+    /**
+     * Gets the number of valid moves the move from getMove() was chosen between.
+     *
+     * @param entry An entry other than NOT_IN_TABLE.
+     * @return The number of valid moves, or 0 if there was no valid move.
+     */
+    public static int getCandidates(int entry) {
+        return entry >> 2;
+    }
+
+    /**
+     * Tests if a cell is one that getValidMoves() accepts, which excludes the edge of the map.
+     *
+     * @param position The cell to test.
+     * @return True if the cell is inside the edge of the map.
+     */
+    private boolean isInside(Position position) {
+        return position.x >= 1 && position.y >= 1 && position.x <= navMap.length - 2 && position.y <= height - 2;
+    }
+
+    /**
+     * Makes the table for a target by choosing the move for every cell and facing
+     * the same way as GhostAI.moveGhostUsingTarget().
+     *
+     * @param target The cell moved toward.
+     * @return The entry for each cell and facing, indexed by (x * height + y) * 4 + facing.
+     */
+    private byte[] createTable(Position target) {
+        byte[] table = new byte[navMap.length * height * 4];
+        Arrays.fill(table, (byte)NOT_IN_TABLE);
+        for(int x = 1; x < navMap.length - 1; x++) {
+            for(int y = 1; y < height - 1; y++) {
+                AINode node = navMap[x][y];
+                if(node == null) continue;
+                Position position = new Position(x, y);
+                for(int facing = 0; facing < 4; facing++) {
+                    List<Position> validMoves = node.getValidMoves(facing, true);
+                    int entry = 0;
+                    if(validMoves.size() > 0) {
+                        Position move = validMoves.size() == 1 ? validMoves.get(0)
+                                : GhostAI.getBestMoveFromList(position, target, validMoves, true);
+                        entry = validMoves.size() << 2 | directionOf(move);
+                    }
+                    table[(x * height + y) * 4 + facing] = (byte)entry;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Gets the direction of a unit vector.
+     *
+     * @param move One of the unit vectors from an AINode.
+     * @return The direction. 0=Up, 1=Right, 2=Down, 3=Left
+     */
+    private static int directionOf(Position move) {
+        if(move.y < 0) return 0;
+        if(move.x > 0) return 1;
+        if(move.y > 0) return 2;
+        return 3;
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * Navigation class:
+ * Everything the ghosts find their way with on one layout: the navMap and the structures worked
+ * out from it. Built when a map is loaded and held by the Map. Maps loaded from the same file,
+ * such as the sessions of a GameServer, hold the same Navigation, so it is only built once
+ * however many games are played on the layout.
+ *
+ * Any number of maps can read a Navigation from different threads at once. Its references never
+ * change, and neither does the navMap while the Navigation is shared. FlowFields, MoveTables and
+ * HierarchicalPaths fill their caches the first time each target is asked for without locking,
+ * and JunctionGraph replaces its tables as a whole when the nav version of the navMap changes.
+ * Two threads filling the same entry at once both work it out from the same navMap, so the values
+ * are identical and it does not matter whose is kept. A hot reload changes the navMap and line of
+ * sight in place, which Map only allows when it shares its Navigation with no other map, and then
+ * replaces its Navigation with the one from afterReload().
+ */
+public class Navigation {
+    /**
+     * Number of cells at which ghosts find paths with HierarchicalPaths instead of a FlowFields field
+     * per target. Below this a whole field per target is small and quick to calculate.
+     */
+    public static final int HIERARCHICAL_PATHS_MIN_CELLS = 1 << 16;
+
+    /**
+     * The map represented as a grid of AI Nodes used to move the ghosts.
+     */
+    private final AINode[][] navMap;
+    /**
+     * Distance fields toward targets over the navMap, used by chasing ghosts.
+     */
+    private final FlowFields flowFields;
+    /**
+     * Clustered shortest paths used instead of flow fields on very large maps, or null on smaller maps.
+     */
+    private final HierarchicalPaths hierarchicalPaths;
+    /**
+     * Memoised moves toward fixed targets on the navMap.
+     */
+    private final MoveTables moveTables;
+    /**
+     * The navMap compressed into junctions and the corridors between them.
+     */
+    private final JunctionGraph junctionGraph;
+    /**
+     * The way back to the ghost house for eaten ghosts.
+     */
+    private final HomeField homeField;
+    /**
+     * The straight runs of open cells from every cell, used to test what a ghost can see.
+     */
+    private final LineOfSight lineOfSight;
+
+    /**
+     * Builds everything worked out from a navMap with its restrictions applied.
+     *
+     * @param navMap The navMap of the loaded map.
+     * @param mapObjects The objects of the loaded map.
+     * @param ghostStarts The start cells of every ghost on the map.
+     * @param pacmanStart The start cell of Pacman.
+     */
+    public Navigation(AINode[][] navMap, MapObject[][] mapObjects, List<Position> ghostStarts, Position pacmanStart) {
+        this.navMap = navMap;
+        flowFields = new FlowFields(navMap);
+        hierarchicalPaths = navMap.length * navMap[0].length >= HIERARCHICAL_PATHS_MIN_CELLS ? new HierarchicalPaths(navMap) : null;
+        moveTables = new MoveTables(navMap);
+        junctionGraph = new JunctionGraph(navMap);
+        homeField = new HomeField(mapObjects, ghostStarts, pacmanStart);
+        lineOfSight = new LineOfSight(mapObjects);
+    }
+
+    /**
+     * Makes the navigation for a map after a hot reload changed some of its cells and AINodes in place.
+     *
+     * @param previous The navigation before the reload, which must not be shared.
+     * @param hierarchicalPaths The hierarchical paths searched again where nodes changed, or null.
+     * @param homeField The way home worked out again for the changed cells.
+     */
+    private Navigation(Navigation previous, HierarchicalPaths hierarchicalPaths, HomeField homeField) {
+        navMap = previous.navMap;
+        // Flow fields, move tables and the junction graph drop their caches now the nav version has changed
+        flowFields = previous.flowFields;
+        moveTables = previous.moveTables;
+        junctionGraph = previous.junctionGraph;
+        lineOfSight = previous.lineOfSight;
+        this.hierarchicalPaths = hierarchicalPaths;
+        this.homeField = homeField;
+    }
+
+    /**
+     * Makes the navigation to use after a hot reload has replaced cells of the map and refreshed
+     * the AINodes around them. The line of sight is updated in place for the changed cells.
+     *
+     * @param mapObjects The objects of the reloaded map.
+     * @param ghostStarts The start cells of every ghost on the map.
+     * @param pacmanStart The start cell of Pacman.
+     * @param changedNodes The cells whose AINodes were refreshed.
+     * @param changedCells The cells whose objects were replaced.
+     * @return The navigation for the reloaded map.
+     */
+    public Navigation afterReload(MapObject[][] mapObjects, List<Position> ghostStarts, Position pacmanStart,
+                                  List<Position> changedNodes, List<Position> changedCells) {
+        for(Position cell : changedCells) {
+            lineOfSight.update(mapObjects, cell.x, cell.y);
+        }
+        return new Navigation(this,
+                hierarchicalPaths == null ? null : new HierarchicalPaths(hierarchicalPaths, navMap, changedNodes),
+                new HomeField(mapObjects, ghostStarts, pacmanStart));
+    }
+
+    /**
+     * Gets the grid of AI Nodes used to move the ghosts.
+     *
+     * @return The navMap.
+     */
+    public AINode[][] getNavMap() {
+        return navMap;
+    }
+
+    /**
+     * Gets the distance fields toward targets over the navMap.
+     *
+     * @return The flow fields.
+     */
+    public FlowFields getFlowFields() {
+        return flowFields;
+    }
+
+    /**
+     * Gets the clustered shortest paths used on very large maps.
+     *
+     * @return The hierarchical paths, or null if the map is small enough for flow fields.
+     */
+    public HierarchicalPaths getHierarchicalPaths() {
+        return hierarchicalPaths;
+    }
+
+    /**
+     * Gets the memoised moves toward fixed targets.
+     *
+     * @return The move tables.
+     */
+    public MoveTables getMoveTables() {
+        return moveTables;
+    }
+
+    /**
+     * Gets the navMap compressed into junctions and corridors.
+     *
+     * @return The junction graph.
+     */
+    public JunctionGraph getJunctionGraph() {
+        return junctionGraph;
+    }
+
+    /**
+     * Gets the way back to the ghost house for eaten ghosts.
+     *
+     * @return The home field.
+     */
+    public HomeField getHomeField() {
+        return homeField;
+    }
+
+    /**
+     * Gets the index of what can be seen from each cell.
+     *
+     * @return The line of sight index.
+     */
+    public LineOfSight getLineOfSight() {
+        return lineOfSight;
+    }
+}
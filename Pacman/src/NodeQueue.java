@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * NodeQueue class:
+ * A binary heap of graph nodes ordered by distance, used by the searches over HierarchicalPaths.
+ * A node can be pushed more than once, so a search should skip a node it pops with a greater
+ * distance than the best it has already found.
+ */
+class NodeQueue {
+    /**
+     * The nodes and distances in heap order, packed as distance << 32 | node.
+     */
+    private long[] heap;
+    /**
+     * Number of entries in the heap.
+     */
+    private int size;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param capacity Number of entries to make room for at first.
+     */
+    NodeQueue(int capacity) {
+        heap = new long[Math.max(4, capacity)];
+    }
+
+    /**
+     * Adds a node.
+     *
+     * @param node The node.
+     * @param distance Its distance, which orders the queue.
+     */
+    void push(int node, int distance) {
+        if(size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+        int i = size++;
+        long entry = (long)distance << 32 | node;
+        while(i > 0 && heap[(i - 1) / 2] > entry) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * Removes the closest node.
+     */
+    void pop() {
+        long last = heap[--size];
+        int i = 0;
+        while(i * 2 + 1 < size) {
+            int child = i * 2 + 1;
+            if(child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if(heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+    }
+
+    /**
+     * Gets the closest node.
+     *
+     * @return The node with the lowest distance.
+     */
+    int peekNode() {
+        return (int)heap[0];
+    }
+
+    /**
+     * Gets the distance of the closest node.
+     *
+     * @return The lowest distance.
+     */
+    int peekDistance() {
+        return (int)(heap[0] >>> 32);
+    }
+
+    /**
+     * Tests if the queue is empty.
+     *
+     * @return True if there are no nodes left.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * ObservationRing class:
+ * Encodes the state of the Map every tick into fixed layout byte planes and writes
+ * them straight into a memory-mapped ring buffer file that a trainer process on the
+ * same machine can read without any copying or serialization.
+ *
+ * File layout (native byte order):
+ * Header of HEADER_BYTES: magic, version, width, height, planes, slots, stackSize (ints)
+ * followed by the sequence number of the latest complete frame (long at SEQUENCE_OFFSET).
+ * Then slots frames, each SLOT_HEADER_BYTES holding the sequence written to the slot
+ * followed by planes*width*height bytes, padded so every slot starts on an 8 byte boundary.
+ * Plane p holds the cell x,y at p*width*height+y*width+x with a 1 when the plane applies
+ * to the cell. Frame n is stored in slot n % slots and a stack of the last stackSize
+ * frames is the frames latestSequence-stackSize+1 to latestSequence.
+ * A slot's sequence is -1 while it is being written so a reader can detect torn frames.
+ */
+public class ObservationRing {
+    /**
+     * Plane indices in each frame.
+     */
+    public static final int PLANE_WALL = 0, PLANE_DOT = 1, PLANE_POWERUP = 2, PLANE_CHERRY = 3, PLANE_PACMAN = 4;
+    /**
+     * First ghost plane. There is one plane for each Ghost.GhostState in ordinal order.
+     */
+    public static final int PLANE_GHOST_STATE = 5;
+    /**
+     * Total number of planes in each frame.
+     */
+    public static final int PLANE_COUNT = PLANE_GHOST_STATE + Ghost.GhostState.values().length;
+    /**
+     * Identifies the file as an observation ring ("PMOB").
+     */
+    public static final int MAGIC = 0x504D4F42;
+    /**
+     * Version of the file layout. 2 added the plane for the Returning ghost state.
+     */
+    public static final int VERSION = 2;
+    /**
+     * Size of the file header and offset of the first slot.
+     */
+    public static final int HEADER_BYTES = 64;
+    /**
+     * Offset in the header of the sequence number of the latest complete frame.
+     */
+    public static final int SEQUENCE_OFFSET = 32;
+    /**
+     * Size of the sequence number stored before each frame.
+     */
+    public static final int SLOT_HEADER_BYTES = 8;
+
+    /**
+     * Used to publish sequence numbers with release ordering so the frame bytes
+     * are visible to the reader before the sequence that marks them complete.
+     */
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    /**
+     * The mapped file the frames are written into.
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * Grid size the ring was created for.
+     */
+    private final int width, height;
+    /**
+     * Number of frames the ring holds before overwriting the oldest.
+     */
+    private final int slots;
+    /**
+     * Number of recent frames the trainer stacks together for an observation.
+     */
+    private final int stackSize;
+    /**
+     * Bytes in a single plane and a full frame.
+     */
+    private final int planeBytes, frameBytes;
+    /**
+     * Bytes between the start of consecutive slots.
+     */
+    private final int slotStride;
+    /**
+     * Frame with only the walls set, copied in as the start of every frame.
+     */
+    private final byte[] staticFrame;
+    /**
+     * The grid the cached collectible lists were built from. A restart replaces the grid.
+     */
+    private MapObject[][] cachedMapObjects;
+    /**
+     * Map.getLayoutVersion() when the cached collectible lists were built. A reload changes
+     * objects inside the same grid.
+     */
+    private int cachedLayoutVersion;
+    /**
+     * Collectible objects and the offset of their cell within a plane.
+     */
+    private final List<MapObject> collectibles;
+    private int[] collectibleCells;
+    /**
+     * Sequence number of the next frame to write.
+     */
+    private long nextSequence;
+
+    /**
+     * Creates or replaces the ring buffer file sized for the map.
+     *
+     * @param file The file to map.
+     * @param width Number of grid cells horizontally.
+     * @param height Number of grid cells vertically.
+     * @param slots Number of frames held by the ring. Must be at least the stack size.
+     * @param stackSize Number of recent frames stacked together by the trainer.
+     * @throws IOException If the file can not be created or mapped.
+     * @throws IllegalArgumentException If the stack does not fit in the ring or the ring does not fit in one mapping.
+     */
+    public ObservationRing(Path file, int width, int height, int slots, int stackSize) throws IOException {
+        if(stackSize < 1 || slots < stackSize) {
+            throw new IllegalArgumentException("Ring needs at least stackSize slots: " + slots + " < " + stackSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.slots = slots;
+        this.stackSize = stackSize;
+        // Sized in long first so every int offset used while writing is known not to overflow
+        long frameSize = (long)width * height * PLANE_COUNT;
+        long fileSize = HEADER_BYTES + slots * (SLOT_HEADER_BYTES + (frameSize + 7) / 8 * 8);
+        if(fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Ring for " + width + "x" + height + " with " + slots
+                    + " slots needs " + fileSize + " bytes, more than one mapping can hold.");
+        }
+        planeBytes = width * height;
+        frameBytes = planeBytes * PLANE_COUNT;
+        slotStride = SLOT_HEADER_BYTES + (frameBytes + 7) / 8 * 8;
+        staticFrame = new byte[frameBytes];
+        collectibles = new ArrayList<>();
+        collectibleCells = new int[0];
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, width);
+        buffer.putInt(12, height);
+        buffer.putInt(16, PLANE_COUNT);
+        buffer.putInt(20, slots);
+        buffer.putInt(24, stackSize);
+        LONG_VIEW.setRelease(buffer, SEQUENCE_OFFSET, -1L);
+        for(int slot = 0; slot < slots; slot++) {
+            LONG_VIEW.setRelease(buffer, slotOffset(slot), -1L);
+        }
+    }
+
+    /**
+     * Encodes the current state of the map into the next slot of the ring and publishes it.
+     *
+     * @param map The map to encode. Must match the size the ring was created for.
+     */
+    public void write(Map map) {
+        MapObject[][] mapObjects = map.getMapObjects();
+        if(mapObjects != cachedMapObjects || map.getLayoutVersion() != cachedLayoutVersion) {
+            cacheMapLayout(mapObjects);
+            cachedLayoutVersion = map.getLayoutVersion();
+        }
+
+        long sequence = nextSequence++;
+        int slotOffset = slotOffset((int)(sequence % slots));
+        int frameOffset = slotOffset + SLOT_HEADER_BYTES;
+        LONG_VIEW.setRelease(buffer, slotOffset, -1L);
+
+        // Walls and empty planes in one bulk copy, then only the cells that are set.
+        buffer.position(frameOffset);
+        buffer.put(staticFrame);
+        for(int i = 0; i < collectibleCells.length; i++) {
+            MapObject collectible = collectibles.get(i);
+            if(collectible instanceof CollectableObject) {
+                if(!((CollectableObject)collectible).isCollected())
+                    buffer.put(frameOffset + PLANE_DOT * planeBytes + collectibleCells[i], (byte)1);
+            } else if(collectible instanceof PowerupObject) {
+                if(!((PowerupObject)collectible).isCollected())
+                    buffer.put(frameOffset + PLANE_POWERUP * planeBytes + collectibleCells[i], (byte)1);
+            } else if(((CherryObject)collectible).isVisible()) {
+                buffer.put(frameOffset + PLANE_CHERRY * planeBytes + collectibleCells[i], (byte)1);
+            }
+        }
+        Position pacmanPosition = map.getPacman().getPosition();
+        buffer.put(frameOffset + PLANE_PACMAN * planeBytes + pacmanPosition.y * width + pacmanPosition.x, (byte)1);
+        for(int i = 0; i < map.getGhostCount(); i++) {
+            Ghost ghost = map.getGhost(i);
+            int plane = PLANE_GHOST_STATE + ghost.getGhostState().ordinal();
+            buffer.put(frameOffset + plane * planeBytes + ghost.getPosition().y * width + ghost.getPosition().x, (byte)1);
+        }
+
+        LONG_VIEW.setRelease(buffer, slotOffset, sequence);
+        LONG_VIEW.setRelease(buffer, SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * Gets the sequence number of the most recently written frame.
+     *
+     * @return The latest sequence or -1 if no frames have been written.
+     */
+    public long getLatestSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Gets the number of frames that make up a stacked observation.
+     *
+     * @return The frame stack size.
+     */
+    public int getStackSize() {
+        return stackSize;
+    }
+
+    /**
+     * Gets the offset in the file of the frame bytes for a sequence number.
+     * The frames for a stacked observation are those for latest-stackSize+1 to latest.
+     *
+     * @param sequence The sequence number of the frame.
+     * @return Offset of the first byte of the frame.
+     */
+    public int frameOffset(long sequence) {
+        return slotOffset((int)(sequence % slots)) + SLOT_HEADER_BYTES;
+    }
+
+    /**
+     * Gets the offset in the file of a slot.
+     *
+     * @param slot The slot index.
+     * @return Offset of the slot's sequence number.
+     */
+    private int slotOffset(int slot) {
+        return HEADER_BYTES + slot * slotStride;
+    }
+
+    /**
+     * Rebuilds the static wall plane and the list of collectibles after the grid changed.
+     *
+     * @param mapObjects The grid of the map.
+     */
+    private void cacheMapLayout(MapObject[][] mapObjects) {
+        if(mapObjects.length != width || mapObjects[0].length != height) {
+            throw new IllegalArgumentException("Map is " + mapObjects.length + "x" + mapObjects[0].length
+                    + " but the ring was created for " + width + "x" + height);
+        }
+        cachedMapObjects = mapObjects;
+        collectibles.clear();
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                MapObject mapObject = mapObjects[x][y];
+                staticFrame[PLANE_WALL * planeBytes + y * width + x] =
+                        (byte)(mapObject.getObjectType() == MapObject.ObjectType.Wall ? 1 : 0);
+                if(mapObject instanceof CollectableObject || mapObject instanceof PowerupObject
+                        || mapObject instanceof CherryObject) {
+                    collectibles.add(mapObject);
+                }
+            }
+        }
+        collectibleCells = new int[collectibles.size()];
+        for(int i = 0; i < collectibleCells.length; i++) {
+            Position position = collectibles.get(i).getPosition();
+            collectibleCells[i] = position.y * width + position.x;
+        }
+    }
+}
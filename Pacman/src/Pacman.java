@@ -7,7 +7,8 @@ import java.awt.event.KeyEvent;
  *
  * Pacman class:
  * Represents the player's character that can move around the
- * map while animating the moving mouth.
+ * map while animating the moving mouth. The cell, facing, movement flag and timers
+ * of Pacman are kept in the map's ActorStore, and its position is kept in step with it.
  */
 public class Pacman extends MapObject {
     /**
@@ -15,19 +16,17 @@ public class Pacman extends MapObject {
      */
     private int openAmount = 90;
     /**
-     * Current facing direction.
-     * 0=UP, 1=RIGHT, 2=DOWN, 3=LEFT
+     * Reference to the map to validate attempted movement.
      */
-    private int facing = 0;
+    private Map map;
     /**
-     * True if an input can be applied to make Pacman move in a direction.
-     * This becomes true when canMoveTimer triggers.
+     * The store of the map, which holds Pacman's cell, facing, whether it can move, and its timers.
      */
-    private boolean canMove;
+    private final ActorStore store;
     /**
-     * Reference to the map to validate attempted movement.
+     * Index of Pacman in the store.
      */
-    private Map map;
+    private final int actorIndex;
     /**
      * Timer to delay time between movements.
      */
@@ -36,6 +35,31 @@ public class Pacman extends MapObject {
      * Next move to apply during the next update.
      */
     private Position nextMove;
+    /**
+     * A turn that was pressed while it could not be applied yet. It is applied as soon as
+     * it becomes legal, unless turnBufferTimer triggers first.
+     */
+    private Position bufferedMove;
+    /**
+     * The facing to go with the bufferedMove.
+     */
+    private int bufferedFacing;
+    /**
+     * Timer for how long a buffered turn is kept.
+     */
+    private ActionTimer turnBufferTimer;
+    /**
+     * Time in milliseconds between each move.
+     */
+    public static final int TIME_BETWEEN_MOVES = 160;
+    /**
+     * Duration in milliseconds a buffered turn is kept for. One full movement delay.
+     */
+    public static final int BUFFERED_TURN_WINDOW = TIME_BETWEEN_MOVES;
+    /**
+     * Number of ints written by saveState().
+     */
+    public static final int STATE_SIZE = 8 + 2 * ActionTimer.STATE_SIZE;
 
     /**
      * Initialises Pacman so it is ready for interaction.
@@ -45,15 +69,20 @@ public class Pacman extends MapObject {
      */
     public Pacman(Position position, Map map) {
         super(position, ObjectType.Pacman, EnterType.Everyone);
-        canMove = true;
         this.map = map;
+        store = map.getActorStore();
+        actorIndex = store.addActor(position, ActorStore.NOT_A_GHOST);
+        store.setCanMove(actorIndex, true);
         nextMove = Position.ZERO;
-        canMoveTimer = new ActionTimer(160);
+        bufferedMove = Position.ZERO;
+        canMoveTimer = new ActionTimer(store, TIME_BETWEEN_MOVES);
+        turnBufferTimer = new ActionTimer(store, BUFFERED_TURN_WINDOW);
     }
 
     /**
      * Updates the Pacman by animating the mouth and
      * updating the timer for movement to delay between moves.
+     * A buffered turn that has become legal replaces the next move.
      */
     public void update() {
         // Animate the mouth angle
@@ -63,68 +92,171 @@ public class Pacman extends MapObject {
         }
 
         // Update movement delay timer
-        if(!canMove) {
+        if(!store.canMove(actorIndex)) {
             canMoveTimer.update();
             if(canMoveTimer.isTriggered()) {
                 canMoveTimer.reset();
-                canMove = true;
+                store.setCanMove(actorIndex, true);
+            }
+        } else {
+            applyBufferedTurn();
+            if(!nextMove.equals(Position.ZERO)) {
+                movePacman();
+            }
+        }
+
+        // Forget a buffered turn that did not become legal in time
+        if(!bufferedMove.equals(Position.ZERO)) {
+            turnBufferTimer.update();
+            if(turnBufferTimer.isTriggered()) {
+                bufferedMove = Position.ZERO;
             }
-        } else if(!nextMove.equals(Position.ZERO)) {
-            position.add(nextMove);
-            //System.out.println(position.x + " " + position.y);
-            // Trigger any events based on the object that was entered.
-            map.processEntering(this);
-            nextMove = Position.ZERO;
-            // Disable movement until the timer triggers again
-            canMove = false;
         }
     }
 
+    /**
+     * Applies the next move, triggers anything in the entered cell and starts the movement delay.
+     */
+    private void movePacman() {
+        map.getZobristHash().togglePacmanCell(position);
+        position.add(nextMove);
+        store.setCell(actorIndex, position);
+        map.getZobristHash().togglePacmanCell(position);
+        //System.out.println(position.x + " " + position.y);
+        // Trigger any events based on the object that was entered.
+        map.processEntering(this);
+        nextMove = Position.ZERO;
+        // Disable movement until the timer triggers again
+        store.setCanMove(actorIndex, false);
+    }
+
     /**
      * Moves Pacman if it can by getting the unit vector in the direction.
      * The facing is always changed regardless of whether a move is completed.
      * If movement is valid based on the response from the map the move is
      * completed and any entry triggers are activated via the map.
      * Movement is then paused to start the movement delay timer.
+     * A move that can't be applied yet, because of the movement delay or because
+     * it is blocked, is buffered for BUFFERED_TURN_WINDOW to be applied once it is legal.
      *
      * @param keyCode The key that was pressed.
      */
     public void moveIfCan(int keyCode) {
-        // Waiting for canMoveTimer to trigger
-        if(!canMove) return;
-
-        // Get the correct unit vector and update the facing to match
+        // Get the correct unit vector and the facing to match
+        Position move;
+        int moveFacing;
         if(keyCode == KeyEvent.VK_UP) {
-            nextMove = Position.UP;
-            facing = 1;
+            move = Position.UP;
+            moveFacing = 1;
         } else if(keyCode == KeyEvent.VK_DOWN) {
-            nextMove = Position.DOWN;
-            facing = 3;
+            move = Position.DOWN;
+            moveFacing = 3;
         } else if(keyCode == KeyEvent.VK_LEFT) {
-            nextMove = Position.LEFT;
-            facing = 2;
+            move = Position.LEFT;
+            moveFacing = 2;
         } else if(keyCode == KeyEvent.VK_RIGHT) {
-            nextMove = Position.RIGHT;
-            facing = 0;
+            move = Position.RIGHT;
+            moveFacing = 0;
         } else {
             return;
         }
 
-        // Get the position that would be moved to and test if entry is allowed for Pacman
-        Position tempPosition = new Position(position);
-        tempPosition.add(nextMove);
-        if(!map.canEnter(tempPosition,this,false)) {
+        // Waiting for canMoveTimer to trigger
+        if(!store.canMove(actorIndex)) {
+            bufferTurn(move, moveFacing);
+            return;
+        }
+
+        nextMove = move;
+        setFacing(moveFacing);
+        if(!canMoveInDirection(move)) {
             nextMove = Position.ZERO;
+            bufferTurn(move, moveFacing);
+        } else {
+            // The newest accepted move always wins over an older buffered turn
+            bufferedMove = Position.ZERO;
         }
     }
 
+    /**
+     * Remembers a turn so it can be applied when it becomes legal.
+     *
+     * @param move The unit vector of the turn.
+     * @param moveFacing The facing to go with the turn.
+     */
+    private void bufferTurn(Position move, int moveFacing) {
+        bufferedMove = move;
+        bufferedFacing = moveFacing;
+        turnBufferTimer.reset();
+    }
+
+    /**
+     * Makes the buffered turn the next move if Pacman is now able to move that way.
+     */
+    private void applyBufferedTurn() {
+        if(bufferedMove.equals(Position.ZERO) || !canMoveInDirection(bufferedMove)) return;
+        nextMove = bufferedMove;
+        setFacing(bufferedFacing);
+        bufferedMove = Position.ZERO;
+    }
+
+    /**
+     * Tests if the adjacent cell in a direction can be entered by Pacman.
+     *
+     * @param move The unit vector of the direction.
+     * @return True if the map allows Pacman to enter the cell.
+     */
+    private boolean canMoveInDirection(Position move) {
+        Position tempPosition = new Position(position);
+        tempPosition.add(move);
+        return map.canEnter(tempPosition,this,false);
+    }
+
     /**
      * Changes the facing of Pacman. 0=UP, 1=RIGHT, 2=DOWN, 3=LEFT.
      *
      * @param facing The facing to change to.
      */
     public void setFacing(int facing) {
-        this.facing = facing;
+        map.getZobristHash().togglePacmanFacing(store.getFacing(actorIndex));
+        store.setFacing(actorIndex, facing);
+        map.getZobristHash().togglePacmanFacing(facing);
+    }
+
+    /**
+     * Moves Pacman to a new position such as after using a teleport.
+     *
+     * @param newPosition The new position to set Pacman to.
+     */
+    @Override
+    public void setPosition(Position newPosition) {
+        map.getZobristHash().togglePacmanCell(position);
+        super.setPosition(newPosition);
+        store.setCell(actorIndex, position);
+        map.getZobristHash().togglePacmanCell(position);
+    }
+
+    /**
+     * Moves Pacman onto the grid that replaced his when the window of a world moved, keeping him on
+     * the same world cell. His start becomes where he is, since it may no longer be on the grid.
+     * The store must have been cleared with setGridSize() first.
+     *
+     * @param offsetX Columns to add to his cell.
+     * @param offsetY Rows to add to his cell.
+     */
+    public void moveToNewGrid(int offsetX, int offsetY) {
+        position.setPosition(position.x + offsetX, position.y + offsetY);
+        defaultPosition = new Position(position);
+        store.placeActor(actorIndex, position);
+    }
+
+    /**
+     * Moves Pacman back to its default position.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        store.setCell(actorIndex, position);
     }
 
     /**
@@ -133,7 +265,143 @@ public class Pacman extends MapObject {
      * @return The current facing of Pacman.
      */
     public int getFacing() {
-        return facing;
+        return store.getFacing(actorIndex);
+    }
+
+    /**
+     * Gets whether Pacman is ready to accept a new move.
+     *
+     * @return True if the movement delay has finished.
+     */
+    public boolean canMove() {
+        return store.canMove(actorIndex);
+    }
+
+    /**
+     * Gets the index of Pacman in the map's ActorStore.
+     *
+     * @return The actor index.
+     */
+    public int getActorIndex() {
+        return actorIndex;
+    }
+
+    /**
+     * Gets the move that will be applied during the next update.
+     *
+     * @return A unit vector or Position.ZERO when there is no move waiting.
+     */
+    public Position getNextMove() {
+        return nextMove;
+    }
+
+    /**
+     * Gets the timer used to delay time between movements.
+     *
+     * @return The movement delay timer.
+     */
+    public ActionTimer getCanMoveTimer() {
+        return canMoveTimer;
+    }
+
+    /**
+     * Gets the turn waiting to be applied when it becomes legal.
+     *
+     * @return A unit vector or Position.ZERO when there is no buffered turn.
+     */
+    public Position getBufferedMove() {
+        return bufferedMove;
+    }
+
+    /**
+     * Gets the timer for how long the buffered turn is kept.
+     *
+     * @return The turn buffer timer.
+     */
+    public ActionTimer getTurnBufferTimer() {
+        return turnBufferTimer;
+    }
+
+    /**
+     * Writes everything about Pacman that changes during a game into an array.
+     *
+     * @param state The array to write into.
+     * @param offset The index to start writing at.
+     * @return The index after the last int written.
+     */
+    @Override
+    public int saveState(int[] state, int offset) {
+        state[offset] = position.x;
+        state[offset+1] = position.y;
+        state[offset+2] = store.getFacing(actorIndex);
+        state[offset+3] = openAmount;
+        state[offset+4] = store.canMove(actorIndex) ? 1 : 0;
+        state[offset+5] = directionToCode(nextMove);
+        state[offset+6] = directionToCode(bufferedMove);
+        state[offset+7] = bufferedFacing;
+        offset = canMoveTimer.saveState(state, offset + 8);
+        return turnBufferTimer.saveState(state, offset);
+    }
+
+    /**
+     * Reads back the state written by saveState(). The map's hash is restored separately.
+     *
+     * @param state The array to read from.
+     * @param offset The index to start reading at.
+     * @return The index after the last int read.
+     */
+    @Override
+    public int restoreState(int[] state, int offset) {
+        position.setPosition(state[offset], state[offset+1]);
+        store.setCell(actorIndex, position);
+        store.setFacing(actorIndex, state[offset+2]);
+        openAmount = state[offset+3];
+        store.setCanMove(actorIndex, state[offset+4] != 0);
+        nextMove = codeToDirection(state[offset+5]);
+        bufferedMove = codeToDirection(state[offset+6]);
+        bufferedFacing = state[offset+7];
+        offset = canMoveTimer.restoreState(state, offset + 8);
+        return turnBufferTimer.restoreState(state, offset);
+    }
+
+    /**
+     * Gets the number of ints saveState() writes.
+     *
+     * @return STATE_SIZE.
+     */
+    @Override
+    public int getStateSize() {
+        return STATE_SIZE;
+    }
+
+    /**
+     * Converts a unit vector into a number for saving.
+     *
+     * @param direction One of the Position direction constants.
+     * @return 0 for ZERO, or 1 to 4 for UP, RIGHT, DOWN, LEFT.
+     */
+    private static int directionToCode(Position direction) {
+        if(direction.equals(Position.UP)) return 1;
+        if(direction.equals(Position.RIGHT)) return 2;
+        if(direction.equals(Position.DOWN)) return 3;
+        if(direction.equals(Position.LEFT)) return 4;
+        return 0;
+    }
+
+    /**
+     * Converts a number from directionToCode() back into the unit vector.
+     *
+     * @param code The saved number.
+     * @return The matching Position direction constant.
+     */
+    private static Position codeToDirection(int code) {
+        switch(code) {
+            case 1: return Position.UP;
+            case 2: return Position.RIGHT;
+            case 3: return Position.DOWN;
+            case 4: return Position.LEFT;
+        }
+        return Position.ZERO;
     }
 
     /**
@@ -146,6 +414,6 @@ public class Pacman extends MapObject {
     public void paint(Graphics g) {
         g.setColor(Color.YELLOW);
         g.fillArc(GamePanel.CELL_DIM*position.x, GamePanel.CELL_DIM* position.y,
-                GamePanel.CELL_DIM, GamePanel.CELL_DIM,90*facing+openAmount/2,360-openAmount);
+                GamePanel.CELL_DIM, GamePanel.CELL_DIM,90*store.getFacing(actorIndex)+openAmount/2,360-openAmount);
     }
 }
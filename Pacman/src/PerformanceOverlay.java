@@ -0,0 +1,332 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * PerformanceOverlay class:
+ * Draws live performance figures over the GamePanel. Shows the current and p99 update
+ * and paint times, frames and ticks per second against the target tick rate, the
+ * allocation rate and GC pauses, the update cost of each ghost, and a scrolling graph
+ * of the time between ticks with GC pauses marked.
+ *
+ * Every sample is written into preallocated primitive ring buffers. The text is only
+ * rebuilt a few times a second into a cached image, so while the overlay is showing,
+ * each paint only draws that image and the graph from preallocated coordinate arrays.
+ */
+public class PerformanceOverlay {
+    /**
+     * Number of ticks kept in the ring buffers and shown across the graph.
+     */
+    public static final int HISTORY = 128;
+    /**
+     * Ticks between rebuilding the cached text.
+     */
+    private static final int TEXT_REFRESH_TICKS = 6;
+    /**
+     * Size of the overlay and the graph within it.
+     */
+    private static final int WIDTH = 2 * HISTORY + 64, TEXT_HEIGHT = 150, GRAPH_HEIGHT = 60,
+            HEIGHT = TEXT_HEIGHT + GRAPH_HEIGHT + 8;
+    /**
+     * Milliseconds represented by the full height of the graph.
+     */
+    private static final int GRAPH_MILLIS = 2 * GamePanel.TIME_BETWEEN_UPDATES;
+    /**
+     * Most ghosts listed in the AI cost breakdown.
+     */
+    private static final int MAX_GHOSTS = 8;
+    /**
+     * Translucent background behind the overlay.
+     */
+    private static final Color BACKGROUND = new Color(0, 0, 0, 190);
+
+    /**
+     * Time each update took, per tick.
+     */
+    private final long[] updateNanos;
+    /**
+     * Time between the start of each tick and the one before.
+     */
+    private final long[] tickIntervalNanos;
+    /**
+     * Bytes allocated by the game thread between each tick and the one before.
+     */
+    private final long[] allocatedBytes;
+    /**
+     * Milliseconds of GC pauses that ended during each tick.
+     */
+    private final long[] gcMillis;
+    /**
+     * Time each paint took, per paint.
+     */
+    private final long[] paintNanos;
+    /**
+     * Time between the start of each paint and the one before.
+     */
+    private final long[] paintIntervalNanos;
+    /**
+     * Total time spent updating each ghost since the text was last rebuilt.
+     */
+    private final long[] ghostNanos;
+    /**
+     * Scratch space for sorting a ring buffer to find the p99.
+     */
+    private final long[] sortBuffer;
+    /**
+     * Preallocated coordinates for drawing the graph.
+     */
+    private final int[] graphX, graphY;
+    /**
+     * Number of ticks and paints recorded.
+     */
+    private long ticks, paints;
+    /**
+     * System.nanoTime() at the start of the last tick and the last paint.
+     */
+    private long lastTickNanos, lastPaintNanos;
+    /**
+     * Allocated bytes of the game thread at the last tick, or -1 if not measurable.
+     */
+    private long lastAllocatedBytes;
+    /**
+     * Total GC time in milliseconds at the last tick.
+     */
+    private long lastGcMillis;
+    /**
+     * Ticks recorded into ghostNanos since the text was last rebuilt.
+     */
+    private int ghostSamples;
+    /**
+     * The garbage collectors, looked up once.
+     */
+    private final List<GarbageCollectorMXBean> collectors;
+    /**
+     * The background and the text rendered at the last refresh. The translucent background
+     * is part of the image because filling a translucent rectangle every paint allocates.
+     */
+    private final BufferedImage textImage;
+    /**
+     * Font used for the text.
+     */
+    private final Font font;
+    /**
+     * True while the overlay is shown.
+     */
+    private boolean visible;
+
+    /**
+     * Creates the overlay hidden with empty buffers.
+     */
+    public PerformanceOverlay() {
+        updateNanos = new long[HISTORY];
+        tickIntervalNanos = new long[HISTORY];
+        allocatedBytes = new long[HISTORY];
+        gcMillis = new long[HISTORY];
+        paintNanos = new long[HISTORY];
+        paintIntervalNanos = new long[HISTORY];
+        ghostNanos = new long[MAX_GHOSTS];
+        sortBuffer = new long[HISTORY];
+        graphX = new int[HISTORY];
+        graphY = new int[HISTORY];
+        collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        textImage = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        font = new Font("Monospaced", Font.PLAIN, 11);
+        Graphics2D g = textImage.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.dispose();
+        lastAllocatedBytes = EngineMetrics.threadAllocatedBytes();
+        lastGcMillis = totalGcMillis();
+    }
+
+    /**
+     * Shows or hides the overlay. Ghost timing on the map is only turned on while it is shown.
+     *
+     * @param map The map being played.
+     */
+    public void toggle(Map map) {
+        visible = !visible;
+        map.setGhostTiming(visible);
+        Arrays.fill(ghostNanos, 0);
+        ghostSamples = 0;
+    }
+
+    /**
+     * Tests if the overlay is shown.
+     *
+     * @return True if it is being drawn.
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Records a tick. Called after every update on the game thread.
+     *
+     * @param map The map that was updated.
+     * @param tickStartNanos System.nanoTime() before the update.
+     */
+    public void recordTick(Map map, long tickStartNanos) {
+        int slot = (int)(ticks % HISTORY);
+        updateNanos[slot] = System.nanoTime() - tickStartNanos;
+        tickIntervalNanos[slot] = lastTickNanos == 0 ? 0 : tickStartNanos - lastTickNanos;
+        lastTickNanos = tickStartNanos;
+        long allocated = EngineMetrics.threadAllocatedBytes();
+        allocatedBytes[slot] = lastAllocatedBytes < 0 ? 0 : allocated - lastAllocatedBytes;
+        lastAllocatedBytes = allocated;
+        long gc = totalGcMillis();
+        gcMillis[slot] = gc - lastGcMillis;
+        lastGcMillis = gc;
+        long[] ghostTimes = map.getGhostUpdateNanos();
+        if(ghostTimes != null) {
+            for(int i = 0; i < Math.min(MAX_GHOSTS, ghostTimes.length); i++) {
+                ghostNanos[i] += ghostTimes[i];
+            }
+            ghostSamples++;
+        }
+        ticks++;
+        if(visible && ticks % TEXT_REFRESH_TICKS == 0) {
+            refreshText(map);
+        }
+    }
+
+    /**
+     * Records a paint. Called at the end of painting the panel, before the overlay itself is drawn.
+     *
+     * @param paintStartNanos System.nanoTime() before painting started.
+     */
+    public void recordPaint(long paintStartNanos) {
+        int slot = (int)(paints % HISTORY);
+        paintNanos[slot] = System.nanoTime() - paintStartNanos;
+        paintIntervalNanos[slot] = lastPaintNanos == 0 ? 0 : paintStartNanos - lastPaintNanos;
+        lastPaintNanos = paintStartNanos;
+        paints++;
+    }
+
+    /**
+     * Draws the cached text and the tick graph in the top left corner if the overlay is shown.
+     *
+     * @param g Reference to the Graphics object for rendering.
+     */
+    public void paint(Graphics g) {
+        if(!visible) return;
+        int top = 30;
+        g.drawImage(textImage, 4, top, null);
+
+        int graphTop = top + TEXT_HEIGHT;
+        int graphBottom = graphTop + GRAPH_HEIGHT;
+        // Target tick interval
+        int targetY = graphBottom - GRAPH_HEIGHT * GamePanel.TIME_BETWEEN_UPDATES / GRAPH_MILLIS;
+        g.setColor(Color.DARK_GRAY);
+        g.drawLine(10, targetY, 10 + 2 * (HISTORY - 1), targetY);
+        int count = (int)Math.min(ticks, HISTORY);
+        for(int i = 0; i < count; i++) {
+            int slot = (int)((ticks - count + i) % HISTORY);
+            int x = 10 + 2 * i;
+            graphX[i] = x;
+            graphY[i] = graphBottom - graphHeight(tickIntervalNanos[slot]);
+            // Update time as a bar along the bottom, red when a GC pause ended during the tick
+            g.setColor(gcMillis[slot] > 0 ? Color.RED : Color.GREEN);
+            int barHeight = Math.max(1, graphHeight(gcMillis[slot] > 0 ? gcMillis[slot] * 1_000_000L : updateNanos[slot]));
+            g.fillRect(x, graphBottom - barHeight, 2, barHeight);
+        }
+        g.setColor(Color.WHITE);
+        g.drawPolyline(graphX, graphY, count);
+    }
+
+    /**
+     * Rebuilds the cached text from the ring buffers.
+     *
+     * @param map The map being played, for the ghost names.
+     */
+    private void refreshText(Map map) {
+        double tickSeconds = sum(tickIntervalNanos, ticks) / 1e9;
+        double paintSeconds = sum(paintIntervalNanos, paints) / 1e9;
+        int tickCount = (int)Math.min(ticks, HISTORY);
+        int paintCount = (int)Math.min(paints, HISTORY);
+        long latestUpdate = updateNanos[(int)((ticks - 1) % HISTORY)];
+        long latestPaint = paints == 0 ? 0 : paintNanos[(int)((paints - 1) % HISTORY)];
+
+        Graphics2D g = textImage.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setFont(font);
+        g.setColor(Color.WHITE);
+        int line = 12;
+        g.drawString(String.format("update %6.1f us  p99 %6.1f us", latestUpdate / 1e3, p99(updateNanos, ticks) / 1e3), 6, line);
+        g.drawString(String.format("paint  %6.1f us  p99 %6.1f us", latestPaint / 1e3, p99(paintNanos, paints) / 1e3), 6, line += 12);
+        g.drawString(String.format("ticks %4.1f/s  fps %4.1f  target %d/s", tickSeconds > 0 ? (tickCount - 1) / tickSeconds : 0,
+                paintSeconds > 0 ? (paintCount - 1) / paintSeconds : 0, 1000 / GamePanel.TIME_BETWEEN_UPDATES), 6, line += 12);
+        g.drawString(String.format("alloc %7.1f KB/s", tickSeconds > 0 ? sum(allocatedBytes, ticks) / 1024.0 / tickSeconds : 0), 6, line += 12);
+        g.drawString(String.format("gc %d ms over last %d ticks", sum(gcMillis, ticks), tickCount), 6, line += 12);
+        g.drawString("ghost AI cost per update:", 6, line += 14);
+        for(int i = 0; i < Math.min(MAX_GHOSTS, map.getGhostCount()); i++) {
+            Object behaviour = map.getGhost(i).getActiveBehaviour();
+            g.drawString(String.format(" %d %-24s %6.1f us", i, behaviour == null ? "Inactive" : behaviour.getClass().getSimpleName(),
+                    ghostSamples == 0 ? 0 : ghostNanos[i] / 1e3 / ghostSamples), 6, line += 12);
+        }
+        g.dispose();
+        Arrays.fill(ghostNanos, 0);
+        ghostSamples = 0;
+    }
+
+    /**
+     * Converts a duration to a height on the graph, clamped to the graph.
+     *
+     * @param nanos The duration.
+     * @return Height in pixels.
+     */
+    private int graphHeight(long nanos) {
+        return (int)Math.min(GRAPH_HEIGHT, nanos * GRAPH_HEIGHT / (GRAPH_MILLIS * 1_000_000L));
+    }
+
+    /**
+     * Adds up the filled part of a ring buffer.
+     *
+     * @param ring The ring buffer.
+     * @param written Number of values ever written into it.
+     * @return The total.
+     */
+    private static long sum(long[] ring, long written) {
+        long total = 0;
+        for(int i = 0; i < Math.min(written, HISTORY); i++) total += ring[i];
+        return total;
+    }
+
+    /**
+     * Finds the 99th percentile of the filled part of a ring buffer.
+     *
+     * @param ring The ring buffer.
+     * @param written Number of values ever written into it.
+     * @return The 99th percentile, or 0 if empty.
+     */
+    private long p99(long[] ring, long written) {
+        int count = (int)Math.min(written, HISTORY);
+        if(count == 0) return 0;
+        System.arraycopy(ring, 0, sortBuffer, 0, count);
+        Arrays.sort(sortBuffer, 0, count);
+        return sortBuffer[Math.min(count - 1, (int)Math.ceil(count * 0.99) - 1)];
+    }
+
+    /**
+     * Gets the total time spent in GC since the JVM started.
+     *
+     * @return Milliseconds across every collector.
+     */
+    private long totalGcMillis() {
+        long total = 0;
+        for(int i = 0; i < collectors.size(); i++) {
+            total += Math.max(0, collectors.get(i).getCollectionTime());
+        }
+        return total;
+    }
+}
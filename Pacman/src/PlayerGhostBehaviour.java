@@ -0,0 +1,101 @@
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * PlayerGhostBehaviour class:
+ * Lets a player drive a ghost in place of its Chase, Scatter and Frightened behaviours.
+ * The player chooses a direction and the ghost turns that way as soon as the navMap
+ * allows it, otherwise it keeps moving in its current direction.
+ */
+public class PlayerGhostBehaviour implements GhostAI.ChaseBehaviour, GhostAI.ScatterBehaviour, GhostAI.FrightenedBehaviour {
+    /**
+     * Reference to the Ghost the Behaviour is being used for.
+     */
+    private Ghost ghost;
+    /**
+     * The direction the player wants to move in. 0=Up, 1=Right, 2=Down, 3=Left, -1 for none yet.
+     */
+    private int requestedFacing;
+
+    /**
+     * Sets up the behaviour with no direction requested.
+     *
+     * @param ghost Reference to the Ghost the Behaviour is being used for.
+     */
+    public PlayerGhostBehaviour(Ghost ghost) {
+        this.ghost = ghost;
+        requestedFacing = -1;
+    }
+
+    /**
+     * Sets the direction the player wants to move in.
+     *
+     * @param facing 0=Up, 1=Right, 2=Down, 3=Left, or -1 for none.
+     */
+    public void setRequestedFacing(int facing) {
+        requestedFacing = facing;
+    }
+
+    /**
+     * Gets the direction the player wants to move in.
+     *
+     * @return 0=Up, 1=Right, 2=Down, 3=Left, or -1 for none.
+     */
+    public int getRequestedFacing() {
+        return requestedFacing;
+    }
+
+    /**
+     * Moves as the player directs while in the Chase state.
+     */
+    @Override
+    public void chase() {
+        movePlayerGhost();
+    }
+
+    /**
+     * Moves as the player directs while in the Scatter state.
+     */
+    @Override
+    public void scatter() {
+        movePlayerGhost();
+    }
+
+    /**
+     * Moves as the player directs while in the Frightened state.
+     */
+    @Override
+    public void frightened() {
+        movePlayerGhost();
+    }
+
+    /**
+     * Nothing to set up, the player keeps control while frightened.
+     */
+    @Override
+    public void beginWandering() {
+        // do nothing
+    }
+
+    /**
+     * Moves in the requested direction if it is a valid move, otherwise continues forward if possible.
+     */
+    private void movePlayerGhost() {
+        List<Position> validMoves = GhostAI.getValidMoves(ghost.getMap().getNavMap(), ghost.getPosition(), ghost.getFacing(), false);
+        if(requestedFacing != -1) {
+            Position requestedMove = GhostAI.facingToPosition(requestedFacing);
+            if(validMoves.contains(requestedMove)) {
+                GhostDecisionEvent.record(ghost, requestedMove, validMoves.size());
+                ghost.chooseMove(requestedMove);
+                return;
+            }
+        }
+        Position forwardMove = GhostAI.facingToPosition(ghost.getFacing());
+        if(validMoves.contains(forwardMove)) {
+            GhostDecisionEvent.record(ghost, forwardMove, validMoves.size());
+            ghost.chooseMove(forwardMove);
+        }
+    }
+}
@@ -16,14 +16,21 @@ public class PowerupObject extends MapObject {
      */
     private boolean collected;
 
+    /**
+     * Reference to the map the object is on.
+     */
+    private Map map;
+
     /**
      * Initialises the Powerup object so it can be entered by everyone
      * makes it not collected by default.
      *
      * @param position The position of this object on the map.
+     * @param map Reference to the map the object is on.
      */
-    public PowerupObject(Position position) {
+    public PowerupObject(Position position, Map map) {
         super(position, ObjectType.PowerUp, EnterType.Everyone);
+        this.map = map;
         collected = false;
     }
 
@@ -32,6 +39,7 @@ public class PowerupObject extends MapObject {
      */
     @Override
     public void reset() {
+        if(collected) map.getZobristHash().toggleCollected(position);
         super.reset();
         collected = false;
     }
@@ -46,10 +54,57 @@ public class PowerupObject extends MapObject {
     public void onEnter(MapObject enteringObject) {
         if(!collected && enteringObject instanceof Pacman) {
             collected = true;
-            Map.INSTANCE.frightenGhosts();
+            map.getZobristHash().toggleCollected(position);
+            map.frightenGhosts();
+            CollectibleEvent.record(this, map);
         }
     }
 
+    /**
+     * Gets the number of ints saveState() writes.
+     *
+     * @return 1 for the collected flag.
+     */
+    @Override
+    public int getStateSize() {
+        return 1;
+    }
+
+    /**
+     * Writes the collected flag into an array.
+     *
+     * @param state The array to write into.
+     * @param offset The index to write at.
+     * @return The index after the flag.
+     */
+    @Override
+    public int saveState(int[] state, int offset) {
+        state[offset] = collected ? 1 : 0;
+        return offset + 1;
+    }
+
+    /**
+     * Reads back the collected flag. The map's hash is restored separately.
+     *
+     * @param state The array to read from.
+     * @param offset The index to read at.
+     * @return The index after the flag.
+     */
+    @Override
+    public int restoreState(int[] state, int offset) {
+        collected = state[offset] != 0;
+        return offset + 1;
+    }
+
+    /**
+     * Gets the collection status of this powerup.
+     *
+     * @return True if the player has collected this powerup.
+     */
+    public boolean isCollected() {
+        return collected;
+    }
+
     /**
      * Draws the powerup as a simple white circle if it has not been collected yet.
      *
@@ -0,0 +1,377 @@
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * RollbackSession class:
+ * Runs one side of a versus game where one player controls Pacman and the other drives
+ * a ghost. Both sides simulate the same Map. Local input is applied immediately and sent
+ * to the other side, and the other player's input is predicted to be nothing until it
+ * arrives. When it arrives late and differs from the prediction, the map is rolled back
+ * to the snapshot from before that tick and the ticks since are simulated again.
+ * A snapshot is saved before every tick with Map.saveState(), which does not allocate.
+ *
+ * Packet layout (big endian): int latest contiguous remote tick received, int tick and
+ * long checksum of the latest confirmed state, int first tick, byte count, then one byte
+ * key code for each tick from the first tick on. Every packet repeats all the inputs the
+ * other side has not acknowledged, so lost packets need no resending.
+ */
+public class RollbackSession {
+    /**
+     * The two players.
+     */
+    public static final int PLAYER_PACMAN = 0, PLAYER_GHOST = 1;
+    /**
+     * The ghost driven by the ghost player.
+     */
+    public static final int CONTROLLED_GHOST = 0;
+    /**
+     * Number of ticks of snapshots and inputs kept. Must be a power of two.
+     */
+    public static final int HISTORY = 128;
+    /**
+     * Most ticks the simulation can run ahead of the other player's confirmed input.
+     * The session stalls rather than predict further ahead.
+     */
+    public static final int MAX_ROLLBACK = 30;
+    /**
+     * Input value for a tick with no key pressed.
+     */
+    public static final int NO_INPUT = 0;
+
+    /**
+     * The game both players see.
+     */
+    private final Map map;
+    /**
+     * Which player is on this side.
+     */
+    private final int localPlayer;
+    /**
+     * Which player is on the other side.
+     */
+    private final int remotePlayer;
+    /**
+     * Connection to the other side.
+     */
+    private final DatagramLink link;
+    /**
+     * The behaviour the ghost player's input is passed to.
+     */
+    private PlayerGhostBehaviour ghostControl;
+    /**
+     * Key code for each player for each tick, indexed by tick & (HISTORY-1).
+     * Remote ticks that have not arrived yet hold the prediction NO_INPUT.
+     */
+    private final int[][] inputs;
+    /**
+     * Map state saved before each tick, indexed by tick & (HISTORY-1).
+     */
+    private final int[][] snapshots;
+    /**
+     * Hash of the state after each confirmed tick, indexed by tick & (HISTORY-1).
+     */
+    private final long[] checksums;
+    /**
+     * The next tick to simulate.
+     */
+    private int tick;
+    /**
+     * Every remote input up to this tick has arrived.
+     */
+    private int remoteConfirmedTick;
+    /**
+     * The other side has received every local input up to this tick.
+     */
+    private int remoteAckedTick;
+    /**
+     * Checksums have been recorded up to this tick.
+     */
+    private int checksumTick;
+    /**
+     * Local key waiting to be applied on the next tick that is simulated.
+     */
+    private int pendingLocalInput;
+    /**
+     * Reused buffer for building and reading packets.
+     */
+    private final ByteBuffer packet;
+    /**
+     * Counters describing how the session has run.
+     */
+    private int rollbacks, resimulatedTicks, maxResimulatedTicks, stalls, desyncs;
+
+    /**
+     * Sets up one side of a versus game on a map.
+     *
+     * @param map The map to play on. Both sides must load the same map.
+     * @param localPlayer PLAYER_PACMAN or PLAYER_GHOST for the player on this side.
+     * @param link Connection to the other side.
+     */
+    public RollbackSession(Map map, int localPlayer, DatagramLink link) {
+        this.map = map;
+        this.localPlayer = localPlayer;
+        this.remotePlayer = 1 - localPlayer;
+        this.link = link;
+        ghostControl = map.getGhost(CONTROLLED_GHOST).setPlayerControlled();
+        inputs = new int[2][HISTORY];
+        snapshots = new int[HISTORY][map.getStateSize()];
+        checksums = new long[HISTORY];
+        remoteConfirmedTick = -1;
+        remoteAckedTick = -1;
+        checksumTick = -1;
+        packet = ByteBuffer.allocate(DatagramLink.MAX_PACKET_BYTES);
+    }
+
+    /**
+     * Called once per update. Applies any late remote input by rolling back, then simulates
+     * the next tick with the local input. If the other side is too far behind the tick is
+     * not simulated and the local input is kept for the next call.
+     *
+     * @param localKeyCode Key pressed by the local player since the last call, or NO_INPUT.
+     * @return True if a tick was simulated, false if stalled waiting for the other side.
+     * @throws IOException If the link has failed.
+     */
+    public boolean advance(int localKeyCode) throws IOException {
+        if(localKeyCode != NO_INPUT) {
+            pendingLocalInput = localKeyCode;
+        }
+        int rollbackTo = receiveInputs();
+        if(rollbackTo < tick) {
+            resimulateFrom(rollbackTo);
+        }
+        if(tick - remoteConfirmedTick > MAX_ROLLBACK || tick - remoteAckedTick >= HISTORY - 1) {
+            stalls++;
+            sendInputs();
+            return false;
+        }
+
+        int slot = tick & (HISTORY - 1);
+        inputs[localPlayer][slot] = pendingLocalInput;
+        pendingLocalInput = NO_INPUT;
+        if(tick > remoteConfirmedTick) {
+            inputs[remotePlayer][slot] = NO_INPUT;
+        }
+        simulate(tick);
+        tick++;
+        recordChecksums();
+        sendInputs();
+        return true;
+    }
+
+    /**
+     * Gets the map being played.
+     *
+     * @return The map.
+     */
+    public Map getMap() {
+        return map;
+    }
+
+    /**
+     * Gets the next tick to be simulated.
+     *
+     * @return The number of ticks simulated.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Gets the latest tick whose state is final because every input up to it is known.
+     *
+     * @return The latest confirmed tick, or -1 if none are confirmed yet.
+     */
+    public int getConfirmedTick() {
+        return checksumTick;
+    }
+
+    /**
+     * Gets the hash of the state after a confirmed tick.
+     *
+     * @param confirmedTick A tick no later than getConfirmedTick() and within HISTORY of it.
+     * @return The hash of the state.
+     */
+    public long getChecksum(int confirmedTick) {
+        return checksums[confirmedTick & (HISTORY - 1)];
+    }
+
+    /**
+     * Gets the number of times late input caused a rollback.
+     *
+     * @return The number of rollbacks.
+     */
+    public int getRollbacks() {
+        return rollbacks;
+    }
+
+    /**
+     * Gets the total number of ticks simulated again because of rollbacks.
+     *
+     * @return The number of ticks.
+     */
+    public int getResimulatedTicks() {
+        return resimulatedTicks;
+    }
+
+    /**
+     * Gets the most ticks simulated again in a single rollback.
+     *
+     * @return The largest rollback.
+     */
+    public int getMaxResimulatedTicks() {
+        return maxResimulatedTicks;
+    }
+
+    /**
+     * Gets the number of updates that were skipped waiting for the other side.
+     *
+     * @return The number of stalls.
+     */
+    public int getStalls() {
+        return stalls;
+    }
+
+    /**
+     * Gets the number of times the other side reported a different checksum for a confirmed tick.
+     *
+     * @return The number of desyncs detected.
+     */
+    public int getDesyncs() {
+        return desyncs;
+    }
+
+    /**
+     * Reads every packet that is ready and stores the remote inputs that follow on from
+     * those already confirmed.
+     *
+     * @return The earliest simulated tick whose remote input differed from the prediction, or tick if none.
+     * @throws IOException If the link has failed.
+     */
+    private int receiveInputs() throws IOException {
+        int rollbackTo = tick;
+        while(link.receive(packet)) {
+            remoteAckedTick = Math.max(remoteAckedTick, packet.getInt());
+            int remoteChecksumTick = packet.getInt();
+            long remoteChecksum = packet.getLong();
+            int firstTick = packet.getInt();
+            int count = packet.get() & 0xFF;
+            for(int i = 0; i < count; i++) {
+                int inputTick = firstTick + i;
+                int input = packet.get() & 0xFF;
+                if(inputTick != remoteConfirmedTick + 1) continue;
+                int slot = inputTick & (HISTORY - 1);
+                if(inputTick < tick && inputs[remotePlayer][slot] != input) {
+                    rollbackTo = Math.min(rollbackTo, inputTick);
+                }
+                inputs[remotePlayer][slot] = input;
+                remoteConfirmedTick = inputTick;
+            }
+            if(remoteChecksumTick >= 0 && remoteChecksumTick <= checksumTick && checksumTick - remoteChecksumTick < HISTORY
+                    && getChecksum(remoteChecksumTick) != remoteChecksum) {
+                desyncs++;
+                if(AITrace.ENABLED) {
+                    map.getAITrace().failInvariant("State differs from the other player after tick " + remoteChecksumTick);
+                }
+            }
+        }
+        return rollbackTo;
+    }
+
+    /**
+     * Returns the map to the snapshot from before a tick and simulates every tick since again.
+     *
+     * @param fromTick The first tick whose input changed.
+     */
+    private void resimulateFrom(int fromTick) {
+        map.restoreState(snapshots[fromTick & (HISTORY - 1)]);
+        int count = tick - fromTick;
+        for(int t = fromTick; t < tick; t++) {
+            simulate(t);
+        }
+        rollbacks++;
+        resimulatedTicks += count;
+        maxResimulatedTicks = Math.max(maxResimulatedTicks, count);
+    }
+
+    /**
+     * Saves the snapshot for a tick, applies both players' inputs and updates the map.
+     *
+     * @param simulateTick The tick to simulate.
+     */
+    private void simulate(int simulateTick) {
+        int slot = simulateTick & (HISTORY - 1);
+        map.saveState(snapshots[slot]);
+        applyInput(PLAYER_PACMAN, inputs[PLAYER_PACMAN][slot]);
+        applyInput(PLAYER_GHOST, inputs[PLAYER_GHOST][slot]);
+        map.update();
+    }
+
+    /**
+     * Applies a player's key. Arrow keys move Pacman or set the ghost's direction,
+     * and R from either player restarts the game.
+     *
+     * @param player The player who pressed the key.
+     * @param keyCode The key, or NO_INPUT.
+     */
+    private void applyInput(int player, int keyCode) {
+        if(keyCode == NO_INPUT) return;
+        if(keyCode == KeyEvent.VK_R) {
+            map.restart();
+            ghostControl = map.getGhost(CONTROLLED_GHOST).setPlayerControlled();
+        } else if(player == PLAYER_PACMAN) {
+            map.getPacman().moveIfCan(keyCode);
+        } else {
+            switch(keyCode) {
+                case KeyEvent.VK_UP: ghostControl.setRequestedFacing(0); break;
+                case KeyEvent.VK_RIGHT: ghostControl.setRequestedFacing(1); break;
+                case KeyEvent.VK_DOWN: ghostControl.setRequestedFacing(2); break;
+                case KeyEvent.VK_LEFT: ghostControl.setRequestedFacing(3); break;
+            }
+        }
+    }
+
+    /**
+     * Records the hash after every tick that has become confirmed. The state after tick t
+     * is the snapshot saved before tick t+1, or the current map for the latest tick.
+     */
+    private void recordChecksums() {
+        int confirmed = Math.min(tick - 1, remoteConfirmedTick);
+        for(int t = checksumTick + 1; t <= confirmed; t++) {
+            long hash;
+            if(t + 1 < tick) {
+                int[] snapshot = snapshots[(t + 1) & (HISTORY - 1)];
+                hash = ((long)snapshot[3] << 32) | (snapshot[4] & 0xFFFFFFFFL);
+            } else {
+                hash = map.getZobristHash().getValue();
+            }
+            checksums[t & (HISTORY - 1)] = hash;
+        }
+        checksumTick = Math.max(checksumTick, confirmed);
+    }
+
+    /**
+     * Sends every local input the other side has not acknowledged, along with the
+     * acknowledgement of its inputs and the latest confirmed checksum.
+     *
+     * @throws IOException If the link has failed.
+     */
+    private void sendInputs() throws IOException {
+        int firstTick = Math.max(remoteAckedTick + 1, tick - (HISTORY - 1));
+        int count = Math.min(255, tick - firstTick);
+        packet.clear();
+        packet.putInt(remoteConfirmedTick);
+        packet.putInt(checksumTick);
+        packet.putLong(checksumTick >= 0 ? getChecksum(checksumTick) : 0);
+        packet.putInt(firstTick);
+        packet.put((byte)count);
+        for(int i = 0; i < count; i++) {
+            packet.put((byte)inputs[localPlayer][(firstTick + i) & (HISTORY - 1)]);
+        }
+        packet.flip();
+        link.send(packet);
+    }
+}
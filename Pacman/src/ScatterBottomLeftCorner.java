@@ -23,14 +23,15 @@ public class ScatterBottomLeftCorner implements GhostAI.ScatterBehaviour {
     public ScatterBottomLeftCorner(Ghost ghost) {
         this.ghost = ghost;
 
-        scatterTarget = new Position(1, Map.INSTANCE.getMapObjects()[0].length-2);
+        scatterTarget = new Position(1, ghost.getMap().getMapObjects()[0].length-2);
     }
 
     /**
-     * Scatters by attempting to always move the most efficient way toward the scatter target.
+     * Scatters by attempting to always move the most efficient way toward the scatter target,
+     * looking the move up in the map's move table for the target.
      */
     @Override
     public void scatter() {
-        GhostAI.moveGhostUsingTarget(ghost, scatterTarget, true, true);
+        GhostAI.moveGhostUsingMoveTable(ghost, scatterTarget);
     }
 }
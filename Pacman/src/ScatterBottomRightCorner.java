@@ -22,14 +22,15 @@ public class ScatterBottomRightCorner implements GhostAI.ScatterBehaviour {
      */
     public ScatterBottomRightCorner(Ghost ghost) {
         this.ghost = ghost;
-        scatterTarget = new Position(Map.INSTANCE.getMapObjects().length-2, Map.INSTANCE.getMapObjects()[0].length-2);
+        scatterTarget = new Position(ghost.getMap().getMapObjects().length-2, ghost.getMap().getMapObjects()[0].length-2);
     }
 
     /**
-     * Scatters by attempting to always move the most efficient way toward the scatter target.
+     * Scatters by attempting to always move the most efficient way toward the scatter target,
+     * looking the move up in the map's move table for the target.
      */
     @Override
     public void scatter() {
-        GhostAI.moveGhostUsingTarget(ghost, scatterTarget, true, true);
+        GhostAI.moveGhostUsingMoveTable(ghost, scatterTarget);
     }
 }
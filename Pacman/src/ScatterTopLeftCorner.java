@@ -26,10 +26,11 @@ public class ScatterTopLeftCorner implements GhostAI.ScatterBehaviour {
     }
 
     /**
-     * Scatters by attempting to always move the most efficient way toward the scatter target.
+     * Scatters by attempting to always move the most efficient way toward the scatter target,
+     * looking the move up in the map's move table for the target.
      */
     @Override
     public void scatter() {
-        GhostAI.moveGhostUsingTarget(ghost, scatterTarget, true, true);
+        GhostAI.moveGhostUsingMoveTable(ghost, scatterTarget);
     }
 }
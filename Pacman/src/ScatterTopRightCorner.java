@@ -23,14 +23,15 @@ public class ScatterTopRightCorner implements GhostAI.ScatterBehaviour {
     public ScatterTopRightCorner(Ghost ghost) {
         this.ghost = ghost;
 
-        scatterTarget = new Position(Map.INSTANCE.getMapObjects().length-2, 1);
+        scatterTarget = new Position(ghost.getMap().getMapObjects().length-2, 1);
     }
 
     /**
-     * Scatters by attempting to always move the most efficient way toward the scatter target.
+     * Scatters by attempting to always move the most efficient way toward the scatter target,
+     * looking the move up in the map's move table for the target.
      */
     @Override
     public void scatter() {
-        GhostAI.moveGhostUsingTarget(ghost, scatterTarget, true, true);
+        GhostAI.moveGhostUsingMoveTable(ghost, scatterTarget);
     }
 }
@@ -0,0 +1,152 @@
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * ServerLoadTest class:
+ * Starts a GameServer and connects many clients to it over loopback. Every client sends a
+ * random arrow key a few times a second and reads all the frames it is sent. At the end
+ * the number of ticks and how late they started compared to their schedule are printed
+ * to show whether the server kept every session at 25 ticks per second. Ticks during the
+ * first WARM_UP milliseconds after every session has started are not included.
+ *
+ * Arguments: [sessions=2000] [seconds=10]
+ */
+public class ServerLoadTest {
+    /**
+     * Time in milliseconds between each client sending a key.
+     */
+    private static final int INPUT_INTERVAL = 200;
+    /**
+     * Time in milliseconds after connecting before the measurement starts.
+     */
+    private static final int WARM_UP = 2000;
+    /**
+     * Keys the clients choose between.
+     */
+    private static final int[] KEYS = {KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT};
+
+    /**
+     * Runs the load test.
+     *
+     * @param args Optional number of sessions and number of seconds to run for.
+     * @throws IOException If the server or a client fails to connect.
+     */
+    public static void main(String[] args) throws IOException {
+        int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        GameServer server = new GameServer();
+        int port = server.start(0);
+        System.out.println("Server on port " + port + (server.usesVirtualThreads() ? " using virtual threads" : " using a shared tick pool"));
+
+        Selector selector = Selector.open();
+        List<SocketChannel> clients = new ArrayList<>();
+        long connectStart = System.currentTimeMillis();
+        for(int i = 0; i < sessionCount; i++) {
+            SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", port));
+            client.configureBlocking(false);
+            client.register(selector, SelectionKey.OP_READ);
+            clients.add(client);
+        }
+        while(server.getSessions().size() < sessionCount) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.out.println("Started " + sessionCount + " sessions in " + (System.currentTimeMillis() - connectStart) + "ms");
+
+        Random rand = new Random(1);
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        ByteBuffer key = ByteBuffer.allocate(1);
+        long bytesReceived = 0;
+        long start = System.currentTimeMillis();
+        long nextInput = start;
+        long[] warmUpHistogram = null;
+        long warmUpTicks = 0, warmUpSkipped = 0;
+        while(System.currentTimeMillis() - start < WARM_UP + seconds * 1000L) {
+            if(warmUpHistogram == null && System.currentTimeMillis() - start >= WARM_UP) {
+                warmUpHistogram = new long[GameSession.LATENESS_BUCKETS];
+                for(GameSession session : server.getSessions()) {
+                    session.addLatenessTo(warmUpHistogram);
+                    warmUpTicks += session.getTickCount();
+                    warmUpSkipped += session.getSkippedFrames();
+                }
+                bytesReceived = 0;
+            }
+            selector.select(INPUT_INTERVAL / 4);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey selected = keys.next();
+                keys.remove();
+                readBuffer.clear();
+                int read = ((SocketChannel)selected.channel()).read(readBuffer);
+                if(read > 0) bytesReceived += read;
+            }
+            if(System.currentTimeMillis() >= nextInput) {
+                nextInput += INPUT_INTERVAL;
+                for(SocketChannel client : clients) {
+                    key.clear();
+                    key.put((byte)KEYS[rand.nextInt(KEYS.length)]);
+                    key.flip();
+                    client.write(key);
+                }
+            }
+        }
+
+        long[] histogram = new long[GameSession.LATENESS_BUCKETS];
+        long ticks = -warmUpTicks, skipped = -warmUpSkipped;
+        for(GameSession session : server.getSessions()) {
+            session.addLatenessTo(histogram);
+            ticks += session.getTickCount();
+            skipped += session.getSkippedFrames();
+        }
+        for(int i = 0; i < histogram.length; i++) {
+            histogram[i] -= warmUpHistogram[i];
+        }
+        server.stop();
+        for(SocketChannel client : clients) {
+            client.close();
+        }
+        selector.close();
+
+        System.out.printf("Ticks: %d (%.1f per session per second, target %d)%n", ticks,
+                ticks / (double)sessionCount / seconds, 1000 / GamePanel.TIME_BETWEEN_UPDATES);
+        System.out.printf("Tick lateness p50 %.1fms p99 %.1fms p99.9 %.1fms%n",
+                percentile(histogram, 0.5), percentile(histogram, 0.99), percentile(histogram, 0.999));
+        System.out.printf("Frames skipped for slow clients: %d, received %.1f MB%n", skipped, bytesReceived / 1e6);
+    }
+
+    /**
+     * Finds the lateness below which a fraction of the ticks started.
+     *
+     * @param histogram Count of ticks in each lateness bucket.
+     * @param fraction The fraction of ticks such as 0.99.
+     * @return The upper edge of the bucket containing the percentile in milliseconds.
+     */
+    private static double percentile(long[] histogram, double fraction) {
+        long total = 0;
+        for(long count : histogram) total += count;
+        long target = (long)Math.ceil(total * fraction);
+        long seen = 0;
+        for(int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if(seen >= target) return (i + 1) * GameSession.LATENESS_BUCKET_NANOS / 1e6;
+        }
+        return histogram.length * GameSession.LATENESS_BUCKET_NANOS / 1e6;
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * Spectator class:
+ * A connection watching a GameSession. After connecting to the spectator port the client
+ * sends the int id of the session to watch, and then sends the int tick of each frame it
+ * has applied as an acknowledgement. Frames are sent from the buffers shared by every
+ * spectator of the session, so the cost of a spectator is only the write to its socket.
+ * A spectator that falls behind is not sent anything until it catches up, and is then
+ * sent a keyframe to resync.
+ */
+public class Spectator {
+    /**
+     * Ticks that can be sent without being acknowledged before the spectator is treated as behind.
+     */
+    public static final int MAX_UNACKNOWLEDGED = 50;
+
+    /**
+     * Connection to the spectator.
+     */
+    private final SocketChannel channel;
+    /**
+     * Collects the four bytes of each int received from the spectator.
+     */
+    private final ByteBuffer received;
+    /**
+     * The session being watched, or null until the spectator has sent its id.
+     */
+    private GameSession session;
+    /**
+     * Latest tick the spectator acknowledged. Written by the network thread.
+     */
+    private volatile long acknowledgedTick;
+    /**
+     * True when the spectator must be sent a keyframe before any more deltas.
+     */
+    private boolean needsKeyframe;
+    /**
+     * Remainder of a frame the socket could not take, sent before anything newer.
+     */
+    private ByteBuffer pending;
+    /**
+     * Total bytes written to the spectator.
+     */
+    private long bytesSent;
+
+    /**
+     * Creates a spectator that is waiting to be told which session to watch.
+     *
+     * @param channel Connection to the spectator.
+     */
+    public Spectator(SocketChannel channel) {
+        this.channel = channel;
+        received = ByteBuffer.allocate(4);
+        needsKeyframe = true;
+    }
+
+    /**
+     * Handles bytes received from the spectator on the network thread.
+     *
+     * @param input Buffer holding the bytes that were read.
+     * @return The id of the session to watch once it has been received, otherwise -1.
+     */
+    public int receive(ByteBuffer input) {
+        int sessionId = -1;
+        while(input.hasRemaining()) {
+            received.put(input.get());
+            if(received.hasRemaining()) continue;
+            int value = received.getInt(0);
+            received.clear();
+            if(session == null && sessionId < 0) {
+                sessionId = value;
+            } else {
+                acknowledgedTick = Math.max(acknowledgedTick, value);
+            }
+        }
+        return sessionId;
+    }
+
+    /**
+     * Starts watching a session. Called once from the network thread.
+     *
+     * @param session The session to watch.
+     */
+    public void watch(GameSession session) {
+        acknowledgedTick = session.getTickCount();
+        this.session = session;
+    }
+
+    /**
+     * Sends the frame for the latest tick of the session from the tick thread.
+     * Sends the delta if the spectator is up to date, the keyframe if it needs to resync,
+     * or nothing if it is behind on acknowledgements or the socket is full.
+     *
+     * @param encoder The encoder holding the frames for the tick.
+     * @param tick The tick the frames are for.
+     * @param forceKeyframe True to send the keyframe even if the delta could be used.
+     * @throws IOException If the connection has failed.
+     */
+    public void send(DeltaEncoder encoder, long tick, boolean forceKeyframe) throws IOException {
+        if(pending != null && pending.hasRemaining()) {
+            bytesSent += channel.write(pending);
+            if(pending.hasRemaining()) {
+                needsKeyframe = true;
+                return;
+            }
+        }
+        if(tick - acknowledgedTick > MAX_UNACKNOWLEDGED) {
+            needsKeyframe = true;
+            return;
+        }
+        boolean sendKeyframe = needsKeyframe || forceKeyframe || !encoder.hasDelta();
+        ByteBuffer frame = sendKeyframe ? encoder.getKeyframe() : encoder.getDelta();
+        frame.position(0);
+        bytesSent += channel.write(frame);
+        if(frame.hasRemaining()) {
+            if(pending == null || pending.capacity() < encoder.getMaxFrameBytes()) {
+                pending = ByteBuffer.allocateDirect(encoder.getMaxFrameBytes());
+            }
+            pending.clear();
+            pending.put(frame);
+            pending.flip();
+        }
+        frame.position(0);
+        if(sendKeyframe) needsKeyframe = false;
+    }
+
+    /**
+     * Gets the session being watched.
+     *
+     * @return The session, or null if the spectator has not chosen one yet.
+     */
+    public GameSession getSession() {
+        return session;
+    }
+
+    /**
+     * Gets the connection to the spectator.
+     *
+     * @return The channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Gets the total bytes written to the spectator.
+     *
+     * @return The number of bytes sent.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Closes the connection to the spectator.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close spectator: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * SpectatorLoadTest class:
+ * Starts a GameServer with one player and watches the session with increasing numbers of
+ * spectators over loopback. Every spectator decodes the frames it is sent into a
+ * SpectatorState and acknowledges them. For each spectator count the bytes sent and the
+ * server time spent per spectator each tick are printed, which should stay flat as the
+ * count grows because each tick is only encoded once.
+ *
+ * Arguments: [seconds=5] [spectator counts=1,10,100,1000]
+ */
+public class SpectatorLoadTest {
+    /**
+     * Time in milliseconds between the player sending a key.
+     */
+    private static final int INPUT_INTERVAL = 200;
+    /**
+     * Number of frames a spectator applies between acknowledgements.
+     */
+    private static final int ACK_INTERVAL = 5;
+    /**
+     * Keys the player chooses between.
+     */
+    private static final int[] KEYS = {KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT};
+
+    /**
+     * A spectator connection on the client side.
+     */
+    private static class Watcher {
+        /**
+         * Connection to the server.
+         */
+        SocketChannel channel;
+        /**
+         * Bytes received that have not been decoded yet.
+         */
+        ByteBuffer inbound = ByteBuffer.allocate(64 * 1024);
+        /**
+         * Reused buffer for sending acknowledgements.
+         */
+        ByteBuffer ack = ByteBuffer.allocate(4);
+        /**
+         * The decoded game.
+         */
+        SpectatorState state = new SpectatorState();
+        /**
+         * Frames applied since the last acknowledgement.
+         */
+        int unacknowledged;
+        /**
+         * Delta frames that could not be applied.
+         */
+        int rejected;
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args Optional number of seconds for each count and a comma separated list of spectator counts.
+     * @throws IOException If the server or a client fails to connect.
+     */
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        String counts = args.length > 1 ? args[1] : "1,10,100,1000";
+        System.out.println("Spectators | bytes/s each | server ns per spectator per tick | rejected deltas");
+        for(String count : counts.split(",")) {
+            run(Integer.parseInt(count.trim()), seconds);
+        }
+    }
+
+    /**
+     * Runs one server with a player and a number of spectators and prints the results.
+     *
+     * @param spectatorCount Number of spectators to connect.
+     * @param seconds Time to watch for.
+     * @throws IOException If the server or a client fails to connect.
+     */
+    private static void run(int spectatorCount, int seconds) throws IOException {
+        GameServer server = new GameServer();
+        int port = server.start(0, 0);
+        SocketChannel player = SocketChannel.open(new InetSocketAddress("localhost", port));
+        player.configureBlocking(false);
+        while(server.getSessions().isEmpty()) {
+            sleep(10);
+        }
+        GameSession session = server.getSessions().get(0);
+
+        Selector selector = Selector.open();
+        List<Watcher> watchers = new ArrayList<>();
+        ByteBuffer request = ByteBuffer.allocate(4);
+        for(int i = 0; i < spectatorCount; i++) {
+            Watcher watcher = new Watcher();
+            watcher.channel = SocketChannel.open(new InetSocketAddress("localhost", server.getSpectatorPort()));
+            request.clear();
+            request.putInt(session.getId());
+            request.flip();
+            watcher.channel.write(request);
+            watcher.channel.configureBlocking(false);
+            watcher.channel.register(selector, SelectionKey.OP_READ, watcher);
+            watchers.add(watcher);
+        }
+        while(session.getSpectators().size() < spectatorCount) {
+            sleep(10);
+        }
+
+        Random rand = new Random(1);
+        ByteBuffer key = ByteBuffer.allocate(1);
+        ByteBuffer discard = ByteBuffer.allocate(4096);
+        long startBroadcastNanos = session.getBroadcastNanos();
+        long startBroadcastTicks = session.getBroadcastTicks();
+        long startBytes = totalBytesSent(session);
+        long start = System.currentTimeMillis();
+        long nextInput = start;
+        int inputs = 0;
+        while(System.currentTimeMillis() - start < seconds * 1000L) {
+            selector.select(INPUT_INTERVAL / 4);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey selected = keys.next();
+                keys.remove();
+                receive((Watcher)selected.attachment());
+            }
+            discard.clear();
+            player.read(discard);
+            if(System.currentTimeMillis() >= nextInput) {
+                nextInput += INPUT_INTERVAL;
+                key.clear();
+                key.put((byte)(++inputs % 100 == 0 ? 'R' : KEYS[rand.nextInt(KEYS.length)]));
+                key.flip();
+                player.write(key);
+            }
+        }
+        long ticks = session.getBroadcastTicks() - startBroadcastTicks;
+        long nanos = session.getBroadcastNanos() - startBroadcastNanos;
+        long bytes = totalBytesSent(session) - startBytes;
+        int rejected = 0;
+        for(Watcher watcher : watchers) {
+            rejected += watcher.rejected;
+        }
+        server.stop();
+        player.close();
+        for(Watcher watcher : watchers) {
+            watcher.channel.close();
+        }
+        selector.close();
+
+        System.out.printf("%10d | %12.0f | %32.0f | %d%n", spectatorCount,
+                bytes / (double)spectatorCount / seconds, nanos / (double)Math.max(1, ticks) / spectatorCount, rejected);
+    }
+
+    /**
+     * Reads everything waiting for a spectator, applies each complete frame and
+     * acknowledges every ACK_INTERVAL frames.
+     *
+     * @param watcher The spectator to read for.
+     * @throws IOException If the connection has failed.
+     */
+    private static void receive(Watcher watcher) throws IOException {
+        if(watcher.channel.read(watcher.inbound) < 0) return;
+        watcher.inbound.flip();
+        while(watcher.inbound.remaining() >= 4 && watcher.inbound.remaining() >= 4 + watcher.inbound.getInt(watcher.inbound.position())) {
+            int length = watcher.inbound.getInt();
+            int end = watcher.inbound.position() + length;
+            int limit = watcher.inbound.limit();
+            watcher.inbound.limit(end);
+            if(watcher.state.apply(watcher.inbound)) {
+                watcher.unacknowledged++;
+            } else {
+                watcher.rejected++;
+            }
+            watcher.inbound.limit(limit);
+            watcher.inbound.position(end);
+        }
+        watcher.inbound.compact();
+        if(watcher.unacknowledged >= ACK_INTERVAL) {
+            watcher.unacknowledged = 0;
+            watcher.ack.clear();
+            watcher.ack.putInt((int)watcher.state.getTick());
+            watcher.ack.flip();
+            watcher.channel.write(watcher.ack);
+        }
+    }
+
+    /**
+     * Adds up the bytes sent to every spectator of a session.
+     *
+     * @param session The session.
+     * @return The total bytes sent.
+     */
+    private static long totalBytesSent(GameSession session) {
+        long total = 0;
+        for(Spectator spectator : session.getSpectators()) {
+            total += spectator.getBytesSent();
+        }
+        return total;
+    }
+
+    /**
+     * Sleeps without throwing.
+     *
+     * @param millis Time to sleep in milliseconds.
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
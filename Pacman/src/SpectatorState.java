@@ -0,0 +1,245 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * SpectatorState class:
+ * The state of a game rebuilt on the spectator's side from the frames made by a DeltaEncoder.
+ * A keyframe replaces the whole state. A delta is only applied when it was encoded
+ * from the tick the spectator is currently at, otherwise a keyframe is needed first.
+ */
+public class SpectatorState {
+    /**
+     * Tick the state is at, or -1 before the first keyframe.
+     */
+    private long tick;
+    /**
+     * Current score and the ordinal of the Map.MapState.
+     */
+    private int score, mapState;
+    /**
+     * Pacman's cell and facing.
+     */
+    private int pacmanX, pacmanY, pacmanFacing;
+    /**
+     * Cell, facing and state ordinal of each ghost.
+     */
+    private int[] ghostX, ghostY, ghostFacing, ghostState;
+    /**
+     * Collected flag of each collectible in row order.
+     */
+    private boolean[] collected;
+    /**
+     * DeltaEncoder.CHERRY_ flags of each cherry in row order.
+     */
+    private byte[] cherryFlags;
+
+    /**
+     * Creates a state that is waiting for its first keyframe.
+     */
+    public SpectatorState() {
+        tick = -1;
+    }
+
+    /**
+     * Applies a frame without the length prefix.
+     *
+     * @param frame Buffer positioned at the frame type and limited to the end of the frame.
+     * @return True if the frame was applied. False if it was a delta from a different tick.
+     */
+    public boolean apply(ByteBuffer frame) {
+        byte type = frame.get();
+        int frameTick = frame.getInt();
+        if(type == DeltaEncoder.FRAME_KEYFRAME) {
+            applyKeyframe(frame);
+        } else {
+            if(tick < 0 || frame.getInt() != (int)tick) return false;
+            applyDelta(frame);
+        }
+        tick = frameTick;
+        return true;
+    }
+
+    /**
+     * Gets the tick the state is at.
+     *
+     * @return The tick, or -1 before the first keyframe.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Gets the score.
+     *
+     * @return The score.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the map state.
+     *
+     * @return The ordinal of the Map.MapState.
+     */
+    public int getMapState() {
+        return mapState;
+    }
+
+    /**
+     * Gets Pacman's X coordinate.
+     *
+     * @return The X coordinate.
+     */
+    public int getPacmanX() {
+        return pacmanX;
+    }
+
+    /**
+     * Gets Pacman's Y coordinate.
+     *
+     * @return The Y coordinate.
+     */
+    public int getPacmanY() {
+        return pacmanY;
+    }
+
+    /**
+     * Gets the number of ghosts.
+     *
+     * @return The number of ghosts.
+     */
+    public int getGhostCount() {
+        return ghostX == null ? 0 : ghostX.length;
+    }
+
+    /**
+     * Gets a ghost's X coordinate.
+     *
+     * @param ghost The ghost number.
+     * @return The X coordinate.
+     */
+    public int getGhostX(int ghost) {
+        return ghostX[ghost];
+    }
+
+    /**
+     * Gets a ghost's Y coordinate.
+     *
+     * @param ghost The ghost number.
+     * @return The Y coordinate.
+     */
+    public int getGhostY(int ghost) {
+        return ghostY[ghost];
+    }
+
+    /**
+     * Gets a ghost's state.
+     *
+     * @param ghost The ghost number.
+     * @return The ordinal of the Ghost.GhostState.
+     */
+    public int getGhostState(int ghost) {
+        return ghostState[ghost];
+    }
+
+    /**
+     * Gets the number of collectibles that have been collected.
+     *
+     * @return The number collected.
+     */
+    public int getCollectedCount() {
+        int count = 0;
+        for(boolean isCollected : collected) {
+            if(isCollected) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the state with the contents of a keyframe.
+     *
+     * @param frame Buffer positioned after the tick.
+     */
+    private void applyKeyframe(ByteBuffer frame) {
+        score = frame.getInt();
+        mapState = frame.get();
+        pacmanX = frame.getShort();
+        pacmanY = frame.getShort();
+        pacmanFacing = frame.get();
+        int ghostCount = frame.getShort() & 0xFFFF;
+        if(ghostX == null || ghostX.length != ghostCount) {
+            ghostX = new int[ghostCount];
+            ghostY = new int[ghostCount];
+            ghostFacing = new int[ghostCount];
+            ghostState = new int[ghostCount];
+        }
+        for(int i = 0; i < ghostCount; i++) {
+            ghostX[i] = frame.getShort();
+            ghostY[i] = frame.getShort();
+            ghostFacing[i] = frame.get();
+            ghostState[i] = frame.get();
+        }
+        int collectibleCount = frame.getInt();
+        if(collected == null || collected.length != collectibleCount) {
+            collected = new boolean[collectibleCount];
+        }
+        for(int i = 0; i < collectibleCount; i += 8) {
+            int bits = frame.get();
+            for(int bit = 0; bit < 8 && i + bit < collectibleCount; bit++) {
+                collected[i + bit] = (bits & (1 << bit)) != 0;
+            }
+        }
+        int cherryCount = frame.getShort() & 0xFFFF;
+        if(cherryFlags == null || cherryFlags.length != cherryCount) {
+            cherryFlags = new byte[cherryCount];
+        }
+        frame.get(cherryFlags);
+    }
+
+    /**
+     * Applies the changes in a delta.
+     *
+     * @param frame Buffer positioned after the base tick.
+     */
+    private void applyDelta(ByteBuffer frame) {
+        int flags = frame.get();
+        if((flags & DeltaEncoder.CHANGED_SCORE) != 0) {
+            score += frame.getShort();
+        }
+        if((flags & DeltaEncoder.CHANGED_MAP_STATE) != 0) {
+            mapState = frame.get();
+        }
+        if((flags & DeltaEncoder.CHANGED_PACMAN) != 0) {
+            pacmanX = frame.getShort();
+            pacmanY = frame.getShort();
+            pacmanFacing = frame.get();
+        }
+        if((flags & DeltaEncoder.CHANGED_GHOSTS) != 0) {
+            int count = frame.getShort() & 0xFFFF;
+            for(int i = 0; i < count; i++) {
+                int ghost = frame.getShort() & 0xFFFF;
+                ghostX[ghost] = frame.getShort();
+                ghostY[ghost] = frame.getShort();
+                ghostFacing[ghost] = frame.get();
+                ghostState[ghost] = frame.get();
+            }
+        }
+        if((flags & DeltaEncoder.CHANGED_COLLECTED) != 0) {
+            int count = frame.getInt();
+            for(int i = 0; i < count; i++) {
+                int index = frame.getInt();
+                collected[index] = !collected[index];
+            }
+        }
+        if((flags & DeltaEncoder.CHANGED_CHERRIES) != 0) {
+            int count = frame.getShort() & 0xFFFF;
+            for(int i = 0; i < count; i++) {
+                int cherry = frame.getShort() & 0xFFFF;
+                cherryFlags[cherry] = frame.get();
+            }
+        }
+    }
+}
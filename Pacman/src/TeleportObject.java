@@ -44,4 +44,22 @@ public class TeleportObject extends MapObject {
             pacman.setFacing(facingAfterTeleport);
         }
     }
+
+    /**
+     * Gets the position that Pacman is sent to after entering this teleport.
+     *
+     * @return The destination of the teleport.
+     */
+    public Position getTeleportTo() {
+        return teleportTo;
+    }
+
+    /**
+     * Gets the facing that Pacman is given after entering this teleport.
+     *
+     * @return The facing after teleporting.
+     */
+    public int getFacingAfterTeleport() {
+        return facingAfterTeleport;
+    }
 }
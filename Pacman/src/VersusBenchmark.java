@@ -0,0 +1,106 @@
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * VersusBenchmark class:
+ * Plays a versus game between two RollbackSessions in one process over loopback UDP
+ * with an artificial delay on each link. Both players press random keys, and Pacman
+ * restarts whenever the game ends. Prints how often each side rolled back, how long
+ * each update took including any re-simulation, how often a side stalled, and whether
+ * the two sides agreed on the checksum of every confirmed tick.
+ *
+ * Arguments: [seconds=20] [delay in milliseconds=100]
+ */
+public class VersusBenchmark {
+    /**
+     * Keys the players choose between.
+     */
+    private static final int[] KEYS = {KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT};
+    /**
+     * Chance out of 100 that a player presses a key on any update.
+     */
+    private static final int KEY_CHANCE = 15;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Optional number of seconds to play and the delay on each link.
+     * @throws IOException If the links can not be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int delay = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        DatagramLink pacmanLink = new DatagramLink(0);
+        DatagramLink ghostLink = new DatagramLink(0);
+        pacmanLink.connect(new InetSocketAddress("localhost", ghostLink.getLocalPort()));
+        ghostLink.connect(new InetSocketAddress("localhost", pacmanLink.getLocalPort()));
+        pacmanLink.setDelay(delay);
+        ghostLink.setDelay(delay);
+        RollbackSession[] sessions = {
+                new RollbackSession(new Map(), RollbackSession.PLAYER_PACMAN, pacmanLink),
+                new RollbackSession(new Map(), RollbackSession.PLAYER_GHOST, ghostLink)
+        };
+
+        Random rand = new Random(1);
+        int updates = seconds * 1000 / GamePanel.TIME_BETWEEN_UPDATES;
+        long[][] advanceNanos = new long[2][updates];
+        long nextUpdate = System.nanoTime();
+        for(int update = 0; update < updates; update++) {
+            for(int side = 0; side < 2; side++) {
+                RollbackSession session = sessions[side];
+                int key = RollbackSession.NO_INPUT;
+                if(side == RollbackSession.PLAYER_PACMAN && session.getMap().getMapState() != Map.MapState.Running) {
+                    key = KeyEvent.VK_R;
+                } else if(rand.nextInt(100) < KEY_CHANCE) {
+                    key = KEYS[rand.nextInt(KEYS.length)];
+                }
+                long start = System.nanoTime();
+                session.advance(key);
+                advanceNanos[side][update] = System.nanoTime() - start;
+            }
+            nextUpdate += GamePanel.TIME_BETWEEN_UPDATES * 1_000_000L;
+            long sleepNanos = nextUpdate - System.nanoTime();
+            if(sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int)(sleepNanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        System.out.printf("%d updates each with %d ms delay, snapshot %d ints%n", updates, delay, sessions[0].getMap().getStateSize());
+        System.out.println("Side   | ticks | rollbacks | resim avg | resim max | advance p50 us | p99 us | max us | stalls | desyncs");
+        for(int side = 0; side < 2; side++) {
+            RollbackSession session = sessions[side];
+            long[] nanos = advanceNanos[side];
+            Arrays.sort(nanos);
+            System.out.printf("%-6s | %5d | %9d | %9.1f | %9d | %14.1f | %6.1f | %6.1f | %6d | %d%n",
+                    side == RollbackSession.PLAYER_PACMAN ? "pacman" : "ghost", session.getTick(), session.getRollbacks(),
+                    session.getResimulatedTicks() / (double)Math.max(1, session.getRollbacks()), session.getMaxResimulatedTicks(),
+                    nanos[nanos.length / 2] / 1000.0, nanos[nanos.length * 99 / 100] / 1000.0, nanos[nanos.length - 1] / 1000.0,
+                    session.getStalls(), session.getDesyncs());
+        }
+
+        // Only ticks still held by both sides can be compared
+        int common = Math.min(sessions[0].getConfirmedTick(), sessions[1].getConfirmedTick());
+        int latest = Math.max(sessions[0].getConfirmedTick(), sessions[1].getConfirmedTick());
+        int first = Math.max(0, latest - RollbackSession.HISTORY + 1);
+        int mismatched = 0;
+        for(int t = first; t <= common; t++) {
+            if(sessions[0].getChecksum(t) != sessions[1].getChecksum(t)) mismatched++;
+        }
+        System.out.println("Checksums of confirmed ticks " + first + " to " + common + ": "
+                + (mismatched == 0 ? "match" : mismatched + " differ"));
+        pacmanLink.close();
+        ghostLink.close();
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * WorldLoadTest class:
+ * Builds a ChunkedWorld by tiling a generated maze many times over and walks an explorer
+ * Pacman through it with ghosts roaming near him, paging the world around them every tick.
+ * Prints how long the ticks took, how many chunks were paged and how many were ever in memory
+ * at once, then reopens the file to check the collected dots were kept. A chunk miss means
+ * an actor reached a chunk before it was paged in, which is the pause paging ahead avoids.
+ *
+ * Arguments: [tilesAcross=16] [tilesDown=32] [ticks=200000] [file=world.dat]
+ */
+public class WorldLoadTest {
+    /**
+     * Size of the maze that is tiled to make the world.
+     */
+    private static final int TILE_WIDTH = 801, TILE_HEIGHT = 401;
+    /**
+     * Number of ghosts roaming near Pacman.
+     */
+    private static final int GHOST_COUNT = 4;
+    /**
+     * Distance in cells a ghost can wander from Pacman before it is placed back on him.
+     */
+    private static final int GHOST_RANGE = 100;
+    /**
+     * Chance of Pacman taking the turn that heads furthest right and down instead of a random one.
+     */
+    private static final double EXPLORE_CHANCE = 0.75;
+    /**
+     * Number of collected cells remembered to check after reopening the world.
+     */
+    private static final int CHECKED_CELLS = 1000;
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DX = {0, 1, 0, -1};
+    /**
+     * Unit vectors for facing 0=Up, 1=Right, 2=Down, 3=Left.
+     */
+    private static final int[] DY = {-1, 0, 1, 0};
+    /**
+     * Directions an actor can take from its cell, reused by every move.
+     */
+    private static final int[] MOVE_OPTIONS = new int[3];
+
+    /**
+     * Runs the load test.
+     *
+     * @param args Optional number of tiles across and down, number of ticks and world file.
+     * @throws IOException If the world file can not be written or read.
+     */
+    public static void main(String[] args) throws IOException {
+        int tilesAcross = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int tilesDown = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int ticks = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        Path file = Paths.get(args.length > 3 ? args[3] : "world.dat");
+
+        long start = System.nanoTime();
+        MazeGenerator maze = new MazeGenerator(TILE_WIDTH, TILE_HEIGHT, 1, GHOST_COUNT);
+        int tileWidth = maze.getWidth(), tileHeight = maze.getHeight();
+        ChunkedWorld.create(file, tileWidth * tilesAcross, tileHeight * tilesDown, ChunkedWorld.DEFAULT_CHUNK_SIZE,
+                (x, y) -> maze.getCell(x % tileWidth, y % tileHeight), tileWidth, tileHeight, maze.getRestrictions());
+        System.out.printf("Created %dx%d world in %.1f s%n", tileWidth * tilesAcross, tileHeight * tilesDown,
+                (System.nanoTime() - start) / 1e9);
+
+        ChunkedWorld world = new ChunkedWorld(file);
+        Position pacman = findPacman(maze);
+        int pacmanFacing = 1;
+        List<Position> actors = new ArrayList<>();
+        actors.add(pacman);
+        int[] ghostFacings = new int[GHOST_COUNT];
+        for(int i = 0; i < GHOST_COUNT; i++) {
+            actors.add(new Position(pacman.x, pacman.y));
+            ghostFacings[i] = i;
+        }
+
+        Random rand = new Random(1);
+        List<Position> checkedCells = new ArrayList<>();
+        long[] tickTimes = new long[ticks];
+        long furthest = 0;
+        for(int tick = 0; tick < ticks; tick++) {
+            long tickStart = System.nanoTime();
+            world.update(actors);
+            pacmanFacing = move(world, pacman, pacmanFacing, rand, true);
+            if(world.collect(pacman.x, pacman.y) != 0 && checkedCells.size() < CHECKED_CELLS) {
+                checkedCells.add(new Position(pacman.x, pacman.y));
+            }
+            for(int i = 0; i < GHOST_COUNT; i++) {
+                Position ghost = actors.get(i + 1);
+                if(Math.max(Math.abs(ghost.x - pacman.x), Math.abs(ghost.y - pacman.y)) > GHOST_RANGE) {
+                    ghost.x = pacman.x;
+                    ghost.y = pacman.y;
+                }
+                ghostFacings[i] = move(world, ghost, ghostFacings[i], rand, false);
+            }
+            tickTimes[tick] = System.nanoTime() - tickStart;
+            furthest = Math.max(furthest, pacman.x + (long)pacman.y);
+        }
+        Arrays.sort(tickTimes);
+        System.out.printf("Ticks %d mean %.1f us p99 %.1f us max %.1f us%n", ticks,
+                Arrays.stream(tickTimes).average().orElse(0) / 1000, tickTimes[(int)(ticks * 0.99)] / 1000.0,
+                tickTimes[ticks - 1] / 1000.0);
+        System.out.printf("Pacman ended at %d,%d, at most %d cells right and down from the corner, collected %d%n", pacman.x, pacman.y,
+                furthest, world.getCollectedCount());
+        System.out.printf("Chunks paged in %d, evicted %d, misses %d, peak in memory %d (%d KB)%n",
+                world.getPageIns(), world.getEvictions(), world.getMisses(), world.getPeakResidentCount(),
+                (long)world.getPeakResidentCount() * world.getChunkBytes() / 1024);
+        long collected = world.getCollectedCount();
+        world.close();
+
+        ChunkedWorld reopened = new ChunkedWorld(file);
+        boolean allKept = reopened.getCollectedCount() == collected;
+        for(Position cell : checkedCells) {
+            allKept &= reopened.isCollected(cell.x, cell.y);
+        }
+        reopened.close();
+        System.out.println("Collected cells kept after reopening: " + allKept);
+    }
+
+    /**
+     * Moves an actor one cell, continuing along its corridor and choosing a turn at junctions.
+     * Only turns back when there is no other way.
+     *
+     * @param world The world to move in.
+     * @param actor The position of the actor, changed by the move.
+     * @param facing The direction the actor last moved.
+     * @param rand Source of random turns.
+     * @param explore True to mostly take the turn heading furthest right and down.
+     * @return The direction moved.
+     * @throws IOException If the world file can not be mapped.
+     */
+    private static int move(ChunkedWorld world, Position actor, int facing, Random rand, boolean explore) throws IOException {
+        int[] options = MOVE_OPTIONS;
+        int count = 0;
+        for(int d = 0; d < 4; d++) {
+            if(d == (facing + 2) % 4) continue;
+            if(canEnter(world.getCell(actor.x + DX[d], actor.y + DY[d]))) options[count++] = d;
+        }
+        int direction;
+        if(count == 0) {
+            direction = (facing + 2) % 4;
+            if(!canEnter(world.getCell(actor.x + DX[direction], actor.y + DY[direction]))) return facing;
+        } else if(explore && rand.nextDouble() < EXPLORE_CHANCE) {
+            direction = options[0];
+            for(int i = 1; i < count; i++) {
+                if(DX[options[i]] + DY[options[i]] > DX[direction] + DY[direction]) direction = options[i];
+            }
+        } else {
+            direction = options[rand.nextInt(count)];
+        }
+        actor.x += DX[direction];
+        actor.y += DY[direction];
+        return direction;
+    }
+
+    /**
+     * Tests if an actor can walk into a cell. Doors are left closed and teleports are walked
+     * through as open cells, since tiles sit side by side.
+     *
+     * @param cell The character of the cell.
+     * @return True if the cell is not a wall or door.
+     */
+    private static boolean canEnter(char cell) {
+        return cell != 'W' && cell != 'D';
+    }
+
+    /**
+     * Finds the start of Pacman in the first tile.
+     *
+     * @param maze The tiled maze.
+     * @return The cell marked 'P'.
+     */
+    private static Position findPacman(MazeGenerator maze) {
+        for(int x = 0; x < maze.getWidth(); x++) {
+            for(int y = 0; y < maze.getHeight(); y++) {
+                if(maze.getCell(x, y) == 'P') return new Position(x, y);
+            }
+        }
+        throw new IllegalStateException("Generated maze has no Pacman.");
+    }
+}
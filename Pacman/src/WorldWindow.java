@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * WorldWindow class:
+ * The part of a ChunkedWorld that a Map holds as its grid. The Map is a fixed size window onto
+ * the world, so it uses the same memory however large the world is. Every update the world is
+ * paged in around Pacman and the ghosts, and once Pacman comes within a quarter of the window
+ * of its edge the window moves to centre him again, with every actor kept on its world cell.
+ * What has been collected is written back to the world before the window moves and when the
+ * game exits, so it stays collected when the cells are shown again.
+ *
+ * A world is made of tiles of an ordinary map, so teleports are open cells, since the tiles sit
+ * side by side, and only the ghosts of the house nearest Pacman's start are created.
+ */
+public class WorldWindow {
+    /**
+     * Default number of cells across the window. Three times the widest view of the GamePanel,
+     * so Pacman is always far enough from the edge for the camera to stay centred on him.
+     */
+    public static final int DEFAULT_WIDTH = 144;
+    /**
+     * Default number of cells down the window. Three times the tallest view of the GamePanel.
+     */
+    public static final int DEFAULT_HEIGHT = 108;
+    /**
+     * Largest number of ghosts created in a world, taken from the ghost cells nearest Pacman's start.
+     */
+    public static final int MAX_GHOSTS = 4;
+    /**
+     * Furthest from the top left corner of the world, in cells, that Pacman's start is looked for.
+     */
+    private static final int MAX_START_SEARCH = 4096;
+
+    /**
+     * The world the window looks onto.
+     */
+    private final ChunkedWorld world;
+    /**
+     * Number of cells across the window.
+     */
+    private final int width;
+    /**
+     * Number of cells down the window.
+     */
+    private final int height;
+    /**
+     * World cell of Pacman's start.
+     */
+    private final int startX, startY;
+    /**
+     * World cell shown in the top left corner of the window.
+     */
+    private int originX, originY;
+    /**
+     * World cells of Pacman and the ghosts passed to the world for paging, reused every update.
+     */
+    private final List<Position> actorCells;
+
+    /**
+     * Creates a window onto a world centred on Pacman's start, which is the 'P' cell nearest
+     * the top left corner of the world.
+     *
+     * @param world The world to look onto.
+     * @param width Number of cells across the window. Limited to the width of the world.
+     * @param height Number of cells down the window. Limited to the height of the world.
+     * @throws IOException If the world file can not be mapped.
+     * @throws IllegalArgumentException If the world is too small for a map or has no Pacman near its corner.
+     */
+    public WorldWindow(ChunkedWorld world, int width, int height) throws IOException {
+        this.world = world;
+        this.width = Math.min(width, world.getWidth());
+        this.height = Math.min(height, world.getHeight());
+        if(this.width < 3 || this.height < 3) {
+            throw new IllegalArgumentException("A world window must be at least 3x3 cells: " + this.width + "x" + this.height);
+        }
+        actorCells = new ArrayList<>();
+        Position start = findPacmanStart();
+        startX = start.x;
+        startY = start.y;
+        centreOnStart();
+    }
+
+    /**
+     * Gets the number of cells across the window.
+     *
+     * @return The width of the window.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the number of cells down the window.
+     *
+     * @return The height of the window.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the column of the world shown in the left column of the window.
+     *
+     * @return The world column of window column 0.
+     */
+    public int getOriginX() {
+        return originX;
+    }
+
+    /**
+     * Gets the row of the world shown in the top row of the window.
+     *
+     * @return The world row of window row 0.
+     */
+    public int getOriginY() {
+        return originY;
+    }
+
+    /**
+     * Moves the window back to be centred on Pacman's start, as when a game is restarted.
+     */
+    public void centreOnStart() {
+        originX = clampOriginX(startX - width / 2);
+        originY = clampOriginY(startY - height / 2);
+    }
+
+    /**
+     * Reads the cells in the window as lines of map file characters, the same as the lines of a map file.
+     * Collected cells are empty, teleports are open cells, and the only Pacman is the one at his start
+     * when it is asked for. The cells on the edge of the window are walls, like the edge of a map file,
+     * since the navMap has no nodes there for ghosts to move with. Pacman never gets near them,
+     * as the window moves on before he does.
+     *
+     * @param withPacman True to keep the 'P' of Pacman's start, as when loading the map.
+     * @return One line for each row of the window.
+     * @throws IOException If the world file can not be mapped.
+     */
+    public String[] readCells(boolean withPacman) throws IOException {
+        char[][] rows = new char[height][width];
+        // Column by column, which is the order cells are stored in each chunk
+        for(int x = 0; x < width; x++) {
+            int worldX = originX + x;
+            for(int y = 0; y < height; y++) {
+                int worldY = originY + y;
+                char cell = world.getCell(worldX, worldY);
+                if(x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                    cell = 'W';
+                } else if(cell == 'T') {
+                    cell = ' ';
+                } else if(cell == 'P') {
+                    if(!withPacman || worldX != startX || worldY != startY) cell = ' ';
+                } else if((cell == '.' || cell == '*' || cell == 'C') && world.isCollected(worldX, worldY)) {
+                    cell = ' ';
+                }
+                rows[y][x] = cell;
+            }
+        }
+        String[] lines = new String[height];
+        for(int y = 0; y < height; y++) {
+            lines[y] = new String(rows[y]);
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the navMap restrictions of the world that fall inside the window, leaving out the edge
+     * of the window, which has no AINodes.
+     *
+     * @return Each restriction as X, Y and direction, in the window's cells.
+     */
+    public List<int[]> getRestrictions() {
+        List<int[]> restrictions = world.getRestrictions(originX + 1, originY + 1, width - 2, height - 2);
+        for(int[] restriction : restrictions) {
+            restriction[0]++;
+            restriction[1]++;
+        }
+        return restrictions;
+    }
+
+    /**
+     * Marks every collected dot, powerup and cherry in the window as collected in the world.
+     *
+     * @param stateObjects The objects of the window's grid that have state.
+     * @throws IOException If the world file can not be mapped.
+     */
+    public void writeCollected(List<MapObject> stateObjects) throws IOException {
+        for(MapObject object : stateObjects) {
+            boolean collected;
+            if(object instanceof CollectableObject) collected = ((CollectableObject)object).isCollected();
+            else if(object instanceof PowerupObject) collected = ((PowerupObject)object).isCollected();
+            else collected = object instanceof CherryObject && ((CherryObject)object).isCollected();
+            if(collected) world.collect(originX + object.getPosition().x, originY + object.getPosition().y);
+        }
+    }
+
+    /**
+     * Pages the world in around Pacman and the ghosts. Called once each update.
+     *
+     * @param pacman Pacman on the window's grid.
+     * @param ghosts Every ghost on the window's grid.
+     * @throws IOException If the world file can not be mapped.
+     */
+    public void page(Pacman pacman, List<Ghost> ghosts) throws IOException {
+        while(actorCells.size() < ghosts.size() + 1) actorCells.add(new Position(0, 0));
+        while(actorCells.size() > ghosts.size() + 1) actorCells.remove(actorCells.size() - 1);
+        setWorldCell(actorCells.get(0), pacman.getPosition());
+        for(int i = 0; i < ghosts.size(); i++) {
+            setWorldCell(actorCells.get(i + 1), ghosts.get(i).getPosition());
+        }
+        world.update(actorCells);
+    }
+
+    /**
+     * Tests if Pacman is near enough to the edge of the window for it to move, and it can move
+     * further into the world in that direction.
+     *
+     * @param pacman Pacman's cell in the window.
+     * @return True if centreOn() would move the window.
+     */
+    public boolean shouldMove(Position pacman) {
+        return getMovedOriginX(pacman) != originX || getMovedOriginY(pacman) != originY;
+    }
+
+    /**
+     * Moves the window to centre Pacman along each direction he is near the edge in, as far as
+     * the edges of the world allow.
+     *
+     * @param pacman Pacman's cell in the window before it moves.
+     * @return The offset to add to a cell of the old window to get the same world cell in the new one.
+     */
+    public Position centreOn(Position pacman) {
+        int newOriginX = getMovedOriginX(pacman), newOriginY = getMovedOriginY(pacman);
+        Position offset = new Position(originX - newOriginX, originY - newOriginY);
+        originX = newOriginX;
+        originY = newOriginY;
+        return offset;
+    }
+
+    /**
+     * Writes everything collected in the world back to the file and forces it to disk.
+     */
+    public void flush() {
+        world.flush();
+    }
+
+    /**
+     * Sets a position to the world cell of a cell in the window.
+     *
+     * @param worldCell The position to set.
+     * @param windowCell The cell in the window.
+     */
+    private void setWorldCell(Position worldCell, Position windowCell) {
+        worldCell.x = originX + windowCell.x;
+        worldCell.y = originY + windowCell.y;
+    }
+
+    /**
+     * Gets the left column of the window after it moves, which only changes when Pacman is within
+     * a quarter of the width of the left or right edge. Moving only in the directions he is near the
+     * edge in stops the window following him one cell at a time along the edge of the world.
+     *
+     * @param pacman Pacman's cell in the window.
+     * @return The world column of the left of the window.
+     */
+    private int getMovedOriginX(Position pacman) {
+        int margin = width / 4;
+        if(pacman.x >= margin && pacman.x < width - margin) return originX;
+        return clampOriginX(originX + pacman.x - width / 2);
+    }
+
+    /**
+     * Gets the top row of the window after it moves, which only changes when Pacman is within
+     * a quarter of the height of the top or bottom edge.
+     *
+     * @param pacman Pacman's cell in the window.
+     * @return The world row of the top of the window.
+     */
+    private int getMovedOriginY(Position pacman) {
+        int margin = height / 4;
+        if(pacman.y >= margin && pacman.y < height - margin) return originY;
+        return clampOriginY(originY + pacman.y - height / 2);
+    }
+
+    /**
+     * Limits the left column of the window so the window stays inside the world.
+     *
+     * @param x The wanted world column of the left of the window.
+     * @return The nearest column that keeps the window inside the world.
+     */
+    private int clampOriginX(int x) {
+        return Math.max(0, Math.min(x, world.getWidth() - width));
+    }
+
+    /**
+     * Limits the top row of the window so the window stays inside the world.
+     *
+     * @param y The wanted world row of the top of the window.
+     * @return The nearest row that keeps the window inside the world.
+     */
+    private int clampOriginY(int y) {
+        return Math.max(0, Math.min(y, world.getHeight() - height));
+    }
+
+    /**
+     * Finds the 'P' cell nearest the top left corner of the world, searching out from the corner
+     * one square ring of cells at a time.
+     *
+     * @return The world cell of Pacman's start.
+     * @throws IOException If the world file can not be mapped.
+     * @throws IllegalArgumentException If there is no 'P' within MAX_START_SEARCH cells of the corner.
+     */
+    private Position findPacmanStart() throws IOException {
+        int maxRing = Math.min(MAX_START_SEARCH, Math.max(world.getWidth(), world.getHeight()));
+        for(int ring = 0; ring < maxRing; ring++) {
+            for(int i = 0; i <= ring; i++) {
+                if(world.getCell(ring, i) == 'P') return new Position(ring, i);
+                if(world.getCell(i, ring) == 'P') return new Position(i, ring);
+            }
+        }
+        throw new IllegalArgumentException("The world has no Pacman within " + maxRing + " cells of its top left corner.");
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Pacman
+ * Author: Peter Mitchell (2021)
+ *
+ * ZobristHash class:
+ * Maintains a 64-bit fingerprint of the game state that is updated as the state changes.
+ * Each part of the state (Pacman cell and facing, each ghost's cell, facing and state,
+ * collected cells and cherry flags) has a pseudo-random key and the hash is the XOR of the
+ * keys for the current values. Changing a value XORs out the old key and XORs in the new one.
+ * Keys are derived from the part and its value with a mixing function instead of tables
+ * so they are the same for every map size and number of ghosts.
+ */
+public class ZobristHash {
+    /**
+     * The different parts of the state that keys are generated for.
+     */
+    private static final int PACMAN_CELL = 1, PACMAN_FACING = 2, GHOST_CELL = 3, GHOST_FACING = 4,
+            GHOST_STATE = 5, COLLECTED = 6, CHERRY_REVEALED = 7, CHERRY_COLLECTED = 8;
+
+    /**
+     * The current hash value.
+     */
+    private long value;
+
+    /**
+     * Gets the current hash of the state.
+     *
+     * @return The 64-bit hash.
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Replaces the current hash with a value saved earlier. Used when restoring a snapshot.
+     *
+     * @param value The hash of the state being restored.
+     */
+    public void setValue(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Calculates the hash from scratch for everything on the map. Used after loading.
+     *
+     * @param map The map to hash.
+     */
+    public void recompute(Map map) {
+        value = 0;
+        Pacman pacman = map.getPacman();
+        togglePacmanCell(pacman.getPosition());
+        togglePacmanFacing(pacman.getFacing());
+        for(int i = 0; i < map.getGhostCount(); i++) {
+            Ghost ghost = map.getGhost(i);
+            toggleGhostCell(i, ghost.getPosition());
+            toggleGhostFacing(i, ghost.getFacing());
+            toggleGhostState(i, ghost.getGhostState());
+        }
+        MapObject[][] mapObjects = map.getMapObjects();
+        for(int x = 0; x < mapObjects.length; x++) {
+            for(int y = 0; y < mapObjects[0].length; y++) {
+                MapObject mapObject = mapObjects[x][y];
+                if((mapObject instanceof CollectableObject && ((CollectableObject)mapObject).isCollected())
+                        || (mapObject instanceof PowerupObject && ((PowerupObject)mapObject).isCollected())) {
+                    toggleCollected(mapObject.getPosition());
+                } else if(mapObject instanceof CherryObject) {
+                    CherryObject cherry = (CherryObject)mapObject;
+                    if(cherry.isRevealed()) toggleCherryRevealed(cherry.getPosition());
+                    if(cherry.isCollected()) toggleCherryCollected(cherry.getPosition());
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds or removes Pacman being in a cell.
+     *
+     * @param position The cell.
+     */
+    public void togglePacmanCell(Position position) {
+        value ^= pacmanCellKey(position.x, position.y);
+    }
+
+    /**
+     * Adds or removes Pacman's facing.
+     *
+     * @param facing The facing.
+     */
+    public void togglePacmanFacing(int facing) {
+        value ^= pacmanFacingKey(facing);
+    }
+
+    /**
+     * Adds or removes a ghost being in a cell.
+     *
+     * @param ghost The ghost number.
+     * @param position The cell.
+     */
+    public void toggleGhostCell(int ghost, Position position) {
+        value ^= ghostCellKey(ghost, position.x, position.y);
+    }
+
+    /**
+     * Adds or removes a ghost's facing.
+     *
+     * @param ghost The ghost number.
+     * @param facing The facing.
+     */
+    public void toggleGhostFacing(int ghost, int facing) {
+        value ^= ghostFacingKey(ghost, facing);
+    }
+
+    /**
+     * Adds or removes a ghost's state.
+     *
+     * @param ghost The ghost number.
+     * @param state The state.
+     */
+    public void toggleGhostState(int ghost, Ghost.GhostState state) {
+        value ^= ghostStateKey(ghost, state.ordinal());
+    }
+
+    /**
+     * Adds or removes the collected flag of a cell.
+     *
+     * @param position The cell.
+     */
+    public void toggleCollected(Position position) {
+        value ^= collectedKey(position.x, position.y);
+    }
+
+    /**
+     * Adds or removes the revealed flag of the cherry in a cell.
+     *
+     * @param position The cell.
+     */
+    public void toggleCherryRevealed(Position position) {
+        value ^= cherryRevealedKey(position.x, position.y);
+    }
+
+    /**
+     * Adds or removes the collected flag of the cherry in a cell.
+     *
+     * @param position The cell.
+     */
+    public void toggleCherryCollected(Position position) {
+        value ^= cherryCollectedKey(position.x, position.y);
+    }
+
+    /**
+     * Gets the key for Pacman being in a cell.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return The key.
+     */
+    public static long pacmanCellKey(int x, int y) {
+        return key(PACMAN_CELL, 0, x, y);
+    }
+
+    /**
+     * Gets the key for Pacman's facing.
+     *
+     * @param facing The facing.
+     * @return The key.
+     */
+    public static long pacmanFacingKey(int facing) {
+        return key(PACMAN_FACING, 0, facing, 0);
+    }
+
+    /**
+     * Gets the key for a ghost being in a cell.
+     *
+     * @param ghost The ghost number.
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return The key.
+     */
+    public static long ghostCellKey(int ghost, int x, int y) {
+        return key(GHOST_CELL, ghost, x, y);
+    }
+
+    /**
+     * Gets the key for a ghost's facing.
+     *
+     * @param ghost The ghost number.
+     * @param facing The facing.
+     * @return The key.
+     */
+    public static long ghostFacingKey(int ghost, int facing) {
+        return key(GHOST_FACING, ghost, facing, 0);
+    }
+
+    /**
+     * Gets the key for a ghost's state.
+     *
+     * @param ghost The ghost number.
+     * @param state The ordinal of the Ghost.GhostState.
+     * @return The key.
+     */
+    public static long ghostStateKey(int ghost, int state) {
+        return key(GHOST_STATE, ghost, state, 0);
+    }
+
+    /**
+     * Gets the key for a cell being collected.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return The key.
+     */
+    public static long collectedKey(int x, int y) {
+        return key(COLLECTED, 0, x, y);
+    }
+
+    /**
+     * Gets the key for the cherry in a cell being revealed.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return The key.
+     */
+    public static long cherryRevealedKey(int x, int y) {
+        return key(CHERRY_REVEALED, 0, x, y);
+    }
+
+    /**
+     * Gets the key for the cherry in a cell being collected.
+     *
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return The key.
+     */
+    public static long cherryCollectedKey(int x, int y) {
+        return key(CHERRY_COLLECTED, 0, x, y);
+    }
+
+    /**
+     * Generates the pseudo-random key for a part of the state and its value.
+     *
+     * @param part The part of the state.
+     * @param index The ghost number, or 0 for other parts.
+     * @param a First value such as the x coordinate.
+     * @param b Second value such as the y coordinate.
+     * @return A 64-bit key.
+     */
+    private static long key(int part, int index, int a, int b) {
+        long h = mix(0x9E3779B97F4A7C15L * part + index);
+        h = mix(h ^ (((long)a << 32) | (b & 0xFFFFFFFFL)));
+        return h;
+    }
+
+    /**
+     * The SplitMix64 finaliser. Spreads every input bit across the whole output.
+     *
+     * @param z The value to mix.
+     * @return The mixed value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}